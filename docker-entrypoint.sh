@@ -5,9 +5,15 @@ set -x
 # add Kubernetes cert to Java key store
 echo changeit | keytool -import -trustcacerts -file /var/run/secrets/kubernetes.io/serviceaccount/ca.crt -keystore $JAVA_HOME/lib/security/cacerts -noprompt
 
-# export token as environment variable
-if [ -z $PSYSTRIKE_KUBERNETES_BEARER_TOKEN ]; then
-  export PSYSTRIKE_KUBERNETES_BEARER_TOKEN=$(cat /run/secrets/kubernetes.io/serviceaccount/token)
+# read the token from the service account token file, which is reloaded when the kubelet rotates it
+if [ -z $PSYSTRIKE_KUBERNETES_BEARER_TOKEN ] && [ -z $PSYSTRIKE_KUBERNETES_BEARER_TOKEN_FILE ]; then
+  export PSYSTRIKE_KUBERNETES_BEARER_TOKEN_FILE=/run/secrets/kubernetes.io/serviceaccount/token
+fi
+
+# use the AppCDS archive dumped in the image, which shortens the startup (ref: Dockerfile)
+# The JVM falls back to loading the classes as usual if the archive doesn't match the classpath.
+if [ -f /app/cds/psystrike.jsa ] && [ "$PSYSTRIKE_CDS_ENABLED" != "false" ]; then
+  export JDK_JAVA_OPTIONS="$JDK_JAVA_OPTIONS -XX:SharedArchiveFile=/app/cds/psystrike.jsa -Xshare:auto"
 fi
 
 exec "$@"
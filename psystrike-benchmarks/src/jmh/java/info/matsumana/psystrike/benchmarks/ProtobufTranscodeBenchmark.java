@@ -0,0 +1,108 @@
+package info.matsumana.psystrike.benchmarks;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.google.protobuf.ByteString;
+
+import info.matsumana.psystrike.config.ProtobufProperties;
+import info.matsumana.psystrike.protobuf.ProtobufTranscoder;
+import io.kubernetes.client.proto.IntStr.IntOrString;
+import io.kubernetes.client.proto.Meta;
+import io.kubernetes.client.proto.Runtime.RawExtension;
+import io.kubernetes.client.proto.Runtime.TypeMeta;
+import io.kubernetes.client.proto.Runtime.Unknown;
+import io.kubernetes.client.proto.V1;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Transcodes a protobuf watch event of a typical Pod to a JSON event, which psystrike does for every event
+ * when {@code psystrike-protobuf.enabled} is set.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+public class ProtobufTranscodeBenchmark {
+
+    private static final byte[] MAGIC = { 0x6b, 0x38, 0x73, 0x00 };
+
+    private ProtobufTranscoder transcoder;
+    private byte[] frame;
+
+    @Setup
+    public void setUp() {
+        final ProtobufProperties properties = new ProtobufProperties();
+        properties.setEnabled(true);
+        transcoder = new ProtobufTranscoder(properties, new SimpleMeterRegistry());
+
+        final Unknown unknown = Unknown.newBuilder()
+                                       .setTypeMeta(TypeMeta.newBuilder().setApiVersion("v1").setKind("Pod"))
+                                       .setRaw(newPod().toByteString())
+                                       .build();
+        final ByteString object = ByteString.copyFrom(MAGIC).concat(unknown.toByteString());
+        frame = Meta.WatchEvent.newBuilder()
+                               .setType("MODIFIED")
+                               .setObject(RawExtension.newBuilder().setRaw(object))
+                               .build()
+                               .toByteArray();
+    }
+
+    @Benchmark
+    public byte[] transcodeWatchEvent() throws IOException {
+        return transcoder.transcodeWatchEvent(frame, 0, frame.length);
+    }
+
+    private static V1.Pod newPod() {
+        final Meta.ObjectMeta.Builder metadata =
+                Meta.ObjectMeta.newBuilder()
+                               .setName("foo-7d4b9c8f6-x2kqz")
+                               .setGenerateName("foo-7d4b9c8f6-")
+                               .setNamespace("default")
+                               .setUid("0b6f3a4e-8f1c-4a3e-9a53-2f6d1f0a2b7c")
+                               .setResourceVersion("123456789")
+                               .setCreationTimestamp(Meta.Time.newBuilder().setSeconds(1600000000))
+                               .putLabels("app", "foo")
+                               .putLabels("pod-template-hash", "7d4b9c8f6")
+                               .putAnnotations("prometheus.io/scrape", "true")
+                               .putAnnotations("prometheus.io/port", "8080");
+        final V1.HTTPGetAction.Builder httpGet =
+                V1.HTTPGetAction.newBuilder()
+                                .setPath("/healthz")
+                                .setPort(IntOrString.newBuilder().setIntVal(8080));
+        final V1.Container.Builder container =
+                V1.Container.newBuilder()
+                            .setName("app")
+                            .setImage("example.com/foo:1.0.0")
+                            .addPorts(V1.ContainerPort.newBuilder()
+                                                      .setName("metrics")
+                                                      .setContainerPort(8080)
+                                                      .setProtocol("TCP"))
+                            .setReadinessProbe(V1.Probe.newBuilder()
+                                                       .setHandler(V1.Handler.newBuilder().setHttpGet(httpGet))
+                                                       .setPeriodSeconds(10));
+        final V1.PodCondition.Builder ready =
+                V1.PodCondition.newBuilder()
+                               .setType("Ready")
+                               .setStatus("True")
+                               .setLastTransitionTime(Meta.Time.newBuilder().setSeconds(1600000010));
+        final V1.PodStatus.Builder status =
+                V1.PodStatus.newBuilder()
+                            .setPhase("Running")
+                            .setHostIP("192.168.0.1")
+                            .setPodIP("10.0.0.1")
+                            .setStartTime(Meta.Time.newBuilder().setSeconds(1600000001))
+                            .addConditions(ready);
+        return V1.Pod.newBuilder()
+                     .setMetadata(metadata)
+                     .setSpec(V1.PodSpec.newBuilder()
+                                        .setNodeName("node-1")
+                                        .addContainers(container))
+                     .setStatus(status)
+                     .build();
+    }
+}
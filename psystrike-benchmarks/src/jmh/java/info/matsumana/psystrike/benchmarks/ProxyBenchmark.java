@@ -0,0 +1,211 @@
+package info.matsumana.psystrike.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.linecorp.armeria.client.WebClient;
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpObject;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.MediaType;
+import com.linecorp.armeria.common.ResponseHeaders;
+import com.linecorp.armeria.common.SessionProtocol;
+import com.linecorp.armeria.common.stream.StreamMessage;
+import com.linecorp.armeria.common.stream.SubscriptionOption;
+import com.linecorp.armeria.server.Server;
+
+import info.matsumana.psystrike.Application;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+
+/**
+ * Proxies a large metrics body of a pod and a watch event stream of an API server through psystrike.
+ *
+ * <p>Both psystrike and the stub upstream run in-process. The stub serves the API server over TLS
+ * with a self-signed certificate, which is trusted through the default trust store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+public class ProxyBenchmark {
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+    private static final String TRUST_STORE_PASSWORD = "changeit";
+
+    @Param({ "1048576", "16777216" })
+    private int metricsBytes;
+
+    @Param("1000")
+    private int watchEvents;
+
+    @Param({ "true", "false" })
+    private boolean streaming;
+
+    private SelfSignedCertificate certificate;
+    private Server upstream;
+    private ConfigurableApplicationContext psystrike;
+    private WebClient client;
+    private String podMetricsPath;
+
+    @Setup
+    public void setUp() throws Exception {
+        certificate = new SelfSignedCertificate("localhost");
+        trust(certificate);
+
+        final HttpData[] metrics = chunk(metricsBody(metricsBytes));
+        final HttpData[] events = chunk(watchEventsBody(watchEvents));
+        upstream = Server.builder()
+                         .http(0)
+                         .https(0)
+                         .tls(certificate.certificate(), certificate.privateKey())
+                         .service("/metrics", (ctx, req) -> response(MediaType.PLAIN_TEXT_UTF_8, metrics))
+                         .service("/api/v1/pods", (ctx, req) -> response(MediaType.JSON, events))
+                         .build();
+        upstream.start().join();
+
+        final int apiServerPort = upstream.activeLocalPort(SessionProtocol.HTTPS);
+        psystrike = new SpringApplicationBuilder(Application.class)
+                .run("--armeria.ports[0].port=0",
+                     "--armeria.ports[0].protocol=HTTP",
+                     "--armeria.ssl.enabled=false",
+                     "--psystrike-kubernetes.api-server=localhost",
+                     "--psystrike-kubernetes.api-server-port=" + apiServerPort,
+                     "--psystrike-kubernetes.bearer-token=benchmark",
+                     "--psystrike-streaming.enabled=" + streaming);
+
+        final int port = psystrike.getBean(Server.class).activeLocalPort(SessionProtocol.HTTP);
+        client = WebClient.builder("http://127.0.0.1:" + port)
+                          .maxResponseLength(0)
+                          .responseTimeout(Duration.ofMinutes(1))
+                          .build();
+        podMetricsPath = "/pods/127.0.0.1/" + upstream.activeLocalPort(SessionProtocol.HTTP) + "/metrics";
+    }
+
+    @TearDown
+    public void tearDown() {
+        psystrike.close();
+        upstream.stop().join();
+        certificate.delete();
+    }
+
+    @Benchmark
+    public long podMetrics() {
+        return drain(client.get(podMetricsPath));
+    }
+
+    @Benchmark
+    public long watchEvents() {
+        return drain(client.get("/api/v1/pods?watch=true&timeoutSeconds=60&resourceVersion=1"));
+    }
+
+    // Counts the bytes without aggregating them, so that the allocation is the proxy's.
+    private static long drain(HttpResponse response) {
+        final CompletableFuture<Long> future = new CompletableFuture<>();
+        response.subscribe(new Subscriber<HttpObject>() {
+            private long bytes;
+
+            @Override
+            public void onSubscribe(Subscription s) {
+                s.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(HttpObject obj) {
+                if (obj instanceof HttpData) {
+                    final HttpData data = (HttpData) obj;
+                    bytes += data.length();
+                    data.close();
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                future.completeExceptionally(t);
+            }
+
+            @Override
+            public void onComplete() {
+                future.complete(bytes);
+            }
+        }, SubscriptionOption.WITH_POOLED_OBJECTS);
+        return future.join();
+    }
+
+    private static HttpResponse response(MediaType contentType, HttpData[] chunks) {
+        final HttpObject[] objects = new HttpObject[chunks.length + 1];
+        objects[0] = ResponseHeaders.builder(HttpStatus.OK)
+                                    .contentType(contentType)
+                                    .build();
+        System.arraycopy(chunks, 0, objects, 1, chunks.length);
+        return HttpResponse.of(StreamMessage.of(objects));
+    }
+
+    private static byte[] metricsBody(int size) {
+        final StringBuilder buf = new StringBuilder(size + 128);
+        buf.append("# HELP http_requests_total The total number of HTTP requests.\n")
+           .append("# TYPE http_requests_total counter\n");
+        for (int i = 0; buf.length() < size; i++) {
+            buf.append("http_requests_total{method=\"GET\",code=\"200\",handler=\"/api/v")
+               .append(i)
+               .append("\"} ")
+               .append(i * 31L)
+               .append('\n');
+        }
+        return buf.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] watchEventsBody(int events) {
+        final StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < events; i++) {
+            buf.append("{\"type\":\"MODIFIED\",\"object\":{\"kind\":\"Pod\",\"apiVersion\":\"v1\",")
+               .append("\"metadata\":{\"name\":\"pod-").append(i)
+               .append("\",\"namespace\":\"default\",\"resourceVersion\":\"").append(i + 2)
+               .append("\",\"labels\":{\"app\":\"benchmark\"}},")
+               .append("\"status\":{\"phase\":\"Running\",\"podIP\":\"10.0.0.1\"}}}\n");
+        }
+        return buf.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static HttpData[] chunk(byte[] body) {
+        final int numChunks = (body.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        final HttpData[] chunks = new HttpData[numChunks];
+        for (int i = 0; i < numChunks; i++) {
+            final int from = i * CHUNK_SIZE;
+            chunks[i] = HttpData.wrap(Arrays.copyOfRange(body, from, Math.min(from + CHUNK_SIZE, body.length)));
+        }
+        return chunks;
+    }
+
+    private static void trust(SelfSignedCertificate certificate) throws Exception {
+        final KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(null, null);
+        keyStore.setCertificateEntry("upstream", certificate.cert());
+
+        final File file = File.createTempFile("psystrike-benchmarks", ".p12");
+        file.deleteOnExit();
+        try (OutputStream out = new FileOutputStream(file)) {
+            keyStore.store(out, TRUST_STORE_PASSWORD.toCharArray());
+        }
+        System.setProperty("javax.net.ssl.trustStore", file.getPath());
+        System.setProperty("javax.net.ssl.trustStorePassword", TRUST_STORE_PASSWORD);
+        System.setProperty("javax.net.ssl.trustStoreType", "PKCS12");
+    }
+}
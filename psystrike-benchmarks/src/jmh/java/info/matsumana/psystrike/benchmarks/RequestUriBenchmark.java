@@ -0,0 +1,43 @@
+package info.matsumana.psystrike.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import com.linecorp.armeria.common.QueryParams;
+
+import info.matsumana.psystrike.service.ReverseProxyService;
+
+/**
+ * Builds the upstream URI of a Prometheus watch request, which {@code /api/...} does on every request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+public class RequestUriBenchmark {
+
+    private static final String ACTUAL_URI = "v1/namespaces/default/pods";
+    private static final QueryParams PARAMS = QueryParams.builder()
+                                                         .add("allowWatchBookmarks", "true")
+                                                         .add("resourceVersion", "123456789")
+                                                         .add("timeout", "8m56s")
+                                                         .add("timeoutSeconds", "536")
+                                                         .add("watch", "true")
+                                                         .build();
+
+    @Benchmark
+    public String generatePrefix() {
+        return ReverseProxyService.generatePrefix("/k8s/api-proxy/");
+    }
+
+    @Benchmark
+    public String generateRequestUri() {
+        return ReverseProxyService.generateRequestUri("/k8s/api-proxy/", PARAMS, ACTUAL_URI);
+    }
+
+    @Benchmark
+    public String generateRequestUriWithoutParams() {
+        return ReverseProxyService.generateRequestUri("", QueryParams.of(), ACTUAL_URI);
+    }
+}
@@ -0,0 +1,125 @@
+package info.matsumana.psystrike.benchmarks;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.linecorp.armeria.client.WebClient;
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpObject;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.MediaType;
+import com.linecorp.armeria.common.SessionProtocol;
+import com.linecorp.armeria.server.Server;
+
+import info.matsumana.psystrike.Application;
+
+/**
+ * Measures the time from starting psystrike to receiving the first byte of a pod's metrics proxied by it.
+ *
+ * <p>Each fork is a fresh JVM which starts psystrike once, so every sample is a cold start. The effect of
+ * JVM options, e.g. of an AppCDS archive, can be compared by appending them with {@code -Pjmh.jvmArgsAppend}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(10)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+public class StartupBenchmark {
+
+    private Server upstream;
+    private String podMetricsPath;
+    private ConfigurableApplicationContext psystrike;
+
+    @Setup
+    public void setUp() {
+        upstream = Server.builder()
+                         .http(0)
+                         .service("/metrics", (ctx, req) -> HttpResponse.of(
+                                 HttpStatus.OK, MediaType.PLAIN_TEXT_UTF_8, "up 1\n"))
+                         .build();
+        upstream.start().join();
+        podMetricsPath = "/pods/127.0.0.1/" + upstream.activeLocalPort(SessionProtocol.HTTP) + "/metrics";
+    }
+
+    @TearDown(Level.Iteration)
+    public void closePsystrike() {
+        if (psystrike != null) {
+            psystrike.close();
+            psystrike = null;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        upstream.stop().join();
+    }
+
+    @Benchmark
+    public int timeToFirstProxiedByte() {
+        psystrike = new SpringApplicationBuilder(Application.class)
+                .run("--armeria.ports[0].port=0",
+                     "--armeria.ports[0].protocol=HTTP",
+                     "--armeria.ssl.enabled=false",
+                     "--psystrike-kubernetes.api-server=localhost",
+                     "--psystrike-kubernetes.bearer-token=benchmark");
+
+        final int port = psystrike.getBean(Server.class).activeLocalPort(SessionProtocol.HTTP);
+        final WebClient client = WebClient.builder("http://127.0.0.1:" + port)
+                                          .responseTimeout(Duration.ofMinutes(1))
+                                          .build();
+        return firstByte(client.get(podMetricsPath)).join();
+    }
+
+    // Completes with the first byte of the content, and cancels the rest.
+    private static CompletableFuture<Integer> firstByte(HttpResponse response) {
+        final CompletableFuture<Integer> future = new CompletableFuture<>();
+        response.subscribe(new Subscriber<HttpObject>() {
+            private Subscription subscription;
+
+            @Override
+            public void onSubscribe(Subscription s) {
+                subscription = s;
+                s.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(HttpObject obj) {
+                if (obj instanceof HttpData && !((HttpData) obj).isEmpty()) {
+                    future.complete((int) ((HttpData) obj).array()[0]);
+                    subscription.cancel();
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                future.completeExceptionally(t);
+            }
+
+            @Override
+            public void onComplete() {
+                future.completeExceptionally(new IllegalStateException("no content"));
+            }
+        });
+        return future;
+    }
+}
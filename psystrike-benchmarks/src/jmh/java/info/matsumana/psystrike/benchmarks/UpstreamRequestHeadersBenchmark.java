@@ -0,0 +1,98 @@
+package info.matsumana.psystrike.benchmarks;
+
+import static com.linecorp.armeria.common.HttpHeaderNames.ACCEPT;
+import static com.linecorp.armeria.common.HttpHeaderNames.ACCEPT_ENCODING;
+import static com.linecorp.armeria.common.HttpHeaderNames.AUTHORIZATION;
+import static com.linecorp.armeria.common.HttpHeaderNames.USER_AGENT;
+import static com.linecorp.armeria.common.SessionProtocol.H2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.Properties;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.linecorp.armeria.common.HttpMethod;
+import com.linecorp.armeria.common.RequestHeaders;
+
+import info.matsumana.psystrike.config.KubernetesProperties;
+import info.matsumana.psystrike.helper.AppVersionHelper;
+import info.matsumana.psystrike.helper.UpstreamHeaderValues;
+
+/**
+ * Compares building the headers of an upstream request per request with the precomputed values.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+public class UpstreamRequestHeadersBenchmark {
+
+    private static final String URI = "/api/v1/namespaces/default/pods?watch=true&timeoutSeconds=300";
+    private static final String PROP_RESOURCE_PATH = "META-INF/info.matsumana.psystrike.versions.properties";
+    private static final String BEARER_TOKEN = "eyJhbGciOiJSUzI1NiIsImtpZCI6IiJ9.eyJpc3MiOiJrdWJlcm5ldGVzIn0";
+
+    private RequestHeaders orgRequestHeaders;
+    private KubernetesProperties kubernetesProperties;
+    private UpstreamHeaderValues upstreamHeaderValues;
+
+    @Setup
+    public void setUp() {
+        orgRequestHeaders = RequestHeaders.builder(HttpMethod.GET, "/api/v1/namespaces/default/pods")
+                                          .add(ACCEPT, "application/json, */*")
+                                          .add(ACCEPT_ENCODING, "gzip")
+                                          .add(USER_AGENT, "Prometheus/2.22.0")
+                                          .build();
+        kubernetesProperties = new KubernetesProperties();
+        kubernetesProperties.setBearerToken(BEARER_TOKEN);
+        upstreamHeaderValues = new UpstreamHeaderValues(kubernetesProperties, new AppVersionHelper());
+    }
+
+    /**
+     * What every proxied request used to do: load the version properties from the classpath,
+     * and concatenate the User-Agent and Authorization values.
+     */
+    @Benchmark
+    public RequestHeaders perRequest() throws IOException {
+        final String version = loadVersion();
+        return RequestHeaders.of(orgRequestHeaders)
+                             .toBuilder()
+                             .removeAndThen(ACCEPT_ENCODING)
+                             .set(USER_AGENT, "psystrike/" + version)
+                             .add(AUTHORIZATION, "Bearer " + kubernetesProperties.getBearerToken())
+                             .scheme(H2)
+                             .path(URI)
+                             .build();
+    }
+
+    @Benchmark
+    public RequestHeaders precomputed() {
+        return orgRequestHeaders.toBuilder()
+                                .removeAndThen(ACCEPT_ENCODING)
+                                .set(USER_AGENT, upstreamHeaderValues.getUserAgent())
+                                .add(AUTHORIZATION, upstreamHeaderValues.getAuthorization())
+                                .scheme(H2)
+                                .path(URI)
+                                .build();
+    }
+
+    /**
+     * The classpath scan {@link AppVersionHelper} used to do, before the version was resolved at build time.
+     */
+    private static String loadVersion() throws IOException {
+        final Properties props = new Properties();
+        final Enumeration<URL> resources =
+                UpstreamRequestHeadersBenchmark.class.getClassLoader().getResources(PROP_RESOURCE_PATH);
+        while (resources.hasMoreElements()) {
+            try (InputStream in = resources.nextElement().openStream()) {
+                props.load(in);
+            }
+        }
+        return props.getProperty("psystrike.version", "");
+    }
+}
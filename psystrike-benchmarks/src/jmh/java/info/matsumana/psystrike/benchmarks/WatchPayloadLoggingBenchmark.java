@@ -0,0 +1,51 @@
+package info.matsumana.psystrike.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.linecorp.armeria.common.HttpData;
+
+import info.matsumana.psystrike.config.PayloadLoggingProperties;
+import info.matsumana.psystrike.logging.PayloadLogger;
+
+/**
+ * Compares the debug logging of a watch event with the payload logging while it's disabled.
+ * See gc.alloc.rate.norm for the bytes allocated per event.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+public class WatchPayloadLoggingBenchmark {
+
+    private static final String EVENT =
+            "{\"type\":\"MODIFIED\",\"object\":{\"kind\":\"Pod\",\"apiVersion\":\"v1\",\"metadata\":" +
+            "{\"name\":\"foo-7d4b9c8f6-x2kqz\",\"namespace\":\"default\",\"resourceVersion\":\"123456789\"," +
+            "\"labels\":{\"app\":\"foo\",\"pod-template-hash\":\"7d4b9c8f6\"}},\"status\":" +
+            "{\"phase\":\"Running\",\"podIP\":\"10.0.0.1\"}}}\n";
+
+    private HttpData data;
+    private PayloadLogger payloadLogger;
+
+    @Setup
+    public void setUp() {
+        data = HttpData.ofUtf8(EVENT);
+        payloadLogger = new PayloadLogger(new PayloadLoggingProperties());
+    }
+
+    /**
+     * What every watch event used to cost: a String copy of the whole event, even at WARN level.
+     */
+    @Benchmark
+    public void eagerToStringUtf8(Blackhole blackhole) {
+        blackhole.consume(data.toStringUtf8());
+    }
+
+    @Benchmark
+    public void payloadLoggerDisabled() {
+        payloadLogger.log("watch", data);
+    }
+}
@@ -0,0 +1,60 @@
+package info.matsumana.psystrike.benchmarks;
+
+import static com.linecorp.armeria.common.SessionProtocol.H1C;
+import static info.matsumana.psystrike.client.TargetKind.POD;
+
+import java.time.Clock;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import com.linecorp.armeria.client.WebClient;
+
+import info.matsumana.psystrike.client.ClientKey;
+import info.matsumana.psystrike.client.WebClientRegistry;
+import info.matsumana.psystrike.config.CleanupTimerProperties;
+import info.matsumana.psystrike.config.WebClientRegistryProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Looks up the WebClients of many pod targets from many threads, like concurrent scrapes do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@Threads(8)
+public class WebClientRegistryBenchmark {
+
+    private static final Function<ClientKey, WebClient> FACTORY = key -> WebClient.of(key.uri());
+
+    @Param({ "100", "5000" })
+    private int targets;
+
+    private WebClientRegistry registry;
+    private String[] hosts;
+
+    @Setup
+    public void setUp() {
+        registry = new WebClientRegistry(new CleanupTimerProperties(), new WebClientRegistryProperties(),
+                                         new SimpleMeterRegistry(), Clock.systemUTC());
+        hosts = new String[targets];
+        for (int i = 0; i < targets; i++) {
+            hosts[i] = "10.0." + (i / 256) + '.' + (i % 256);
+            registry.get(ClientKey.of(POD, H1C, hosts[i], 9090), FACTORY);
+        }
+    }
+
+    @Benchmark
+    public WebClient get() {
+        // The key is built per request, as ReverseProxyService does.
+        final String host = hosts[ThreadLocalRandom.current().nextInt(targets)];
+        return registry.get(ClientKey.of(POD, H1C, host, 9090), FACTORY);
+    }
+}
@@ -0,0 +1,4 @@
+@NonNullByDefault
+package info.matsumana.psystrike.benchmarks;
+
+import com.linecorp.armeria.common.annotation.NonNullByDefault;
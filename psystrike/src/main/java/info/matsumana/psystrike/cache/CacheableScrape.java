@@ -0,0 +1,189 @@
+package info.matsumana.psystrike.cache;
+
+import static com.linecorp.armeria.common.HttpHeaderNames.AGE;
+import static com.linecorp.armeria.common.HttpHeaderNames.CONTENT_LENGTH;
+import static com.linecorp.armeria.common.HttpHeaderNames.WARNING;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpObject;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.HttpStatusClass;
+import com.linecorp.armeria.common.ResponseHeaders;
+
+import info.matsumana.psystrike.cache.ScrapeCache.ScrapeKey;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.reactivex.Flowable;
+
+/**
+ * Relays one scrape response while copying its body into a pooled direct buffer, which is stored in
+ * the {@link ScrapeCache} when the response ends successfully. The buffer is counted against the budget
+ * of the bodies being copied as it grows, and the body isn't cached if it doesn't fit.
+ *
+ * <p>When the response fails or times out before anything has been relayed, or has a 5xx status,
+ * the cached response is relayed instead if there's one. Not thread-safe; the response is relayed
+ * by a single subscription.
+ */
+final class CacheableScrape {
+
+    private static final String STALE_WARNING = "110 - \"Response is Stale\"";
+
+    private final ScrapeCache cache;
+    private final ScrapeKey key;
+    private final String route;
+    private final Supplier<HttpResponse> upstream;
+    // false for a background refresh, which has no client to serve
+    private final boolean fallback;
+
+    @Nullable
+    private ResponseHeaders headers;
+    @Nullable
+    private ByteBuf body;
+    private boolean relayed;
+    private boolean replaced;
+
+    CacheableScrape(ScrapeCache cache, ScrapeKey key, String route, Supplier<HttpResponse> upstream,
+                    boolean fallback) {
+        this.cache = cache;
+        this.key = key;
+        this.route = route;
+        this.upstream = upstream;
+        this.fallback = fallback;
+    }
+
+    /**
+     * Returns the response to relay.
+     *
+     * @param firstResponseTimeoutMillis how long to wait for the response headers before the cached
+     *                                   response is served instead, or {@code 0} to wait as long as
+     *                                   the WebClient does
+     */
+    Flowable<HttpObject> stream(HttpResponse response, long firstResponseTimeoutMillis) {
+        Flowable<HttpObject> objects = Flowable.fromPublisher(response);
+        if (fallback && firstResponseTimeoutMillis > 0) {
+            // Cancels the upstream response, so that it's not cached after the cached one has been served.
+            objects = objects.timeout(Flowable.timer(firstResponseTimeoutMillis, TimeUnit.MILLISECONDS),
+                                      unused -> Flowable.never());
+        }
+        return objects.concatMapIterable(this::filter)
+                      .doOnComplete(this::store)
+                      .onErrorResumeNext(cause -> {
+                          if (relayed) {
+                              return Flowable.error(cause);
+                          }
+                          final List<HttpObject> stale = stale();
+                          return stale != null ? Flowable.fromIterable(stale) : Flowable.error(cause);
+                      })
+                      .doFinally(this::releaseBody);
+    }
+
+    private List<HttpObject> filter(HttpObject obj) {
+        if (replaced) {
+            // The rest of the failed response
+            return List.of();
+        }
+
+        if (obj instanceof ResponseHeaders) {
+            final ResponseHeaders headers = (ResponseHeaders) obj;
+            if (headers.status().codeClass() == HttpStatusClass.INFORMATIONAL) {
+                return List.of(obj);
+            }
+            if (headers.status().codeClass() == HttpStatusClass.SERVER_ERROR) {
+                final List<HttpObject> stale = stale();
+                if (stale != null) {
+                    replaced = true;
+                    return stale;
+                }
+            }
+            if (headers.status() == HttpStatus.OK) {
+                newBody(headers);
+            }
+            relayed = true;
+            return List.of(obj);
+        }
+
+        if (obj instanceof HttpData && body != null) {
+            final HttpData data = (HttpData) obj;
+            if (body.readableBytes() + data.length() > cache.maxEntryBytes()) {
+                // Too large to cache
+                releaseBody();
+            } else {
+                final int oldCapacity = body.capacity();
+                body.writeBytes(data.array(), 0, data.length());
+                if (!cache.reserve(body.capacity() - oldCapacity)) {
+                    // Too many bodies are being copied.
+                    releaseBody();
+                }
+            }
+        }
+        relayed = true;
+        return List.of(obj);
+    }
+
+    private void newBody(ResponseHeaders headers) {
+        final long contentLength = headers.getLong(CONTENT_LENGTH, -1);
+        if (contentLength > cache.maxEntryBytes()) {
+            // Too large to cache
+            return;
+        }
+        // Sized to fit if the length is known, so that it doesn't grow while it's copied.
+        final int initialCapacity = contentLength > 0 ? (int) contentLength : 0;
+        this.headers = headers;
+        body = PooledByteBufAllocator.DEFAULT.directBuffer(initialCapacity, cache.maxEntryBytes());
+        if (!cache.reserve(body.capacity())) {
+            // Too many bodies are being copied.
+            releaseBody();
+        }
+    }
+
+    private void store() {
+        if (replaced || headers == null || body == null) {
+            return;
+        }
+        // The body is owned by the cache from now on.
+        final ByteBuf body = this.body;
+        this.body = null;
+        cache.store(key, route, new CachedScrape(headers, body, System.nanoTime()));
+    }
+
+    @Nullable
+    private List<HttpObject> stale() {
+        if (!fallback) {
+            return null;
+        }
+        final CachedScrape scrape = cache.lookup(key, route);
+        if (scrape == null) {
+            return null;
+        }
+        final byte[] body = scrape.copyBody();
+        if (body == null) {
+            // Evicted just now
+            return null;
+        }
+
+        cache.refresh(key, route, upstream);
+        final long ageSeconds = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - scrape.storedNanos());
+        final ResponseHeaders staleHeaders = scrape.headers()
+                                                   .toBuilder()
+                                                   .setLong(AGE, ageSeconds)
+                                                   .set(WARNING, STALE_WARNING)
+                                                   .setInt(CONTENT_LENGTH, body.length)
+                                                   .build();
+        return List.of(staleHeaders, HttpData.wrap(body));
+    }
+
+    private void releaseBody() {
+        if (body != null) {
+            cache.unreserve(body.capacity());
+            body.release();
+            body = null;
+        }
+    }
+}
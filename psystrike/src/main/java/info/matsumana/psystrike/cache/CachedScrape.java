@@ -0,0 +1,56 @@
+package info.matsumana.psystrike.cache;
+
+import javax.annotation.Nullable;
+
+import com.linecorp.armeria.common.ResponseHeaders;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+
+/**
+ * A successful scrape response whose body is held in a pooled direct buffer until it's evicted.
+ */
+final class CachedScrape {
+
+    private final ResponseHeaders headers;
+    private final ByteBuf body;
+    private final long storedNanos;
+    private boolean released;
+
+    CachedScrape(ResponseHeaders headers, ByteBuf body, long storedNanos) {
+        this.headers = headers;
+        this.body = body;
+        this.storedNanos = storedNanos;
+    }
+
+    ResponseHeaders headers() {
+        return headers;
+    }
+
+    long storedNanos() {
+        return storedNanos;
+    }
+
+    /**
+     * Returns the capacity of the buffer, which is what the body takes of the budget.
+     */
+    int size() {
+        return body.capacity();
+    }
+
+    /**
+     * Returns a heap copy of the body, or {@code null} if the body has been released by the eviction.
+     * A stale body is served rarely, so it's copied rather than reference-counted across threads.
+     */
+    @Nullable
+    synchronized byte[] copyBody() {
+        return released ? null : ByteBufUtil.getBytes(body);
+    }
+
+    synchronized void release() {
+        if (!released) {
+            released = true;
+            body.release();
+        }
+    }
+}
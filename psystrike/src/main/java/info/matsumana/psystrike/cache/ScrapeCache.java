@@ -0,0 +1,260 @@
+package info.matsumana.psystrike.cache;
+
+import static com.linecorp.armeria.common.HttpHeaderNames.ACCEPT;
+import static com.linecorp.armeria.common.HttpHeaderNames.ACCEPT_ENCODING;
+import static com.linecorp.armeria.common.HttpHeaderNames.AUTHORIZATION;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+
+import org.springframework.stereotype.Component;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+
+import com.linecorp.armeria.common.CommonPools;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.RequestHeaders;
+
+import info.matsumana.psystrike.client.ClientKey;
+import info.matsumana.psystrike.config.ScrapeCacheProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.util.AsciiString;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps the last successful response of each scrape target, and serves it instead of a failure, e.g.
+ * a timeout, an open circuit breaker or a 5xx, so that a brief overload of a target doesn't show up as
+ * a gap and {@code up == 0} in Prometheus. A served stale response has the {@code Age} and
+ * {@code Warning: 110} headers, and triggers a refresh of the cached response in the background.
+ *
+ * <p>The bodies are held in pooled direct buffers within a global byte budget, and the least recently
+ * used ones are evicted first. The bodies being copied from the upstream have a budget of their own,
+ * so that many concurrent scrapes can't use unbounded direct memory; a body which doesn't fit is relayed
+ * without being cached. Every scrape is still sent to the upstream; only failures are served from the cache.
+ */
+@Component
+@Slf4j
+public class ScrapeCache {
+
+    static final AsciiString PROMETHEUS_SCRAPE_TIMEOUT = AsciiString.of("x-prometheus-scrape-timeout-seconds");
+
+    @Value
+    static class ScrapeKey {
+        ClientKey target;
+        String path;
+        String accept;
+        String acceptEncoding;
+        // Scrapes with different credentials must not see each other's responses.
+        List<String> authorization;
+    }
+
+    private final ScrapeCacheProperties properties;
+    private final MeterRegistry meterRegistry;
+    private final Cache<ScrapeKey, CachedScrape> cache;
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong inFlightBytes = new AtomicLong();
+    private final Set<ScrapeKey> refreshing = ConcurrentHashMap.newKeySet();
+    private final Map<String, RouteCounters> counters = new ConcurrentHashMap<>();
+
+    public ScrapeCache(ScrapeCacheProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+        cache = CacheBuilder.newBuilder()
+                            // A single segment, so that maxBytes is a global budget rather than per segment.
+                            .concurrencyLevel(1)
+                            .maximumWeight(properties.getMaxBytes())
+                            .<ScrapeKey, CachedScrape>weigher((key, scrape) -> scrape.size())
+                            .removalListener(this::onRemoval)
+                            .build();
+
+        Gauge.builder("psystrike.scrape.cache.bytes", bytes, AtomicLong::get)
+             .description("Total size of the cached scrape bodies")
+             .baseUnit("bytes")
+             .register(meterRegistry);
+        Gauge.builder("psystrike.scrape.cache.inflight.bytes", inFlightBytes, AtomicLong::get)
+             .description("Total size of the scrape bodies being copied into the cache")
+             .baseUnit("bytes")
+             .register(meterRegistry);
+        Gauge.builder("psystrike.scrape.cache.entries", cache, Cache::size)
+             .description("Number of cached scrape responses")
+             .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * Sends a scrape with {@code upstream}, and caches or replaces its response.
+     *
+     * @param upstream sends the upstream request; also used to refresh the cached response
+     * @param route the route name used as a metric tag
+     */
+    public HttpResponse execute(ClientKey target, RequestHeaders orgRequestHeaders,
+                                RequestHeaders upstreamRequestHeaders, String route,
+                                Supplier<HttpResponse> upstream) {
+        if (!isEnabled()) {
+            return upstream.get();
+        }
+
+        final ScrapeKey key = new ScrapeKey(target, upstreamRequestHeaders.path(),
+                                            upstreamRequestHeaders.get(ACCEPT, ""),
+                                            upstreamRequestHeaders.get(ACCEPT_ENCODING, ""),
+                                            upstreamRequestHeaders.getAll(AUTHORIZATION));
+        final CacheableScrape scrape = new CacheableScrape(this, key, route, upstream, true);
+        // Without a cached response, a slow upstream is waited for, so that its response gets cached.
+        final long firstResponseTimeoutMillis =
+                contains(key, route) ? firstResponseTimeoutMillis(orgRequestHeaders) : 0;
+        return HttpResponse.of(scrape.stream(upstream.get(), firstResponseTimeoutMillis));
+    }
+
+    /**
+     * Returns how long the upstream response may take before the cached one is served instead,
+     * or {@code 0} if Prometheus didn't tell its scrape timeout.
+     */
+    private long firstResponseTimeoutMillis(RequestHeaders orgRequestHeaders) {
+        final String scrapeTimeout = orgRequestHeaders.get(PROMETHEUS_SCRAPE_TIMEOUT);
+        if (scrapeTimeout == null) {
+            return 0;
+        }
+        try {
+            final long timeoutMillis = (long) (Double.parseDouble(scrapeTimeout) * 1000);
+            return Math.max(1, timeoutMillis - properties.getTimeoutHeadroomMillis());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    int maxEntryBytes() {
+        return properties.getMaxEntryBytes();
+    }
+
+    /**
+     * Counts {@code length} more bytes of the bodies being copied.
+     *
+     * @return {@code false} if the bodies being copied exceed their budget, in which case the caller
+     *         releases its body with {@link #unreserve(long)}.
+     */
+    boolean reserve(long length) {
+        return inFlightBytes.addAndGet(length) <= properties.getMaxInFlightBytes();
+    }
+
+    void unreserve(long length) {
+        inFlightBytes.addAndGet(-length);
+    }
+
+    /**
+     * Stores a copied body, whose bytes are moved from the budget of the bodies being copied.
+     */
+    void store(ScrapeKey key, String route, CachedScrape scrape) {
+        inFlightBytes.addAndGet(-scrape.size());
+        bytes.addAndGet(scrape.size());
+        cache.put(key, scrape);
+        counters(route).stored.increment();
+    }
+
+    /**
+     * Returns whether the key has a cached response which isn't too old, without counting the result.
+     */
+    private boolean contains(ScrapeKey key, String route) {
+        final CachedScrape scrape = cache.getIfPresent(key);
+        return scrape != null && !isExpired(key, route, scrape);
+    }
+
+    /**
+     * Returns the cached response of the key if it's not too old, counting the result.
+     */
+    @Nullable
+    CachedScrape lookup(ScrapeKey key, String route) {
+        final CachedScrape scrape = cache.getIfPresent(key);
+        if (scrape == null) {
+            counters(route).miss.increment();
+            return null;
+        }
+        if (isExpired(key, route, scrape)) {
+            counters(route).expired.increment();
+            return null;
+        }
+        counters(route).stale.increment();
+        return scrape;
+    }
+
+    private boolean isExpired(ScrapeKey key, String route, CachedScrape scrape) {
+        final long ageNanos = System.nanoTime() - scrape.storedNanos();
+        return ageNanos > TimeUnit.SECONDS.toNanos(maxStalenessSeconds(key.getTarget(), route));
+    }
+
+    /**
+     * Refreshes the cached response in the background unless it's being refreshed already.
+     */
+    void refresh(ScrapeKey key, String route, Supplier<HttpResponse> upstream) {
+        if (!refreshing.add(key)) {
+            return;
+        }
+        // Sent outside of the context of the current scrape, which may end before the refresh.
+        CommonPools.workerGroup().execute(() -> {
+            final CacheableScrape scrape = new CacheableScrape(this, key, route, upstream, false);
+            scrape.stream(upstream.get(), 0)
+                  .doFinally(() -> refreshing.remove(key))
+                  .subscribe(unused -> {}, cause -> log.debug("Can't refresh a cached scrape. key={}", key,
+                                                              cause));
+        });
+    }
+
+    private int maxStalenessSeconds(ClientKey target, String route) {
+        final Map<String, Integer> overrides = properties.getMaxStalenessSecondsOverrides();
+        Integer seconds = overrides.get(target.host() + ':' + target.port());
+        if (seconds == null) {
+            seconds = overrides.get(route);
+        }
+        return seconds != null ? seconds : properties.getMaxStalenessSeconds();
+    }
+
+    private void onRemoval(RemovalNotification<ScrapeKey, CachedScrape> notification) {
+        final CachedScrape scrape = notification.getValue();
+        if (scrape != null) {
+            bytes.addAndGet(-scrape.size());
+            scrape.release();
+        }
+    }
+
+    private RouteCounters counters(String route) {
+        return counters.computeIfAbsent(route, unused -> new RouteCounters(meterRegistry, route));
+    }
+
+    private static final class RouteCounters {
+
+        final Counter stored;
+        final Counter stale;
+        final Counter expired;
+        final Counter miss;
+
+        RouteCounters(MeterRegistry meterRegistry, String route) {
+            stored = newCounter(meterRegistry, route, "stored");
+            stale = newCounter(meterRegistry, route, "stale");
+            expired = newCounter(meterRegistry, route, "expired");
+            miss = newCounter(meterRegistry, route, "miss");
+        }
+
+        private static Counter newCounter(MeterRegistry meterRegistry, String route, String result) {
+            return Counter.builder("psystrike.scrape.cache.requests")
+                          .tag("route", route)
+                          .tag("result", result)
+                          .description("Number of scrapes stored in the cache, and of failed scrapes by " +
+                                       "whether a cached response was served")
+                          .register(meterRegistry);
+        }
+    }
+}
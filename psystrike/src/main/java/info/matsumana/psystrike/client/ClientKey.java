@@ -0,0 +1,78 @@
+package info.matsumana.psystrike.client;
+
+import javax.annotation.Nullable;
+
+import com.linecorp.armeria.common.SessionProtocol;
+
+/**
+ * The key of a {@link WebClientRegistry} entry.
+ *
+ * <p>The kind of the target is a part of the key, so an API server and a pod on the same host and port
+ * get different clients, with their own ClientFactory, circuit breaker and timeouts, even when the pod is
+ * scraped over HTTP/2 like the API server. The protocol is a part of the key too, so a pod scraped over
+ * different protocols gets a client per protocol. The hash code is computed once because the key is looked
+ * up on every request.
+ */
+public final class ClientKey {
+
+    private final TargetKind kind;
+    private final SessionProtocol protocol;
+    private final String host;
+    private final int port;
+    private final int hashCode;
+
+    public static ClientKey of(TargetKind kind, SessionProtocol protocol, String host, int port) {
+        return new ClientKey(kind, protocol, host, port);
+    }
+
+    private ClientKey(TargetKind kind, SessionProtocol protocol, String host, int port) {
+        this.kind = kind;
+        this.protocol = protocol;
+        this.host = host;
+        this.port = port;
+        hashCode = ((kind.hashCode() * 31 + protocol.hashCode()) * 31 + host.hashCode()) * 31 + port;
+    }
+
+    public TargetKind kind() {
+        return kind;
+    }
+
+    public SessionProtocol protocol() {
+        return protocol;
+    }
+
+    public String host() {
+        return host;
+    }
+
+    public int port() {
+        return port;
+    }
+
+    public String uri() {
+        return protocol.uriText() + "://" + host + ':' + port + '/';
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ClientKey)) {
+            return false;
+        }
+        final ClientKey that = (ClientKey) o;
+        return hashCode == that.hashCode && port == that.port && kind == that.kind &&
+               protocol == that.protocol && host.equals(that.host);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return kind + ":" + protocol.uriText() + "://" + host + ':' + port;
+    }
+}
@@ -0,0 +1,62 @@
+package info.matsumana.psystrike.client;
+
+import javax.annotation.Nullable;
+
+import com.linecorp.armeria.common.SessionProtocol;
+
+/**
+ * The protocols a pod can be scraped with, which are chosen by the path segment after /pods,
+ * e.g. /pods/https/10.0.0.1/8443/metrics.
+ */
+public enum PodProtocol {
+    // Cleartext HTTP/1.1
+    HTTP("http", SessionProtocol.H1C),
+    // Cleartext HTTP/2 with prior knowledge, which multiplexes concurrent scrapes over one connection
+    H2C("h2c", SessionProtocol.H2C),
+    // TLS, negotiating HTTP/2 or HTTP/1.1 by ALPN
+    HTTPS("https", SessionProtocol.HTTPS),
+    // TLS, HTTP/2 only
+    H2("h2", SessionProtocol.H2);
+
+    private final String pathSegment;
+    private final SessionProtocol sessionProtocol;
+
+    PodProtocol(String pathSegment, SessionProtocol sessionProtocol) {
+        this.pathSegment = pathSegment;
+        this.sessionProtocol = sessionProtocol;
+    }
+
+    public String pathSegment() {
+        return pathSegment;
+    }
+
+    public SessionProtocol sessionProtocol() {
+        return sessionProtocol;
+    }
+
+    /**
+     * Returns the protocol of the path segment.
+     *
+     * @throws IllegalArgumentException if the path segment isn't one of the protocols
+     */
+    public static PodProtocol of(String pathSegment) {
+        final PodProtocol protocol = find(pathSegment);
+        if (protocol == null) {
+            throw new IllegalArgumentException("unknown pod protocol: " + pathSegment);
+        }
+        return protocol;
+    }
+
+    /**
+     * Returns the protocol of the path segment, or {@code null} if it isn't one of the protocols.
+     */
+    @Nullable
+    public static PodProtocol find(String pathSegment) {
+        for (PodProtocol protocol : values()) {
+            if (protocol.pathSegment.equals(pathSegment)) {
+                return protocol;
+            }
+        }
+        return null;
+    }
+}
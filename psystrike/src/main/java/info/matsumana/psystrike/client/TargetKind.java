@@ -0,0 +1,11 @@
+package info.matsumana.psystrike.client;
+
+/**
+ * The kinds of the upstreams, which are configured apart even when they share a host and a port.
+ */
+public enum TargetKind {
+    // A k8s API server, reached by /apiservers, the LISTs and the watches
+    API_SERVER,
+    // A pod, reached by /pods and /batch/pods
+    POD,
+}
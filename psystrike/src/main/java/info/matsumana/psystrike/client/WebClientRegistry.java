@@ -0,0 +1,283 @@
+package info.matsumana.psystrike.client;
+
+import java.time.Clock;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.stereotype.Component;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import com.linecorp.armeria.client.WebClient;
+import com.linecorp.armeria.common.CommonPools;
+
+import info.matsumana.psystrike.config.CleanupTimerProperties;
+import info.matsumana.psystrike.config.WebClientRegistryProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The per-target WebClients of the proxy.
+ *
+ * <p>A WebClient is looked up on every proxied request, so a hit costs only a map lookup and,
+ * at most once a second per entry, a volatile write of the last-used time. Idle clients are evicted
+ * periodically. Once the registry is full, the least recently used client among a few sampled ones is
+ * evicted, so that a new target doesn't scan all clients.
+ *
+ * <p>An eviction pass is spread over ticks of an event loop. Each tick visits at most
+ * {@code sweepBatchSize} clients, so a tick doesn't get slower as the number of targets grows.
+ *
+ * <p>A WebClient doesn't own connections; they're pooled by the shared ClientFactory.
+ * The connections of an evicted client are closed by the ClientFactory once they've been idle.
+ */
+@Component
+@Slf4j
+public class WebClientRegistry {
+
+    // Readers far outnumber writers. Skipping redundant writes keeps the entries' cache lines shared.
+    private static final long TOUCH_GRANULARITY_MILLIS = 1_000;
+    // The same approximation of LRU as Redis'
+    private static final int EVICTION_SAMPLE_SIZE = 8;
+
+    static final class ClientEntry {
+        final WebClient client;
+        volatile long lastUsedMillis;
+
+        ClientEntry(WebClient client, long lastUsedMillis) {
+            this.client = client;
+            this.lastUsedMillis = lastUsedMillis;
+        }
+
+        void touch(long nowMillis) {
+            if (nowMillis - lastUsedMillis >= TOUCH_GRANULARITY_MILLIS) {
+                lastUsedMillis = nowMillis;
+            }
+        }
+    }
+
+    private final ConcurrentHashMap<ClientKey, ClientEntry> clients = new ConcurrentHashMap<>();
+
+    // Accessed only by the sweeping event loop.
+    @Nullable
+    private Iterator<Entry<ClientKey, ClientEntry>> sweepIterator;
+    private long nextPassMillis;
+    @Nullable
+    private ScheduledFuture<?> sweepFuture;
+
+    // Only one caller evicts at a time, so that concurrent misses don't evict more than the excess.
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    // Guarded by evictionLock. Resumed by the next eviction, so that every client gets sampled in turn.
+    @Nullable
+    private Iterator<Entry<ClientKey, ClientEntry>> evictionIterator;
+
+    private final CleanupTimerProperties cleanupTimerProperties;
+    private final WebClientRegistryProperties webClientRegistryProperties;
+    private final Clock clock;
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter creationCounter;
+    private final Counter idleEvictionCounter;
+    private final Counter sizeEvictionCounter;
+    private final Counter sweepErrorCounter;
+    private final Timer sweepTimer;
+
+    public WebClientRegistry(CleanupTimerProperties cleanupTimerProperties,
+                             WebClientRegistryProperties webClientRegistryProperties,
+                             MeterRegistry meterRegistry, Clock clock) {
+        this.cleanupTimerProperties = cleanupTimerProperties;
+        this.webClientRegistryProperties = webClientRegistryProperties;
+        this.clock = clock;
+
+        Gauge.builder("psystrike.webclients", clients::size)
+             .description("Number of WebClients")
+             .register(meterRegistry);
+        hitCounter = Counter.builder("psystrike.webclients.lookups")
+                            .tag("result", "hit")
+                            .description("Number of WebClient lookups")
+                            .register(meterRegistry);
+        missCounter = Counter.builder("psystrike.webclients.lookups")
+                             .tag("result", "miss")
+                             .description("Number of WebClient lookups")
+                             .register(meterRegistry);
+        creationCounter = Counter.builder("psystrike.webclients.creations")
+                                 .description("Number of WebClients created")
+                                 .register(meterRegistry);
+        idleEvictionCounter = Counter.builder("psystrike.webclients.evictions")
+                                     .tag("cause", "idle")
+                                     .description("Number of WebClients evicted")
+                                     .register(meterRegistry);
+        sizeEvictionCounter = Counter.builder("psystrike.webclients.evictions")
+                                     .tag("cause", "size")
+                                     .description("Number of WebClients evicted")
+                                     .register(meterRegistry);
+        sweepErrorCounter = Counter.builder("psystrike.webclients.sweep.errors")
+                                   .description("Number of eviction ticks failed unexpectedly")
+                                   .register(meterRegistry);
+        sweepTimer = Timer.builder("psystrike.webclients.sweep.duration")
+                          .description("Time taken by an eviction tick")
+                          .register(meterRegistry);
+    }
+
+    @PostConstruct
+    synchronized void start() {
+        if (sweepFuture != null) {
+            return;
+        }
+        final long delayMillis = cleanupTimerProperties.getDelaySeconds() * 1000L;
+        final long tickMillis = cleanupTimerProperties.getSweepTickMillis();
+        sweepFuture = CommonPools.workerGroup()
+                                 .next()
+                                 .scheduleWithFixedDelay(this::tick, delayMillis, tickMillis,
+                                                         TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    synchronized void stop() {
+        if (sweepFuture != null) {
+            sweepFuture.cancel(false);
+            sweepFuture = null;
+        }
+    }
+
+    /**
+     * Returns the WebClient of the {@code key}, creating it with the {@code factory} if absent.
+     */
+    public WebClient get(ClientKey key, Function<ClientKey, WebClient> factory) {
+        final long nowMillis = clock.millis();
+        final ClientEntry entry = clients.get(key);
+        if (entry != null) {
+            hitCounter.increment();
+            entry.touch(nowMillis);
+            return entry.client;
+        }
+
+        missCounter.increment();
+        final ClientEntry newEntry = clients.computeIfAbsent(key, k -> {
+            creationCounter.increment();
+            return new ClientEntry(factory.apply(k), nowMillis);
+        });
+        if (clients.size() > webClientRegistryProperties.getMaxSize()) {
+            evictExcess();
+        }
+        return newEntry.client;
+    }
+
+    public int size() {
+        return clients.size();
+    }
+
+    @VisibleForTesting
+    @Nullable
+    WebClient getIfPresent(ClientKey key) {
+        final ClientEntry entry = clients.get(key);
+        return entry != null ? entry.client : null;
+    }
+
+    private void tick() {
+        final long nowMillis = clock.millis();
+        if (sweepIterator == null) {
+            if (nowMillis < nextPassMillis) {
+                return;
+            }
+            nextPassMillis = nowMillis + cleanupTimerProperties.getPeriodSeconds() * 1000L;
+        }
+
+        final long startNanos = System.nanoTime();
+        try {
+            sweep(cleanupTimerProperties.getRemoveThresholdSeconds() * 1000L,
+                  cleanupTimerProperties.getSweepBatchSize());
+        } catch (Throwable t) {
+            // A failed tick must not stop eviction. The next pass starts over.
+            log.warn("Unexpected exception while evicting idle WebClients", t);
+            sweepIterator = null;
+            sweepErrorCounter.increment();
+        } finally {
+            sweepTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Evicts the idle clients among the next {@code batchSize} clients of the current pass.
+     *
+     * @return {@code true} if the pass has visited all clients.
+     */
+    @VisibleForTesting
+    boolean sweep(long thresholdMillis, int batchSize) {
+        if (sweepIterator == null) {
+            log.debug("start sweeping: webClients.size={}", clients.size());
+            // The iterator is weakly consistent, so it can be resumed on the next tick.
+            sweepIterator = clients.entrySet().iterator();
+        }
+
+        final Iterator<Entry<ClientKey, ClientEntry>> it = sweepIterator;
+        final long nowMillis = clock.millis();
+        for (int i = 0; i < batchSize && it.hasNext(); i++) {
+            final Entry<ClientKey, ClientEntry> e = it.next();
+            final long idleMillis = nowMillis - e.getValue().lastUsedMillis;
+            if (idleMillis > thresholdMillis && clients.remove(e.getKey(), e.getValue())) {
+                log.debug("remove {} from webClients, idleMillis={}", e.getKey(), idleMillis);
+                idleEvictionCounter.increment();
+            }
+        }
+
+        if (it.hasNext()) {
+            return false;
+        }
+        sweepIterator = null;
+        log.debug("finish sweeping: webClients.size={}", clients.size());
+        return true;
+    }
+
+    private void evictExcess() {
+        if (!evictionLock.tryLock()) {
+            // Another caller is evicting down to the limit.
+            return;
+        }
+        try {
+            while (clients.size() > webClientRegistryProperties.getMaxSize()) {
+                if (!evictSampledLeastRecentlyUsed()) {
+                    break;
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    // O(EVICTION_SAMPLE_SIZE) whatever the number of clients.
+    private boolean evictSampledLeastRecentlyUsed() {
+        Entry<ClientKey, ClientEntry> oldest = null;
+        for (int i = 0; i < EVICTION_SAMPLE_SIZE; i++) {
+            if (evictionIterator == null || !evictionIterator.hasNext()) {
+                evictionIterator = clients.entrySet().iterator();
+                if (!evictionIterator.hasNext()) {
+                    break;
+                }
+            }
+            final Entry<ClientKey, ClientEntry> e = evictionIterator.next();
+            if (oldest == null || e.getValue().lastUsedMillis < oldest.getValue().lastUsedMillis) {
+                oldest = e;
+            }
+        }
+        if (oldest == null) {
+            return false;
+        }
+        if (clients.remove(oldest.getKey(), oldest.getValue())) {
+            log.debug("remove {} from webClients, the registry is full", oldest.getKey());
+            sizeEvictionCounter.increment();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,4 @@
+@NonNullByDefault
+package info.matsumana.psystrike.client;
+
+import com.linecorp.armeria.common.annotation.NonNullByDefault;
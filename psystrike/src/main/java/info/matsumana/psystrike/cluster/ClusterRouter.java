@@ -0,0 +1,207 @@
+package info.matsumana.psystrike.cluster;
+
+import static com.linecorp.armeria.common.SessionProtocol.H2C;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.stereotype.Component;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+
+import com.linecorp.armeria.client.ClientFactory;
+import com.linecorp.armeria.client.Endpoint;
+import com.linecorp.armeria.client.WebClient;
+import com.linecorp.armeria.client.endpoint.EndpointGroup;
+import com.linecorp.armeria.client.endpoint.dns.DnsAddressEndpointGroup;
+import com.linecorp.armeria.server.HttpService;
+
+import info.matsumana.psystrike.config.ClusterProperties;
+import info.matsumana.psystrike.config.ClusterProperties.Mode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.util.AsciiString;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Shards the /pods and /apiservers targets and the watches across the psystrike replicas by consistent
+ * hashing, so that each target's WebClient, circuit breaker, coalesced scrapes and shared watch live on one
+ * replica instead of on every replica its requests happen to reach.
+ *
+ * <p>A request received by a replica which doesn't own it is forwarded to the owner once. When the owner
+ * can't be reached, e.g. while it's leaving, the request is served locally.
+ */
+@Component
+@Slf4j
+public class ClusterRouter {
+
+    // Set on a forwarded request, so that it's served by the replica it's forwarded to whatever its ring says
+    static final AsciiString FORWARDED_BY = AsciiString.of("x-psystrike-forwarded-by");
+
+    private static final Function<? super HttpService, ? extends HttpService> NO_ROUTING =
+            Function.identity();
+
+    private final ClusterProperties properties;
+    private final ClientFactory clientFactory;
+    private final MeterRegistry meterRegistry;
+    private final String self;
+    private final Map<String, WebClient> peerClients = new ConcurrentHashMap<>();
+    private final Map<String, Counter> requestCounters = new ConcurrentHashMap<>();
+    private volatile List<String> peers = List.of();
+    private volatile ConsistentHashRing ring = new ConsistentHashRing(List.of(), 0);
+    @Nullable
+    private EndpointGroup endpointGroup;
+
+    public ClusterRouter(ClusterProperties properties, ClientFactory clientFactory,
+                         MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.clientFactory = clientFactory;
+        this.meterRegistry = meterRegistry;
+        self = Endpoint.parse(selfAddress(properties)).withDefaultPort(properties.getPort()).authority();
+
+        Gauge.builder("psystrike.cluster.peers", this, router -> router.peers.size())
+             .description("Number of psystrike replicas the targets are sharded across")
+             .register(meterRegistry);
+        Gauge.builder("psystrike.cluster.owned.share", this, router -> router.ring.share(router.self))
+             .description("Share of the targets and watches owned by this replica, from 0 to 1")
+             .register(meterRegistry);
+    }
+
+    private static String selfAddress(ClusterProperties properties) {
+        if (!Strings.isNullOrEmpty(properties.getSelfAddress())) {
+            return properties.getSelfAddress();
+        }
+        try {
+            return InetAddress.getLocalHost().getHostAddress();
+        } catch (UnknownHostException e) {
+            log.warn("Can't resolve the address of this replica. psystrike-cluster.self-address is needed.", e);
+            return "127.0.0.1";
+        }
+    }
+
+    @PostConstruct
+    synchronized void postConstruct() {
+        endpointGroup = newEndpointGroup();
+        if (endpointGroup == null) {
+            return;
+        }
+        endpointGroup.addListener(this::setPeers);
+        setPeers(endpointGroup.endpoints());
+    }
+
+    @PreDestroy
+    synchronized void preDestroy() {
+        if (endpointGroup != null) {
+            endpointGroup.close();
+            endpointGroup = null;
+        }
+    }
+
+    @Nullable
+    private EndpointGroup newEndpointGroup() {
+        final Mode mode = properties.getMode();
+        switch (mode) {
+            case STATIC:
+                final List<Endpoint> staticPeers = new ArrayList<>();
+                for (String peer : properties.getStaticPeers()) {
+                    staticPeers.add(Endpoint.parse(peer));
+                }
+                return EndpointGroup.of(staticPeers);
+            case DNS:
+                return DnsAddressEndpointGroup.builder(properties.getDnsName())
+                                              .port(properties.getPort())
+                                              .build();
+            default:
+                return null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return properties.getMode() != Mode.DISABLED;
+    }
+
+    /**
+     * Returns a decorator of the {@code ReverseProxyService}, which forwards the requests this replica
+     * doesn't own.
+     */
+    public Function<? super HttpService, ? extends HttpService> newDecorator() {
+        if (!isEnabled()) {
+            return NO_ROUTING;
+        }
+        return delegate -> new ShardRoutingService(delegate, this);
+    }
+
+    @VisibleForTesting
+    synchronized void setPeers(List<Endpoint> endpoints) {
+        final List<String> newPeers = new ArrayList<>();
+        for (Endpoint endpoint : endpoints) {
+            final String peer = endpoint.withDefaultPort(properties.getPort()).authority();
+            if (!newPeers.contains(peer)) {
+                newPeers.add(peer);
+            }
+        }
+        if (!newPeers.isEmpty() && !newPeers.contains(self)) {
+            log.warn("This replica {} isn't one of the peers {}. It forwards all the sharded requests.",
+                     self, newPeers);
+        }
+
+        ring = new ConsistentHashRing(newPeers, properties.getVirtualNodes());
+        peers = List.copyOf(newPeers);
+        peerClients.keySet().retainAll(newPeers);
+        log.info("psystrike replicas the targets are sharded across: {}", newPeers);
+    }
+
+    String self() {
+        return self;
+    }
+
+    /**
+     * Returns the replica which owns the key, or {@code null} if this replica owns it or no replica is known.
+     */
+    @Nullable
+    String owner(String key) {
+        final String owner = ring.owner(key);
+        return owner == null || owner.equals(self) ? null : owner;
+    }
+
+    WebClient peerClient(String peer) {
+        return peerClients.computeIfAbsent(peer, this::newPeerClient);
+    }
+
+    private WebClient newPeerClient(String peer) {
+        // The owner enforces the size limits of the request, as it does for its own requests.
+        // The response timeout is set by ShardRoutingService for each request.
+        return WebClient.builder(H2C, Endpoint.parse(peer))
+                        .factory(clientFactory)
+                        .maxResponseLength(0)
+                        .build();
+    }
+
+    /**
+     * Counts a sharded request.
+     *
+     * @param result {@code owned}, {@code forwarded}, {@code received} or {@code fallback}
+     */
+    void record(String key, String result) {
+        final int slash = key.indexOf('/');
+        final String route = slash > 0 ? key.substring(0, slash) : key;
+        requestCounters.computeIfAbsent(route + '/' + result,
+                                        unused -> Counter.builder("psystrike.cluster.requests")
+                                                         .tag("route", route)
+                                                         .tag("result", result)
+                                                         .description("Number of requests by their owner")
+                                                         .register(meterRegistry))
+                       .increment();
+    }
+}
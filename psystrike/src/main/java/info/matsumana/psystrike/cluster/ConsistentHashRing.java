@@ -0,0 +1,72 @@
+package info.matsumana.psystrike.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import javax.annotation.Nullable;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * A consistent hash ring of the replicas, on which each replica has {@code virtualNodes} points.
+ * A key is owned by the replica of the first point at or after the key's hash, so a replica which joins
+ * or leaves moves only the keys of its own points.
+ */
+final class ConsistentHashRing {
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final NavigableMap<Long, String> points = new TreeMap<>();
+
+    ConsistentHashRing(Collection<String> members, int virtualNodes) {
+        for (String member : members) {
+            for (int i = 0; i < virtualNodes; i++) {
+                points.put(hash(member + '#' + i), member);
+            }
+        }
+    }
+
+    /**
+     * Returns the replica which owns the key, or {@code null} if the ring is empty.
+     */
+    @Nullable
+    String owner(String key) {
+        if (points.isEmpty()) {
+            return null;
+        }
+        final Entry<Long, String> entry = points.ceilingEntry(hash(key));
+        return entry != null ? entry.getValue() : points.firstEntry().getValue();
+    }
+
+    /**
+     * Returns the share of the hash space owned by the replica, from 0 to 1.
+     */
+    double share(String member) {
+        if (points.size() <= 1) {
+            return points.containsValue(member) ? 1 : 0;
+        }
+        // Each point owns the range from the previous point, exclusive, to itself, inclusive.
+        double owned = 0;
+        long previous = points.lastKey();
+        for (Entry<Long, String> entry : points.entrySet()) {
+            if (entry.getValue().equals(member)) {
+                // Unsigned, because the range of the first point wraps around.
+                owned += toUnsignedDouble(entry.getKey() - previous);
+            }
+            previous = entry.getKey();
+        }
+        return owned / Math.pow(2, 64);
+    }
+
+    private static double toUnsignedDouble(long value) {
+        return value >= 0 ? value : value + Math.pow(2, 64);
+    }
+
+    private static long hash(String value) {
+        return HASH_FUNCTION.hashString(value, StandardCharsets.UTF_8).asLong();
+    }
+}
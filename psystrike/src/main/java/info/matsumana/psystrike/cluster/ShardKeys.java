@@ -0,0 +1,45 @@
+package info.matsumana.psystrike.cluster;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+
+import com.linecorp.armeria.common.QueryParams;
+
+/**
+ * Maps a request to the key its owner replica is chosen by, so that the requests which share a WebClient,
+ * a circuit breaker, a coalesced scrape or a shared watch land on the same replica.
+ */
+final class ShardKeys {
+
+    // /pods/[protocol/]host/port/..., /apiservers/host/port/...
+    private static final Pattern SCRAPE_PATH =
+            Pattern.compile("^/(pods|apiservers)/(?:(?:http|h2c|https|h2)/)?([^/]+)/([^/]+)/");
+
+    /**
+     * Returns the key of a request, or {@code null} if any replica can serve it as well,
+     * e.g. a LIST or a batch.
+     */
+    @Nullable
+    static String of(String path, @Nullable String query) {
+        final Matcher matcher = SCRAPE_PATH.matcher(path);
+        if (matcher.find()) {
+            // The protocol is ignored, so that a pod stays on the same replica whatever protocol it uses.
+            return matcher.group(1) + '/' + matcher.group(2) + ':' + matcher.group(3);
+        }
+
+        if (!path.startsWith("/api/") || query == null) {
+            return null;
+        }
+        final QueryParams params = QueryParams.fromQueryString(query);
+        final String watch = params.get("watch", "false");
+        if (!"true".equals(watch) && !"1".equals(watch)) {
+            return null;
+        }
+        // The watches multiplexed into one upstream watch differ only in their resourceVersion and timeout.
+        return "watch" + path + '?' + params.get("labelSelector", "") + '&' + params.get("fieldSelector", "");
+    }
+
+    private ShardKeys() {}
+}
@@ -0,0 +1,110 @@
+package info.matsumana.psystrike.cluster;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.reactivestreams.Publisher;
+
+import com.linecorp.armeria.client.Clients;
+import com.linecorp.armeria.client.UnprocessedRequestException;
+import com.linecorp.armeria.common.HttpObject;
+import com.linecorp.armeria.common.HttpRequest;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.QueryParams;
+import com.linecorp.armeria.common.RequestHeaders;
+import com.linecorp.armeria.common.SessionProtocol;
+import com.linecorp.armeria.common.util.Exceptions;
+import com.linecorp.armeria.common.util.SafeCloseable;
+import com.linecorp.armeria.common.util.TimeoutMode;
+import com.linecorp.armeria.server.HttpService;
+import com.linecorp.armeria.server.ServiceRequestContext;
+import com.linecorp.armeria.server.SimpleDecoratingHttpService;
+
+import io.reactivex.Flowable;
+
+/**
+ * Serves the requests this replica owns, and forwards the others to their owners.
+ */
+final class ShardRoutingService extends SimpleDecoratingHttpService {
+
+    // Longer than the owner's own buffer of 3 seconds, so that the owner ends a watch before this replica
+    private static final int WATCH_TIMEOUT_BUFFER_SECONDS = 5;
+    // Lets the owner time out a scrape, and respond so, before this replica does
+    private static final long TIMEOUT_BUFFER_MILLIS = 2_000;
+
+    private final ClusterRouter router;
+
+    ShardRoutingService(HttpService delegate, ClusterRouter router) {
+        super(delegate);
+        this.router = router;
+    }
+
+    @Override
+    public HttpResponse serve(ServiceRequestContext ctx, HttpRequest req) throws Exception {
+        final String key = ShardKeys.of(ctx.path(), ctx.query());
+        if (key == null) {
+            return delegate().serve(ctx, req);
+        }
+        if (req.headers().contains(ClusterRouter.FORWARDED_BY)) {
+            router.record(key, "received");
+            return delegate().serve(ctx, req);
+        }
+
+        final String owner = router.owner(key);
+        if (owner == null) {
+            router.record(key, "owned");
+            return delegate().serve(ctx, req);
+        }
+
+        router.record(key, "forwarded");
+        // The owner's own timeouts apply, e.g. the watch's timeoutSeconds. This replica's ones are a bit
+        // longer, so that a stalled owner doesn't keep the request open forever.
+        final long timeoutMillis = forwardTimeoutMillis(ctx);
+        ctx.setRequestTimeoutMillis(TimeoutMode.SET_FROM_START, timeoutMillis);
+        final RequestHeaders headers = req.headers().toBuilder()
+                                          .scheme(SessionProtocol.H2C)
+                                          .authority(owner)
+                                          .set(ClusterRouter.FORWARDED_BY, router.self())
+                                          .build();
+        final HttpResponse forwarded;
+        try (SafeCloseable ignored = Clients.withContextCustomizer(
+                clientCtx -> clientCtx.setResponseTimeoutMillis(TimeoutMode.SET_FROM_START, timeoutMillis))) {
+            forwarded = router.peerClient(owner).execute(headers);
+        }
+        return HttpResponse.of(Flowable.fromPublisher(forwarded).onErrorResumeNext(cause -> {
+            if (!(Exceptions.peel(cause) instanceof UnprocessedRequestException)) {
+                return Flowable.error(cause);
+            }
+            // The owner is unreachable, so nothing has been sent to the client yet.
+            router.record(key, "fallback");
+            return serveLocally(ctx, req);
+        }));
+    }
+
+    /**
+     * Returns the timeout of a forwarded request, i.e. the timeout the owner applies to it plus a buffer,
+     * or {@code 0} if the owner doesn't time it out either.
+     */
+    private static long forwardTimeoutMillis(ServiceRequestContext ctx) {
+        final String query = ctx.query();
+        if (query != null) {
+            final int timeoutSeconds = QueryParams.fromQueryString(query).getInt("timeoutSeconds", 0);
+            if (timeoutSeconds > 0) {
+                return TimeUnit.SECONDS.toMillis(timeoutSeconds + WATCH_TIMEOUT_BUFFER_SECONDS);
+            }
+        }
+        // The same default timeout as the owner's
+        final long requestTimeoutMillis = ctx.requestTimeoutMillis();
+        return requestTimeoutMillis > 0 ? requestTimeoutMillis + TIMEOUT_BUFFER_MILLIS : 0;
+    }
+
+    private Publisher<HttpObject> serveLocally(ServiceRequestContext ctx, HttpRequest req) {
+        return Flowable.fromPublisher(HttpResponse.from(CompletableFuture.supplyAsync(() -> {
+            try {
+                return delegate().serve(ctx, req);
+            } catch (Exception e) {
+                return HttpResponse.ofFailure(e);
+            }
+        }, ctx.contextAwareEventLoop())));
+    }
+}
@@ -0,0 +1,192 @@
+package info.matsumana.psystrike.coalescing;
+
+import static com.linecorp.armeria.common.HttpHeaderNames.ACCEPT;
+import static com.linecorp.armeria.common.HttpHeaderNames.ACCEPT_ENCODING;
+import static com.linecorp.armeria.common.HttpHeaderNames.AUTHORIZATION;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nullable;
+
+import org.springframework.stereotype.Component;
+
+import com.linecorp.armeria.client.WebClient;
+import com.linecorp.armeria.common.CommonPools;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpResponseDuplicator;
+import com.linecorp.armeria.common.RequestHeaders;
+
+import info.matsumana.psystrike.client.ClientKey;
+import info.matsumana.psystrike.config.CoalescingProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Shares one upstream response between concurrent identical scrapes, e.g. the ones of Prometheus HA pairs.
+ *
+ * <p>The first scrape sends the upstream request, and the response is duplicated to the scrapes which
+ * arrive while it's in flight or within the reuse window after it has completed. A duplicated response
+ * is retained in memory until the window ends, so the window should stay short.
+ */
+@Component
+@Slf4j
+public class ScrapeCoalescer {
+
+    @Value
+    static class CoalescingKey {
+        ClientKey target;
+        String path;
+        String accept;
+        String acceptEncoding;
+        // Scrapes with different credentials must not see each other's responses.
+        List<String> authorization;
+    }
+
+    private final Map<CoalescingKey, InFlight> inFlights = new ConcurrentHashMap<>();
+    private final Map<String, RouteCounters> counters = new ConcurrentHashMap<>();
+
+    private final CoalescingProperties coalescingProperties;
+    private final MeterRegistry meterRegistry;
+
+    public ScrapeCoalescer(CoalescingProperties coalescingProperties, MeterRegistry meterRegistry) {
+        this.coalescingProperties = coalescingProperties;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Sends the {@code upstreamRequestHeaders} with the {@code client}, or joins an identical request
+     * which has been sent already.
+     *
+     * @param route the route name used as a metric tag
+     */
+    public HttpResponse execute(WebClient client, ClientKey target, RequestHeaders orgRequestHeaders,
+                                RequestHeaders upstreamRequestHeaders, String route) {
+        final RouteCounters routeCounters =
+                counters.computeIfAbsent(route, unused -> new RouteCounters(meterRegistry, route));
+        if (!coalescingProperties.isEnabled() ||
+            orgRequestHeaders.contains(coalescingProperties.getBypassHeader())) {
+            routeCounters.bypassed.increment();
+            return client.execute(upstreamRequestHeaders);
+        }
+
+        final CoalescingKey key = new CoalescingKey(target, upstreamRequestHeaders.path(),
+                                                    upstreamRequestHeaders.get(ACCEPT, ""),
+                                                    upstreamRequestHeaders.get(ACCEPT_ENCODING, ""),
+                                                    upstreamRequestHeaders.getAll(AUTHORIZATION));
+        for (;;) {
+            InFlight inFlight = inFlights.get(key);
+            final boolean created = inFlight == null;
+            if (created) {
+                // The request is sent only after the InFlight has won the key, outside the map's lock.
+                final InFlight newInFlight = new InFlight(key);
+                inFlight = inFlights.putIfAbsent(key, newInFlight);
+                if (inFlight != null) {
+                    continue;
+                }
+                inFlight = newInFlight;
+            }
+
+            final HttpResponse response = inFlight.duplicate();
+            if (response == null) {
+                // The reuse window has just ended.
+                inFlights.remove(key, inFlight);
+                continue;
+            }
+            if (created) {
+                inFlight.send(client, upstreamRequestHeaders);
+            }
+
+            if (inFlight.start()) {
+                routeCounters.upstream.increment();
+            } else {
+                routeCounters.coalesced.increment();
+            }
+            return response;
+        }
+    }
+
+    private static final class RouteCounters {
+
+        final Counter upstream;
+        final Counter coalesced;
+        final Counter bypassed;
+
+        RouteCounters(MeterRegistry meterRegistry, String route) {
+            upstream = newCounter(meterRegistry, route, "upstream");
+            coalesced = newCounter(meterRegistry, route, "coalesced");
+            bypassed = newCounter(meterRegistry, route, "bypassed");
+        }
+
+        private static Counter newCounter(MeterRegistry meterRegistry, String route, String result) {
+            return Counter.builder("psystrike.coalescing.requests")
+                          .tag("route", route)
+                          .tag("result", result)
+                          .description("Number of scrapes by whether they were coalesced")
+                          .register(meterRegistry);
+        }
+    }
+
+    private final class InFlight {
+        private final CoalescingKey key;
+        private final CompletableFuture<HttpResponse> upstreamFuture = new CompletableFuture<>();
+        private final HttpResponse upstreamResponse = HttpResponse.from(upstreamFuture);
+        private final HttpResponseDuplicator duplicator;
+        private final AtomicBoolean started = new AtomicBoolean();
+        private boolean closed;
+
+        InFlight(CoalescingKey key) {
+            this.key = key;
+            // No limit here. The WebClient limits the response length.
+            duplicator = upstreamResponse.toDuplicator(0);
+        }
+
+        void send(WebClient client, RequestHeaders upstreamRequestHeaders) {
+            try {
+                upstreamFuture.complete(client.execute(upstreamRequestHeaders));
+            } catch (Throwable t) {
+                upstreamFuture.completeExceptionally(t);
+            }
+        }
+
+        @Nullable
+        synchronized HttpResponse duplicate() {
+            return closed ? null : duplicator.duplicate();
+        }
+
+        /**
+         * Returns {@code true} only for the first caller, which schedules the end of the reuse window.
+         */
+        boolean start() {
+            if (!started.compareAndSet(false, true)) {
+                return false;
+            }
+            upstreamResponse.whenComplete().handle((unused, cause) -> {
+                if (cause != null) {
+                    // The waiters get the failure; later scrapes retry.
+                    close();
+                } else {
+                    CommonPools.workerGroup().schedule(this::close, coalescingProperties.getReuseWindowMillis(),
+                                                       TimeUnit.MILLISECONDS);
+                }
+                return null;
+            });
+            return true;
+        }
+
+        private void close() {
+            synchronized (this) {
+                closed = true;
+            }
+            inFlights.remove(key, this);
+            // The duplicated responses keep receiving the rest.
+            duplicator.close();
+        }
+    }
+}
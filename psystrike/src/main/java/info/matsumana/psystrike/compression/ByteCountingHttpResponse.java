@@ -0,0 +1,29 @@
+package info.matsumana.psystrike.compression;
+
+import com.linecorp.armeria.common.FilteredHttpResponse;
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpObject;
+import com.linecorp.armeria.common.HttpResponse;
+
+import io.micrometer.core.instrument.Counter;
+
+/**
+ * Counts the content bytes of a response without touching them.
+ */
+public final class ByteCountingHttpResponse extends FilteredHttpResponse {
+
+    private final Counter counter;
+
+    public ByteCountingHttpResponse(HttpResponse delegate, Counter counter) {
+        super(delegate, true);
+        this.counter = counter;
+    }
+
+    @Override
+    protected HttpObject filter(HttpObject obj) {
+        if (obj instanceof HttpData) {
+            counter.increment(((HttpData) obj).length());
+        }
+        return obj;
+    }
+}
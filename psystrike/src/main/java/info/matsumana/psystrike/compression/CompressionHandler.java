@@ -0,0 +1,150 @@
+package info.matsumana.psystrike.compression;
+
+import static com.linecorp.armeria.common.HttpHeaderNames.ACCEPT_ENCODING;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+import org.springframework.stereotype.Component;
+
+import com.google.common.base.Ascii;
+import com.google.common.base.Splitter;
+
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.RequestHeaders;
+
+import info.matsumana.psystrike.config.CompressionProperties;
+import info.matsumana.psystrike.config.CompressionProperties.Mode;
+import info.matsumana.psystrike.helper.EmptyHttpData;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Negotiates the content encoding of the streamed /apiservers and /pods responses.
+ * zstd isn't offered because neither the JDK nor Armeria can encode it.
+ */
+@Component
+public class CompressionHandler {
+
+    private static final Splitter COMMA_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+    private static final Splitter SEMICOLON_SPLITTER = Splitter.on(';').trimResults();
+
+    private final CompressionProperties compressionProperties;
+    private final MeterRegistry meterRegistry;
+    private final Timer encodeTimer;
+    private final Timer decodeTimer;
+    private final Map<String, ByteCounters> byteCounters = new ConcurrentHashMap<>();
+
+    public CompressionHandler(CompressionProperties compressionProperties, MeterRegistry meterRegistry) {
+        this.compressionProperties = compressionProperties;
+        this.meterRegistry = meterRegistry;
+
+        encodeTimer = Timer.builder("psystrike.compression.duration")
+                           .tag("operation", "encode")
+                           .description("Time spent encoding and decoding proxied responses")
+                           .register(meterRegistry);
+        decodeTimer = Timer.builder("psystrike.compression.duration")
+                           .tag("operation", "decode")
+                           .description("Time spent encoding and decoding proxied responses")
+                           .register(meterRegistry);
+    }
+
+    /**
+     * Sets the Accept-Encoding header sent to an upstream.
+     */
+    public RequestHeaders upstreamRequestHeaders(RequestHeaders requestHeaders,
+                                                 RequestHeaders orgRequestHeaders) {
+        switch (compressionProperties.getMode()) {
+            case PASSTHROUGH:
+                final String acceptEncoding = orgRequestHeaders.get(ACCEPT_ENCODING);
+                if (acceptEncoding == null) {
+                    return requestHeaders;
+                }
+                return requestHeaders.toBuilder()
+                                     .set(ACCEPT_ENCODING, acceptEncoding)
+                                     .build();
+            case NEGOTIATE:
+                return requestHeaders.toBuilder()
+                                     .set(ACCEPT_ENCODING, "gzip")
+                                     .build();
+            default:
+                return requestHeaders;
+        }
+    }
+
+    /**
+     * Wraps an upstream response so that it's encoded as the client asked,
+     * counting the bytes received from the upstream and sent to the client.
+     *
+     * @param target the upstream's address, or the route name when per-upstream tags would be unbounded
+     */
+    public HttpResponse handle(RequestHeaders orgRequestHeaders, HttpResponse upstreamResponse,
+                               String route, String target) {
+        final ByteCounters counters =
+                byteCounters.computeIfAbsent(route + '/' + target,
+                                             unused -> new ByteCounters(meterRegistry, route, target));
+        HttpResponse response = new ByteCountingHttpResponse(upstreamResponse, counters.received);
+        if (compressionProperties.getMode() == Mode.NEGOTIATE) {
+            response = EmptyHttpData.skip(
+                    new TranscodingHttpResponse(response, orgRequestHeaders.get(ACCEPT_ENCODING),
+                                                compressionProperties.getLevel(), encodeTimer, decodeTimer));
+        }
+        return new ByteCountingHttpResponse(response, counters.sent);
+    }
+
+    /**
+     * Returns whether an Accept-Encoding header value accepts the {@code encoding} with a non-zero q-value.
+     */
+    static boolean accepts(@Nullable String acceptEncoding, String encoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String element : COMMA_SPLITTER.split(acceptEncoding)) {
+            final var iterator = SEMICOLON_SPLITTER.split(element).iterator();
+            final String name = Ascii.toLowerCase(iterator.next());
+            if (!name.equals(encoding) && !"*".equals(name)) {
+                continue;
+            }
+            while (iterator.hasNext()) {
+                final String param = iterator.next().replace(" ", "");
+                if (param.startsWith("q=") && isZero(param.substring(2))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean isZero(String qValue) {
+        try {
+            return Double.parseDouble(qValue) == 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static final class ByteCounters {
+
+        final Counter received;
+        final Counter sent;
+
+        ByteCounters(MeterRegistry meterRegistry, String route, String target) {
+            received = bytesCounter(meterRegistry, "received", route, target);
+            sent = bytesCounter(meterRegistry, "sent", route, target);
+        }
+
+        private static Counter bytesCounter(MeterRegistry meterRegistry, String direction, String route,
+                                            String target) {
+            return Counter.builder("psystrike.proxy.bytes")
+                          .tag("direction", direction)
+                          .tag("route", route)
+                          .tag("target", target)
+                          .description("Content bytes received from upstreams and sent to clients")
+                          .register(meterRegistry);
+        }
+    }
+}
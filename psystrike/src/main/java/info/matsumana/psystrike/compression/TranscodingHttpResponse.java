@@ -0,0 +1,233 @@
+package info.matsumana.psystrike.compression;
+
+import static com.linecorp.armeria.common.HttpHeaderNames.ACCEPT_ENCODING;
+import static com.linecorp.armeria.common.HttpHeaderNames.CONTENT_ENCODING;
+import static com.linecorp.armeria.common.HttpHeaderNames.CONTENT_LENGTH;
+import static com.linecorp.armeria.common.HttpHeaderNames.VARY;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nullable;
+
+import org.reactivestreams.Subscriber;
+
+import com.google.common.base.Ascii;
+
+import com.linecorp.armeria.common.FilteredHttpResponse;
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpObject;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpStatusClass;
+import com.linecorp.armeria.common.ResponseHeaders;
+
+import io.micrometer.core.instrument.Timer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.compression.ZlibCodecFactory;
+import io.netty.handler.codec.compression.ZlibWrapper;
+
+/**
+ * Makes an upstream response acceptable to the client with as little work as possible.
+ *
+ * <ul>
+ *   <li>The client accepts the upstream's encoding: relayed as it is.</li>
+ *   <li>The upstream is encoded, but the client doesn't accept it: decoded chunk by chunk.</li>
+ *   <li>The upstream isn't encoded, but the client accepts gzip or deflate: encoded chunk by chunk.</li>
+ * </ul>
+ * Neither direction buffers more than the compressor's own window.
+ */
+final class TranscodingHttpResponse extends FilteredHttpResponse {
+
+    private final boolean acceptsGzip;
+    private final boolean acceptsDeflate;
+    private final int level;
+    private final Timer encodeTimer;
+    private final Timer decodeTimer;
+
+    private boolean headersReceived;
+    @Nullable
+    private EmbeddedChannel decoder;
+    @Nullable
+    private ByteArrayOutputStream encodedStream;
+    @Nullable
+    private DeflaterOutputStream encodingStream;
+
+    TranscodingHttpResponse(HttpResponse delegate, @Nullable String acceptEncoding, int level,
+                            Timer encodeTimer, Timer decodeTimer) {
+        super(delegate, true);
+        acceptsGzip = CompressionHandler.accepts(acceptEncoding, "gzip");
+        acceptsDeflate = CompressionHandler.accepts(acceptEncoding, "deflate");
+        this.level = level;
+        this.encodeTimer = encodeTimer;
+        this.decodeTimer = decodeTimer;
+    }
+
+    @Override
+    protected HttpObject filter(HttpObject obj) {
+        if (obj instanceof ResponseHeaders) {
+            final ResponseHeaders headers = (ResponseHeaders) obj;
+            if (headersReceived || headers.status().codeClass() == HttpStatusClass.INFORMATIONAL) {
+                return obj;
+            }
+            headersReceived = true;
+            return onHeaders(headers);
+        }
+        if (obj instanceof HttpData && (decoder != null || encodingStream != null)) {
+            return onData((HttpData) obj);
+        }
+        return obj;
+    }
+
+    private ResponseHeaders onHeaders(ResponseHeaders headers) {
+        final String encoding = Ascii.toLowerCase(headers.get(CONTENT_ENCODING, "identity").trim());
+        switch (encoding) {
+            case "gzip":
+            case "x-gzip":
+                if (acceptsGzip) {
+                    return headers;
+                }
+                decoder = new EmbeddedChannel(ZlibCodecFactory.newZlibDecoder(ZlibWrapper.GZIP));
+                return headers.toBuilder()
+                              .removeAndThen(CONTENT_ENCODING)
+                              .removeAndThen(CONTENT_LENGTH)
+                              .build();
+            case "deflate":
+                if (acceptsDeflate) {
+                    return headers;
+                }
+                decoder = new EmbeddedChannel(ZlibCodecFactory.newZlibDecoder(ZlibWrapper.ZLIB_OR_NONE));
+                return headers.toBuilder()
+                              .removeAndThen(CONTENT_ENCODING)
+                              .removeAndThen(CONTENT_LENGTH)
+                              .build();
+            case "identity":
+                return startEncoding(headers);
+            default:
+                // An encoding we don't know. Leave it to the client.
+                return headers;
+        }
+    }
+
+    private ResponseHeaders startEncoding(ResponseHeaders headers) {
+        if (!acceptsGzip && !acceptsDeflate) {
+            return headers;
+        }
+
+        final String encoding;
+        encodedStream = new ByteArrayOutputStream();
+        try {
+            if (acceptsGzip) {
+                encoding = "gzip";
+                encodingStream = new GZIPOutputStream(encodedStream) {
+                    {
+                        def.setLevel(level);
+                    }
+                };
+            } else {
+                encoding = "deflate";
+                encodingStream = new DeflaterOutputStream(encodedStream, new Deflater(level));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return headers.toBuilder()
+                      .removeAndThen(CONTENT_LENGTH)
+                      .set(CONTENT_ENCODING, encoding)
+                      .add(VARY, ACCEPT_ENCODING.toString())
+                      .build();
+    }
+
+    private HttpData onData(HttpData data) {
+        final byte[] array = data.array();
+        data.close();
+
+        final long startNanos = System.nanoTime();
+        try {
+            if (decoder != null) {
+                decoder.writeInbound(Unpooled.wrappedBuffer(array));
+                return wrap(drain(decoder));
+            }
+
+            assert encodingStream != null && encodedStream != null;
+            encodingStream.write(array);
+            final byte[] encoded = encodedStream.toByteArray();
+            encodedStream.reset();
+            return wrap(encoded);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            (decoder != null ? decodeTimer : encodeTimer)
+                    .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // An empty chunk, e.g. while the compressor fills its window, is dropped by EmptyHttpData.
+    private static HttpData wrap(byte[] array) {
+        return array.length > 0 ? HttpData.wrap(array) : HttpData.empty();
+    }
+
+    @Override
+    protected void beforeComplete(Subscriber<? super HttpObject> subscriber) {
+        final long startNanos = System.nanoTime();
+        final byte[] remaining;
+        if (decoder != null) {
+            decoder.finish();
+            remaining = drain(decoder);
+            decodeTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        } else if (encodingStream != null && encodedStream != null) {
+            try {
+                // Writes the rest of the deflate stream and the gzip trailer
+                encodingStream.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            remaining = encodedStream.toByteArray();
+            encodeTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        } else {
+            return;
+        }
+
+        if (remaining.length > 0) {
+            subscriber.onNext(HttpData.wrap(remaining));
+        }
+    }
+
+    @Override
+    protected Throwable beforeError(Subscriber<? super HttpObject> subscriber, Throwable cause) {
+        if (decoder != null) {
+            decoder.finishAndReleaseAll();
+        }
+        if (encodingStream != null) {
+            try {
+                encodingStream.close();
+            } catch (IOException ignored) {
+                // The response has failed anyway.
+            }
+        }
+        return cause;
+    }
+
+    private static byte[] drain(EmbeddedChannel decoder) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (;;) {
+            final ByteBuf buf = decoder.readInbound();
+            if (buf == null) {
+                return out.toByteArray();
+            }
+            try {
+                out.writeBytes(ByteBufUtil.getBytes(buf));
+            } finally {
+                buf.release();
+            }
+        }
+    }
+}
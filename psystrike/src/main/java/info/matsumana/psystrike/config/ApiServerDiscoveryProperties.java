@@ -0,0 +1,32 @@
+package info.matsumana.psystrike.config;
+
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+@Component
+@ConfigurationProperties(prefix = "psystrike-apiserver-discovery")
+@Data
+public class ApiServerDiscoveryProperties {
+
+    public enum Mode {
+        // Send /api requests to psystrike-kubernetes.api-server (the original behavior)
+        DISABLED,
+        // Balance /api requests across static-endpoints
+        STATIC,
+        // Balance /api requests across the addresses of the default/kubernetes Endpoints
+        ENDPOINTS,
+    }
+
+    private Mode mode = Mode.DISABLED;
+    // `host:port` pairs for STATIC
+    private List<String> staticEndpoints = List.of();
+    // How often the default/kubernetes Endpoints is read for ENDPOINTS
+    private int refreshIntervalSeconds = 30;
+    // Endpoints which don't answer this path with 2xx get no new requests. Empty to disable.
+    private String healthCheckPath = "/readyz";
+    private int healthCheckIntervalSeconds = 10;
+}
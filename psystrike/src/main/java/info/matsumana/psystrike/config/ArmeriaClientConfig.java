@@ -1,20 +1,172 @@
 package info.matsumana.psystrike.config;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.File;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
+
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import com.google.common.annotations.VisibleForTesting;
 
 import com.linecorp.armeria.client.ClientFactory;
+import com.linecorp.armeria.common.CommonPools;
+import com.linecorp.armeria.common.util.EventLoopGroups;
 
+import info.matsumana.psystrike.config.ClientTuningProperties.ApiServer;
+import info.matsumana.psystrike.config.ClientTuningProperties.CircuitBreaker;
+import info.matsumana.psystrike.config.ClientTuningProperties.Pod;
+import info.matsumana.psystrike.config.ClientTuningProperties.Tls;
+import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.netty.channel.EventLoopGroup;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
 
 @Configuration
 public class ArmeriaClientConfig {
 
+    @Nullable
+    private EventLoopGroup workerGroup;
+
+    /**
+     * The ClientFactory of the k8s API servers.
+     */
     @Bean
-    public ClientFactory clientFactory(MeterRegistry registry) {
+    @Primary
+    public ClientFactory clientFactory(MeterRegistry registry, StreamingProperties streamingProperties,
+                                       ClientTuningProperties clientTuningProperties) {
+        final ApiServer apiServer = clientTuningProperties.getApiServer();
         // Save Armeria client metrics into the same registry with Armeria server
         return ClientFactory.builder()
                             .meterRegistry(registry)
+                            .workerGroup(workerGroup(clientTuningProperties), false)
+                            .idleTimeoutMillis(apiServer.getIdleTimeoutMillis())
+                            .connectTimeoutMillis(apiServer.getConnectTimeoutMillis())
+                            .maxNumEventLoopsPerEndpoint(apiServer.getMaxNumEventLoopsPerEndpoint())
+                            .http2InitialConnectionWindowSize(apiServer.getHttp2InitialConnectionWindowSize())
+                            // Caps the bytes buffered per streamed response
+                            .http2InitialStreamWindowSize(streamingProperties.getWindowSizeBytes())
+                            .http2MaxFrameSize(apiServer.getHttp2MaxFrameSize())
                             .build();
     }
+
+    /**
+     * The ClientFactory of the pods, whose connections are much more numerous.
+     */
+    @Bean
+    public ClientFactory podClientFactory(MeterRegistry registry,
+                                          ClientTuningProperties clientTuningProperties) {
+        final Pod pod = clientTuningProperties.getPod();
+        return ClientFactory.builder()
+                            .meterRegistry(registry)
+                            .workerGroup(workerGroup(clientTuningProperties), false)
+                            .idleTimeoutMillis(pod.getIdleTimeoutMillis())
+                            .connectTimeoutMillis(pod.getConnectTimeoutMillis())
+                            .maxNumEventLoopsPerHttp1Endpoint(pod.getMaxNumEventLoopsPerEndpoint())
+                            .useHttp1Pipelining(pod.isUseHttp1Pipelining())
+                            .tlsCustomizer(builder -> customizeTls(builder, pod.getTls()))
+                            .build();
+    }
+
+    /**
+     * Exports the effective client settings as {@code psystrike.client.config} gauges.
+     */
+    @Bean
+    public MeterBinder clientTuningMetrics(ClientTuningProperties clientTuningProperties) {
+        return registry -> {
+            final ApiServer apiServer = clientTuningProperties.getApiServer();
+            final Pod pod = clientTuningProperties.getPod();
+            registerSetting(registry, "shared", "worker_group_threads",
+                            clientTuningProperties::getWorkerGroupThreads);
+
+            registerSetting(registry, "apiserver", "idle_timeout_millis", apiServer::getIdleTimeoutMillis);
+            registerSetting(registry, "apiserver", "connect_timeout_millis",
+                            apiServer::getConnectTimeoutMillis);
+            registerSetting(registry, "apiserver", "max_num_event_loops_per_endpoint",
+                            apiServer::getMaxNumEventLoopsPerEndpoint);
+            registerSetting(registry, "apiserver", "http2_initial_connection_window_size",
+                            apiServer::getHttp2InitialConnectionWindowSize);
+            registerSetting(registry, "apiserver", "http2_max_frame_size", apiServer::getHttp2MaxFrameSize);
+            registerSetting(registry, "apiserver", "watch_response_timeout_millis",
+                            apiServer::getWatchResponseTimeoutMillis);
+            registerSetting(registry, "apiserver", "list_response_timeout_millis",
+                            apiServer::getListResponseTimeoutMillis);
+            registerSetting(registry, "apiserver", "scrape_response_timeout_millis",
+                            apiServer::getScrapeResponseTimeoutMillis);
+            registerSetting(registry, "apiserver", "max_response_length", apiServer::getMaxResponseLength);
+            registerCircuitBreaker(registry, "apiserver", apiServer.getCircuitBreaker());
+
+            registerSetting(registry, "pod", "idle_timeout_millis", pod::getIdleTimeoutMillis);
+            registerSetting(registry, "pod", "connect_timeout_millis", pod::getConnectTimeoutMillis);
+            registerSetting(registry, "pod", "max_num_event_loops_per_endpoint",
+                            pod::getMaxNumEventLoopsPerEndpoint);
+            registerSetting(registry, "pod", "use_http1_pipelining", () -> pod.isUseHttp1Pipelining() ? 1 : 0);
+            registerSetting(registry, "pod", "response_timeout_millis", pod::getResponseTimeoutMillis);
+            registerSetting(registry, "pod", "max_response_length", pod::getMaxResponseLength);
+            registerCircuitBreaker(registry, "pod", pod.getCircuitBreaker());
+        };
+    }
+
+    @PreDestroy
+    synchronized void preDestroy() {
+        if (workerGroup != null && workerGroup != CommonPools.workerGroup()) {
+            workerGroup.shutdownGracefully();
+        }
+    }
+
+    private synchronized EventLoopGroup workerGroup(ClientTuningProperties clientTuningProperties) {
+        if (workerGroup == null) {
+            final int threads = clientTuningProperties.getWorkerGroupThreads();
+            workerGroup = threads > 0 ? EventLoopGroups.newEventLoopGroup(threads)
+                                      : CommonPools.workerGroup();
+        }
+        return workerGroup;
+    }
+
+    @VisibleForTesting
+    static void customizeTls(SslContextBuilder builder, Tls tls) {
+        if (tls.isInsecure()) {
+            builder.trustManager(InsecureTrustManagerFactory.INSTANCE);
+        } else if (!tls.getTrustCertCollectionFile().isEmpty()) {
+            builder.trustManager(new File(tls.getTrustCertCollectionFile()));
+        }
+        if (!tls.getKeyCertChainFile().isEmpty()) {
+            checkArgument(!tls.getKeyFile().isEmpty(),
+                          "psystrike-client.pod.tls.key-file is required with key-cert-chain-file");
+            builder.keyManager(new File(tls.getKeyCertChainFile()), new File(tls.getKeyFile()));
+        }
+        // The sessions are looked up by the pod's host and port, so a reconnect resumes the last session.
+        builder.sessionCacheSize(tls.getSessionCacheSize())
+               .sessionTimeout(tls.getSessionTimeoutSeconds());
+    }
+
+    private static void registerCircuitBreaker(MeterRegistry registry, String profile,
+                                               CircuitBreaker circuitBreaker) {
+        registerSetting(registry, profile, "circuit_breaker_failure_rate_threshold",
+                        circuitBreaker::getFailureRateThreshold);
+        registerSetting(registry, profile, "circuit_breaker_minimum_request_threshold",
+                        circuitBreaker::getMinimumRequestThreshold);
+        registerSetting(registry, profile, "circuit_breaker_trial_request_interval_millis",
+                        circuitBreaker::getTrialRequestIntervalMillis);
+        registerSetting(registry, profile, "circuit_breaker_circuit_open_window_millis",
+                        circuitBreaker::getCircuitOpenWindowMillis);
+        registerSetting(registry, profile, "circuit_breaker_counter_sliding_window_millis",
+                        circuitBreaker::getCounterSlidingWindowMillis);
+    }
+
+    private static void registerSetting(MeterRegistry registry, String profile, String setting,
+                                        Supplier<Number> value) {
+        Gauge.builder("psystrike.client.config", value)
+             .tag("profile", profile)
+             .tag("setting", setting)
+             .description("Effective settings of the upstream clients")
+             .register(registry);
+    }
 }
@@ -5,23 +5,39 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 import com.linecorp.armeria.server.logging.AccessLogWriter;
-import com.linecorp.armeria.server.logging.LoggingService;
 import com.linecorp.armeria.spring.ArmeriaServerConfigurator;
 
+import info.matsumana.psystrike.cluster.ClusterRouter;
+import info.matsumana.psystrike.logging.DebugLogging;
+import info.matsumana.psystrike.logging.PayloadLoggingAdminService;
+import info.matsumana.psystrike.service.BatchScrapeService;
 import info.matsumana.psystrike.service.ReverseProxyService;
 
 @Configuration
 public class ArmeriaServerConfig {
 
     @Bean
-    public ArmeriaServerConfigurator armeriaServerConfigurator(ReverseProxyService service) {
-        return serverBuilder -> serverBuilder
-                .accessLogWriter(AccessLogWriter.combined(), false)
-                // ReverseProxyService
-                .annotatedService()
-                .decorator(LoggingService.builder()
-                                         .logger(LoggerFactory.getLogger(service.getClass()))
-                                         .newDecorator())
-                .build(service);
+    public ArmeriaServerConfigurator armeriaServerConfigurator(
+            ReverseProxyService service, BatchScrapeService batchScrapeService, ClusterRouter clusterRouter,
+            PayloadLoggingAdminService payloadLoggingAdmin, PayloadLoggingProperties payloadLoggingProperties) {
+        return serverBuilder -> {
+            serverBuilder.accessLogWriter(AccessLogWriter.combined(), false)
+                         // ReverseProxyService
+                         .annotatedService()
+                         .decorator(DebugLogging.newServiceDecorator(
+                                 LoggerFactory.getLogger(service.getClass())))
+                         // Forwards the requests owned by another replica before anything is done locally
+                         .decorator(clusterRouter.newDecorator())
+                         .build(service);
+            if (batchScrapeService.isEnabled()) {
+                serverBuilder.annotatedService()
+                             .decorator(DebugLogging.newServiceDecorator(
+                                     LoggerFactory.getLogger(batchScrapeService.getClass())))
+                             .build(batchScrapeService);
+            }
+            if (payloadLoggingProperties.isAdminEnabled()) {
+                serverBuilder.annotatedService("/internal", payloadLoggingAdmin);
+            }
+        };
     }
 }
@@ -0,0 +1,25 @@
+package info.matsumana.psystrike.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+@Component
+@ConfigurationProperties(prefix = "psystrike-batch-scrape")
+@Data
+public class BatchScrapeProperties {
+    // Serve /batch/pods, which scrapes many pods in one request
+    private boolean enabled;
+    // Number of pods scraped at the same time for a batch
+    private int maxParallelism = 32;
+    // A batch with more targets is rejected with 400 Bad Request
+    private int maxTargets = 1000;
+    // The label added to every sample with the pod's `host:port`
+    private String targetLabel = "psystrike_target";
+    // A pod which doesn't respond within this is reported as down
+    private long targetTimeoutMillis = 5_000;
+    // The pods not scraped within this are reported as down and the batch ends, so it should be shorter than
+    // Prometheus' scrape timeout, which is 10s by default
+    private long requestTimeoutMillis = 9_000;
+}
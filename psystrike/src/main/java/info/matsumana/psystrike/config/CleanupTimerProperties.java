@@ -12,4 +12,7 @@ public class CleanupTimerProperties {
     private int delaySeconds;
     private int periodSeconds;
     private int removeThresholdSeconds;
+    // An eviction pass visits at most this many WebClients per tick
+    private int sweepBatchSize = 1000;
+    private int sweepTickMillis = 1000;
 }
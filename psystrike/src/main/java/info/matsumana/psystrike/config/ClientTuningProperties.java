@@ -0,0 +1,121 @@
+package info.matsumana.psystrike.config;
+
+import javax.validation.Valid;
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.Pattern;
+import javax.validation.constraints.Positive;
+import javax.validation.constraints.PositiveOrZero;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.annotation.Validated;
+
+import lombok.Data;
+
+@Component
+@ConfigurationProperties(prefix = "psystrike-client")
+@Validated
+@Data
+public class ClientTuningProperties {
+
+    @Data
+    public static class CircuitBreaker {
+        @DecimalMin("0.0")
+        @DecimalMax("1.0")
+        private double failureRateThreshold = 0.1;
+        @PositiveOrZero
+        private long minimumRequestThreshold = 1;
+        @Positive
+        private long trialRequestIntervalMillis = 5_000;
+        @Positive
+        private long circuitOpenWindowMillis = 10_000;
+        @Positive
+        private long counterSlidingWindowMillis = 60_000;
+    }
+
+    // The HTTP/2 clients of the k8s API servers
+    @Data
+    public static class ApiServer {
+        // Idle connections are closed after this. 0 to keep them open.
+        @PositiveOrZero
+        private long idleTimeoutMillis = 60_000;
+        @Positive
+        private long connectTimeoutMillis = 3_200;
+        // The HTTP/2 connections to an API server are spread over this many event loops
+        @Positive
+        private int maxNumEventLoopsPerEndpoint = 4;
+        @Min(65_535)
+        private int http2InitialConnectionWindowSize = 8 * 1024 * 1024;
+        // The stream window is psystrike-streaming.window-size-bytes, which bounds the buffered bytes.
+        @Min(16_384)
+        @Max(16_777_215)
+        private int http2MaxFrameSize = 65_536;
+        // Response timeouts per route family. 0 to disable.
+        @PositiveOrZero
+        private long watchResponseTimeoutMillis = 600_000;
+        @PositiveOrZero
+        private long listResponseTimeoutMillis = 600_000;
+        // Prometheus gives up a scrape within its scrape timeout anyway.
+        @PositiveOrZero
+        private long scrapeResponseTimeoutMillis = 30_000;
+        // 0 to disable
+        @PositiveOrZero
+        private long maxResponseLength = 100 * 1024 * 1024;
+        @Valid
+        private CircuitBreaker circuitBreaker = new CircuitBreaker();
+    }
+
+    // TLS to the pods scraped with /pods/https or /pods/h2
+    @Data
+    public static class Tls {
+        // Whether to skip verifying the pods' certificates
+        private boolean insecure;
+        // The PEM file of the CAs which signed the pods' certificates. Empty for the JDK's default.
+        private String trustCertCollectionFile = "";
+        // The PEM files of the client certificate and its key, for the pods which require mTLS
+        private String keyCertChainFile = "";
+        private String keyFile = "";
+        // The sessions cached for resumption, which saves a full handshake on reconnects. 0 for the default.
+        @PositiveOrZero
+        private long sessionCacheSize = 20_000;
+        @PositiveOrZero
+        private long sessionTimeoutSeconds = 3_600;
+    }
+
+    // The clients of the pods
+    @Data
+    public static class Pod {
+        // The protocol of /pods requests without a protocol segment: http, h2c, https or h2
+        @Pattern(regexp = "http|h2c|https|h2")
+        private String defaultProtocol = "http";
+        // Longer than the scrape interval, so that a connection is reused by the next scrape
+        @PositiveOrZero
+        private long idleTimeoutMillis = 120_000;
+        @Positive
+        private long connectTimeoutMillis = 3_200;
+        @Positive
+        private int maxNumEventLoopsPerEndpoint = 1;
+        private boolean useHttp1Pipelining;
+        // 0 to disable
+        @PositiveOrZero
+        private long responseTimeoutMillis = 10_000;
+        // 0 to disable
+        @PositiveOrZero
+        private long maxResponseLength = 10 * 1024 * 1024;
+        @Valid
+        private CircuitBreaker circuitBreaker = new CircuitBreaker();
+        @Valid
+        private Tls tls = new Tls();
+    }
+
+    // The event loops shared by all the clients. 0 for Armeria's default, i.e. twice the number of CPUs.
+    @PositiveOrZero
+    private int workerGroupThreads;
+    @Valid
+    private ApiServer apiServer = new ApiServer();
+    @Valid
+    private Pod pod = new Pod();
+}
@@ -0,0 +1,35 @@
+package info.matsumana.psystrike.config;
+
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+@Component
+@ConfigurationProperties(prefix = "psystrike-cluster")
+@Data
+public class ClusterProperties {
+
+    public enum Mode {
+        // Every replica serves every request by itself (the original behavior)
+        DISABLED,
+        // The replicas are static-peers
+        STATIC,
+        // The replicas are the addresses of dns-name, e.g. a headless Service
+        DNS,
+    }
+
+    private Mode mode = Mode.DISABLED;
+    // `host:port` pairs for STATIC, including this replica
+    private List<String> staticPeers = List.of();
+    // e.g. `psystrike-headless.monitoring.svc.cluster.local` for DNS
+    private String dnsName = "";
+    // The port the replicas serve on, for the addresses without a port
+    private int port = 8080;
+    // This replica's address among the peers. Empty for the address of the local host name, i.e. the pod IP.
+    private String selfAddress = "";
+    // Points per replica on the hash ring. More points spread the targets more evenly.
+    private int virtualNodes = 128;
+}
@@ -0,0 +1,18 @@
+package info.matsumana.psystrike.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+@Component
+@ConfigurationProperties(prefix = "psystrike-coalescing")
+@Data
+public class CoalescingProperties {
+    // Share one upstream response between concurrent identical /apiservers and /pods scrapes
+    private boolean enabled;
+    // A completed response is also served to identical scrapes arriving within this window
+    private int reuseWindowMillis = 1000;
+    // A scrape with this request header always gets its own upstream response
+    private String bypassHeader = "x-psystrike-no-coalescing";
+}
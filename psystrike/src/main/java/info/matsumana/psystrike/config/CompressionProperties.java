@@ -0,0 +1,26 @@
+package info.matsumana.psystrike.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+@Component
+@ConfigurationProperties(prefix = "psystrike-compression")
+@Data
+public class CompressionProperties {
+
+    public enum Mode {
+        // Ask upstreams for identity encoding (the original behavior)
+        DISABLED,
+        // Forward the client's Accept-Encoding and relay the encoded body as it is
+        PASSTHROUGH,
+        // Ask upstreams for gzip, and decode or encode only when the client can't take what it got
+        NEGOTIATE,
+    }
+
+    // Applies to the streamed /apiservers and /pods responses (psystrike-streaming.enabled)
+    private Mode mode = Mode.DISABLED;
+    // Deflate level used when encoding for the client, from 1 (fastest) to 9 (smallest)
+    private int level = 6;
+}
@@ -0,0 +1,39 @@
+package info.matsumana.psystrike.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Component
+@ConfigurationProperties(prefix = "psystrike-concurrency-limit")
+@Data
+public class ConcurrencyLimitProperties {
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Limit {
+        private int maxConcurrency;
+        // Requests beyond this are rejected with 503 immediately
+        private int maxQueueSize;
+    }
+
+    // Bound the concurrent upstream requests
+    private boolean enabled;
+    // Per route family
+    private Limit watch = new Limit(2000, 1000);
+    private Limit list = new Limit(200, 1000);
+    private Limit apiservers = new Limit(100, 500);
+    private Limit pods = new Limit(1000, 5000);
+    // Per upstream host, in addition to the route family. Watches are bounded by their family only.
+    private Limit perHost = new Limit(50, 200);
+    // Queued requests are rejected with 503 after this
+    private long queueTimeoutMillis = 10_000;
+    private int retryAfterSeconds = 5;
+    // Lower the concurrency of non-watch families when upstreams get slow, and raise it back (AIMD)
+    private boolean adaptive;
+    private long adaptiveLatencyThresholdMillis = 5_000;
+}
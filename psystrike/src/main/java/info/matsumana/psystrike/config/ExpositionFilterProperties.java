@@ -0,0 +1,33 @@
+package info.matsumana.psystrike.config;
+
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+@Component
+@ConfigurationProperties(prefix = "psystrike-exposition-filter")
+@Data
+public class ExpositionFilterProperties {
+
+    @Data
+    public static class Rule {
+        // Only the metric families whose names fully match this regex are kept. Empty to keep all.
+        private String allow = "";
+        // The metric families whose names fully match this regex are dropped. Empty to drop none.
+        private String deny = "";
+        // The series matching any of these selectors are dropped,
+        // e.g. `apiserver_request_duration_seconds_bucket{le=~"0\\.0.*"}`
+        private List<String> denySeries = List.of();
+    }
+
+    // Drop metric families and series from the /apiservers and /pods responses before relaying them
+    private boolean enabled;
+    // The rules per route, i.e. `apiservers` or `pods`. A route without a rule isn't filtered.
+    private Map<String, Rule> routes = Map.of();
+    // A longer line is relayed as it is, so that a line never has to be buffered without bound
+    private int maxLineBytes = 64 * 1024;
+}
@@ -0,0 +1,20 @@
+package info.matsumana.psystrike.config;
+
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+@Component
+@ConfigurationProperties(prefix = "psystrike-informer")
+@Data
+public class InformerProperties {
+    // Serve LIST requests of the resources below from an in-memory cache
+    private boolean enabled;
+    // Core v1 resources to cache, e.g. `pods` for `/api/v1/pods`
+    private List<String> resources = List.of("pods", "endpoints", "services", "nodes");
+    private int watchTimeoutSeconds = 300;
+    private int relistBackoffSeconds = 5;
+}
@@ -13,4 +13,7 @@ public class KubernetesProperties {
     private int apiServerPort = 443;
     private String apiUriPrefix = "";
     private String bearerToken;
+    // Takes precedence over bearerToken. Reloaded periodically because projected tokens rotate.
+    private String bearerTokenFile = "";
+    private int bearerTokenReloadSeconds = 60;
 }
@@ -0,0 +1,20 @@
+package info.matsumana.psystrike.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+@Component
+@ConfigurationProperties(prefix = "psystrike-payload-logging")
+@Data
+public class PayloadLoggingProperties {
+    // Log a sample of the chunks relayed from the k8s API server. Can be switched by the admin endpoint.
+    private boolean enabled;
+    // Log 1 in N chunks
+    private int sampleRate = 100;
+    // Log at most this many bytes of a chunk
+    private int maxBytes = 256;
+    // Serve /internal/payload-logging, which shows and switches the payload logging at runtime
+    private boolean adminEnabled;
+}
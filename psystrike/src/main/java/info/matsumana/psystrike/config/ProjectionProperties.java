@@ -0,0 +1,18 @@
+package info.matsumana.psystrike.config;
+
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+@Component
+@ConfigurationProperties(prefix = "psystrike-projection")
+@Data
+public class ProjectionProperties {
+    // Drop the fields below from the objects of watch events before relaying them
+    private boolean enabled;
+    // Dot-separated paths from the event's object, e.g. `spec.containers.env`. Arrays are traversed.
+    private List<String> dropFields = List.of("metadata.managedFields");
+}
@@ -0,0 +1,16 @@
+package info.matsumana.psystrike.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+@Component
+@ConfigurationProperties(prefix = "psystrike-protobuf")
+@Data
+public class ProtobufProperties {
+    // Ask k8s API servers for protobuf on /api requests and transcode the responses to JSON
+    private boolean enabled;
+    // A larger frame of a protobuf watch stream fails the stream
+    private int maxFrameBytes = 16 * 1024 * 1024;
+}
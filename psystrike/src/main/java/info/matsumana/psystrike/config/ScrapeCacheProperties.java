@@ -0,0 +1,29 @@
+package info.matsumana.psystrike.config;
+
+import java.util.Map;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+@Component
+@ConfigurationProperties(prefix = "psystrike-scrape-cache")
+@Data
+public class ScrapeCacheProperties {
+    // Serve the last good /apiservers and /pods scrape while the upstream fails, is slow or is circuit-broken
+    private boolean enabled;
+    // Total size of the cached bodies, which are held in pooled direct buffers.
+    // The direct memory has to fit this and maxInFlightBytes, see -XX:MaxDirectMemorySize in the Dockerfile.
+    private long maxBytes = 16 * 1024 * 1024;
+    // Total size of the bodies being copied from the upstreams. A body which doesn't fit isn't cached.
+    private long maxInFlightBytes = 8 * 1024 * 1024;
+    // A larger body isn't cached
+    private int maxEntryBytes = 4 * 1024 * 1024;
+    // A cached body older than this is never served
+    private int maxStalenessSeconds = 300;
+    // Overrides maxStalenessSeconds per `host:port` or per route, i.e. `apiservers` or `pods`
+    private Map<String, Integer> maxStalenessSecondsOverrides = Map.of();
+    // The cached body, if any, is served this long before the X-Prometheus-Scrape-Timeout-Seconds of the scrape
+    private long timeoutHeadroomMillis = 500;
+}
@@ -0,0 +1,24 @@
+package info.matsumana.psystrike.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+@Component
+@ConfigurationProperties(prefix = "psystrike-startup")
+@Data
+public class StartupProperties {
+    // Send a request to every listener before the health check turns healthy
+    private boolean warmupEnabled = true;
+    // The path requested on every listener, which should be served by psystrike itself
+    private String warmupPath = "/metrics";
+    // Also requested on every listener if not empty, so that the proxying, its clients and their TLS are
+    // warmed up too. `{protocol}` and `{port}` are replaced with the listener's ones,
+    // e.g. `/pods/{protocol}/127.0.0.1/{port}/metrics` proxies to psystrike's own /metrics.
+    private String warmupProxiedPath = "";
+    // The health check turns healthy after this even if the listeners haven't answered
+    private long warmupTimeoutMillis = 10_000;
+    // Exit once warmed up. Used by the training run which records the classes for the AppCDS archive
+    private boolean exitAfterWarmup;
+}
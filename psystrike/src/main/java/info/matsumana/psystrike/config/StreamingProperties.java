@@ -0,0 +1,17 @@
+package info.matsumana.psystrike.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+@Component
+@ConfigurationProperties(prefix = "psystrike-streaming")
+@Data
+public class StreamingProperties {
+    // Relay /apiservers and /pods responses chunk by chunk instead of aggregating them
+    private boolean enabled = true;
+    // HTTP/2 stream window toward upstreams, i.e. the bytes which can be in flight per streamed response.
+    // HTTP/1 connections stop reading by themselves once 128KiB is left unconsumed.
+    private int windowSizeBytes = 1024 * 1024;
+}
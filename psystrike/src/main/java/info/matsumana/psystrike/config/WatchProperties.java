@@ -0,0 +1,27 @@
+package info.matsumana.psystrike.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+@Component
+@ConfigurationProperties(prefix = "psystrike-watch")
+@Data
+public class WatchProperties {
+    // Share one upstream watch between identical watch requests
+    private boolean multiplexEnabled;
+    // Number of recent events kept per shared watch to replay to late subscribers
+    private int replayBufferSize = 1024;
+    // Number of events a subscriber may fall behind before it is evicted
+    private int maxPendingEvents = 1024;
+    // Reopen a direct watch from its last resourceVersion when the upstream watch ends too early
+    private boolean resumeEnabled;
+    // Number of reopens without receiving an event before the downstream watch fails
+    private int maxResumes = 5;
+    private long resumeBackoffMillis = 1000;
+    // Ask the API server for BOOKMARK events, and open a watch from the latest bookmark of the same watch
+    private boolean bookmarksEnabled;
+    // Number of distinct watches whose latest bookmark is kept
+    private int maxBookmarks = 10000;
+}
@@ -0,0 +1,14 @@
+package info.matsumana.psystrike.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+@Component
+@ConfigurationProperties(prefix = "psystrike-webclients")
+@Data
+public class WebClientRegistryProperties {
+    // The least recently used of a few sampled WebClients is evicted beyond this
+    private int maxSize = 20_000;
+}
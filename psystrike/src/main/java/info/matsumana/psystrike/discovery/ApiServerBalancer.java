@@ -0,0 +1,319 @@
+package info.matsumana.psystrike.discovery;
+
+import static com.linecorp.armeria.common.HttpHeaderNames.AUTHORIZATION;
+import static com.linecorp.armeria.common.HttpHeaderNames.USER_AGENT;
+import static com.linecorp.armeria.common.SessionProtocol.H2;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.stereotype.Component;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+
+import com.linecorp.armeria.client.ClientFactory;
+import com.linecorp.armeria.client.ClientRequestContext;
+import com.linecorp.armeria.client.Endpoint;
+import com.linecorp.armeria.client.HttpClient;
+import com.linecorp.armeria.client.WebClient;
+import com.linecorp.armeria.client.endpoint.EndpointGroup;
+import com.linecorp.armeria.client.endpoint.healthcheck.HealthCheckedEndpointGroup;
+import com.linecorp.armeria.common.CommonPools;
+import com.linecorp.armeria.common.HttpMethod;
+import com.linecorp.armeria.common.HttpRequest;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.RequestHeaders;
+
+import info.matsumana.psystrike.config.ApiServerDiscoveryProperties;
+import info.matsumana.psystrike.config.ApiServerDiscoveryProperties.Mode;
+import info.matsumana.psystrike.config.KubernetesProperties;
+import info.matsumana.psystrike.helper.UpstreamHeaderValues;
+import info.matsumana.psystrike.service.ReverseProxyService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.reactivex.Flowable;
+import io.reactivex.processors.PublishProcessor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Chooses the k8s API server of each /api request among the discovered and healthy ones, instead of
+ * sending everything to the Service VIP, whose connection-level balancing pins all the HTTP/2 streams
+ * of psystrike to one API server.
+ *
+ * <p>The API server with the fewest open streams is chosen, so that long-lived watches are spread evenly.
+ * When an API server disappears or becomes unhealthy, its watches are ended cleanly, so that Prometheus
+ * re-watches from its last resourceVersion through another API server without relisting.
+ * The Service VIP is used while no API server is known, or while none of the discovered ones is healthy.
+ */
+@Component
+@Slf4j
+public class ApiServerBalancer {
+
+    private static final String ENDPOINTS_PATH = "/api/v1/namespaces/default/endpoints/kubernetes";
+
+    private final ApiServerDiscoveryProperties properties;
+    private final KubernetesProperties kubernetesProperties;
+    private final UpstreamHeaderValues upstreamHeaderValues;
+    private final ClientFactory clientFactory;
+    private final MeterRegistry meterRegistry;
+    private final Endpoint defaultEndpoint;
+    private final Map<Endpoint, EndpointState> states = new ConcurrentHashMap<>();
+    private final AtomicInteger nextIndex = new AtomicInteger();
+    private final Counter closedWatchCounter;
+    private final Counter allUnhealthyCounter;
+    private volatile List<Endpoint> endpoints = List.of();
+    @Nullable
+    private EndpointGroup discoveredGroup;
+    @Nullable
+    private EndpointGroup endpointGroup;
+    @Nullable
+    private ScheduledFuture<?> healthCheckFuture;
+    private boolean allUnhealthy;
+
+    public ApiServerBalancer(ApiServerDiscoveryProperties properties,
+                             KubernetesProperties kubernetesProperties,
+                             UpstreamHeaderValues upstreamHeaderValues, ClientFactory clientFactory,
+                             MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.kubernetesProperties = kubernetesProperties;
+        this.upstreamHeaderValues = upstreamHeaderValues;
+        this.clientFactory = clientFactory;
+        this.meterRegistry = meterRegistry;
+        defaultEndpoint = Endpoint.of(kubernetesProperties.getApiServer(),
+                                      kubernetesProperties.getApiServerPort());
+
+        Gauge.builder("psystrike.apiserver.endpoints", this, balancer -> balancer.endpoints.size())
+             .description("Number of healthy k8s API servers which /api requests are balanced across")
+             .register(meterRegistry);
+        closedWatchCounter = Counter.builder("psystrike.apiserver.watch.closed")
+                                    .description("Number of watches ended because their API server was gone")
+                                    .register(meterRegistry);
+        allUnhealthyCounter = Counter.builder("psystrike.apiserver.all.unhealthy")
+                                     .description("Number of times every discovered k8s API server " +
+                                                  "became unhealthy")
+                                     .register(meterRegistry);
+    }
+
+    @PostConstruct
+    synchronized void postConstruct() {
+        final EndpointGroup discovered = newEndpointGroup();
+        if (discovered == null) {
+            return;
+        }
+
+        final String healthCheckPath = properties.getHealthCheckPath();
+        if (Strings.isNullOrEmpty(healthCheckPath)) {
+            endpointGroup = discovered;
+        } else {
+            discoveredGroup = discovered;
+            final int intervalSeconds = properties.getHealthCheckIntervalSeconds();
+            final Duration interval = Duration.ofSeconds(intervalSeconds);
+            endpointGroup = HealthCheckedEndpointGroup.builder(discovered, healthCheckPath)
+                                                      .protocol(H2)
+                                                      .clientFactory(clientFactory)
+                                                      // API servers with anonymous auth disabled
+                                                      // answer 401 to the probes without the token.
+                                                      .withClientOptions(options -> options.decorator(
+                                                              this::withUpstreamHeaders))
+                                                      .retryInterval(interval)
+                                                      .build();
+            healthCheckFuture = CommonPools.blockingTaskExecutor()
+                                           .scheduleWithFixedDelay(this::checkHealthy, intervalSeconds,
+                                                                   intervalSeconds, TimeUnit.SECONDS);
+        }
+        endpointGroup.addListener(this::setEndpoints);
+        setEndpoints(endpointGroup.endpoints());
+    }
+
+    @PreDestroy
+    synchronized void preDestroy() {
+        if (healthCheckFuture != null) {
+            healthCheckFuture.cancel(false);
+            healthCheckFuture = null;
+        }
+        if (endpointGroup != null) {
+            endpointGroup.close();
+            endpointGroup = null;
+        }
+    }
+
+    @Nullable
+    private EndpointGroup newEndpointGroup() {
+        final Mode mode = properties.getMode();
+        switch (mode) {
+            case STATIC:
+                final List<Endpoint> staticEndpoints = new ArrayList<>();
+                for (String endpoint : properties.getStaticEndpoints()) {
+                    staticEndpoints.add(Endpoint.parse(endpoint).withDefaultPort(
+                            kubernetesProperties.getApiServerPort()));
+                }
+                return EndpointGroup.of(staticEndpoints);
+            case ENDPOINTS:
+                // The Endpoints is read through the Service VIP, which is always there.
+                final WebClient client = WebClient.builder(H2, defaultEndpoint)
+                                                  .factory(clientFactory)
+                                                  .build();
+                final String path = ReverseProxyService.generatePrefix(kubernetesProperties.getApiUriPrefix()) +
+                                    ENDPOINTS_PATH;
+                return new KubernetesEndpointGroup(client, () -> newRequestHeaders(path),
+                                                   CommonPools.blockingTaskExecutor(),
+                                                   properties.getRefreshIntervalSeconds());
+            default:
+                return null;
+        }
+    }
+
+    private HttpResponse withUpstreamHeaders(HttpClient delegate, ClientRequestContext ctx,
+                                             HttpRequest req) throws Exception {
+        final HttpRequest newReq = req.withHeaders(
+                req.headers().toBuilder()
+                   .set(USER_AGENT, upstreamHeaderValues.getUserAgent())
+                   .set(AUTHORIZATION, upstreamHeaderValues.getAuthorization())
+                   .build());
+        ctx.updateRequest(newReq);
+        return delegate.execute(ctx, newReq);
+    }
+
+    private RequestHeaders newRequestHeaders(String path) {
+        return RequestHeaders.builder(HttpMethod.GET, path)
+                             .set(USER_AGENT, upstreamHeaderValues.getUserAgent())
+                             .set(AUTHORIZATION, upstreamHeaderValues.getAuthorization())
+                             .build();
+    }
+
+    /**
+     * Returns the API server which has the fewest open streams, or the Service VIP if no API server is known.
+     */
+    public Endpoint select() {
+        final List<Endpoint> endpoints = this.endpoints;
+        final int size = endpoints.size();
+        if (size == 0) {
+            return defaultEndpoint;
+        }
+
+        // Starts from a rotating index, so that the ties are broken in a round-robin way.
+        final int start = Math.floorMod(nextIndex.getAndIncrement(), size);
+        Endpoint selected = endpoints.get(start);
+        int fewest = streams(selected);
+        for (int i = 1; i < size && fewest > 0; i++) {
+            final Endpoint candidate = endpoints.get((start + i) % size);
+            final int streams = streams(candidate);
+            if (streams < fewest) {
+                selected = candidate;
+                fewest = streams;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Counts the response as an open stream of the endpoint until it ends. A watch is also ended cleanly
+     * when the endpoint is removed.
+     */
+    public HttpResponse track(Endpoint endpoint, HttpResponse response, boolean watch) {
+        final EndpointState state = states.get(endpoint);
+        if (state == null) {
+            // The Service VIP, or an endpoint removed since it was selected
+            return response;
+        }
+
+        state.streams.incrementAndGet();
+        if (!watch) {
+            response.whenComplete().handle((unused, cause) -> state.streams.decrementAndGet());
+            return response;
+        }
+
+        state.watches.incrementAndGet();
+        final HttpResponse tracked =
+                HttpResponse.of(Flowable.fromPublisher(response).takeUntil(state.removed));
+        tracked.whenComplete().handle((unused, cause) -> {
+            state.watches.decrementAndGet();
+            return state.streams.decrementAndGet();
+        });
+        return tracked;
+    }
+
+    @VisibleForTesting
+    synchronized void setEndpoints(List<Endpoint> newEndpoints) {
+        final Set<Endpoint> removed = new HashSet<>(states.keySet());
+        removed.removeAll(newEndpoints);
+        for (Endpoint endpoint : newEndpoints) {
+            states.computeIfAbsent(endpoint, this::newState);
+        }
+        endpoints = List.copyOf(newEndpoints);
+        log.info("k8s API servers for /api requests: {}", newEndpoints);
+
+        for (Endpoint endpoint : removed) {
+            final EndpointState state = states.remove(endpoint);
+            meterRegistry.remove(state.gauge);
+            final int watches = state.watches.get();
+            if (watches > 0) {
+                log.info("Ending {} watches to the removed k8s API server {}", watches, endpoint);
+                closedWatchCounter.increment(watches);
+            }
+            state.removed.onNext(Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Logs and counts when every discovered API server has become unhealthy, because {@link #select()}
+     * then falls back to the Service VIP.
+     */
+    @VisibleForTesting
+    synchronized void checkHealthy() {
+        if (discoveredGroup == null) {
+            return;
+        }
+        final List<Endpoint> discovered = discoveredGroup.endpoints();
+        final boolean allUnhealthy = endpoints.isEmpty() && !discovered.isEmpty();
+        if (allUnhealthy && !this.allUnhealthy) {
+            log.warn("None of the discovered k8s API servers is healthy. Sending /api requests to " +
+                     "the Service VIP {}. discovered={}", defaultEndpoint, discovered);
+            allUnhealthyCounter.increment();
+        } else if (!allUnhealthy && this.allUnhealthy) {
+            log.info("The discovered k8s API servers are healthy again.");
+        }
+        this.allUnhealthy = allUnhealthy;
+    }
+
+    private EndpointState newState(Endpoint endpoint) {
+        final AtomicInteger streams = new AtomicInteger();
+        final Gauge gauge = Gauge.builder("psystrike.apiserver.streams", streams, AtomicInteger::get)
+                                 .tag("endpoint", endpoint.authority())
+                                 .description("Number of open streams per k8s API server")
+                                 .register(meterRegistry);
+        return new EndpointState(streams, gauge);
+    }
+
+    @VisibleForTesting
+    int streams(Endpoint endpoint) {
+        final EndpointState state = states.get(endpoint);
+        return state != null ? state.streams.get() : 0;
+    }
+
+    private static final class EndpointState {
+        private final AtomicInteger streams;
+        private final AtomicInteger watches = new AtomicInteger();
+        private final Gauge gauge;
+        private final PublishProcessor<Boolean> removed = PublishProcessor.create();
+
+        EndpointState(AtomicInteger streams, Gauge gauge) {
+            this.streams = streams;
+            this.gauge = gauge;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package info.matsumana.psystrike.discovery;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+
+import com.linecorp.armeria.client.Endpoint;
+import com.linecorp.armeria.client.WebClient;
+import com.linecorp.armeria.client.endpoint.DynamicEndpointGroup;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.RequestHeaders;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The k8s API servers listed in the {@code default/kubernetes} Endpoints, which is read periodically.
+ * The last known endpoints are kept while the Endpoints can't be read.
+ */
+@Slf4j
+final class KubernetesEndpointGroup extends DynamicEndpointGroup {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final WebClient client;
+    private final Supplier<RequestHeaders> requestHeaders;
+    @Nullable
+    private volatile ScheduledFuture<?> refreshFuture;
+
+    KubernetesEndpointGroup(WebClient client, Supplier<RequestHeaders> requestHeaders,
+                            ScheduledExecutorService executor, long refreshIntervalSeconds) {
+        this.client = client;
+        this.requestHeaders = requestHeaders;
+        refreshFuture = executor.scheduleWithFixedDelay(this::refresh, 0, refreshIntervalSeconds,
+                                                        TimeUnit.SECONDS);
+    }
+
+    private void refresh() {
+        client.execute(requestHeaders.get())
+              .aggregate()
+              .thenAccept(response -> {
+                  if (response.status() != HttpStatus.OK) {
+                      log.warn("Can't read the default/kubernetes Endpoints. status={}", response.status());
+                      return;
+                  }
+                  final List<Endpoint> endpoints;
+                  try {
+                      endpoints = parse(response.contentUtf8());
+                  } catch (IOException e) {
+                      log.warn("Can't parse the default/kubernetes Endpoints", e);
+                      return;
+                  }
+                  if (endpoints.isEmpty()) {
+                      log.warn("The default/kubernetes Endpoints has no addresses. Keeping the last ones.");
+                      return;
+                  }
+                  setEndpoints(endpoints);
+              })
+              .exceptionally(cause -> {
+                  log.warn("Can't read the default/kubernetes Endpoints", cause);
+                  return null;
+              });
+    }
+
+    /**
+     * Returns the addresses of the Endpoints with the port named {@code https}, or the first port.
+     */
+    @VisibleForTesting
+    static List<Endpoint> parse(String json) throws IOException {
+        final List<Endpoint> endpoints = new ArrayList<>();
+        for (JsonNode subset : OBJECT_MAPPER.readTree(json).path("subsets")) {
+            int port = -1;
+            for (JsonNode portNode : subset.path("ports")) {
+                if (port < 0 || "https".equals(portNode.path("name").asText())) {
+                    port = portNode.path("port").asInt(-1);
+                }
+            }
+            if (port <= 0) {
+                continue;
+            }
+            for (JsonNode address : subset.path("addresses")) {
+                final String ip = address.path("ip").asText("");
+                if (!ip.isEmpty()) {
+                    endpoints.add(Endpoint.of(ip, port));
+                }
+            }
+        }
+        return endpoints;
+    }
+
+    @Override
+    protected void doCloseAsync(CompletableFuture<?> future) {
+        final ScheduledFuture<?> refreshFuture = this.refreshFuture;
+        if (refreshFuture != null) {
+            refreshFuture.cancel(false);
+            this.refreshFuture = null;
+        }
+        super.doCloseAsync(future);
+    }
+}
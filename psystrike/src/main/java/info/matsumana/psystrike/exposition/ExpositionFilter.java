@@ -0,0 +1,66 @@
+package info.matsumana.psystrike.exposition;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.stereotype.Component;
+
+import com.linecorp.armeria.common.HttpResponse;
+
+import info.matsumana.psystrike.config.ExpositionFilterProperties;
+import info.matsumana.psystrike.helper.EmptyHttpData;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Drops metric families and series from the /apiservers and /pods responses by the rules of their route,
+ * so that the series which would be dropped by {@code metric_relabel_configs} anyway never leave psystrike.
+ *
+ * <p>A filtered response has to be identity-encoded, so the upstream isn't asked for gzip on a filtered
+ * route; the response is encoded for the client after it's filtered.
+ */
+@Component
+public class ExpositionFilter {
+
+    private final int maxLineBytes;
+    private final Map<String, ExpositionRule> rules = new HashMap<>();
+    private final Map<String, Counter> droppedLinesCounters = new HashMap<>();
+    private final Map<String, Counter> droppedBytesCounters = new HashMap<>();
+
+    public ExpositionFilter(ExpositionFilterProperties properties, MeterRegistry meterRegistry) {
+        maxLineBytes = properties.getMaxLineBytes();
+        if (!properties.isEnabled()) {
+            return;
+        }
+
+        properties.getRoutes().forEach((route, rule) -> {
+            rules.put(route, ExpositionRule.of(rule));
+            droppedLinesCounters.put(route, Counter.builder("psystrike.exposition.filter.dropped.lines")
+                                                   .tag("route", route)
+                                                   .description("Number of exposition lines dropped")
+                                                   .register(meterRegistry));
+            droppedBytesCounters.put(route, Counter.builder("psystrike.exposition.filter.dropped.bytes")
+                                                   .tag("route", route)
+                                                   .description("Bytes of exposition lines dropped")
+                                                   .register(meterRegistry));
+        });
+    }
+
+    public boolean isEnabled(String route) {
+        return rules.containsKey(route);
+    }
+
+    /**
+     * Wraps a scrape response so that it's filtered by the rule of the route, or returns it as it is
+     * if the route has no rule.
+     */
+    public HttpResponse decorate(HttpResponse response, String route) {
+        final ExpositionRule rule = rules.get(route);
+        if (rule == null) {
+            return response;
+        }
+        return EmptyHttpData.skip(new FilteringHttpResponse(response, rule, maxLineBytes,
+                                                            droppedLinesCounters.get(route),
+                                                            droppedBytesCounters.get(route)));
+    }
+}
@@ -0,0 +1,68 @@
+package info.matsumana.psystrike.exposition;
+
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import javax.annotation.Nullable;
+
+import info.matsumana.psystrike.config.ExpositionFilterProperties.Rule;
+
+/**
+ * The compiled filtering rule of a route.
+ */
+final class ExpositionRule {
+
+    @Nullable
+    private final Pattern allow;
+    @Nullable
+    private final Pattern deny;
+    private final List<SeriesSelector> denySeries;
+
+    static ExpositionRule of(Rule rule) {
+        return new ExpositionRule(compile(rule.getAllow()), compile(rule.getDeny()),
+                                  rule.getDenySeries().stream()
+                                      .map(SeriesSelector::parse)
+                                      .collect(Collectors.toUnmodifiableList()));
+    }
+
+    @Nullable
+    private static Pattern compile(String regex) {
+        return regex.isEmpty() ? null : Pattern.compile(regex);
+    }
+
+    private ExpositionRule(@Nullable Pattern allow, @Nullable Pattern deny, List<SeriesSelector> denySeries) {
+        this.allow = allow;
+        this.deny = deny;
+        this.denySeries = denySeries;
+    }
+
+    boolean keepsFamily(String family) {
+        if (allow != null && !allow.matcher(family).matches()) {
+            return false;
+        }
+        return deny == null || !deny.matcher(family).matches();
+    }
+
+    /**
+     * Returns whether the labels of a sample have to be parsed to decide whether it's kept.
+     */
+    boolean needsLabels(String metricName) {
+        for (SeriesSelector selector : denySeries) {
+            if (selector.mayMatch(metricName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean keepsSeries(String metricName, Map<String, String> labels) {
+        for (SeriesSelector selector : denySeries) {
+            if (selector.matches(metricName, labels)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,267 @@
+package info.matsumana.psystrike.exposition;
+
+import static com.linecorp.armeria.common.HttpHeaderNames.CONTENT_ENCODING;
+import static com.linecorp.armeria.common.HttpHeaderNames.CONTENT_LENGTH;
+import static com.linecorp.armeria.common.HttpHeaderNames.CONTENT_TYPE;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.reactivestreams.Subscriber;
+
+import com.google.common.base.Ascii;
+
+import com.linecorp.armeria.common.FilteredHttpResponse;
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpObject;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.HttpStatusClass;
+import com.linecorp.armeria.common.ResponseHeaders;
+
+import io.micrometer.core.instrument.Counter;
+
+/**
+ * Drops the lines of the metric families and series which the {@link ExpositionRule} doesn't keep
+ * from a Prometheus text or OpenMetrics response.
+ *
+ * <p>A chunk is split into lines as bytes, and only the partial line at its end is carried over to the next
+ * chunk, so that the body is never buffered as a whole. Only the metric name of a line is decoded, and
+ * its labels are parsed only when a series selector may match the name.
+ */
+final class FilteringHttpResponse extends FilteredHttpResponse {
+
+    // The suffixes of the samples which belong to the family of the preceding # TYPE line
+    private static final List<String> FAMILY_SUFFIXES =
+            List.of("_bucket", "_sum", "_count", "_total", "_created", "_info", "_gcount", "_gsum");
+
+    private final ExpositionRule rule;
+    private final int maxLineBytes;
+    private final Counter droppedLinesCounter;
+    private final Counter droppedBytesCounter;
+    // Family names repeat on every sample, so the rule is applied once per family.
+    private final Map<String, Boolean> familyDecisions = new HashMap<>();
+
+    private boolean headersReceived;
+    private boolean filtering;
+    // The partial line at the end of the last chunk
+    private byte[] carry = new byte[0];
+    private int carryLength;
+    // Whether the rest of the current line is relayed as it is because it's longer than maxLineBytes
+    private boolean relayingLongLine;
+    @Nullable
+    private String currentFamily;
+    private long droppedLines;
+    private long droppedBytes;
+
+    FilteringHttpResponse(HttpResponse delegate, ExpositionRule rule, int maxLineBytes,
+                          Counter droppedLinesCounter, Counter droppedBytesCounter) {
+        super(delegate, true);
+        this.rule = rule;
+        this.maxLineBytes = maxLineBytes;
+        this.droppedLinesCounter = droppedLinesCounter;
+        this.droppedBytesCounter = droppedBytesCounter;
+    }
+
+    @Override
+    protected HttpObject filter(HttpObject obj) {
+        if (obj instanceof ResponseHeaders) {
+            final ResponseHeaders headers = (ResponseHeaders) obj;
+            if (headersReceived || headers.status().codeClass() == HttpStatusClass.INFORMATIONAL) {
+                return obj;
+            }
+            headersReceived = true;
+            filtering = isFilterable(headers);
+            return filtering ? headers.toBuilder().removeAndThen(CONTENT_LENGTH).build() : headers;
+        }
+        if (obj instanceof HttpData && filtering) {
+            return onData((HttpData) obj);
+        }
+        return obj;
+    }
+
+    private static boolean isFilterable(ResponseHeaders headers) {
+        if (!HttpStatus.OK.equals(headers.status())) {
+            return false;
+        }
+        final String encoding = headers.get(CONTENT_ENCODING, "identity").trim();
+        if (!"identity".equalsIgnoreCase(encoding)) {
+            return false;
+        }
+        // The protobuf exposition format is relayed as it is.
+        final String contentType = Ascii.toLowerCase(headers.get(CONTENT_TYPE, "text/plain"));
+        return contentType.startsWith("text/plain") || contentType.startsWith("application/openmetrics-text");
+    }
+
+    private HttpData onData(HttpData data) {
+        final byte[] array = data.array();
+        data.close();
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(array.length);
+        int lineStart = 0;
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] == '\n') {
+                onLine(array, lineStart, i + 1, out);
+                lineStart = i + 1;
+            }
+        }
+        if (lineStart < array.length) {
+            onPartialLine(array, lineStart, array.length, out);
+        }
+        flushCounters();
+        // A chunk whose lines are all dropped is dropped by EmptyHttpData.
+        return out.size() > 0 ? HttpData.wrap(out.toByteArray()) : HttpData.empty();
+    }
+
+    private void onLine(byte[] array, int start, int end, ByteArrayOutputStream out) {
+        if (relayingLongLine) {
+            out.write(array, start, end - start);
+            relayingLongLine = false;
+            return;
+        }
+        if (carryLength == 0) {
+            writeIfKept(array, start, end, out);
+            return;
+        }
+        appendToCarry(array, start, end);
+        writeIfKept(carry, 0, carryLength, out);
+        carryLength = 0;
+    }
+
+    private void onPartialLine(byte[] array, int start, int end, ByteArrayOutputStream out) {
+        if (relayingLongLine) {
+            out.write(array, start, end - start);
+            return;
+        }
+        if (carryLength + end - start > maxLineBytes) {
+            // Gives up filtering this line rather than buffering it without bound.
+            out.write(carry, 0, carryLength);
+            out.write(array, start, end - start);
+            carryLength = 0;
+            relayingLongLine = true;
+            return;
+        }
+        appendToCarry(array, start, end);
+    }
+
+    private void appendToCarry(byte[] array, int start, int end) {
+        final int length = end - start;
+        if (carry.length < carryLength + length) {
+            final byte[] newCarry = new byte[Math.max(carry.length * 2, carryLength + length)];
+            System.arraycopy(carry, 0, newCarry, 0, carryLength);
+            carry = newCarry;
+        }
+        System.arraycopy(array, start, carry, carryLength, length);
+        carryLength += length;
+    }
+
+    private void writeIfKept(byte[] array, int start, int end, ByteArrayOutputStream out) {
+        if (keeps(array, start, end)) {
+            out.write(array, start, end - start);
+        } else {
+            droppedLines++;
+            droppedBytes += end - start;
+        }
+    }
+
+    private boolean keeps(byte[] array, int start, int end) {
+        while (end > start && (array[end - 1] == '\n' || array[end - 1] == '\r')) {
+            end--;
+        }
+        if (start == end) {
+            return true;
+        }
+
+        if (array[start] == '#') {
+            // # HELP name ..., # TYPE name type, # UNIT name unit, or another comment such as # EOF
+            final int keywordEnd = start + 7;
+            if (end <= keywordEnd || array[start + 1] != ' ' || array[keywordEnd - 1] != ' ') {
+                return true;
+            }
+            final String keyword = new String(array, start + 2, 4, StandardCharsets.ISO_8859_1);
+            if (!"HELP".equals(keyword) && !"TYPE".equals(keyword) && !"UNIT".equals(keyword)) {
+                return true;
+            }
+            final String family = readMetricName(array, keywordEnd, end);
+            if ("TYPE".equals(keyword)) {
+                currentFamily = family;
+            }
+            return keepsFamily(family);
+        }
+
+        final int nameEnd = metricNameEnd(array, start, end);
+        final String metricName = new String(array, start, nameEnd - start, StandardCharsets.ISO_8859_1);
+        if (!keepsFamily(familyOf(metricName))) {
+            return false;
+        }
+        if (!rule.needsLabels(metricName)) {
+            return true;
+        }
+        if (nameEnd == end || array[nameEnd] != '{') {
+            return rule.keepsSeries(metricName, Map.of());
+        }
+        try {
+            final String labelSet = new String(array, nameEnd, end - nameEnd, StandardCharsets.UTF_8);
+            return rule.keepsSeries(metricName, SeriesSelector.parseLabels(labelSet));
+        } catch (IllegalArgumentException e) {
+            // Left to Prometheus, which will report the malformed line.
+            return true;
+        }
+    }
+
+    private boolean keepsFamily(String family) {
+        return familyDecisions.computeIfAbsent(family, rule::keepsFamily);
+    }
+
+    private String familyOf(String metricName) {
+        final String family = currentFamily;
+        if (family != null && metricName.startsWith(family)) {
+            final String suffix = metricName.substring(family.length());
+            if (suffix.isEmpty() || FAMILY_SUFFIXES.contains(suffix)) {
+                return family;
+            }
+        }
+        return metricName;
+    }
+
+    private static String readMetricName(byte[] array, int start, int end) {
+        return new String(array, start, metricNameEnd(array, start, end) - start, StandardCharsets.ISO_8859_1);
+    }
+
+    private static int metricNameEnd(byte[] array, int start, int end) {
+        int i = start;
+        while (i < end && array[i] != '{' && array[i] != ' ' && array[i] != '\t') {
+            i++;
+        }
+        return i;
+    }
+
+    private void flushCounters() {
+        if (droppedLines > 0) {
+            droppedLinesCounter.increment(droppedLines);
+            droppedBytesCounter.increment(droppedBytes);
+            droppedLines = 0;
+            droppedBytes = 0;
+        }
+    }
+
+    @Override
+    protected void beforeComplete(Subscriber<? super HttpObject> subscriber) {
+        if (carryLength == 0) {
+            return;
+        }
+        // The last line without a newline
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(carryLength);
+        writeIfKept(carry, 0, carryLength, out);
+        carryLength = 0;
+        flushCounters();
+        if (out.size() > 0) {
+            subscriber.onNext(HttpData.wrap(out.toByteArray()));
+        }
+    }
+}
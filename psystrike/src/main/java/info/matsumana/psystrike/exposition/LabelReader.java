@@ -0,0 +1,112 @@
+package info.matsumana.psystrike.exposition;
+
+import java.util.List;
+
+/**
+ * Reads the metric names, label names, operators and quoted label values of the Prometheus text format
+ * and of series selectors.
+ */
+final class LabelReader {
+
+    // The longer ones first, so that `=~` isn't read as `=`
+    private static final List<String> OPERATORS = List.of("=~", "!~", "!=", "=");
+
+    private final String text;
+    private int pos;
+
+    LabelReader(String text) {
+        this.text = text;
+    }
+
+    boolean atEnd() {
+        skipSpaces();
+        return pos >= text.length();
+    }
+
+    boolean atNameStart() {
+        skipSpaces();
+        return pos < text.length() && isNameStart(text.charAt(pos));
+    }
+
+    /**
+     * Consumes {@code c} if it's the next character except spaces.
+     */
+    boolean tryConsume(char c) {
+        skipSpaces();
+        if (pos < text.length() && text.charAt(pos) == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    void expect(char c) {
+        if (!tryConsume(c)) {
+            throw malformed("'" + c + "' expected");
+        }
+    }
+
+    String readName() {
+        if (!atNameStart()) {
+            throw malformed("a name expected");
+        }
+        final int start = pos++;
+        while (pos < text.length() && isNamePart(text.charAt(pos))) {
+            pos++;
+        }
+        return text.substring(start, pos);
+    }
+
+    /**
+     * Reads one of {@code =}, {@code !=}, {@code =~} and {@code !~}.
+     */
+    String readOperator() {
+        skipSpaces();
+        for (String operator : OPERATORS) {
+            if (text.startsWith(operator, pos)) {
+                pos += operator.length();
+                return operator;
+            }
+        }
+        throw malformed("an operator expected");
+    }
+
+    /**
+     * Reads a double-quoted label value, unescaping {@code \\}, {@code \"} and {@code \n}.
+     */
+    String readQuoted() {
+        expect('"');
+        final StringBuilder buf = new StringBuilder();
+        while (pos < text.length()) {
+            final char c = text.charAt(pos++);
+            if (c == '"') {
+                return buf.toString();
+            }
+            if (c != '\\' || pos >= text.length()) {
+                buf.append(c);
+                continue;
+            }
+            final char escaped = text.charAt(pos++);
+            buf.append(escaped == 'n' ? '\n' : escaped);
+        }
+        throw malformed("unterminated label value");
+    }
+
+    private void skipSpaces() {
+        while (pos < text.length() && (text.charAt(pos) == ' ' || text.charAt(pos) == '\t')) {
+            pos++;
+        }
+    }
+
+    private IllegalArgumentException malformed(String reason) {
+        return new IllegalArgumentException(reason + " at " + pos + ": " + text);
+    }
+
+    static boolean isNameStart(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '_' || c == ':';
+    }
+
+    static boolean isNamePart(char c) {
+        return isNameStart(c) || c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,125 @@
+package info.matsumana.psystrike.exposition;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+
+/**
+ * A PromQL-like series selector, e.g. {@code apiserver_request_duration_seconds_bucket{le=~"0\\.0.*"}}.
+ * A regex fully matches the label value, and a missing label matches as an empty value like in PromQL.
+ */
+final class SeriesSelector {
+
+    private static final String NAME_LABEL = "__name__";
+
+    @Nullable
+    private final String name;
+    private final List<LabelMatcher> matchers;
+
+    /**
+     * Parses a series selector.
+     *
+     * @throws IllegalArgumentException if the selector is malformed
+     */
+    static SeriesSelector parse(String selector) {
+        final LabelReader reader = new LabelReader(selector);
+        final String name = reader.atNameStart() ? reader.readName() : null;
+        final List<LabelMatcher> matchers = new ArrayList<>();
+        if (reader.tryConsume('{')) {
+            while (!reader.tryConsume('}')) {
+                final String label = reader.readName();
+                final String operator = reader.readOperator();
+                matchers.add(new LabelMatcher(label, operator, reader.readQuoted()));
+                if (!reader.tryConsume(',')) {
+                    reader.expect('}');
+                    break;
+                }
+            }
+        }
+        if (!reader.atEnd()) {
+            throw new IllegalArgumentException("malformed series selector: " + selector);
+        }
+        if (name == null && matchers.isEmpty()) {
+            throw new IllegalArgumentException("empty series selector: " + selector);
+        }
+        return new SeriesSelector(name, matchers);
+    }
+
+    /**
+     * Parses the label set of a sample, e.g. {@code {code="200",verb="GET"}}.
+     *
+     * @throws IllegalArgumentException if the label set is malformed
+     */
+    static Map<String, String> parseLabels(String labelSet) {
+        final LabelReader reader = new LabelReader(labelSet);
+        final Map<String, String> labels = new HashMap<>();
+        reader.expect('{');
+        while (!reader.tryConsume('}')) {
+            final String label = reader.readName();
+            reader.expect('=');
+            labels.put(label, reader.readQuoted());
+            if (!reader.tryConsume(',')) {
+                reader.expect('}');
+                break;
+            }
+        }
+        return labels;
+    }
+
+    private SeriesSelector(@Nullable String name, List<LabelMatcher> matchers) {
+        this.name = name;
+        this.matchers = matchers;
+    }
+
+    /**
+     * Returns whether a series of the metric name may match, before its labels are parsed.
+     */
+    boolean mayMatch(String metricName) {
+        return name == null || name.equals(metricName);
+    }
+
+    boolean matches(String metricName, Map<String, String> labels) {
+        if (!mayMatch(metricName)) {
+            return false;
+        }
+        for (LabelMatcher matcher : matchers) {
+            final String value = NAME_LABEL.equals(matcher.label) ? metricName
+                                                                   : labels.getOrDefault(matcher.label, "");
+            if (!matcher.matches(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class LabelMatcher {
+
+        private final String label;
+        private final boolean negative;
+        @Nullable
+        private final String value;
+        @Nullable
+        private final Pattern pattern;
+
+        LabelMatcher(String label, String operator, String value) {
+            this.label = label;
+            negative = operator.charAt(0) == '!';
+            if (operator.endsWith("~")) {
+                this.value = null;
+                pattern = Pattern.compile(value);
+            } else {
+                this.value = value;
+                pattern = null;
+            }
+        }
+
+        boolean matches(String actual) {
+            final boolean matched = pattern != null ? pattern.matcher(actual).matches() : actual.equals(value);
+            return matched != negative;
+        }
+    }
+}
@@ -0,0 +1,4 @@
+@NonNullByDefault
+package info.matsumana.psystrike.exposition;
+
+import com.linecorp.armeria.common.annotation.NonNullByDefault;
@@ -0,0 +1,25 @@
+package info.matsumana.psystrike.helper;
+
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpResponse;
+
+import io.reactivex.Flowable;
+
+/**
+ * Drops the empty chunks of a response, which a {@code FilteredHttpResponse} can't do by itself because it
+ * maps every chunk to exactly one chunk.
+ */
+public final class EmptyHttpData {
+
+    /**
+     * Returns the response without the chunks its filter has emptied, e.g. a compressed chunk which hasn't
+     * been decoded into a byte yet, so that they don't reach the client as empty DATA frames.
+     */
+    public static HttpResponse skip(HttpResponse response) {
+        return HttpResponse.of(Flowable.fromPublisher(response)
+                                       .filter(obj -> !(obj instanceof HttpData) ||
+                                                      !((HttpData) obj).isEmpty()));
+    }
+
+    private EmptyHttpData() {}
+}
@@ -0,0 +1,103 @@
+package info.matsumana.psystrike.helper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.stereotype.Component;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+
+import com.linecorp.armeria.common.CommonPools;
+
+import info.matsumana.psystrike.config.KubernetesProperties;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The header values which psystrike adds to every upstream request, built once instead of per request.
+ *
+ * <p>If {@code psystrike-kubernetes.bearer-token-file} is set, the token is read from the file and
+ * re-read periodically on a blocking task thread, because the kubelet rotates projected service account
+ * tokens. A request never touches the file; it only reads the latest value.
+ */
+@Component
+@Slf4j
+public class UpstreamHeaderValues {
+
+    private static final String AUTHORIZATION_VALUE_PREFIX = "Bearer ";
+
+    private final KubernetesProperties kubernetesProperties;
+    private final String userAgent;
+    private volatile String authorization;
+    @Nullable
+    private ScheduledFuture<?> reloadFuture;
+
+    public UpstreamHeaderValues(KubernetesProperties kubernetesProperties, AppVersionHelper appVersionHelper) {
+        this.kubernetesProperties = kubernetesProperties;
+
+        final String version = appVersionHelper.getVersion().getArtifactVersion();
+        userAgent = !Strings.isNullOrEmpty(version) ? "psystrike/" + version : "";
+        authorization = AUTHORIZATION_VALUE_PREFIX + kubernetesProperties.getBearerToken();
+    }
+
+    @PostConstruct
+    synchronized void postConstruct() {
+        final String tokenFile = kubernetesProperties.getBearerTokenFile();
+        if (Strings.isNullOrEmpty(tokenFile)) {
+            return;
+        }
+
+        final Path path = Paths.get(tokenFile);
+        reloadToken(path);
+        final int period = kubernetesProperties.getBearerTokenReloadSeconds();
+        reloadFuture = CommonPools.blockingTaskExecutor()
+                                  .scheduleWithFixedDelay(() -> reloadToken(path), period, period,
+                                                          TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    synchronized void preDestroy() {
+        if (reloadFuture != null) {
+            reloadFuture.cancel(false);
+            reloadFuture = null;
+        }
+    }
+
+    public String getUserAgent() {
+        return userAgent;
+    }
+
+    public String getAuthorization() {
+        return authorization;
+    }
+
+    @VisibleForTesting
+    void reloadToken(Path path) {
+        final String token;
+        try {
+            token = Files.readString(path).trim();
+        } catch (IOException | RuntimeException e) {
+            // Keep using the current token. It's valid for a while after the kubelet rotates it.
+            log.warn("Can't read the bearer token from {}", path, e);
+            return;
+        }
+        if (token.isEmpty()) {
+            log.warn("The bearer token file {} is empty", path);
+            return;
+        }
+
+        final String newAuthorization = AUTHORIZATION_VALUE_PREFIX + token;
+        if (!newAuthorization.equals(authorization)) {
+            authorization = newAuthorization;
+            log.info("Loaded the bearer token from {}", path);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package info.matsumana.psystrike.informer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.base.Splitter;
+
+/**
+ * A k8s field selector, e.g. {@code spec.nodeName=node1,status.phase!=Succeeded}.
+ * A missing field is matched as an empty string like the API server does.
+ */
+public final class FieldSelector implements Predicate<JsonNode> {
+
+    private static final FieldSelector EVERYTHING = new FieldSelector(List.of());
+    private static final Splitter REQUIREMENT_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+    private static final Splitter PATH_SPLITTER = Splitter.on('.');
+
+    private final List<Predicate<JsonNode>> requirements;
+
+    private FieldSelector(List<Predicate<JsonNode>> requirements) {
+        this.requirements = requirements;
+    }
+
+    /**
+     * Parses a field selector.
+     *
+     * @throws IllegalArgumentException if the selector is malformed
+     */
+    public static FieldSelector parse(String selector) {
+        if (selector.isBlank()) {
+            return EVERYTHING;
+        }
+
+        final List<Predicate<JsonNode>> requirements = new ArrayList<>();
+        for (String requirement : REQUIREMENT_SPLITTER.split(selector)) {
+            requirements.add(parseRequirement(requirement));
+        }
+        return new FieldSelector(List.copyOf(requirements));
+    }
+
+    @Override
+    public boolean test(JsonNode object) {
+        for (Predicate<JsonNode> requirement : requirements) {
+            if (!requirement.test(object)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Predicate<JsonNode> parseRequirement(String requirement) {
+        final boolean negated;
+        final int operatorIndex;
+        final int valueIndex;
+        if ((operatorIndex = requirement.indexOf("!=")) > 0) {
+            negated = true;
+            valueIndex = operatorIndex + 2;
+        } else if (requirement.indexOf("==") > 0) {
+            return parseRequirement(requirement.replaceFirst("==", "="));
+        } else if (requirement.indexOf('=') > 0) {
+            negated = false;
+            valueIndex = requirement.indexOf('=') + 1;
+        } else {
+            throw new IllegalArgumentException("malformed field selector: " + requirement);
+        }
+
+        final int keyEnd = negated ? operatorIndex : valueIndex - 1;
+        final List<String> path = PATH_SPLITTER.splitToList(requirement.substring(0, keyEnd).trim());
+        final String value = requirement.substring(valueIndex).trim();
+        return object -> value.equals(fieldValue(object, path)) != negated;
+    }
+
+    private static String fieldValue(JsonNode object, List<String> path) {
+        JsonNode node = object;
+        for (String name : path) {
+            node = node.path(name);
+        }
+        return node.isValueNode() ? node.asText() : "";
+    }
+}
@@ -0,0 +1,254 @@
+package info.matsumana.psystrike.informer;
+
+import static com.linecorp.armeria.common.HttpHeaderNames.AUTHORIZATION;
+import static com.linecorp.armeria.common.HttpHeaderNames.USER_AGENT;
+import static com.linecorp.armeria.common.SessionProtocol.H2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Strings;
+
+import com.linecorp.armeria.client.ClientFactory;
+import com.linecorp.armeria.client.WebClient;
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpMethod;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.MediaType;
+import com.linecorp.armeria.common.QueryParams;
+import com.linecorp.armeria.common.RequestHeaders;
+import com.linecorp.armeria.common.ResponseHeaders;
+import com.linecorp.armeria.server.ServiceRequestContext;
+
+import info.matsumana.psystrike.config.InformerProperties;
+import info.matsumana.psystrike.config.KubernetesProperties;
+import info.matsumana.psystrike.helper.UpstreamHeaderValues;
+import info.matsumana.psystrike.informer.ResourceStore.Snapshot;
+import info.matsumana.psystrike.service.ReverseProxyService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Serves LIST requests of the configured core v1 resources from memory.
+ *
+ * <p>Each resource is kept up to date by a single {@link ResourceInformer}, so Prometheus' periodic
+ * re-LISTs don't reach the k8s API server at all. The resourceVersion of a cached LIST is one the
+ * API server has sent, so the following watch can resume from it.
+ */
+@Component
+@Slf4j
+public class InformerCache {
+
+    // v1/pods, v1/namespaces/default/pods
+    private static final Pattern LIST_URI = Pattern.compile("^v1/(?:namespaces/([^/]+)/)?([^/]+)$");
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final int TIMEOUT_BUFFER_SECONDS = 3;
+
+    private final Map<String, ResourceInformer> informers = new HashMap<>();
+    private final Map<String, Counter> hitCounters = new HashMap<>();
+    private final Map<String, Counter> missCounters = new HashMap<>();
+
+    private final InformerProperties informerProperties;
+    private final KubernetesProperties kubernetesProperties;
+    private final ClientFactory clientFactory;
+    private final UpstreamHeaderValues upstreamHeaderValues;
+    private final MeterRegistry meterRegistry;
+
+    public InformerCache(InformerProperties informerProperties, KubernetesProperties kubernetesProperties,
+                         ClientFactory clientFactory, UpstreamHeaderValues upstreamHeaderValues,
+                         MeterRegistry meterRegistry) {
+        this.informerProperties = informerProperties;
+        this.kubernetesProperties = kubernetesProperties;
+        this.clientFactory = clientFactory;
+        this.upstreamHeaderValues = upstreamHeaderValues;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    void postConstruct() {
+        if (!isEnabled()) {
+            return;
+        }
+
+        final int watchTimeoutSeconds = informerProperties.getWatchTimeoutSeconds();
+        // A dedicated client without the 10 minutes response timeout of the proxy.
+        // The size limit is disabled because a watch response never ends.
+        final WebClient client =
+                WebClient.builder(String.format("%s://%s:%d/", H2.uriText(),
+                                                kubernetesProperties.getApiServer(),
+                                                kubernetesProperties.getApiServerPort()))
+                         .factory(clientFactory)
+                         .maxResponseLength(0)
+                         .responseTimeout(Duration.ofSeconds(watchTimeoutSeconds + TIMEOUT_BUFFER_SECONDS))
+                         .build();
+        final String prefix = ReverseProxyService.generatePrefix(kubernetesProperties.getApiUriPrefix());
+
+        for (String resource : informerProperties.getResources()) {
+            final ResourceInformer informer =
+                    new ResourceInformer(resource, prefix + "/api/v1/" + resource, client,
+                                         this::newRequestHeaders, watchTimeoutSeconds,
+                                         informerProperties.getRelistBackoffSeconds());
+            informers.put(resource, informer);
+            setupMetrics(resource, informer);
+            informer.start();
+        }
+    }
+
+    @PreDestroy
+    void preDestroy() {
+        informers.values().forEach(ResourceInformer::stop);
+    }
+
+    public boolean isEnabled() {
+        return informerProperties.isEnabled();
+    }
+
+    /**
+     * Serves a LIST request from the cache.
+     *
+     * @return the response, or {@code null} if the request has to be proxied to the API server.
+     */
+    @Nullable
+    public HttpResponse list(ServiceRequestContext ctx, String actualUri, QueryParams params) {
+        final Matcher matcher = LIST_URI.matcher(actualUri);
+        if (!matcher.matches()) {
+            return null;
+        }
+        final String resource = matcher.group(2);
+        final ResourceInformer informer = informers.get(resource);
+        if (informer == null) {
+            return null;
+        }
+
+        final Snapshot snapshot = isCacheable(params) ? snapshot(informer, matcher.group(1), params) : null;
+        if (snapshot == null || !isFreshEnough(snapshot, params)) {
+            missCounters.get(resource).increment();
+            return null;
+        }
+
+        hitCounters.get(resource).increment();
+        // Serializing thousands of objects doesn't belong to an event loop.
+        return HttpResponse.from(CompletableFuture.supplyAsync(() -> toHttpResponse(snapshot),
+                                                               ctx.blockingTaskExecutor()));
+    }
+
+    /**
+     * Returns the cached objects of a resource, or {@code null} if the resource isn't cached
+     * or hasn't been synced with the API server yet.
+     */
+    @Nullable
+    public Snapshot snapshot(String resource, @Nullable String namespace, LabelSelector labelSelector,
+                             FieldSelector fieldSelector) {
+        final ResourceInformer informer = informers.get(resource);
+        return informer != null ? informer.store().list(namespace, labelSelector, fieldSelector) : null;
+    }
+
+    @Nullable
+    private static Snapshot snapshot(ResourceInformer informer, @Nullable String namespace,
+                                     QueryParams params) {
+        final LabelSelector labelSelector;
+        final FieldSelector fieldSelector;
+        try {
+            labelSelector = LabelSelector.parse(params.get("labelSelector", ""));
+            fieldSelector = FieldSelector.parse(params.get("fieldSelector", ""));
+        } catch (IllegalArgumentException e) {
+            // Let the API server report the malformed selector.
+            return null;
+        }
+        return informer.store().list(namespace, labelSelector, fieldSelector);
+    }
+
+    private static boolean isCacheable(QueryParams params) {
+        if (params.contains("continue")) {
+            return false;
+        }
+        // Except for resourceVersion=0, the API server pages a LIST with a limit.
+        // Returning everything at once would break the contract.
+        return !params.contains("limit") || "0".equals(params.get("resourceVersion"));
+    }
+
+    // A LIST with a resourceVersion asks for a state which is not older than it.
+    private static boolean isFreshEnough(Snapshot snapshot, QueryParams params) {
+        final String requested = params.get("resourceVersion", "");
+        if (Strings.isNullOrEmpty(requested) || "0".equals(requested)) {
+            return true;
+        }
+        try {
+            return Long.parseLong(snapshot.getResourceVersion()) >= Long.parseLong(requested);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static HttpResponse toHttpResponse(Snapshot snapshot) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = OBJECT_MAPPER.getFactory().createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeStringField("kind", snapshot.getListKind());
+            generator.writeStringField("apiVersion", "v1");
+            generator.writeObjectFieldStart("metadata");
+            generator.writeStringField("resourceVersion", snapshot.getResourceVersion());
+            generator.writeEndObject();
+            generator.writeArrayFieldStart("items");
+            for (ObjectNode item : snapshot.getItems()) {
+                OBJECT_MAPPER.writeTree(generator, item);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        final ResponseHeaders headers = ResponseHeaders.builder(HttpStatus.OK)
+                                                       .contentType(MediaType.JSON)
+                                                       .build();
+        return HttpResponse.of(headers, HttpData.wrap(out.toByteArray()));
+    }
+
+    private RequestHeaders newRequestHeaders(String uri) {
+        return RequestHeaders.builder(HttpMethod.GET, uri)
+                             .set(USER_AGENT, upstreamHeaderValues.getUserAgent())
+                             .set(AUTHORIZATION, upstreamHeaderValues.getAuthorization())
+                             .build();
+    }
+
+    private void setupMetrics(String resource, ResourceInformer informer) {
+        hitCounters.put(resource, Counter.builder("psystrike.informer.requests")
+                                         .tag("resource", resource)
+                                         .tag("result", "hit")
+                                         .description("Number of LIST requests for the cached resources")
+                                         .register(meterRegistry));
+        missCounters.put(resource, Counter.builder("psystrike.informer.requests")
+                                          .tag("resource", resource)
+                                          .tag("result", "miss")
+                                          .description("Number of LIST requests for the cached resources")
+                                          .register(meterRegistry));
+        Gauge.builder("psystrike.informer.objects", informer.store(), ResourceStore::size)
+             .tag("resource", resource)
+             .description("Number of objects in the informer cache")
+             .register(meterRegistry);
+        Gauge.builder("psystrike.informer.staleness.seconds", informer, ResourceInformer::stalenessSeconds)
+             .tag("resource", resource)
+             .description("Seconds since the informer cache was last confirmed to be up to date")
+             .register(meterRegistry);
+    }
+}
@@ -0,0 +1,149 @@
+package info.matsumana.psystrike.informer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Splitter;
+
+/**
+ * A k8s label selector, e.g. {@code app=foo,tier!=db,env in (prod,stg),!canary}.
+ *
+ * @see <a href="https://kubernetes.io/docs/concepts/overview/working-with-objects/labels/#label-selectors">
+ *      Label selectors</a>
+ */
+public final class LabelSelector implements Predicate<Map<String, String>> {
+
+    private static final LabelSelector EVERYTHING = new LabelSelector(List.of());
+    private static final Splitter VALUE_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+
+    private final List<Predicate<Map<String, String>>> requirements;
+
+    private LabelSelector(List<Predicate<Map<String, String>>> requirements) {
+        this.requirements = requirements;
+    }
+
+    /**
+     * Parses a label selector.
+     *
+     * @throws IllegalArgumentException if the selector is malformed
+     */
+    public static LabelSelector parse(String selector) {
+        if (selector.isBlank()) {
+            return EVERYTHING;
+        }
+
+        final List<Predicate<Map<String, String>>> requirements = new ArrayList<>();
+        for (String requirement : splitRequirements(selector)) {
+            requirements.add(parseRequirement(requirement.trim()));
+        }
+        return new LabelSelector(List.copyOf(requirements));
+    }
+
+    @Override
+    public boolean test(Map<String, String> labels) {
+        for (Predicate<Map<String, String>> requirement : requirements) {
+            if (!requirement.test(labels)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Splits on commas which are not in a set, e.g. `a in (x,y),b=z` -> `a in (x,y)`, `b=z`
+    private static List<String> splitRequirements(String selector) {
+        final List<String> requirements = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < selector.length(); i++) {
+            final char c = selector.charAt(i);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                requirements.add(selector.substring(start, i));
+                start = i + 1;
+            }
+        }
+        requirements.add(selector.substring(start));
+        return requirements;
+    }
+
+    private static Predicate<Map<String, String>> parseRequirement(String requirement) {
+        if (requirement.isEmpty()) {
+            throw new IllegalArgumentException("empty label selector requirement");
+        }
+
+        final int setStart = requirement.indexOf('(');
+        if (setStart > 0) {
+            if (!requirement.endsWith(")")) {
+                throw new IllegalArgumentException("malformed label selector: " + requirement);
+            }
+            final String[] keyAndOperator = requirement.substring(0, setStart).trim().split("\\s+");
+            if (keyAndOperator.length != 2) {
+                throw new IllegalArgumentException("malformed label selector: " + requirement);
+            }
+            final String key = keyAndOperator[0];
+            final Set<String> values =
+                    Set.copyOf(VALUE_SPLITTER.splitToList(requirement.substring(setStart + 1,
+                                                                               requirement.length() - 1)));
+            switch (keyAndOperator[1]) {
+                case "in":
+                    return labels -> labels.containsKey(key) && values.contains(labels.get(key));
+                case "notin":
+                    return labels -> !labels.containsKey(key) || !values.contains(labels.get(key));
+                default:
+                    throw new IllegalArgumentException("unknown label selector operator: " + requirement);
+            }
+        }
+
+        int index;
+        if ((index = requirement.indexOf("!=")) > 0) {
+            final String key = requirement.substring(0, index).trim();
+            final String value = requirement.substring(index + 2).trim();
+            return labels -> !value.equals(labels.get(key));
+        }
+        if ((index = requirement.indexOf("==")) > 0) {
+            final String key = requirement.substring(0, index).trim();
+            final String value = requirement.substring(index + 2).trim();
+            return labels -> value.equals(labels.get(key));
+        }
+        if ((index = requirement.indexOf('=')) > 0) {
+            final String key = requirement.substring(0, index).trim();
+            final String value = requirement.substring(index + 1).trim();
+            return labels -> value.equals(labels.get(key));
+        }
+        if ((index = requirement.indexOf('>')) > 0) {
+            final String key = requirement.substring(0, index).trim();
+            final long value = Long.parseLong(requirement.substring(index + 1).trim());
+            return labels -> compare(labels.get(key), value) > 0;
+        }
+        if ((index = requirement.indexOf('<')) > 0) {
+            final String key = requirement.substring(0, index).trim();
+            final long value = Long.parseLong(requirement.substring(index + 1).trim());
+            return labels -> compare(labels.get(key), value) < 0;
+        }
+        if (requirement.startsWith("!")) {
+            final String key = requirement.substring(1).trim();
+            return labels -> !labels.containsKey(key);
+        }
+        return labels -> labels.containsKey(requirement);
+    }
+
+    // Returns 0 if the label is missing or not a number, so that neither `>` nor `<` matches.
+    private static int compare(@Nullable String label, long value) {
+        if (label == null) {
+            return 0;
+        }
+        try {
+            return Long.compare(Long.parseLong(label), value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
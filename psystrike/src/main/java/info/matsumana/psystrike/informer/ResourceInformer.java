@@ -0,0 +1,199 @@
+package info.matsumana.psystrike.informer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import javax.annotation.Nullable;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import com.linecorp.armeria.client.WebClient;
+import com.linecorp.armeria.common.AggregatedHttpResponse;
+import com.linecorp.armeria.common.CommonPools;
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.RequestHeaders;
+import com.linecorp.armeria.common.ResponseHeaders;
+
+import info.matsumana.psystrike.watch.WatchEvent;
+import info.matsumana.psystrike.watch.WatchEventFramer;
+import io.reactivex.Flowable;
+import io.reactivex.disposables.Disposable;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps a {@link ResourceStore} up to date with a LIST followed by a long-lived watch,
+ * like client-go's reflector does.
+ */
+@Slf4j
+class ResourceInformer {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final String resource;
+    private final String path;
+    private final WebClient client;
+    private final Function<String, RequestHeaders> requestHeadersFactory;
+    private final int watchTimeoutSeconds;
+    private final int relistBackoffSeconds;
+    private final ResourceStore store = new ResourceStore();
+
+    private volatile long lastSyncNanos = System.nanoTime();
+    private volatile boolean stopped;
+    @Nullable
+    private volatile Disposable watch;
+
+    ResourceInformer(String resource, String path, WebClient client,
+                     Function<String, RequestHeaders> requestHeadersFactory,
+                     int watchTimeoutSeconds, int relistBackoffSeconds) {
+        this.resource = resource;
+        this.path = path;
+        this.client = client;
+        this.requestHeadersFactory = requestHeadersFactory;
+        this.watchTimeoutSeconds = watchTimeoutSeconds;
+        this.relistBackoffSeconds = relistBackoffSeconds;
+    }
+
+    ResourceStore store() {
+        return store;
+    }
+
+    /**
+     * Returns the seconds elapsed since the store was last confirmed to be up to date.
+     * Bookmarks keep this low even for a quiet resource.
+     */
+    double stalenessSeconds() {
+        return (System.nanoTime() - lastSyncNanos) / 1_000_000_000.0;
+    }
+
+    void start() {
+        list();
+    }
+
+    void stop() {
+        stopped = true;
+        final Disposable watch = this.watch;
+        if (watch != null) {
+            watch.dispose();
+        }
+    }
+
+    private void list() {
+        if (stopped) {
+            return;
+        }
+
+        // resourceVersion=0 lets the API server serve the LIST from its watch cache instead of etcd.
+        client.execute(requestHeadersFactory.apply(path + "?resourceVersion=0"))
+              .aggregate()
+              .thenAcceptAsync(this::onList, CommonPools.blockingTaskExecutor())
+              .exceptionally(cause -> {
+                  log.warn("Can't list {} from a k8s API server", resource, cause);
+                  schedule(this::list);
+                  return null;
+              });
+    }
+
+    private void onList(AggregatedHttpResponse response) {
+        if (response.status() != HttpStatus.OK) {
+            throw new IllegalStateException("Unexpected status: " + response.status());
+        }
+
+        final JsonNode root;
+        try {
+            root = OBJECT_MAPPER.readTree(response.content().array());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        final List<ObjectNode> items = new ArrayList<>();
+        for (JsonNode item : root.path("items")) {
+            if (item instanceof ObjectNode) {
+                items.add((ObjectNode) item);
+            }
+        }
+        final String resourceVersion = root.path("metadata").path("resourceVersion").asText("");
+        store.replace(root.path("kind").asText("List"), resourceVersion, items);
+        lastSyncNanos = System.nanoTime();
+        log.info("Listed {} {} at resourceVersion={}", items.size(), resource, resourceVersion);
+
+        watch(resourceVersion);
+    }
+
+    private void watch(String resourceVersion) {
+        if (stopped) {
+            return;
+        }
+
+        final String uri = path + "?watch=true&allowWatchBookmarks=true&resourceVersion=" + resourceVersion +
+                           "&timeoutSeconds=" + watchTimeoutSeconds;
+        final WatchEventFramer framer = new WatchEventFramer();
+        watch = Flowable.fromPublisher(client.execute(requestHeadersFactory.apply(uri)))
+                        .doOnNext(httpObject -> {
+                            if (httpObject instanceof ResponseHeaders) {
+                                checkWatchStatus(((ResponseHeaders) httpObject).status());
+                            }
+                        })
+                        .filter(httpObject -> httpObject instanceof HttpData)
+                        .flatMapIterable(httpObject -> framer.feed((HttpData) httpObject))
+                        .subscribe(this::onEvent,
+                                   this::onWatchError,
+                                   () -> watch(store.resourceVersion()));
+    }
+
+    private static void checkWatchStatus(HttpStatus status) {
+        if (status == HttpStatus.GONE) {
+            throw new ResourceVersionExpiredException("Unexpected status: " + status);
+        }
+        if (status != HttpStatus.OK) {
+            throw new IllegalStateException("Unexpected status: " + status);
+        }
+    }
+
+    private void onEvent(WatchEvent event) throws IOException {
+        if (event.isError()) {
+            // Most likely 410 Gone; the resourceVersion is too old to resume from.
+            throw new ResourceVersionExpiredException(new String(event.getBytes(), StandardCharsets.UTF_8));
+        }
+
+        final JsonNode root = OBJECT_MAPPER.readTree(event.getBytes());
+        final JsonNode object = root.path("object");
+        if (event.getType() != null && object instanceof ObjectNode) {
+            store.apply(event.getType(), (ObjectNode) object);
+            lastSyncNanos = System.nanoTime();
+        }
+    }
+
+    private void onWatchError(Throwable cause) {
+        if (cause instanceof ResourceVersionExpiredException) {
+            log.info("Relisting {}: {}", resource, cause.getMessage());
+            store.invalidate();
+            list();
+        } else {
+            log.warn("Watching {} failed; resuming from resourceVersion={}",
+                     resource, store.resourceVersion(), cause);
+            schedule(() -> watch(store.resourceVersion()));
+        }
+    }
+
+    private void schedule(Runnable task) {
+        if (!stopped) {
+            CommonPools.workerGroup().schedule(task, relistBackoffSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    private static final class ResourceVersionExpiredException extends RuntimeException {
+        private static final long serialVersionUID = -2283622713617216117L;
+
+        ResourceVersionExpiredException(String message) {
+            super(message, null, false, false);
+        }
+    }
+}
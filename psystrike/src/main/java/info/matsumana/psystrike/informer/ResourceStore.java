@@ -0,0 +1,157 @@
+package info.matsumana.psystrike.informer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.Nullable;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import lombok.Value;
+
+/**
+ * The objects of a single k8s resource kept up to date by a {@link ResourceInformer}.
+ *
+ * <p>Objects are never mutated after they are stored; an update replaces the whole object.
+ * So a {@link Snapshot} can be serialized outside of the lock.
+ */
+public class ResourceStore {
+
+    @Value
+    public static class Snapshot {
+        String listKind;
+        String resourceVersion;
+        List<ObjectNode> items;
+    }
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // namespace/name -> object
+    private final Map<String, ObjectNode> objects = new HashMap<>();
+    private String listKind = "List";
+    private String resourceVersion = "";
+    private boolean synced;
+
+    /**
+     * Replaces all objects with the result of a LIST.
+     */
+    public void replace(String listKind, String resourceVersion, List<ObjectNode> items) {
+        lock.writeLock().lock();
+        try {
+            objects.clear();
+            for (ObjectNode item : items) {
+                objects.put(key(item), item);
+            }
+            this.listKind = listKind;
+            this.resourceVersion = resourceVersion;
+            synced = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Applies an {@code ADDED}, {@code MODIFIED}, {@code DELETED} or {@code BOOKMARK} watch event.
+     */
+    public void apply(String type, ObjectNode object) {
+        final String newResourceVersion = object.path("metadata").path("resourceVersion").asText("");
+        // List items don't have kind and apiVersion. Strip them so that the items look the same.
+        object.remove("kind");
+        object.remove("apiVersion");
+
+        lock.writeLock().lock();
+        try {
+            switch (type) {
+                case "ADDED":
+                case "MODIFIED":
+                    objects.put(key(object), object);
+                    break;
+                case "DELETED":
+                    objects.remove(key(object));
+                    break;
+                default:
+                    // BOOKMARK only advances the resourceVersion.
+                    break;
+            }
+            if (!newResourceVersion.isEmpty()) {
+                resourceVersion = newResourceVersion;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void invalidate() {
+        lock.writeLock().lock();
+        try {
+            synced = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public String resourceVersion() {
+        lock.readLock().lock();
+        try {
+            return resourceVersion;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return objects.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the matching objects and the resourceVersion they are consistent with,
+     * or {@code null} if the store hasn't been synced with the API server.
+     */
+    @Nullable
+    public Snapshot list(@Nullable String namespace, LabelSelector labelSelector, FieldSelector fieldSelector) {
+        lock.readLock().lock();
+        try {
+            if (!synced) {
+                return null;
+            }
+
+            final List<ObjectNode> items = new ArrayList<>();
+            for (ObjectNode object : objects.values()) {
+                final JsonNode metadata = object.path("metadata");
+                if (namespace != null && !namespace.equals(metadata.path("namespace").asText())) {
+                    continue;
+                }
+                if (labelSelector.test(labels(metadata)) && fieldSelector.test(object)) {
+                    items.add(object);
+                }
+            }
+            return new Snapshot(listKind, resourceVersion, items);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static Map<String, String> labels(JsonNode metadata) {
+        final JsonNode labels = metadata.path("labels");
+        if (!labels.isObject() || labels.size() == 0) {
+            return Map.of();
+        }
+        final Map<String, String> map = new HashMap<>(labels.size());
+        labels.fields().forEachRemaining(entry -> map.put(entry.getKey(), entry.getValue().asText()));
+        return map;
+    }
+
+    private static String key(JsonNode object) {
+        final JsonNode metadata = object.path("metadata");
+        return metadata.path("namespace").asText() + '/' + metadata.path("name").asText();
+    }
+}
@@ -0,0 +1,112 @@
+package info.matsumana.psystrike.limit;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * Bounds the number of concurrent requests, queueing a bounded number of requests beyond it.
+ *
+ * <p>If adaptive, the limit is raised by one for every limit's worth of fast responses and lowered by
+ * 10% on a slow or failed response (AIMD), between 1 and the configured maximum.
+ */
+final class Bulkhead {
+
+    private static final double DECREASE_FACTOR = 0.9;
+
+    private final int maxConcurrency;
+    private final int maxQueueSize;
+    private final boolean adaptive;
+    private final long latencyThresholdNanos;
+
+    // All guarded by this.
+    private final ArrayDeque<CompletableFuture<Void>> queue = new ArrayDeque<>();
+    private double limit;
+    private int inFlight;
+
+    Bulkhead(int maxConcurrency, int maxQueueSize, boolean adaptive, long latencyThresholdMillis) {
+        this.maxConcurrency = maxConcurrency;
+        this.maxQueueSize = maxQueueSize;
+        this.adaptive = adaptive;
+        latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(latencyThresholdMillis);
+        limit = maxConcurrency;
+    }
+
+    /**
+     * Returns a future completed when a permit is acquired, or {@code null} if the queue is full.
+     * A queued future which is completed by someone else, e.g. on timeout, gives up its place.
+     */
+    @Nullable
+    synchronized CompletableFuture<Void> acquire() {
+        if (inFlight < (int) limit && queue.isEmpty()) {
+            inFlight++;
+            return CompletableFuture.completedFuture(null);
+        }
+
+        // Drop the waiters which have given up before counting the queue.
+        queue.removeIf(CompletableFuture::isDone);
+        if (queue.size() >= maxQueueSize) {
+            return null;
+        }
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        queue.add(future);
+        return future;
+    }
+
+    /**
+     * Releases a permit.
+     *
+     * @param latencyNanos the time taken by the request, or a negative value if it mustn't adapt the limit
+     * @param success whether the request succeeded
+     */
+    void release(long latencyNanos, boolean success) {
+        final CompletableFuture<Void> next;
+        synchronized (this) {
+            inFlight--;
+            if (adaptive && latencyNanos >= 0) {
+                if (success && latencyNanos <= latencyThresholdNanos) {
+                    limit = Math.min(maxConcurrency, limit + 1 / limit);
+                } else {
+                    limit = Math.max(1, limit * DECREASE_FACTOR);
+                }
+            }
+            next = poll();
+        }
+        // Outside of the lock, because the waiter continues on this thread.
+        if (next != null && !next.complete(null)) {
+            // The waiter has just timed out. Pass the permit on.
+            release(-1, true);
+        }
+    }
+
+    @Nullable
+    private CompletableFuture<Void> poll() {
+        if (inFlight >= (int) limit) {
+            return null;
+        }
+        for (;;) {
+            final CompletableFuture<Void> future = queue.poll();
+            if (future == null) {
+                return null;
+            }
+            if (!future.isDone()) {
+                inFlight++;
+                return future;
+            }
+        }
+    }
+
+    synchronized int inFlight() {
+        return inFlight;
+    }
+
+    synchronized int queueSize() {
+        return queue.size();
+    }
+
+    synchronized double limit() {
+        return limit;
+    }
+}
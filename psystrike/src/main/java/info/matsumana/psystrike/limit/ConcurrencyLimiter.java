@@ -0,0 +1,157 @@
+package info.matsumana.psystrike.limit;
+
+import static com.linecorp.armeria.common.HttpHeaderNames.RETRY_AFTER;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+import javax.annotation.Nullable;
+
+import org.springframework.stereotype.Component;
+
+import com.linecorp.armeria.client.HttpClient;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.ResponseHeaders;
+import com.linecorp.armeria.common.util.Exceptions;
+
+import info.matsumana.psystrike.config.ConcurrencyLimitProperties;
+import info.matsumana.psystrike.config.ConcurrencyLimitProperties.Limit;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Bounds the concurrent upstream requests per route family and per upstream host.
+ *
+ * <p>A request waits in a bounded queue for a permit, and is rejected with 503 and Retry-After
+ * when the queue is full or it has waited too long, so that a burst of scrapes and watches, e.g. after
+ * a Prometheus restart, doesn't overwhelm the k8s API server and psystrike itself.
+ */
+@Component
+public class ConcurrencyLimiter {
+
+    private static final Function<HttpClient, HttpClient> NO_LIMIT = Function.identity();
+
+    private final ConcurrencyLimitProperties properties;
+    private final Map<RouteFamily, Bulkhead> bulkheads = new EnumMap<>(RouteFamily.class);
+    private final Map<RouteFamily, Timer> waitTimers = new EnumMap<>(RouteFamily.class);
+    private final Map<RouteFamily, Counter> queueFullCounters = new EnumMap<>(RouteFamily.class);
+    private final Map<RouteFamily, Counter> timeoutCounters = new EnumMap<>(RouteFamily.class);
+
+    public ConcurrencyLimiter(ConcurrencyLimitProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+
+        for (RouteFamily family : RouteFamily.values()) {
+            final Bulkhead bulkhead = newBulkhead(limit(family), family != RouteFamily.WATCH);
+            bulkheads.put(family, bulkhead);
+            setupMetrics(meterRegistry, family, bulkhead);
+        }
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * Returns a decorator for the WebClient of an API server, which limits watches, lists and
+     * /apiservers scrapes separately.
+     */
+    public Function<? super HttpClient, ? extends HttpClient> newApiServerDecorator() {
+        return newDecorator(null);
+    }
+
+    /**
+     * Returns a decorator for the WebClient of a pod.
+     */
+    public Function<? super HttpClient, ? extends HttpClient> newPodDecorator() {
+        return newDecorator(RouteFamily.PODS);
+    }
+
+    private Function<? super HttpClient, ? extends HttpClient> newDecorator(@Nullable RouteFamily family) {
+        if (!isEnabled()) {
+            return NO_LIMIT;
+        }
+        // Each WebClient has its own upstream host, so the host's bulkhead is created per WebClient.
+        final Bulkhead hostBulkhead = newBulkhead(properties.getPerHost(), true);
+        return delegate -> new ConcurrencyLimitingClient(delegate, this, family, hostBulkhead);
+    }
+
+    Bulkhead bulkhead(RouteFamily family) {
+        return bulkheads.get(family);
+    }
+
+    long queueTimeoutMillis() {
+        return properties.getQueueTimeoutMillis();
+    }
+
+    void recordWait(RouteFamily family, long waitNanos) {
+        waitTimers.get(family).record(waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    HttpResponse reject(RouteFamily family, Throwable cause) {
+        if (Exceptions.peel(cause) instanceof TimeoutException) {
+            timeoutCounters.get(family).increment();
+        } else {
+            queueFullCounters.get(family).increment();
+        }
+        final ResponseHeaders headers = ResponseHeaders.builder(HttpStatus.SERVICE_UNAVAILABLE)
+                                                       .setInt(RETRY_AFTER, properties.getRetryAfterSeconds())
+                                                       .build();
+        return HttpResponse.of(headers);
+    }
+
+    private Limit limit(RouteFamily family) {
+        switch (family) {
+            case WATCH:
+                return properties.getWatch();
+            case LIST:
+                return properties.getList();
+            case APISERVERS:
+                return properties.getApiservers();
+            default:
+                return properties.getPods();
+        }
+    }
+
+    private Bulkhead newBulkhead(Limit limit, boolean adaptable) {
+        // A watch lasts for minutes, so its latency says nothing about the upstream's health.
+        return new Bulkhead(limit.getMaxConcurrency(), limit.getMaxQueueSize(),
+                            adaptable && properties.isAdaptive(),
+                            properties.getAdaptiveLatencyThresholdMillis());
+    }
+
+    private void setupMetrics(MeterRegistry meterRegistry, RouteFamily family, Bulkhead bulkhead) {
+        final String tagValue = family.tagValue();
+        Gauge.builder("psystrike.concurrency.in.flight", bulkhead, Bulkhead::inFlight)
+             .tag("family", tagValue)
+             .description("Number of upstream requests in flight")
+             .register(meterRegistry);
+        Gauge.builder("psystrike.concurrency.queue.size", bulkhead, Bulkhead::queueSize)
+             .tag("family", tagValue)
+             .description("Number of upstream requests waiting for a permit")
+             .register(meterRegistry);
+        Gauge.builder("psystrike.concurrency.limit", bulkhead, Bulkhead::limit)
+             .tag("family", tagValue)
+             .description("Current concurrency limit, which is lowered by the adaptive limit")
+             .register(meterRegistry);
+        waitTimers.put(family, Timer.builder("psystrike.concurrency.wait.duration")
+                                    .tag("family", tagValue)
+                                    .description("Time upstream requests waited for a permit")
+                                    .register(meterRegistry));
+        queueFullCounters.put(family, Counter.builder("psystrike.concurrency.rejections")
+                                             .tag("family", tagValue)
+                                             .tag("reason", "queue_full")
+                                             .description("Number of upstream requests rejected with 503")
+                                             .register(meterRegistry));
+        timeoutCounters.put(family, Counter.builder("psystrike.concurrency.rejections")
+                                           .tag("family", tagValue)
+                                           .tag("reason", "timeout")
+                                           .description("Number of upstream requests rejected with 503")
+                                           .register(meterRegistry));
+    }
+}
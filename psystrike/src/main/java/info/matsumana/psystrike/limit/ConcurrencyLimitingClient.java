@@ -0,0 +1,115 @@
+package info.matsumana.psystrike.limit;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import com.linecorp.armeria.client.ClientRequestContext;
+import com.linecorp.armeria.client.HttpClient;
+import com.linecorp.armeria.client.SimpleDecoratingHttpClient;
+import com.linecorp.armeria.common.HttpRequest;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpStatusClass;
+
+/**
+ * Acquires the permits of the route family and the upstream host before sending a request,
+ * and releases them when the response ends.
+ */
+final class ConcurrencyLimitingClient extends SimpleDecoratingHttpClient {
+
+    private final ConcurrencyLimiter limiter;
+    @Nullable
+    private final RouteFamily family;
+    private final Bulkhead hostBulkhead;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param family the family of every request, or {@code null} to classify each request to an API server
+     */
+    ConcurrencyLimitingClient(HttpClient delegate, ConcurrencyLimiter limiter, @Nullable RouteFamily family,
+                              Bulkhead hostBulkhead) {
+        super(delegate);
+        this.limiter = limiter;
+        this.family = family;
+        this.hostBulkhead = hostBulkhead;
+    }
+
+    @Override
+    public HttpResponse execute(ClientRequestContext ctx, HttpRequest req) throws Exception {
+        final RouteFamily family =
+                this.family != null ? this.family : RouteFamily.ofApiServerRequest(ctx.path(), ctx.query());
+        final Bulkhead familyBulkhead = limiter.bulkhead(family);
+        // Watches to the same API server are bounded by their family only.
+        final Bulkhead hostBulkhead = family != RouteFamily.WATCH ? this.hostBulkhead : null;
+        final long startNanos = System.nanoTime();
+
+        final CompletableFuture<Void> familyPermit = familyBulkhead.acquire();
+        if (familyPermit == null) {
+            return limiter.reject(family, new IllegalStateException("queue full"));
+        }
+        CompletableFuture<Void> acquired = withTimeout(familyPermit);
+        if (hostBulkhead != null) {
+            acquired = acquired.thenCompose(unused -> {
+                final CompletableFuture<Void> hostPermit = hostBulkhead.acquire();
+                if (hostPermit == null) {
+                    familyBulkhead.release(-1, true);
+                    throw new CompletionException(new IllegalStateException("queue full"));
+                }
+                return withTimeout(hostPermit).whenComplete((unusedHost, cause) -> {
+                    if (cause != null) {
+                        familyBulkhead.release(-1, true);
+                    }
+                });
+            });
+        }
+
+        if (acquired.isDone() && !acquired.isCompletedExceptionally()) {
+            // The fast path; no permit was waited for.
+            return executeWithPermits(ctx, req, family, familyBulkhead, hostBulkhead, startNanos);
+        }
+        return HttpResponse.from(acquired.handleAsync((unused, cause) -> {
+            if (cause != null) {
+                return limiter.reject(family, cause);
+            }
+            return executeWithPermits(ctx, req, family, familyBulkhead, hostBulkhead, startNanos);
+        }, ctx.eventLoop()));
+    }
+
+    private HttpResponse executeWithPermits(ClientRequestContext ctx, HttpRequest req, RouteFamily family,
+                                            Bulkhead familyBulkhead, @Nullable Bulkhead hostBulkhead,
+                                            long startNanos) {
+        final long acquiredNanos = System.nanoTime();
+        limiter.recordWait(family, acquiredNanos - startNanos);
+
+        final HttpResponse res;
+        try {
+            res = delegate().execute(ctx, req);
+        } catch (Throwable t) {
+            release(familyBulkhead, hostBulkhead, -1, false);
+            return HttpResponse.ofFailure(t);
+        }
+
+        ctx.log().whenComplete().thenAccept(log -> {
+            final boolean success = log.responseCause() == null &&
+                                    log.responseHeaders().status().codeClass() != HttpStatusClass.SERVER_ERROR;
+            release(familyBulkhead, hostBulkhead, System.nanoTime() - acquiredNanos, success);
+        });
+        return res;
+    }
+
+    private static void release(Bulkhead familyBulkhead, @Nullable Bulkhead hostBulkhead,
+                                long latencyNanos, boolean success) {
+        familyBulkhead.release(latencyNanos, success);
+        if (hostBulkhead != null) {
+            hostBulkhead.release(latencyNanos, success);
+        }
+    }
+
+    private CompletableFuture<Void> withTimeout(CompletableFuture<Void> permit) {
+        // Completes the permit itself exceptionally, so that the bulkhead skips it.
+        return permit.orTimeout(limiter.queueTimeoutMillis(), TimeUnit.MILLISECONDS);
+    }
+}
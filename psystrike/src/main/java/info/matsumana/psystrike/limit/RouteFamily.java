@@ -0,0 +1,39 @@
+package info.matsumana.psystrike.limit;
+
+import javax.annotation.Nullable;
+
+import com.linecorp.armeria.common.QueryParams;
+
+/**
+ * The kinds of upstream requests which are limited separately.
+ */
+public enum RouteFamily {
+    WATCH("watch"),
+    LIST("list"),
+    APISERVERS("apiservers"),
+    PODS("pods");
+
+    private final String tagValue;
+
+    RouteFamily(String tagValue) {
+        this.tagValue = tagValue;
+    }
+
+    public String tagValue() {
+        return tagValue;
+    }
+
+    /**
+     * Classifies a request to an API server. /api requests are either watches or lists,
+     * and the others are /apiservers scrapes.
+     */
+    public static RouteFamily ofApiServerRequest(String path, @Nullable String query) {
+        if (query != null) {
+            final String watch = QueryParams.fromQueryString(query).get("watch", "false");
+            if ("true".equals(watch) || "1".equals(watch)) {
+                return WATCH;
+            }
+        }
+        return path.contains("/api/") ? LIST : APISERVERS;
+    }
+}
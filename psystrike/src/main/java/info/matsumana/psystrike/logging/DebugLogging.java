@@ -0,0 +1,83 @@
+package info.matsumana.psystrike.logging;
+
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+
+import com.linecorp.armeria.client.ClientRequestContext;
+import com.linecorp.armeria.client.HttpClient;
+import com.linecorp.armeria.client.SimpleDecoratingHttpClient;
+import com.linecorp.armeria.client.logging.LoggingClient;
+import com.linecorp.armeria.common.HttpRequest;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.server.HttpService;
+import com.linecorp.armeria.server.ServiceRequestContext;
+import com.linecorp.armeria.server.SimpleDecoratingHttpService;
+import com.linecorp.armeria.server.logging.LoggingService;
+
+/**
+ * Creates the logging decorators which cost a level check per request unless the logger is debug-enabled.
+ *
+ * <p>The level is checked on every request, so that the logging can be switched at runtime,
+ * e.g. with {@code logging.level.info.matsumana.psystrike=DEBUG}.
+ */
+public final class DebugLogging {
+
+    public static Function<? super HttpClient, ? extends HttpClient> newClientDecorator(Logger logger) {
+        final Function<? super HttpClient, LoggingClient> loggingDecorator =
+                LoggingClient.builder()
+                             .logger(logger)
+                             .newDecorator();
+        return delegate -> new DebugLoggingClient(delegate, loggingDecorator.apply(delegate), logger);
+    }
+
+    public static Function<? super HttpService, ? extends HttpService> newServiceDecorator(Logger logger) {
+        final Function<? super HttpService, LoggingService> loggingDecorator =
+                LoggingService.builder()
+                              .logger(logger)
+                              .newDecorator();
+        return delegate -> new DebugLoggingService(delegate, loggingDecorator.apply(delegate), logger);
+    }
+
+    private static final class DebugLoggingClient extends SimpleDecoratingHttpClient {
+
+        private final HttpClient loggingClient;
+        private final Logger logger;
+
+        DebugLoggingClient(HttpClient delegate, HttpClient loggingClient, Logger logger) {
+            super(delegate);
+            this.loggingClient = loggingClient;
+            this.logger = logger;
+        }
+
+        @Override
+        public HttpResponse execute(ClientRequestContext ctx, HttpRequest req) throws Exception {
+            if (logger.isDebugEnabled()) {
+                return loggingClient.execute(ctx, req);
+            }
+            return delegate().execute(ctx, req);
+        }
+    }
+
+    private static final class DebugLoggingService extends SimpleDecoratingHttpService {
+
+        private final HttpService loggingService;
+        private final Logger logger;
+
+        DebugLoggingService(HttpService delegate, HttpService loggingService, Logger logger) {
+            super(delegate);
+            this.loggingService = loggingService;
+            this.logger = logger;
+        }
+
+        @Override
+        public HttpResponse serve(ServiceRequestContext ctx, HttpRequest req) throws Exception {
+            if (logger.isDebugEnabled()) {
+                return loggingService.serve(ctx, req);
+            }
+            return delegate().serve(ctx, req);
+        }
+    }
+
+    private DebugLogging() {}
+}
@@ -0,0 +1,105 @@
+package info.matsumana.psystrike.logging;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpResponse;
+
+import info.matsumana.psystrike.config.PayloadLoggingProperties;
+import lombok.Value;
+
+/**
+ * Logs a sample of the relayed chunks, truncated, to the {@code psystrike.payload} logger.
+ *
+ * <p>While disabled, a chunk costs a volatile read. A chunk is copied into a String only when it's sampled.
+ */
+@Component
+public class PayloadLogger {
+
+    private static final Logger logger = LoggerFactory.getLogger("psystrike.payload");
+
+    private volatile Settings settings;
+
+    public PayloadLogger(PayloadLoggingProperties properties) {
+        settings = new Settings(properties.isEnabled(), properties.getSampleRate(), properties.getMaxBytes());
+        validate(settings);
+    }
+
+    public Settings getSettings() {
+        return settings;
+    }
+
+    public void setSettings(Settings settings) {
+        validate(settings);
+        this.settings = settings;
+        logger.info("Payload logging settings changed. settings={}", settings);
+    }
+
+    /**
+     * Wraps a response so that its chunks are sampled.
+     *
+     * @param stream the name of the stream which is logged with the chunks, e.g. {@code watch}
+     */
+    public HttpResponse decorate(HttpResponse response, String stream) {
+        return new PayloadLoggingHttpResponse(response, this, stream);
+    }
+
+    /**
+     * Logs the chunk if it's sampled.
+     */
+    public void log(String stream, HttpData data) {
+        final Settings settings = this.settings;
+        if (!settings.enabled || !logger.isInfoEnabled()) {
+            return;
+        }
+        if (settings.sampleRate > 1 && ThreadLocalRandom.current().nextInt(settings.sampleRate) != 0) {
+            return;
+        }
+        logger.info("{} payload: length={}, content={}",
+                    stream, data.length(), truncate(data, settings.maxBytes));
+    }
+
+    static String truncate(HttpData data, int maxBytes) {
+        int length = Math.min(data.length(), maxBytes);
+        // Cut before the character the limit falls in, so that the content doesn't end with U+FFFD.
+        while (length > 0 && length < data.length() && isContinuationByte(byteAt(data, length))) {
+            length--;
+        }
+        if (data.isPooled()) {
+            return data.byteBuf().toString(data.byteBuf().readerIndex(), length, StandardCharsets.UTF_8);
+        }
+        return new String(data.array(), 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static byte byteAt(HttpData data, int index) {
+        if (data.isPooled()) {
+            return data.byteBuf().getByte(data.byteBuf().readerIndex() + index);
+        }
+        return data.array()[index];
+    }
+
+    // The second or later byte of a multi-byte UTF-8 character, i.e. 10xxxxxx
+    private static boolean isContinuationByte(byte b) {
+        return (b & 0xC0) == 0x80;
+    }
+
+    private static void validate(Settings settings) {
+        checkArgument(settings.sampleRate > 0, "sampleRate: %s (expected: > 0)", settings.sampleRate);
+        checkArgument(settings.maxBytes >= 0, "maxBytes: %s (expected: >= 0)", settings.maxBytes);
+    }
+
+    @Value
+    public static class Settings {
+        boolean enabled;
+        // Log 1 in sampleRate chunks
+        int sampleRate;
+        int maxBytes;
+    }
+}
@@ -0,0 +1,43 @@
+package info.matsumana.psystrike.logging;
+
+import java.util.Optional;
+
+import org.springframework.stereotype.Component;
+
+import com.linecorp.armeria.server.annotation.Get;
+import com.linecorp.armeria.server.annotation.Param;
+import com.linecorp.armeria.server.annotation.Post;
+import com.linecorp.armeria.server.annotation.ProducesJson;
+
+import info.matsumana.psystrike.logging.PayloadLogger.Settings;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Shows and switches the payload logging at runtime, e.g.
+ * {@code curl -XPOST 'localhost:8080/internal/payload-logging?enabled=true&sampleRate=10'}.
+ * The parameters which aren't given keep their current values.
+ */
+@Component
+@RequiredArgsConstructor
+public class PayloadLoggingAdminService {
+
+    private final PayloadLogger payloadLogger;
+
+    @Get("/payload-logging")
+    @ProducesJson
+    public Settings get() {
+        return payloadLogger.getSettings();
+    }
+
+    @Post("/payload-logging")
+    @ProducesJson
+    public Settings update(@Param Optional<Boolean> enabled, @Param Optional<Integer> sampleRate,
+                           @Param Optional<Integer> maxBytes) {
+        final Settings current = payloadLogger.getSettings();
+        // An invalid value is rejected with 400 Bad Request by the IllegalArgumentException.
+        payloadLogger.setSettings(new Settings(enabled.orElse(current.isEnabled()),
+                                               sampleRate.orElse(current.getSampleRate()),
+                                               maxBytes.orElse(current.getMaxBytes())));
+        return payloadLogger.getSettings();
+    }
+}
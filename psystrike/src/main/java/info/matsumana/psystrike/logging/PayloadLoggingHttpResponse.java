@@ -0,0 +1,29 @@
+package info.matsumana.psystrike.logging;
+
+import com.linecorp.armeria.common.FilteredHttpResponse;
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpObject;
+import com.linecorp.armeria.common.HttpResponse;
+
+/**
+ * Passes the chunks of a response to a {@link PayloadLogger} without touching them.
+ */
+final class PayloadLoggingHttpResponse extends FilteredHttpResponse {
+
+    private final PayloadLogger payloadLogger;
+    private final String stream;
+
+    PayloadLoggingHttpResponse(HttpResponse delegate, PayloadLogger payloadLogger, String stream) {
+        super(delegate, true);
+        this.payloadLogger = payloadLogger;
+        this.stream = stream;
+    }
+
+    @Override
+    protected HttpObject filter(HttpObject obj) {
+        if (obj instanceof HttpData) {
+            payloadLogger.log(stream, (HttpData) obj);
+        }
+        return obj;
+    }
+}
@@ -2,7 +2,10 @@ package info.matsumana.psystrike.metrics;
 
 import java.util.List;
 
+import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
 
 import info.matsumana.psystrike.helper.AppVersionHelper;
 import info.matsumana.psystrike.helper.AppVersionHelper.Version;
@@ -10,18 +13,21 @@ import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Tag;
 
+// Not needed to serve the first requests, so created once the app is ready.
 @Configuration
+@Lazy
 public class AppVersionMetricsConfig {
 
+    private final MeterRegistry meterRegistry;
     private final AppVersionHelper appVersionHelper;
 
     public AppVersionMetricsConfig(MeterRegistry meterRegistry, AppVersionHelper appVersionHelper) {
+        this.meterRegistry = meterRegistry;
         this.appVersionHelper = appVersionHelper;
-
-        exportMetrics(meterRegistry);
     }
 
-    private void exportMetrics(MeterRegistry meterRegistry) {
+    @EventListener(ApplicationReadyEvent.class)
+    public void exportMetrics() {
         final Version versionInfo = appVersionHelper.getVersion();
         final String version = versionInfo.getArtifactVersion();
         final String commit = versionInfo.getLongCommitHash();
@@ -0,0 +1,55 @@
+package info.matsumana.psystrike.metrics;
+
+import com.linecorp.armeria.common.FilteredHttpResponse;
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpObject;
+import com.linecorp.armeria.common.HttpResponse;
+
+import io.micrometer.core.instrument.Counter;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Counts the newline-delimited events of a watch stream without framing them.
+ */
+final class EventCountingHttpResponse extends FilteredHttpResponse {
+
+    private final Counter counter;
+
+    EventCountingHttpResponse(HttpResponse delegate, Counter counter) {
+        super(delegate, true);
+        this.counter = counter;
+    }
+
+    @Override
+    protected HttpObject filter(HttpObject obj) {
+        if (obj instanceof HttpData) {
+            final HttpData data = (HttpData) obj;
+            // array() would copy a pooled buffer.
+            final int events = data.isPooled() ? countLineFeeds(data.byteBuf()) : countLineFeeds(data.array());
+            if (events > 0) {
+                counter.increment(events);
+            }
+        }
+        return obj;
+    }
+
+    private static int countLineFeeds(ByteBuf buf) {
+        final int end = buf.writerIndex();
+        int count = 0;
+        for (int i = buf.indexOf(buf.readerIndex(), end, (byte) '\n'); i >= 0;
+             i = buf.indexOf(i + 1, end, (byte) '\n')) {
+            count++;
+        }
+        return count;
+    }
+
+    private static int countLineFeeds(byte[] array) {
+        int count = 0;
+        for (byte b : array) {
+            if (b == '\n') {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -3,19 +3,36 @@ package info.matsumana.psystrike.metrics;
 import java.util.List;
 
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
 
 import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Tag;
 
 @Configuration
+@Lazy
 public class JvmVersionMetricsConfig {
 
+    private final String vmVendor;
+    private final String vmVersion;
+    private final String version;
+    private final MeterRegistry meterRegistry;
+
     public JvmVersionMetricsConfig(@Value("${java.vm.vendor}") String vmVendor,
                                    @Value("${java.vm.version}") String vmVersion,
                                    @Value("${java.version}") String version,
                                    MeterRegistry meterRegistry) {
+        this.vmVendor = vmVendor;
+        this.vmVersion = vmVersion;
+        this.version = version;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void exportMetrics() {
         final List<Tag> tags = List.of(Tag.of("vm.vendor", vmVendor),
                                        Tag.of("vm.version", vmVersion),
                                        Tag.of("version", version));
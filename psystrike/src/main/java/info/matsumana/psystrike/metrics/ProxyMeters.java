@@ -0,0 +1,107 @@
+package info.matsumana.psystrike.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import com.linecorp.armeria.common.logging.RequestLog;
+import com.linecorp.armeria.common.logging.RequestLogAccess;
+import com.linecorp.armeria.server.ServiceRequestContext;
+
+import info.matsumana.psystrike.limit.RouteFamily;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.util.AttributeKey;
+
+/**
+ * The meters of a pair of a route and a target, created once and shared by their requests.
+ */
+final class ProxyMeters {
+
+    // Set to the downstream request, and looked up by the upstream requests sent on behalf of it.
+    static final AttributeKey<ProxyMeters> METERS = AttributeKey.valueOf(ProxyMeters.class, "METERS");
+    private static final AttributeKey<RequestLogAccess> UPSTREAM_LOG =
+            AttributeKey.valueOf(ProxyMeters.class, "UPSTREAM_LOG");
+
+    private final RouteFamily family;
+    private final Timer proxyTimer;
+    private final Timer overheadTimer;
+    private final Timer upstreamFirstByteTimer;
+    private final Timer upstreamTimer;
+    private final DistributionSummary upstreamRequestBytes;
+    private final DistributionSummary upstreamResponseBytes;
+
+    ProxyMeters(MeterRegistry meterRegistry, RouteFamily family, String target) {
+        this.family = family;
+        final String route = family.tagValue();
+        proxyTimer = Timer.builder("psystrike.proxy.duration")
+                          .tag("route", route)
+                          .tag("target", target)
+                          .description("Time from receiving a request to sending the end of its response")
+                          .publishPercentileHistogram()
+                          .register(meterRegistry);
+        overheadTimer = Timer.builder("psystrike.proxy.overhead")
+                             .tag("route", route)
+                             .tag("target", target)
+                             .description("Time spent in psystrike, i.e. the total time minus the upstream's")
+                             .publishPercentileHistogram()
+                             .register(meterRegistry);
+        upstreamFirstByteTimer = Timer.builder("psystrike.upstream.first.byte")
+                                      .tag("route", route)
+                                      .tag("target", target)
+                                      .description("Time from sending a request to an upstream to receiving " +
+                                                   "the first byte of its response")
+                                      .publishPercentileHistogram()
+                                      .register(meterRegistry);
+        upstreamTimer = Timer.builder("psystrike.upstream.duration")
+                             .tag("route", route)
+                             .tag("target", target)
+                             .description("Time from sending a request to an upstream to receiving " +
+                                          "the end of its response")
+                             .publishPercentileHistogram()
+                             .register(meterRegistry);
+        upstreamRequestBytes = DistributionSummary.builder("psystrike.upstream.request.bytes")
+                                                  .baseUnit("bytes")
+                                                  .tag("route", route)
+                                                  .tag("target", target)
+                                                  .description("Content bytes sent to upstreams")
+                                                  .register(meterRegistry);
+        upstreamResponseBytes = DistributionSummary.builder("psystrike.upstream.response.bytes")
+                                                   .baseUnit("bytes")
+                                                   .tag("route", route)
+                                                   .tag("target", target)
+                                                   .description("Content bytes received from upstreams")
+                                                   .register(meterRegistry);
+    }
+
+    void attach(ServiceRequestContext ctx) {
+        ctx.setAttr(METERS, this);
+        ctx.log().whenComplete().thenAccept(log -> {
+            final long totalNanos = log.totalDurationNanos();
+            proxyTimer.record(totalNanos, TimeUnit.NANOSECONDS);
+
+            // A watch spends its time waiting for events, which says nothing about psystrike.
+            final RequestLogAccess upstreamLog = ctx.ownAttr(UPSTREAM_LOG);
+            if (family != RouteFamily.WATCH && upstreamLog != null) {
+                upstreamLog.whenComplete().thenAccept(upstream -> {
+                    final long overheadNanos = Math.max(0, totalNanos - upstream.totalDurationNanos());
+                    overheadTimer.record(overheadNanos, TimeUnit.NANOSECONDS);
+                });
+            }
+        });
+    }
+
+    void recordUpstream(ServiceRequestContext root, RequestLogAccess upstreamLog) {
+        root.setAttr(UPSTREAM_LOG, upstreamLog);
+        upstreamLog.whenComplete().thenAccept(this::recordUpstream);
+    }
+
+    private void recordUpstream(RequestLog log) {
+        upstreamTimer.record(log.totalDurationNanos(), TimeUnit.NANOSECONDS);
+        final Long firstBytesNanos = log.responseFirstBytesTransferredTimeNanos();
+        if (firstBytesNanos != null) {
+            upstreamFirstByteTimer.record(firstBytesNanos - log.requestStartTimeNanos(), TimeUnit.NANOSECONDS);
+        }
+        upstreamRequestBytes.record(log.requestLength());
+        upstreamResponseBytes.record(log.responseLength());
+    }
+}
@@ -0,0 +1,104 @@
+package info.matsumana.psystrike.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.springframework.stereotype.Component;
+
+import com.linecorp.armeria.client.HttpClient;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.server.ServiceRequestContext;
+
+import info.matsumana.psystrike.limit.RouteFamily;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Records the latency of every phase of a proxied request and the telemetry of watch streams.
+ *
+ * <p>Every meter is tagged by the route and a target whose values are bounded, i.e. an API server's address
+ * or a core resource, but never a pod's address, so that the number of meters doesn't grow with
+ * the number of pods.
+ */
+@Component
+public class ProxyMetrics {
+
+    private static final Function<? super HttpClient, ? extends HttpClient> UPSTREAM_DECORATOR =
+            UpstreamMetricsClient::new;
+
+    private final MeterRegistry meterRegistry;
+    private final Map<String, ProxyMeters> proxyMeters = new ConcurrentHashMap<>();
+    private final Map<String, WatchMeters> watchMeters = new ConcurrentHashMap<>();
+
+    public ProxyMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Returns a decorator for a WebClient, which records the upstream phases of the requests
+     * sent on behalf of a request passed to {@link #record(ServiceRequestContext, RouteFamily, String)}.
+     */
+    public Function<? super HttpClient, ? extends HttpClient> newUpstreamDecorator() {
+        return UPSTREAM_DECORATOR;
+    }
+
+    /**
+     * Records the total time of the request and the time spent in psystrike itself.
+     *
+     * @param target the upstream's address, a core resource, or the route name when the others would be
+     *               unbounded
+     */
+    public void record(ServiceRequestContext ctx, RouteFamily family, String target) {
+        final ProxyMeters meters =
+                proxyMeters.computeIfAbsent(family.tagValue() + '/' + target,
+                                            unused -> new ProxyMeters(meterRegistry, family, target));
+        meters.attach(ctx);
+    }
+
+    /**
+     * Wraps a downstream watch stream, counting its events and recording its lifetime.
+     *
+     * @param mode {@code direct} if the stream has its own upstream watch, or {@code shared}
+     */
+    public HttpResponse recordWatch(ServiceRequestContext ctx, String resource, String mode,
+                                    HttpResponse response) {
+        final WatchMeters meters = watchMeters.computeIfAbsent(
+                resource + '/' + mode, unused -> new WatchMeters(meterRegistry, resource, mode));
+        meters.openStreams.incrementAndGet();
+        ctx.log().whenComplete().thenAccept(log -> {
+            meters.openStreams.decrementAndGet();
+            meters.lifetimeTimer.record(log.totalDurationNanos(), TimeUnit.NANOSECONDS);
+        });
+        return new EventCountingHttpResponse(response, meters.eventCounter);
+    }
+
+    private static final class WatchMeters {
+
+        final AtomicInteger openStreams = new AtomicInteger();
+        final Counter eventCounter;
+        final Timer lifetimeTimer;
+
+        WatchMeters(MeterRegistry meterRegistry, String resource, String mode) {
+            Gauge.builder("psystrike.watch.streams", openStreams, AtomicInteger::get)
+                 .tag("resource", resource)
+                 .tag("mode", mode)
+                 .description("Number of open downstream watch streams")
+                 .register(meterRegistry);
+            eventCounter = Counter.builder("psystrike.watch.events")
+                                  .tag("resource", resource)
+                                  .tag("mode", mode)
+                                  .description("Number of events sent on downstream watch streams")
+                                  .register(meterRegistry);
+            lifetimeTimer = Timer.builder("psystrike.watch.stream.duration")
+                                 .tag("resource", resource)
+                                 .tag("mode", mode)
+                                 .description("Lifetime of downstream watch streams")
+                                 .register(meterRegistry);
+        }
+    }
+}
@@ -3,16 +3,27 @@ package info.matsumana.psystrike.metrics;
 import java.util.List;
 
 import org.springframework.boot.SpringBootVersion;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
 
 import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Tag;
 
 @Configuration
+@Lazy
 public class SpringVersionMetricsConfig {
 
+    private final MeterRegistry meterRegistry;
+
     public SpringVersionMetricsConfig(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void exportMetrics() {
         final String version = SpringBootVersion.getVersion();
         final List<Tag> tags = List.of(Tag.of("version", version));
         Gauge.builder("spring.boot.build.info", () -> 1)
@@ -0,0 +1,31 @@
+package info.matsumana.psystrike.metrics;
+
+import com.linecorp.armeria.client.ClientRequestContext;
+import com.linecorp.armeria.client.HttpClient;
+import com.linecorp.armeria.client.SimpleDecoratingHttpClient;
+import com.linecorp.armeria.common.HttpRequest;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.server.ServiceRequestContext;
+
+/**
+ * Records the upstream phases of a request with the meters of the downstream request it's sent for.
+ * A request sent on no one's behalf, e.g. by the informers, isn't recorded.
+ */
+final class UpstreamMetricsClient extends SimpleDecoratingHttpClient {
+
+    UpstreamMetricsClient(HttpClient delegate) {
+        super(delegate);
+    }
+
+    @Override
+    public HttpResponse execute(ClientRequestContext ctx, HttpRequest req) throws Exception {
+        final ServiceRequestContext root = ctx.root();
+        if (root != null) {
+            final ProxyMeters meters = root.ownAttr(ProxyMeters.METERS);
+            if (meters != null) {
+                meters.recordUpstream(root, ctx.log());
+            }
+        }
+        return delegate().execute(ctx, req);
+    }
+}
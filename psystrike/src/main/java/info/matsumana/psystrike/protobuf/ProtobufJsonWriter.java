@@ -0,0 +1,215 @@
+package info.matsumana.psystrike.protobuf;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.collect.ImmutableMap;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.Parser;
+
+import io.kubernetes.client.proto.Meta;
+import io.kubernetes.client.proto.Runtime.Unknown;
+import io.kubernetes.client.proto.V1;
+
+/**
+ * Writes the k8s objects decoded from protobuf in the same JSON form as the API server does,
+ * e.g. a {@code Time} as an RFC 3339 string and an {@code IntOrString} as either a number or a string.
+ *
+ * <p>The k8s protobuf field names are the JSON field names, so an ordinary message is written field by
+ * field, except for the embedded Go structs which JSON inlines into their parents. Unlike the API server,
+ * the fields which are set to their zero values aren't omitted, which decodes to the same object.
+ */
+final class ProtobufJsonWriter {
+
+    // The kinds Prometheus watches, parsed by the generated code. The others are parsed dynamically.
+    private static final Map<String, Parser<? extends Message>> PARSERS =
+            ImmutableMap.<String, Parser<? extends Message>>builder()
+                        .put("Pod", V1.Pod.parser())
+                        .put("PodList", V1.PodList.parser())
+                        .put("Endpoints", V1.Endpoints.parser())
+                        .put("EndpointsList", V1.EndpointsList.parser())
+                        .put("Service", V1.Service.parser())
+                        .put("ServiceList", V1.ServiceList.parser())
+                        .put("Node", V1.Node.parser())
+                        .put("NodeList", V1.NodeList.parser())
+                        .put("Status", Meta.Status.parser())
+                        .build();
+
+    private static final String TIME = "k8s.io.apimachinery.pkg.apis.meta.v1.Time";
+    private static final String MICRO_TIME = "k8s.io.apimachinery.pkg.apis.meta.v1.MicroTime";
+    private static final String FIELDS_V1 = "k8s.io.apimachinery.pkg.apis.meta.v1.FieldsV1";
+    private static final String INT_OR_STRING = "k8s.io.apimachinery.pkg.util.intstr.IntOrString";
+    private static final String QUANTITY = "k8s.io.apimachinery.pkg.api.resource.Quantity";
+    private static final String RAW_EXTENSION = "k8s.io.apimachinery.pkg.runtime.RawExtension";
+
+    // The embedded Go structs, e.g. the httpGet of a Probe is `probe.httpGet` in JSON and
+    // `probe.handler.httpGet` in protobuf.
+    private static final Set<String> INLINE_FIELDS =
+            Set.of("k8s.io.api.core.v1.Probe.handler",
+                   "k8s.io.api.core.v1.Volume.volumeSource",
+                   "k8s.io.api.core.v1.PersistentVolumeSpec.persistentVolumeSource",
+                   "k8s.io.api.core.v1.EphemeralContainer.ephemeralContainerCommon");
+
+    private static final DateTimeFormatter MICRO_TIME_FORMATTER =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSSSS'Z'").withZone(ZoneOffset.UTC);
+
+    /**
+     * Writes the object in a {@code runtime.Unknown} with its {@code kind} and {@code apiVersion}.
+     */
+    static void writeObject(Unknown unknown, JsonGenerator generator) throws IOException {
+        final String kind = unknown.getTypeMeta().getKind();
+        final String apiVersion = unknown.getTypeMeta().getApiVersion();
+        final Message message = parse(kind, unknown.getRaw());
+
+        generator.writeStartObject();
+        generator.writeStringField("kind", kind);
+        generator.writeStringField("apiVersion", apiVersion);
+        writeFields(message, generator);
+        generator.writeEndObject();
+    }
+
+    private static Message parse(String kind, ByteString raw) throws InvalidProtocolBufferException {
+        final Parser<? extends Message> parser = PARSERS.get(kind);
+        if (parser != null) {
+            return parser.parseFrom(raw);
+        }
+        Descriptor descriptor = V1.getDescriptor().findMessageTypeByName(kind);
+        if (descriptor == null) {
+            descriptor = Meta.getDescriptor().findMessageTypeByName(kind);
+        }
+        if (descriptor == null) {
+            throw new InvalidProtocolBufferException("Unknown kind: " + kind);
+        }
+        return DynamicMessage.parseFrom(descriptor, raw);
+    }
+
+    private static void writeMessage(Message message, JsonGenerator generator) throws IOException {
+        switch (message.getDescriptorForType().getFullName()) {
+            case TIME: {
+                final long seconds = (Long) field(message, 1);
+                if (seconds == 0) {
+                    generator.writeNull();
+                } else {
+                    generator.writeString(DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochSecond(seconds)));
+                }
+                return;
+            }
+            case MICRO_TIME: {
+                final long seconds = (Long) field(message, 1);
+                final int nanos = (Integer) field(message, 2);
+                if (seconds == 0 && nanos == 0) {
+                    generator.writeNull();
+                } else {
+                    generator.writeString(MICRO_TIME_FORMATTER.format(Instant.ofEpochSecond(seconds, nanos)));
+                }
+                return;
+            }
+            case FIELDS_V1:
+            case RAW_EXTENSION: {
+                // Both hold JSON as it is.
+                final ByteString raw = (ByteString) field(message, 1);
+                if (raw.isEmpty()) {
+                    generator.writeNull();
+                } else {
+                    generator.writeRawValue(raw.toString(StandardCharsets.UTF_8));
+                }
+                return;
+            }
+            case INT_OR_STRING:
+                if ((Long) field(message, 1) == 1) {
+                    generator.writeString((String) field(message, 3));
+                } else {
+                    generator.writeNumber((Integer) field(message, 2));
+                }
+                return;
+            case QUANTITY:
+                generator.writeString((String) field(message, 1));
+                return;
+            default:
+                generator.writeStartObject();
+                writeFields(message, generator);
+                generator.writeEndObject();
+        }
+    }
+
+    private static void writeFields(Message message, JsonGenerator generator) throws IOException {
+        // Sorted by the field numbers
+        for (Entry<FieldDescriptor, Object> entry : message.getAllFields().entrySet()) {
+            final FieldDescriptor field = entry.getKey();
+            if (INLINE_FIELDS.contains(field.getFullName())) {
+                writeFields((Message) entry.getValue(), generator);
+                continue;
+            }
+            generator.writeFieldName(field.getName());
+            if (field.isMapField()) {
+                generator.writeStartObject();
+                for (Object mapEntry : (List<?>) entry.getValue()) {
+                    final Message pair = (Message) mapEntry;
+                    generator.writeFieldName((String) field(pair, 1));
+                    writeValue(field.getMessageType().findFieldByNumber(2), field(pair, 2), generator);
+                }
+                generator.writeEndObject();
+            } else if (field.isRepeated()) {
+                generator.writeStartArray();
+                for (Object value : (List<?>) entry.getValue()) {
+                    writeValue(field, value, generator);
+                }
+                generator.writeEndArray();
+            } else {
+                writeValue(field, entry.getValue(), generator);
+            }
+        }
+    }
+
+    private static void writeValue(FieldDescriptor field, Object value, JsonGenerator generator)
+            throws IOException {
+        switch (field.getJavaType()) {
+            case MESSAGE:
+                writeMessage((Message) value, generator);
+                break;
+            case STRING:
+                generator.writeString((String) value);
+                break;
+            case BOOLEAN:
+                generator.writeBoolean((Boolean) value);
+                break;
+            case INT:
+                generator.writeNumber((Integer) value);
+                break;
+            case LONG:
+                generator.writeNumber((Long) value);
+                break;
+            case FLOAT:
+                generator.writeNumber((Float) value);
+                break;
+            case DOUBLE:
+                generator.writeNumber((Double) value);
+                break;
+            case BYTE_STRING:
+                // Base64 like encoding/json does for []byte, e.g. Secret.data
+                generator.writeBinary(((ByteString) value).toByteArray());
+                break;
+            default:
+                generator.writeString(value.toString());
+        }
+    }
+
+    private static Object field(Message message, int number) {
+        return message.getField(message.getDescriptorForType().findFieldByNumber(number));
+    }
+
+    private ProtobufJsonWriter() {}
+}
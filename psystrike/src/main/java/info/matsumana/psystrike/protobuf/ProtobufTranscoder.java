@@ -0,0 +1,206 @@
+package info.matsumana.psystrike.protobuf;
+
+import static com.linecorp.armeria.common.HttpHeaderNames.ACCEPT;
+import static com.linecorp.armeria.common.HttpHeaderNames.CONTENT_LENGTH;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import com.linecorp.armeria.common.AggregatedHttpResponse;
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.MediaType;
+import com.linecorp.armeria.common.RequestHeaders;
+import com.linecorp.armeria.common.ResponseHeaders;
+
+import info.matsumana.psystrike.config.ProtobufProperties;
+import io.kubernetes.client.proto.Meta.WatchEvent;
+import io.kubernetes.client.proto.Runtime.Unknown;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Asks k8s API servers for protobuf, which is several times cheaper for them to encode than JSON,
+ * and transcodes the responses to the JSON Prometheus expects.
+ *
+ * <p>A watch is transcoded one event at a time as its frames arrive. A list has to be aggregated,
+ * because a protobuf message can't be read before it has been received as a whole.
+ * A response which the API server sent as JSON anyway, e.g. an error from a proxy in between,
+ * is relayed as it is.
+ */
+@Component
+public class ProtobufTranscoder {
+
+    static final String PROTOBUF_SUBTYPE = "vnd.kubernetes.protobuf";
+    // JSON is the fallback for the API server which can't encode a resource in protobuf.
+    private static final String ACCEPT_PROTOBUF = "application/vnd.kubernetes.protobuf, application/json";
+    // "k8s\0", which precedes an encoded object
+    private static final byte[] MAGIC = { 0x6b, 0x38, 0x73, 0x00 };
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final boolean enabled;
+    private final int maxFrameBytes;
+    private final Timer transcodeTimer;
+    private final Counter bytesInCounter;
+    private final Counter bytesOutCounter;
+
+    public ProtobufTranscoder(ProtobufProperties protobufProperties, MeterRegistry meterRegistry) {
+        enabled = protobufProperties.isEnabled();
+        maxFrameBytes = protobufProperties.getMaxFrameBytes();
+
+        transcodeTimer = Timer.builder("psystrike.protobuf.transcode.duration")
+                              .description("Time taken to transcode a protobuf object or watch event to JSON")
+                              .register(meterRegistry);
+        bytesInCounter = Counter.builder("psystrike.protobuf.bytes")
+                                .tag("direction", "in")
+                                .description("Bytes of protobuf received and of JSON transcoded from it")
+                                .register(meterRegistry);
+        bytesOutCounter = Counter.builder("psystrike.protobuf.bytes")
+                                 .tag("direction", "out")
+                                 .description("Bytes of protobuf received and of JSON transcoded from it")
+                                 .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the headers which ask for protobuf, or the headers as they are if disabled.
+     */
+    public RequestHeaders upstreamRequestHeaders(RequestHeaders requestHeaders) {
+        if (!enabled) {
+            return requestHeaders;
+        }
+        return requestHeaders.toBuilder()
+                             .set(ACCEPT, ACCEPT_PROTOBUF)
+                             .build();
+    }
+
+    /**
+     * Wraps an upstream response so that it's transcoded to JSON, or returns it as it is if disabled.
+     */
+    public HttpResponse decorate(HttpResponse response, boolean watch) {
+        if (!enabled) {
+            return response;
+        }
+        if (watch) {
+            return new ProtobufWatchHttpResponse(response, this, maxFrameBytes);
+        }
+        return HttpResponse.from(response.aggregate().thenApply(this::transcodeList));
+    }
+
+    private HttpResponse transcodeList(AggregatedHttpResponse response) {
+        if (!isProtobuf(response.contentType())) {
+            return response.toHttpResponse();
+        }
+
+        final long startNanos = System.nanoTime();
+        final byte[] json;
+        try {
+            json = transcodeObject(response.content().array());
+        } catch (IOException e) {
+            return HttpResponse.ofFailure(e);
+        }
+        transcodeTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+
+        return HttpResponse.of(jsonHeaders(response.headers()), HttpData.wrap(json), response.trailers());
+    }
+
+    /**
+     * Transcodes an encoded object, i.e. the magic number followed by a {@code runtime.Unknown}.
+     */
+    public byte[] transcodeObject(byte[] encoded) throws IOException {
+        final Unknown unknown = parseUnknown(encoded);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(encoded.length * 2);
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(out)) {
+            ProtobufJsonWriter.writeObject(unknown, generator);
+        }
+        bytesInCounter.increment(encoded.length);
+        bytesOutCounter.increment(out.size());
+        return out.toByteArray();
+    }
+
+    /**
+     * Transcodes a frame of a watch stream to a newline-delimited JSON event.
+     */
+    public byte[] transcodeWatchEvent(byte[] frame, int offset, int length) throws IOException {
+        final long startNanos = System.nanoTime();
+        final WatchEvent event;
+        if (hasMagic(frame, offset, length)) {
+            // The API server sends the events unwrapped, but a wrapped one is read as well.
+            event = WatchEvent.parseFrom(parseUnknown(frame, offset, length).getRaw());
+        } else {
+            event = WatchEvent.parseFrom(CodedInputStream.newInstance(frame, offset, length));
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(length * 2);
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeStringField("type", event.getType());
+            generator.writeFieldName("object");
+            final byte[] raw = event.getObject().getRaw().toByteArray();
+            if (hasMagic(raw, 0, raw.length)) {
+                ProtobufJsonWriter.writeObject(parseUnknown(raw), generator);
+            } else {
+                // Already JSON, e.g. the Status of an ERROR event from an older API server
+                generator.writeRawValue(new String(raw, StandardCharsets.UTF_8));
+            }
+            generator.writeEndObject();
+        }
+        out.write('\n');
+
+        transcodeTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        bytesInCounter.increment(length);
+        bytesOutCounter.increment(out.size());
+        return out.toByteArray();
+    }
+
+    static boolean isProtobuf(@Nullable MediaType contentType) {
+        return contentType != null && PROTOBUF_SUBTYPE.equals(contentType.subtype());
+    }
+
+    static ResponseHeaders jsonHeaders(ResponseHeaders headers) {
+        return headers.toBuilder()
+                      .contentType(MediaType.JSON)
+                      .removeAndThen(CONTENT_LENGTH)
+                      .build();
+    }
+
+    private static Unknown parseUnknown(byte[] encoded) throws InvalidProtocolBufferException {
+        return parseUnknown(encoded, 0, encoded.length);
+    }
+
+    private static Unknown parseUnknown(byte[] encoded, int offset, int length)
+            throws InvalidProtocolBufferException {
+        if (!hasMagic(encoded, offset, length)) {
+            throw new InvalidProtocolBufferException("Missing the magic number of a k8s object");
+        }
+        return Unknown.parseFrom(CodedInputStream.newInstance(
+                encoded, offset + MAGIC.length, length - MAGIC.length));
+    }
+
+    private static boolean hasMagic(byte[] bytes, int offset, int length) {
+        if (length < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (bytes[offset + i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
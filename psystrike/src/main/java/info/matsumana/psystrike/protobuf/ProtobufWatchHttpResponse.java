@@ -0,0 +1,78 @@
+package info.matsumana.psystrike.protobuf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+import com.linecorp.armeria.common.FilteredHttpResponse;
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpObject;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.ResponseHeaders;
+
+/**
+ * Transcodes a protobuf watch stream, i.e. a series of frames each of which is a 4-byte big-endian length
+ * followed by a {@code WatchEvent}, to newline-delimited JSON events as the frames arrive.
+ * Only the incomplete frame at the end of a chunk is kept until the next chunk arrives.
+ */
+final class ProtobufWatchHttpResponse extends FilteredHttpResponse {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final ProtobufTranscoder transcoder;
+    private final int maxFrameBytes;
+    private byte[] pending = EMPTY;
+    private boolean transcoding;
+
+    ProtobufWatchHttpResponse(HttpResponse delegate, ProtobufTranscoder transcoder, int maxFrameBytes) {
+        // Unpooled, because the chunks are replaced with the transcoded ones.
+        super(delegate);
+        this.transcoder = transcoder;
+        this.maxFrameBytes = maxFrameBytes;
+    }
+
+    @Override
+    protected HttpObject filter(HttpObject obj) {
+        if (obj instanceof ResponseHeaders) {
+            final ResponseHeaders headers = (ResponseHeaders) obj;
+            transcoding = ProtobufTranscoder.isProtobuf(headers.contentType());
+            return transcoding ? ProtobufTranscoder.jsonHeaders(headers) : headers;
+        }
+        if (!transcoding || !(obj instanceof HttpData)) {
+            return obj;
+        }
+
+        final byte[] chunk = ((HttpData) obj).array();
+        final byte[] buffer;
+        if (pending.length == 0) {
+            buffer = chunk;
+        } else {
+            buffer = new byte[pending.length + chunk.length];
+            System.arraycopy(pending, 0, buffer, 0, pending.length);
+            System.arraycopy(chunk, 0, buffer, pending.length, chunk.length);
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int offset = 0;
+        while (buffer.length - offset >= 4) {
+            final int length = ((buffer[offset] & 0xff) << 24) | ((buffer[offset + 1] & 0xff) << 16) |
+                               ((buffer[offset + 2] & 0xff) << 8) | (buffer[offset + 3] & 0xff);
+            if (length < 0 || length > maxFrameBytes) {
+                throw new IllegalStateException("Too large watch frame: " + Integer.toUnsignedString(length));
+            }
+            if (buffer.length - offset - 4 < length) {
+                break;
+            }
+            try {
+                out.writeBytes(transcoder.transcodeWatchEvent(buffer, offset + 4, length));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            offset += 4 + length;
+        }
+
+        pending = offset == buffer.length ? EMPTY : Arrays.copyOfRange(buffer, offset, buffer.length);
+        return out.size() == 0 ? HttpData.empty() : HttpData.wrap(out.toByteArray());
+    }
+}
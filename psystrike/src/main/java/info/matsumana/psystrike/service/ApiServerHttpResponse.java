@@ -0,0 +1,73 @@
+package info.matsumana.psystrike.service;
+
+import static com.linecorp.armeria.common.HttpHeaderNames.CACHE_CONTROL;
+import static com.linecorp.armeria.common.HttpHeaderNames.CONTENT_ENCODING;
+import static com.linecorp.armeria.common.HttpHeaderNames.CONTENT_TYPE;
+import static com.linecorp.armeria.common.HttpHeaderNames.RETRY_AFTER;
+
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import com.linecorp.armeria.common.FilteredHttpResponse;
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpObject;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.HttpStatusClass;
+import com.linecorp.armeria.common.ResponseHeaders;
+import com.linecorp.armeria.common.ResponseHeadersBuilder;
+
+import io.netty.util.AsciiString;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Relays a response of the k8s API server with its own status, the headers a k8s client may look at,
+ * and its trailers.
+ *
+ * <p>A 410 Gone for an expired resourceVersion or a 429 from the API Priority and Fairness has to reach
+ * Prometheus as it is; otherwise Prometheus can't tell it from a successful response.
+ */
+@Slf4j
+final class ApiServerHttpResponse extends FilteredHttpResponse {
+
+    private static final Set<AsciiString> FORWARDED_HEADERS =
+            Set.of(CONTENT_TYPE, CONTENT_ENCODING, CACHE_CONTROL, RETRY_AFTER,
+                   AsciiString.of("audit-id"),
+                   AsciiString.of("warning"),
+                   AsciiString.of("x-kubernetes-pf-flowschema-uid"),
+                   AsciiString.of("x-kubernetes-pf-prioritylevel-uid"));
+
+    private final Consumer<HttpStatus> statusListener;
+
+    ApiServerHttpResponse(HttpResponse delegate, Consumer<HttpStatus> statusListener) {
+        super(delegate, true);
+        this.statusListener = statusListener;
+    }
+
+    @Override
+    protected HttpObject filter(HttpObject obj) {
+        if (obj instanceof ResponseHeaders) {
+            final ResponseHeaders headers = (ResponseHeaders) obj;
+            log.debug("streaming response httpHeaders={}", headers);
+            if (headers.status().codeClass() == HttpStatusClass.INFORMATIONAL) {
+                return obj;
+            }
+
+            statusListener.accept(headers.status());
+            final ResponseHeadersBuilder builder = ResponseHeaders.builder(headers.status());
+            for (Entry<AsciiString, String> entry : headers) {
+                if (FORWARDED_HEADERS.contains(entry.getKey())) {
+                    builder.add(entry.getKey(), entry.getValue());
+                }
+            }
+            return builder.build();
+        }
+
+        // The content is sampled by the PayloadLogger instead, so that it's never copied here.
+        if (!(obj instanceof HttpData)) {
+            log.debug("streaming response trailers={}", obj);
+        }
+        return obj;
+    }
+}
@@ -0,0 +1,110 @@
+package info.matsumana.psystrike.service;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the expositions of the pods of a batch into one Prometheus text format body.
+ *
+ * <p>Every sample gets the target label, so that the series of different pods don't collide.
+ * The # HELP and # TYPE lines of a family are repeated per pod, which the text format parser of
+ * Prometheus accepts; the OpenMetrics parser doesn't, so the pods are asked for the text format.
+ */
+final class BatchExposition {
+
+    private static final byte[] UP_NAME = "psystrike_target_up".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] DURATION_NAME =
+            "psystrike_target_scrape_duration_seconds".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] EOF = "# EOF".getBytes(StandardCharsets.ISO_8859_1);
+
+    private final byte[] label;
+
+    /**
+     * Creates a new instance for a pod.
+     */
+    BatchExposition(String labelName, String labelValue) {
+        label = (labelName + "=\"" + escape(labelValue) + '"').getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the exposition of the pod with the target label added to every sample.
+     */
+    void writeRelabeled(byte[] body, ByteArrayOutputStream out) {
+        int lineStart = 0;
+        while (lineStart < body.length) {
+            int lineEnd = lineStart;
+            while (lineEnd < body.length && body[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            writeLine(body, lineStart, lineEnd, out);
+            lineStart = lineEnd + 1;
+        }
+    }
+
+    /**
+     * Writes whether the pod was scraped successfully and how long it took.
+     */
+    void writeTargetSeries(boolean up, double durationSeconds, ByteArrayOutputStream out) {
+        writeSample(UP_NAME, up ? "1" : "0", out);
+        writeSample(DURATION_NAME, Double.toString(durationSeconds), out);
+    }
+
+    private void writeLine(byte[] body, int start, int end, ByteArrayOutputStream out) {
+        if (end > start && body[end - 1] == '\r') {
+            end--;
+        }
+        if (start == end || isEof(body, start, end)) {
+            return;
+        }
+        if (body[start] == '#') {
+            out.write(body, start, end - start);
+            out.write('\n');
+            return;
+        }
+
+        int nameEnd = start;
+        while (nameEnd < end && body[nameEnd] != '{' && body[nameEnd] != ' ' && body[nameEnd] != '\t') {
+            nameEnd++;
+        }
+        out.write(body, start, nameEnd - start);
+        out.write('{');
+        out.writeBytes(label);
+        int restStart = nameEnd;
+        if (nameEnd < end && body[nameEnd] == '{') {
+            restStart++;
+            if (restStart < end && body[restStart] != '}') {
+                out.write(',');
+            }
+        } else {
+            out.write('}');
+        }
+        out.write(body, restStart, end - restStart);
+        out.write('\n');
+    }
+
+    private void writeSample(byte[] name, String value, ByteArrayOutputStream out) {
+        out.writeBytes(name);
+        out.write('{');
+        out.writeBytes(label);
+        out.write('}');
+        out.write(' ');
+        out.writeBytes(value.getBytes(StandardCharsets.ISO_8859_1));
+        out.write('\n');
+    }
+
+    private static boolean isEof(byte[] body, int start, int end) {
+        if (end - start != EOF.length) {
+            return false;
+        }
+        for (int i = 0; i < EOF.length; i++) {
+            if (body[start + i] != EOF[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,234 @@
+package info.matsumana.psystrike.service;
+
+import static com.linecorp.armeria.common.HttpHeaderNames.ACCEPT;
+
+import java.io.ByteArrayOutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Strings;
+
+import com.linecorp.armeria.common.AggregatedHttpResponse;
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpObject;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.MediaType;
+import com.linecorp.armeria.common.QueryParams;
+import com.linecorp.armeria.common.RequestHeaders;
+import com.linecorp.armeria.common.ResponseHeaders;
+import com.linecorp.armeria.server.ServiceRequestContext;
+import com.linecorp.armeria.server.annotation.Get;
+
+import hu.akarnokd.rxjava2.interop.SingleInterop;
+import info.matsumana.psystrike.client.PodProtocol;
+import info.matsumana.psystrike.compression.CompressionHandler;
+import info.matsumana.psystrike.config.BatchScrapeProperties;
+import info.matsumana.psystrike.config.ClientTuningProperties;
+import info.matsumana.psystrike.informer.FieldSelector;
+import info.matsumana.psystrike.informer.InformerCache;
+import info.matsumana.psystrike.informer.LabelSelector;
+import info.matsumana.psystrike.informer.ResourceStore.Snapshot;
+import info.matsumana.psystrike.limit.RouteFamily;
+import info.matsumana.psystrike.metrics.ProxyMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.reactivex.Flowable;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Scrapes many pods in one request and streams back their expositions as one body, so that a remote
+ * Prometheus or agent collects a node's worth of pods in one round trip instead of one per pod.
+ *
+ * <p>The pods are given by {@code target} parameters, i.e. {@code [protocol/]host:port[/path]}, or are
+ * looked up by {@code node}, {@code labelSelector} and {@code namespace} from the pods cached by the
+ * {@link InformerCache}, e.g.
+ * {@code /batch/pods?node=node1} or {@code /batch/pods?target=10.0.0.1:8080&target=h2c/10.0.0.2:8080/metrics}.
+ *
+ * <p>Each pod is scraped like /pods, and its exposition is written as soon as it's received.
+ * A pod which fails doesn't fail the batch; it's reported by {@code psystrike_target_up 0}. So is a pod
+ * which takes longer than its own timeout or than the time left in the batch, or which isn't started
+ * before the batch's timeout, so that the batch always ends cleanly with a series for every pod.
+ */
+@Component
+@Slf4j
+public class BatchScrapeService {
+
+    // The OpenMetrics parser doesn't accept the # TYPE lines repeated per pod.
+    private static final String TEXT_FORMAT_ACCEPT = "text/plain;version=0.0.4;q=1,*/*;q=0.1";
+    private static final MediaType TEXT_FORMAT = MediaType.parse("text/plain; version=0.0.4; charset=utf-8");
+    // The batch ends by itself on requestTimeoutMillis, so the request timeout is just in case.
+    private static final long REQUEST_TIMEOUT_BUFFER_MILLIS = 1_000;
+
+    private final BatchScrapeProperties properties;
+    private final ClientTuningProperties clientTuningProperties;
+    private final ReverseProxyService reverseProxyService;
+    private final InformerCache informerCache;
+    private final CompressionHandler compressionHandler;
+    private final ProxyMetrics proxyMetrics;
+    private final Counter upCounter;
+    private final Counter downCounter;
+
+    public BatchScrapeService(BatchScrapeProperties properties, ClientTuningProperties clientTuningProperties,
+                              ReverseProxyService reverseProxyService, InformerCache informerCache,
+                              CompressionHandler compressionHandler, ProxyMetrics proxyMetrics,
+                              MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.clientTuningProperties = clientTuningProperties;
+        this.reverseProxyService = reverseProxyService;
+        this.informerCache = informerCache;
+        this.compressionHandler = compressionHandler;
+        this.proxyMetrics = proxyMetrics;
+
+        upCounter = Counter.builder("psystrike.batch.targets")
+                           .tag("result", "up")
+                           .description("Number of pods scraped by batches")
+                           .register(meterRegistry);
+        downCounter = Counter.builder("psystrike.batch.targets")
+                             .tag("result", "down")
+                             .description("Number of pods scraped by batches")
+                             .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    @Get("/batch/pods")
+    public HttpResponse scrapePods(ServiceRequestContext ctx, RequestHeaders orgRequestHeaders,
+                                   QueryParams requestParams) {
+
+        log.debug("scrapePods orgRequestHeaders={}", orgRequestHeaders);
+        proxyMetrics.record(ctx, RouteFamily.PODS, "batch");
+
+        final List<BatchTarget> targets;
+        try {
+            targets = resolveTargets(requestParams);
+        } catch (IllegalArgumentException e) {
+            return HttpResponse.of(HttpStatus.BAD_REQUEST, MediaType.PLAIN_TEXT_UTF_8, e.getMessage());
+        }
+        if (targets == null) {
+            return HttpResponse.of(HttpStatus.SERVICE_UNAVAILABLE, MediaType.PLAIN_TEXT_UTF_8,
+                                   "node and labelSelector need the pods cached by psystrike-informer");
+        }
+        if (targets.size() > properties.getMaxTargets()) {
+            return HttpResponse.of(HttpStatus.BAD_REQUEST, MediaType.PLAIN_TEXT_UTF_8,
+                                   "too many targets: " + targets.size());
+        }
+
+        final long requestTimeoutMillis = properties.getRequestTimeoutMillis();
+        ctx.setRequestTimeout(Duration.ofMillis(requestTimeoutMillis + REQUEST_TIMEOUT_BUFFER_MILLIS));
+        final long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(requestTimeoutMillis);
+        final Scheduler scheduler = Schedulers.from(ctx.contextAwareEventLoop());
+        final RequestHeaders scrapeRequestHeaders = orgRequestHeaders.toBuilder()
+                                                                     .set(ACCEPT, TEXT_FORMAT_ACCEPT)
+                                                                     .build();
+        // Written in the order the pods respond, at most maxParallelism pods at a time
+        final Flowable<HttpObject> body =
+                Flowable.fromIterable(targets)
+                        .flatMapSingle(target -> scrape(scrapeRequestHeaders, target, deadlineNanos, scheduler),
+                                       false, properties.getMaxParallelism())
+                        .map(HttpData::wrap);
+        final ResponseHeaders headers = ResponseHeaders.builder(HttpStatus.OK)
+                                                       .contentType(TEXT_FORMAT)
+                                                       .build();
+        final HttpResponse response = HttpResponse.of(Flowable.<HttpObject>just(headers).concatWith(body));
+        return compressionHandler.handle(orgRequestHeaders, response, "batch", "batch");
+    }
+
+    /**
+     * Returns the targets of the parameters, or {@code null} if the pods have to be looked up
+     * but aren't cached.
+     *
+     * @throws IllegalArgumentException if a parameter is malformed
+     */
+    @Nullable
+    private List<BatchTarget> resolveTargets(QueryParams params) {
+        final List<String> explicitTargets = params.getAll("target");
+        final String node = params.get("node");
+        final String labelSelector = params.get("labelSelector");
+        if (explicitTargets.isEmpty() && node == null && labelSelector == null) {
+            throw new IllegalArgumentException("target, node or labelSelector is required");
+        }
+
+        final PodProtocol defaultProtocol =
+                PodProtocol.of(clientTuningProperties.getPod().getDefaultProtocol());
+        final List<BatchTarget> targets = new ArrayList<>();
+        for (String target : explicitTargets) {
+            targets.add(BatchTarget.parse(target, defaultProtocol));
+        }
+        if (node == null && labelSelector == null) {
+            return targets;
+        }
+
+        final Snapshot snapshot =
+                informerCache.snapshot("pods", params.get("namespace"),
+                                       LabelSelector.parse(Strings.nullToEmpty(labelSelector)),
+                                       FieldSelector.parse(node != null ? "spec.nodeName=" + node : ""));
+        if (snapshot == null) {
+            return null;
+        }
+        for (ObjectNode pod : snapshot.getItems()) {
+            final BatchTarget target = BatchTarget.ofPod(pod, defaultProtocol);
+            if (target != null) {
+                targets.add(target);
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * Scrapes a pod within its own timeout and the time left until {@code deadlineNanos}.
+     */
+    private Single<byte[]> scrape(RequestHeaders scrapeRequestHeaders, BatchTarget target, long deadlineNanos,
+                                  Scheduler scheduler) {
+        final long startNanos = System.nanoTime();
+        final long timeoutNanos = Math.min(TimeUnit.MILLISECONDS.toNanos(properties.getTargetTimeoutMillis()),
+                                           deadlineNanos - startNanos);
+        if (timeoutNanos <= 0) {
+            log.debug("Can't start scraping a pod before the end of a batch: {}", target);
+            return Single.fromCallable(() -> render(target, null, startNanos));
+        }
+
+        final HttpResponse response = reverseProxyService.scrapePod(
+                scrapeRequestHeaders, target.getProtocol().sessionProtocol(), target.getHost(),
+                target.getPort(), target.getPath());
+        return SingleInterop.fromFuture(response.aggregate())
+                            .timeout(timeoutNanos, TimeUnit.NANOSECONDS, scheduler)
+                            .map(aggregated -> render(target, aggregated, startNanos))
+                            .onErrorReturn(cause -> {
+                                // e.g. a timeout, which leaves the pod's response open
+                                response.abort();
+                                log.debug("Can't collect metrics from a pod in a batch: {}", target, cause);
+                                return render(target, null, startNanos);
+                            });
+    }
+
+    private byte[] render(BatchTarget target, @Nullable AggregatedHttpResponse response, long startNanos) {
+        final double durationSeconds = (System.nanoTime() - startNanos) / 1e9;
+        final boolean up = response != null && HttpStatus.OK.equals(response.status()) &&
+                           (response.contentType() == null ||
+                            response.contentType().is(MediaType.PLAIN_TEXT));
+        final BatchExposition exposition = new BatchExposition(properties.getTargetLabel(), target.address());
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(up ? response.content().length() + 256
+                                                                       : 256);
+        if (up) {
+            exposition.writeRelabeled(response.content().array(), out);
+            upCounter.increment();
+        } else {
+            downCounter.increment();
+        }
+        exposition.writeTargetSeries(up, durationSeconds, out);
+        return out.toByteArray();
+    }
+}
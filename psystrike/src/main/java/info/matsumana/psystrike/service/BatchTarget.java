@@ -0,0 +1,84 @@
+package info.matsumana.psystrike.service;
+
+import javax.annotation.Nullable;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.net.HostAndPort;
+
+import info.matsumana.psystrike.client.PodProtocol;
+import lombok.Value;
+
+/**
+ * A pod scraped by a batch of the {@link BatchScrapeService}.
+ */
+@Value
+class BatchTarget {
+
+    private static final String ANNOTATION_PREFIX = "prometheus.io/";
+
+    PodProtocol protocol;
+    String host;
+    int port;
+    // Without the leading slash, like the actualUri of /pods
+    String path;
+
+    /**
+     * Returns the value of the target label.
+     */
+    String address() {
+        return HostAndPort.fromParts(host, port).toString();
+    }
+
+    /**
+     * Parses a {@code target} parameter, i.e. {@code [protocol/]host:port[/path]}, e.g.
+     * {@code 10.0.0.1:8080} or {@code https/10.0.0.1:8443/metrics}. The path defaults to /metrics.
+     *
+     * @throws IllegalArgumentException if the target is malformed
+     */
+    static BatchTarget parse(String target, PodProtocol defaultProtocol) {
+        final int protocolEnd = target.indexOf('/');
+        final PodProtocol protocol =
+                protocolEnd > 0 ? PodProtocol.find(target.substring(0, protocolEnd)) : null;
+        final String rest = protocol != null ? target.substring(protocolEnd + 1) : target;
+
+        final int pathStart = rest.indexOf('/');
+        final HostAndPort hostAndPort =
+                HostAndPort.fromString(pathStart < 0 ? rest : rest.substring(0, pathStart));
+        if (!hostAndPort.hasPort()) {
+            throw new IllegalArgumentException("target without a port: " + target);
+        }
+        final String path = pathStart < 0 ? "metrics" : rest.substring(pathStart + 1);
+        return new BatchTarget(protocol != null ? protocol : defaultProtocol,
+                               hostAndPort.getHost(), hostAndPort.getPort(), path);
+    }
+
+    /**
+     * Returns the target of a running pod annotated with {@code prometheus.io/scrape: "true"} and
+     * {@code prometheus.io/port}, or {@code null} if the pod isn't to be scraped. {@code prometheus.io/path}
+     * and {@code prometheus.io/scheme} are honored like the usual relabel configs do.
+     */
+    @Nullable
+    static BatchTarget ofPod(JsonNode pod, PodProtocol defaultProtocol) {
+        final String podIp = pod.path("status").path("podIP").asText();
+        if (!"Running".equals(pod.path("status").path("phase").asText()) || podIp.isEmpty()) {
+            return null;
+        }
+        final JsonNode annotations = pod.path("metadata").path("annotations");
+        if (!"true".equals(annotations.path(ANNOTATION_PREFIX + "scrape").asText())) {
+            return null;
+        }
+        final int port;
+        try {
+            port = Integer.parseInt(annotations.path(ANNOTATION_PREFIX + "port").asText());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        final PodProtocol protocol = PodProtocol.find(annotations.path(ANNOTATION_PREFIX + "scheme").asText());
+        String path = annotations.path(ANNOTATION_PREFIX + "path").asText("/metrics");
+        if (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        return new BatchTarget(protocol != null ? protocol : defaultProtocol, podIp, port, path);
+    }
+}
@@ -0,0 +1,33 @@
+package info.matsumana.psystrike.service;
+
+import com.linecorp.armeria.common.FilteredHttpResponse;
+import com.linecorp.armeria.common.HttpObject;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.ResponseHeaders;
+import com.linecorp.armeria.server.ServiceRequestContext;
+
+/**
+ * Relays an upstream response as it arrives, copying its headers into the additional response headers
+ * like the aggregated path does.
+ *
+ * <p>The content is never touched, so the pooled buffers read from the upstream are written to the
+ * downstream as they are. Armeria requests the next chunk only after the previous one has been written,
+ * so the upstream is backpressured by the downstream.
+ */
+final class HeaderCopyingHttpResponse extends FilteredHttpResponse {
+
+    private final ServiceRequestContext ctx;
+
+    HeaderCopyingHttpResponse(ServiceRequestContext ctx, HttpResponse delegate) {
+        super(delegate, true);
+        this.ctx = ctx;
+    }
+
+    @Override
+    protected HttpObject filter(HttpObject obj) {
+        if (obj instanceof ResponseHeaders) {
+            ReverseProxyService.mutateAdditionalResponseHeaders(ctx, (ResponseHeaders) obj);
+        }
+        return obj;
+    }
+}
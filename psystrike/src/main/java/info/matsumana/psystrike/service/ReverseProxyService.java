@@ -1,30 +1,27 @@
 package info.matsumana.psystrike.service;
 
+import static com.linecorp.armeria.common.HttpHeaderNames.ACCEPT;
 import static com.linecorp.armeria.common.HttpHeaderNames.ACCEPT_ENCODING;
+import static com.linecorp.armeria.common.HttpHeaderNames.AUTHORIZATION;
 import static com.linecorp.armeria.common.HttpHeaderNames.USER_AGENT;
-import static com.linecorp.armeria.common.HttpStatus.OK;
-import static com.linecorp.armeria.common.SessionProtocol.H1C;
 import static com.linecorp.armeria.common.SessionProtocol.H2;
-import static java.time.temporal.ChronoUnit.SECONDS;
 import static java.util.Collections.singleton;
 
-import java.time.Clock;
 import java.time.Duration;
-import java.time.LocalDateTime;
-import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
-import javax.annotation.PostConstruct;
+import javax.annotation.Nullable;
 
-import org.apache.commons.lang3.tuple.MutablePair;
-import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
 
@@ -32,6 +29,8 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 
 import com.linecorp.armeria.client.ClientFactory;
+import com.linecorp.armeria.client.DecoratingHttpClientFunction;
+import com.linecorp.armeria.client.Endpoint;
 import com.linecorp.armeria.client.HttpClient;
 import com.linecorp.armeria.client.WebClient;
 import com.linecorp.armeria.client.circuitbreaker.CircuitBreaker;
@@ -39,29 +38,53 @@ import com.linecorp.armeria.client.circuitbreaker.CircuitBreakerBuilder;
 import com.linecorp.armeria.client.circuitbreaker.CircuitBreakerClient;
 import com.linecorp.armeria.client.circuitbreaker.CircuitBreakerListener;
 import com.linecorp.armeria.client.circuitbreaker.CircuitBreakerRule;
-import com.linecorp.armeria.client.logging.LoggingClient;
 import com.linecorp.armeria.client.metric.MetricCollectingClient;
 import com.linecorp.armeria.common.AggregatedHttpResponse;
-import com.linecorp.armeria.common.HttpData;
-import com.linecorp.armeria.common.HttpHeaders;
 import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpStatus;
 import com.linecorp.armeria.common.QueryParams;
 import com.linecorp.armeria.common.RequestHeaders;
 import com.linecorp.armeria.common.ResponseHeaders;
+import com.linecorp.armeria.common.SessionProtocol;
+import com.linecorp.armeria.common.util.TimeoutMode;
 import com.linecorp.armeria.common.metric.MeterIdPrefixFunction;
 import com.linecorp.armeria.server.ServiceRequestContext;
 import com.linecorp.armeria.server.annotation.Get;
 import com.linecorp.armeria.server.annotation.Param;
 
 import hu.akarnokd.rxjava2.interop.SingleInterop;
-import info.matsumana.psystrike.config.CleanupTimerProperties;
+import info.matsumana.psystrike.cache.ScrapeCache;
+import info.matsumana.psystrike.client.ClientKey;
+import info.matsumana.psystrike.client.PodProtocol;
+import info.matsumana.psystrike.client.TargetKind;
+import info.matsumana.psystrike.client.WebClientRegistry;
+import info.matsumana.psystrike.coalescing.ScrapeCoalescer;
+import info.matsumana.psystrike.compression.CompressionHandler;
+import info.matsumana.psystrike.config.ClientTuningProperties;
+import info.matsumana.psystrike.config.ClientTuningProperties.ApiServer;
+import info.matsumana.psystrike.config.ClientTuningProperties.Pod;
 import info.matsumana.psystrike.config.KubernetesProperties;
-import info.matsumana.psystrike.helper.AppVersionHelper;
-import io.micrometer.core.instrument.Gauge;
+import info.matsumana.psystrike.config.StreamingProperties;
+import info.matsumana.psystrike.discovery.ApiServerBalancer;
+import info.matsumana.psystrike.exposition.ExpositionFilter;
+import info.matsumana.psystrike.helper.UpstreamHeaderValues;
+import info.matsumana.psystrike.informer.InformerCache;
+import info.matsumana.psystrike.limit.ConcurrencyLimiter;
+import info.matsumana.psystrike.limit.RouteFamily;
+import info.matsumana.psystrike.logging.DebugLogging;
+import info.matsumana.psystrike.logging.PayloadLogger;
+import info.matsumana.psystrike.metrics.ProxyMetrics;
+import info.matsumana.psystrike.protobuf.ProtobufTranscoder;
+import info.matsumana.psystrike.watch.Bookmark;
+import info.matsumana.psystrike.watch.WatchBookmarks;
+import info.matsumana.psystrike.watch.WatchEventProjector;
+import info.matsumana.psystrike.watch.WatchEvents;
+import info.matsumana.psystrike.watch.WatchKey;
+import info.matsumana.psystrike.watch.WatchMultiplexer;
+import info.matsumana.psystrike.watch.WatchResumer;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Tag;
 import io.netty.util.AsciiString;
-import io.reactivex.Flowable;
 import io.reactivex.Single;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -71,49 +94,93 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class ReverseProxyService {
 
-    private static final String HTTP_HEADER_AUTHORIZATION_KEY = "Authorization";
-    private static final String HTTP_HEADER_AUTHORIZATION_VALUE_PREFIX = "Bearer ";
-    private static final int CLIENT_MAX_RESPONSE_LENGTH_BYTE = 100 * 1024 * 1024;
     private static final int TIMEOUT_BUFFER_SECONDS = 3;
 
-    // In Prometheus, watch timeout is random in [minWatchTimeout, 2*minWatchTimeout]
-    // https://github.com/prometheus/prometheus/blob/v2.14.0/vendor/k8s.io/client-go/tools/cache/reflector.go#L78-L80
-    // https://github.com/prometheus/prometheus/blob/v2.14.0/vendor/k8s.io/client-go/tools/cache/reflector.go#L262
-    private static final Duration RESPONSE_TIMEOUT_MINUTES = Duration.ofMinutes(10);
+    // v1/pods, v1/namespaces/default/pods, v1/namespaces/default/pods/foo
+    private static final Pattern RESOURCE_PATTERN = Pattern.compile("^v1/(?:namespaces/[^/]+/)?([a-z]+)");
 
-    private final Map<String, Pair<WebClient, LocalDateTime>> webClients = new ConcurrentHashMap<>();
-    private final Timer webClientsCleanupTimer = new Timer("WebClientsCleanupTimer");
+    // The core resources, which bound the values of the resource tags whatever the clients request.
+    private static final Set<String> CORE_RESOURCES =
+            Set.of("bindings", "componentstatuses", "configmaps", "endpoints", "events", "limitranges",
+                   "namespaces", "nodes", "persistentvolumeclaims", "persistentvolumes", "pods",
+                   "podtemplates", "replicationcontrollers", "resourcequotas", "secrets", "serviceaccounts",
+                   "services");
+
+    private static final Function<? super HttpClient, ? extends HttpClient> LOGGING_DECORATOR =
+            DebugLogging.newClientDecorator(LoggerFactory.getLogger(ReverseProxyService.class));
+
+    // Method references are allocated once instead of on every lookup.
+    private final Function<ClientKey, WebClient> newApiServerWebClient =
+            this::buildH2WebClientForApiServers;
+    private final Function<ClientKey, WebClient> newPodWebClient =
+            this::buildWebClientForPods;
 
     private final KubernetesProperties kubernetesProperties;
-    private final CleanupTimerProperties cleanupTimerProperties;
+    private final StreamingProperties streamingProperties;
+    private final CompressionHandler compressionHandler;
     private final MeterRegistry meterRegistry;
     private final ClientFactory clientFactory;
-    private final AppVersionHelper appVersionHelper;
-    private final Clock clock;
-
-    @PostConstruct
-    void postConstruct() {
-        setupWebClientsCleanupTimer(webClients, clock, cleanupTimerProperties);
-        setupMetrics(meterRegistry, webClients);
-    }
+    @Qualifier("podClientFactory")
+    private final ClientFactory podClientFactory;
+    private final ClientTuningProperties clientTuningProperties;
+    private final UpstreamHeaderValues upstreamHeaderValues;
+    private final WatchMultiplexer watchMultiplexer;
+    private final InformerCache informerCache;
+    private final WebClientRegistry webClientRegistry;
+    private final ScrapeCoalescer scrapeCoalescer;
+    private final ConcurrencyLimiter concurrencyLimiter;
+    private final ProxyMetrics proxyMetrics;
+    private final PayloadLogger payloadLogger;
+    private final WatchEventProjector watchEventProjector;
+    private final ProtobufTranscoder protobufTranscoder;
+    private final ApiServerBalancer apiServerBalancer;
+    private final WatchResumer watchResumer;
+    private final WatchBookmarks watchBookmarks;
+    private final ScrapeCache scrapeCache;
+    private final ExpositionFilter expositionFilter;
 
     @Get("regex:^/api/(?<actualUri>.*)$")
     public HttpResponse proxyApiServer(ServiceRequestContext ctx, RequestHeaders orgRequestHeaders,
-                                       QueryParams params, @Param String actualUri) {
+                                       QueryParams requestParams, @Param String actualUri) {
 
         log.debug("proxyApiServer orgRequestHeaders={}", orgRequestHeaders);
 
-        final var watch = Boolean.parseBoolean(params.get("watch", "false"));
-        final var timeoutSeconds = params.getInt("timeoutSeconds", 0);
+        final var watch = Boolean.parseBoolean(requestParams.get("watch", "false"));
+        final var timeoutSeconds = requestParams.getInt("timeoutSeconds", 0);
+        final WatchKey watchKey = watch ? newWatchKey(orgRequestHeaders, requestParams, actualUri) : null;
+        // A watch is opened from the latest bookmark instead of a resourceVersion which may be compacted.
+        final Bookmark bookmark =
+                watchKey != null ? watchBookmarks.latest(watchKey, WatchKey.resourceVersion(requestParams))
+                                 : null;
+        final QueryParams params =
+                bookmark != null ? requestParams.toBuilder()
+                                                .set("resourceVersion",
+                                                     String.valueOf(bookmark.getResourceVersion()))
+                                                .build()
+                                 : requestParams;
         final String uri = generateRequestUri(params, actualUri);
+        final String resource = resourceOf(actualUri);
+        proxyMetrics.record(ctx, watch ? RouteFamily.WATCH : RouteFamily.LIST, resource);
 
-        // create new headers with auth token
-        final var requestHeaders = newRequestHeadersForApiServers(orgRequestHeaders, uri);
-        final var client = newH2WebClientForApiServers(kubernetesProperties.getApiServer(),
-                                                       kubernetesProperties.getApiServerPort());
-        final Flowable<HttpData> dataStream;
-        final HttpResponse httpResponse = client.execute(requestHeaders);
+        if (!watch && informerCache.isEnabled()) {
+            final HttpResponse cachedResponse = informerCache.list(ctx, actualUri, params);
+            if (cachedResponse != null) {
+                return cachedResponse;
+            }
+        }
+
+        if (watchKey != null && timeoutSeconds > 0 && watchMultiplexer.isEnabled()) {
+            final HttpResponse sharedResponse = subscribeSharedWatch(ctx, orgRequestHeaders, params, watchKey,
+                                                                     actualUri, timeoutSeconds);
+            if (sharedResponse != null) {
+                final HttpResponse response = WatchEvents.unframe(
+                        watchBookmarks.decorate(sharedResponse, watchKey, requestParams, bookmark));
+                return proxyMetrics.recordWatch(ctx, resource, "shared",
+                                                payloadLogger.decorate(response, "watch"));
+            }
+        }
 
+        HttpResponse httpResponse = executeOnApiServer(orgRequestHeaders, uri, watch);
         if (watch && timeoutSeconds > 0) {
             // Streaming request for k8s Service Discovery by Prometheus
             //
@@ -125,30 +192,85 @@ public class ReverseProxyService {
             // https://engineering.linecorp.com/ja/blog/reactive-streams-with-armeria-2/
 
             ctx.setRequestTimeout(Duration.ofSeconds(timeoutSeconds + TIMEOUT_BUFFER_SECONDS));
-            dataStream = Flowable.fromPublisher(httpResponse)
-                                 .doOnError(throwable -> log.error("Can't proxy to a k8s API server",
-                                                                   throwable))
-                                 .doOnNext(response -> {
-                                     if (response instanceof HttpHeaders) {
-                                         final HttpHeaders httpHeaders = (HttpHeaders) response;
-                                         log.debug("streaming response httpHeaders={}", httpHeaders);
-                                     } else {
-                                         final HttpData httpData = (HttpData) response;
-                                         log.debug("streaming response httpData={}", httpData.toStringUtf8());
-                                     }
-                                 })
-                                 .filter(response -> response instanceof HttpData)
-                                 .map(response -> (HttpData) response);
-        } else {
-            dataStream = Flowable.fromPublisher(httpResponse)
-                                 .doOnError(throwable -> log.error("Can't proxy to a k8s API server",
-                                                                   throwable))
-                                 .filter(response -> response instanceof HttpData)
-                                 .map(response -> (HttpData) response);
+
+            // Reopened from the last resourceVersion if the upstream watch ends before the timeout
+            httpResponse = watchResumer.decorate(
+                    ctx, httpResponse, WatchKey.resourceVersion(params), timeoutSeconds,
+                    (resourceVersion, remainingSeconds) -> {
+                        final QueryParams resumeParams =
+                                params.toBuilder()
+                                      .set("resourceVersion", String.valueOf(resourceVersion))
+                                      .set("timeoutSeconds", String.valueOf(remainingSeconds))
+                                      .build();
+                        return executeOnApiServer(orgRequestHeaders,
+                                                  generateRequestUri(resumeParams, actualUri), true);
+                    });
+        }
+        if (watchKey != null) {
+            httpResponse = watchBookmarks.decorate(httpResponse, watchKey, requestParams, bookmark);
+        }
+        if (watch && framesWatchEvents()) {
+            httpResponse = WatchEvents.unframe(httpResponse);
+        }
+
+        httpResponse.whenComplete()
+                    .exceptionally(throwable -> {
+                        log.error("Can't proxy to a k8s API server", throwable);
+                        return null;
+                    });
+        final String verb = watch ? "watch" : "list";
+        final HttpResponse response = payloadLogger.decorate(new ApiServerHttpResponse(
+                httpResponse, status -> recordApiServerStatus(verb, resource, status)), verb);
+        return watch ? proxyMetrics.recordWatch(ctx, resource, "direct", response) : response;
+    }
+
+    @Nullable
+    private HttpResponse subscribeSharedWatch(ServiceRequestContext ctx, RequestHeaders orgRequestHeaders,
+                                              QueryParams params, WatchKey key, String actualUri,
+                                              int timeoutSeconds) {
+        final long resourceVersion = WatchKey.resourceVersion(params);
+        if (resourceVersion <= 0) {
+            return null;
+        }
+
+        return watchMultiplexer.subscribe(ctx, key, resourceVersion, timeoutSeconds, upstreamVersion -> {
+            // The shared upstream watch outlives each subscriber, so it can't use the subscriber's timeout.
+            final long upstreamTimeoutSeconds =
+                    TimeUnit.MILLISECONDS.toSeconds(
+                            clientTuningProperties.getApiServer().getWatchResponseTimeoutMillis()) -
+                    TIMEOUT_BUFFER_SECONDS;
+            final QueryParams upstreamParams =
+                    params.toBuilder()
+                          .set("resourceVersion", String.valueOf(upstreamVersion))
+                          .set("timeoutSeconds", String.valueOf(upstreamTimeoutSeconds))
+                          .build();
+            // Transcoded and projected once for all the subscribers
+            return executeOnApiServer(orgRequestHeaders, generateRequestUri(upstreamParams, actualUri), true);
+        });
+    }
+
+    /**
+     * Sends a request to the API server chosen by the {@link ApiServerBalancer}, and transcodes and projects
+     * the response. A watch response is framed if any watch stage needs its events.
+     */
+    private HttpResponse executeOnApiServer(RequestHeaders orgRequestHeaders, String uri, boolean watch) {
+        // create new headers with auth token
+        final var requestHeaders = protobufTranscoder.upstreamRequestHeaders(
+                newRequestHeadersForApiServers(orgRequestHeaders, uri));
+        final Endpoint endpoint = apiServerBalancer.select();
+        final var client = newH2WebClientForApiServers(endpoint.host(), endpoint.port());
+        final HttpResponse response = protobufTranscoder.decorate(
+                apiServerBalancer.track(endpoint, client.execute(requestHeaders), watch), watch);
+        if (!watch || !framesWatchEvents()) {
+            return response;
         }
+        // Framed and parsed once for all the watch stages
+        return watchEventProjector.decorate(WatchEvents.frame(response));
+    }
 
-        final ResponseHeaders responseHeaders = ResponseHeaders.of(OK);
-        return HttpResponse.of(Flowable.concat(Flowable.just(responseHeaders), dataStream));
+    private boolean framesWatchEvents() {
+        return watchEventProjector.isEnabled() || watchResumer.isEnabled() || watchBookmarks.isEnabled() ||
+               watchMultiplexer.isEnabled();
     }
 
     @Get("regex:^/apiservers/(?<host>.*?)/(?<port>.*?)/(?<actualUri>.*)$")
@@ -158,92 +280,158 @@ public class ReverseProxyService {
                                                       @Param String actualUri) {
 
         log.debug("proxyApiServerMetrics orgRequestHeaders={}", orgRequestHeaders);
+        proxyMetrics.record(ctx, RouteFamily.APISERVERS, host + ':' + port);
 
         // create new headers with auth token
         final var requestHeaders = newRequestHeadersForApiServers(orgRequestHeaders, actualUri);
-        final var client = newH2WebClientForApiServers(host, port);
+        final var target = ClientKey.of(TargetKind.API_SERVER, H2, host, port);
+        final var client = webClientRegistry.get(target, newApiServerWebClient);
+
+        if (streamingProperties.isEnabled()) {
+            final HttpResponse httpResponse = executeScrape(
+                    client, target, orgRequestHeaders,
+                    upstreamScrapeHeaders(requestHeaders, orgRequestHeaders, "apiservers"), "apiservers");
+            final HttpResponse encodedResponse =
+                    compressionHandler.handle(orgRequestHeaders, httpResponse, "apiservers",
+                                              host + ':' + port);
+            return Single.just(newStreamingResponse(ctx, encodedResponse,
+                                                    "Can't collect metrics from a k8s API server"));
+        }
+
+        final HttpResponse httpResponse =
+                executeScrape(client, target, orgRequestHeaders, requestHeaders, "apiservers");
 
-        return SingleInterop.fromFuture(client.execute(requestHeaders)
-                                              .aggregate())
+        return SingleInterop.fromFuture(httpResponse.aggregate())
                             .doOnSuccess(response -> mutateAdditionalResponseHeaders(ctx, response.headers()))
                             .doOnError(throwable -> log.error("Can't collect metrics from a k8s API server",
                                                               throwable))
                             .map(AggregatedHttpResponse::toHttpResponse);
     }
 
-    @Get("regex:^/pods/(?<host>.*?)/(?<port>.*?)/(?<actualUri>.*)$")
+    // The protocol segment is optional, e.g. /pods/10.0.0.1/8080/metrics or /pods/h2c/10.0.0.1/8080/metrics
+    @Get("regex:^/pods/(?:(?<protocol>http|h2c|https|h2)/)?(?<host>.*?)/(?<port>.*?)/(?<actualUri>.*)$")
     public Single<HttpResponse> proxyPodMetrics(ServiceRequestContext ctx, RequestHeaders orgRequestHeaders,
-                                                @Param String host, @Param int port, @Param String actualUri) {
+                                                @Param Optional<String> protocol, @Param String host,
+                                                @Param int port, @Param String actualUri) {
 
         log.debug("proxyPodMetrics orgRequestHeaders={}", orgRequestHeaders);
+        // Pod addresses are unbounded, so they're not used as a tag.
+        proxyMetrics.record(ctx, RouteFamily.PODS, "pods");
+
+        final SessionProtocol sessionProtocol =
+                PodProtocol.of(protocol.orElse(clientTuningProperties.getPod().getDefaultProtocol()))
+                           .sessionProtocol();
+        final var requestHeaders = newRequestHeadersForPods(orgRequestHeaders, actualUri, sessionProtocol);
+        final var target = ClientKey.of(TargetKind.POD, sessionProtocol, host, port);
+        final var client = webClientRegistry.get(target, newPodWebClient);
+
+        if (streamingProperties.isEnabled()) {
+            final HttpResponse httpResponse = executeScrape(
+                    client, target, orgRequestHeaders,
+                    upstreamScrapeHeaders(requestHeaders, orgRequestHeaders, "pods"), "pods");
+            // Pod addresses are unbounded, so they're not used as a tag.
+            final HttpResponse encodedResponse =
+                    compressionHandler.handle(orgRequestHeaders, httpResponse, "pods", "pods");
+            return Single.just(newStreamingResponse(ctx, encodedResponse, "Can't collect metrics from a pod"));
+        }
 
-        final var requestHeaders = newRequestHeadersForPods(orgRequestHeaders, actualUri);
-        final var client = newH1WebClientForPods(host, port);
+        final HttpResponse httpResponse =
+                executeScrape(client, target, orgRequestHeaders, requestHeaders, "pods");
 
-        return SingleInterop.fromFuture(client.execute(requestHeaders)
-                                              .aggregate())
+        return SingleInterop.fromFuture(httpResponse.aggregate())
                             .doOnSuccess(response -> mutateAdditionalResponseHeaders(ctx, response.headers()))
                             .doOnError(throwable -> log.error("Can't collect metrics from a pod", throwable))
                             .map(AggregatedHttpResponse::toHttpResponse);
     }
 
-    private RequestHeaders newRequestHeadersForApiServers(RequestHeaders requestHeaders, String uri) {
-        final String authHeaderValue =
-                HTTP_HEADER_AUTHORIZATION_VALUE_PREFIX + kubernetesProperties.getBearerToken();
-
-        return RequestHeaders.of(requestHeaders)
-                             .toBuilder()
-                             .removeAndThen(ACCEPT_ENCODING)
-                             .set(USER_AGENT, generateRequestHeaderUserAgent())
-                             .add(HTTP_HEADER_AUTHORIZATION_KEY, authHeaderValue)
-                             .scheme(H2)
-                             .path(uri)
-                             .build();
+    /**
+     * Scrapes a pod for the {@link BatchScrapeService}, the same as /pods does without streaming.
+     */
+    HttpResponse scrapePod(RequestHeaders orgRequestHeaders, SessionProtocol sessionProtocol, String host,
+                           int port, String actualUri) {
+        final var requestHeaders = newRequestHeadersForPods(orgRequestHeaders, actualUri, sessionProtocol);
+        final var target = ClientKey.of(TargetKind.POD, sessionProtocol, host, port);
+        final var client = webClientRegistry.get(target, newPodWebClient);
+        return executeScrape(client, target, orgRequestHeaders, requestHeaders, "pods");
+    }
+
+    /**
+     * Sends a scrape through the {@link ScrapeCoalescer}, falling back to the last successful response
+     * in the {@link ScrapeCache}, and filters the response by the {@link ExpositionFilter}.
+     */
+    private HttpResponse executeScrape(WebClient client, ClientKey target, RequestHeaders orgRequestHeaders,
+                                       RequestHeaders upstreamRequestHeaders, String route) {
+        final HttpResponse response =
+                scrapeCache.execute(target, orgRequestHeaders, upstreamRequestHeaders, route,
+                                    () -> scrapeCoalescer.execute(client, target, orgRequestHeaders,
+                                                                  upstreamRequestHeaders, route));
+        return expositionFilter.decorate(response, route);
+    }
+
+    private RequestHeaders upstreamScrapeHeaders(RequestHeaders requestHeaders,
+                                                 RequestHeaders orgRequestHeaders, String route) {
+        // A filtered response is asked for as identity, and encoded for the client after it's filtered.
+        if (expositionFilter.isEnabled(route)) {
+            return requestHeaders;
+        }
+        return compressionHandler.upstreamRequestHeaders(requestHeaders, orgRequestHeaders);
+    }
+
+    private RequestHeaders newRequestHeadersForApiServers(RequestHeaders orgRequestHeaders, String uri) {
+        return orgRequestHeaders.toBuilder()
+                                .removeAndThen(ACCEPT_ENCODING)
+                                .set(USER_AGENT, upstreamHeaderValues.getUserAgent())
+                                .add(AUTHORIZATION, upstreamHeaderValues.getAuthorization())
+                                .scheme(H2)
+                                .path(uri)
+                                .build();
     }
 
-    private RequestHeaders newRequestHeadersForPods(RequestHeaders orgRequestHeaders, String uri) {
-        return RequestHeaders.of(orgRequestHeaders)
-                             .toBuilder()
-                             .removeAndThen(ACCEPT_ENCODING)
-                             .set(USER_AGENT, generateRequestHeaderUserAgent())
-                             .scheme(H1C)
-                             .path(uri)
-                             .build();
+    private RequestHeaders newRequestHeadersForPods(RequestHeaders orgRequestHeaders, String uri,
+                                                    SessionProtocol sessionProtocol) {
+        return orgRequestHeaders.toBuilder()
+                                .removeAndThen(ACCEPT_ENCODING)
+                                .set(USER_AGENT, upstreamHeaderValues.getUserAgent())
+                                .scheme(sessionProtocol)
+                                .path(uri)
+                                .build();
     }
 
     private WebClient newH2WebClientForApiServers(String host, int port) {
-        final Pair<WebClient, LocalDateTime> pair =
-                webClients.computeIfAbsent(host + ':' + port, key -> {
-                    final LocalDateTime usedAt = LocalDateTime.now(clock);
-                    final WebClient webClient =
-                            WebClient.builder(String.format("%s://%s:%d/", H2.uriText(), host, port))
-                                     .factory(clientFactory)
-                                     .maxResponseLength(CLIENT_MAX_RESPONSE_LENGTH_BYTE)
-                                     .responseTimeout(RESPONSE_TIMEOUT_MINUTES)
-                                     .decorator(newCircuitBreakerDecorator(host))
-                                     .decorator(newMetricsDecorator(host, port))
-                                     .decorator(newLoggingClientDecorator())
-                                     .build();
-                    return MutablePair.of(webClient, usedAt);
-                });
-        pair.setValue(LocalDateTime.now(clock));
-        return pair.getLeft();
+        return webClientRegistry.get(ClientKey.of(TargetKind.API_SERVER, H2, host, port),
+                                     newApiServerWebClient);
+    }
+
+    private WebClient buildH2WebClientForApiServers(ClientKey key) {
+        final ApiServer settings = clientTuningProperties.getApiServer();
+        // In Prometheus, watch timeout is random in [minWatchTimeout, 2*minWatchTimeout]
+        // https://github.com/prometheus/prometheus/blob/v2.14.0/vendor/k8s.io/client-go/tools/cache/reflector.go#L78-L80
+        // https://github.com/prometheus/prometheus/blob/v2.14.0/vendor/k8s.io/client-go/tools/cache/reflector.go#L262
+        return WebClient.builder(key.uri())
+                        .factory(clientFactory)
+                        .maxResponseLength(settings.getMaxResponseLength())
+                        .responseTimeoutMillis(settings.getWatchResponseTimeoutMillis())
+                        .decorator(newResponseTimeoutDecorator(settings))
+                        .decorator(proxyMetrics.newUpstreamDecorator())
+                        .decorator(newCircuitBreakerDecorator(key.host(), settings.getCircuitBreaker()))
+                        // Outside of the circuit breaker, so that its own 503s aren't counted as failures
+                        .decorator(concurrencyLimiter.newApiServerDecorator())
+                        .decorator(newMetricsDecorator(key.host(), key.port()))
+                        .decorator(LOGGING_DECORATOR)
+                        .build();
     }
 
-    private WebClient newH1WebClientForPods(String host, int port) {
-        final Pair<WebClient, LocalDateTime> pair =
-                webClients.computeIfAbsent(host + ':' + port, key -> {
-                    final LocalDateTime usedAt = LocalDateTime.now(clock);
-                    final WebClient webClient =
-                            WebClient.builder(String.format("%s://%s:%d/", H1C.uriText(), host, port))
-                                     .factory(clientFactory)
-                                     .decorator(newCircuitBreakerDecorator(""))
-                                     .decorator(newLoggingClientDecorator())
-                                     .build();
-                    return MutablePair.of(webClient, usedAt);
-                });
-        pair.setValue(LocalDateTime.now(clock));
-        return pair.getLeft();
+    private WebClient buildWebClientForPods(ClientKey key) {
+        final Pod settings = clientTuningProperties.getPod();
+        return WebClient.builder(key.uri())
+                        .factory(podClientFactory)
+                        .maxResponseLength(settings.getMaxResponseLength())
+                        .responseTimeoutMillis(settings.getResponseTimeoutMillis())
+                        .decorator(proxyMetrics.newUpstreamDecorator())
+                        .decorator(newCircuitBreakerDecorator("", settings.getCircuitBreaker()))
+                        .decorator(concurrencyLimiter.newPodDecorator())
+                        .decorator(LOGGING_DECORATOR)
+                        .build();
     }
 
     private static Function<? super HttpClient, MetricCollectingClient> newMetricsDecorator(String host,
@@ -257,7 +445,29 @@ public class ReverseProxyService {
         return MetricCollectingClient.newDecorator(meterIdPrefixFunction.withTags("server", server));
     }
 
-    private Function<? super HttpClient, CircuitBreakerClient> newCircuitBreakerDecorator(String hostname) {
+    /**
+     * Returns a decorator which overrides the watch timeout of the WebClient for lists and /apiservers scrapes.
+     */
+    private static DecoratingHttpClientFunction newResponseTimeoutDecorator(ApiServer settings) {
+        return (delegate, ctx, req) -> {
+            switch (RouteFamily.ofApiServerRequest(ctx.path(), ctx.query())) {
+                case LIST:
+                    ctx.setResponseTimeoutMillis(TimeoutMode.SET_FROM_START,
+                                                 settings.getListResponseTimeoutMillis());
+                    break;
+                case APISERVERS:
+                    ctx.setResponseTimeoutMillis(TimeoutMode.SET_FROM_START,
+                                                 settings.getScrapeResponseTimeoutMillis());
+                    break;
+                default:
+                    break;
+            }
+            return delegate.execute(ctx, req);
+        };
+    }
+
+    private Function<? super HttpClient, CircuitBreakerClient> newCircuitBreakerDecorator(
+            String hostname, ClientTuningProperties.CircuitBreaker settings) {
         final CircuitBreakerBuilder builder;
         if (Strings.isNullOrEmpty(hostname)) {
             builder = CircuitBreaker.builder();
@@ -266,24 +476,30 @@ public class ReverseProxyService {
             builder = CircuitBreaker.builder("kube-apiserver_" + hostname)
                                     .listener(CircuitBreakerListener.metricCollecting(meterRegistry));
         }
-        final CircuitBreaker circuitBreaker = builder.failureRateThreshold(0.1)
-                                                     .minimumRequestThreshold(1)
-                                                     .trialRequestInterval(Duration.ofSeconds(5))
-                                                     .circuitOpenWindow(Duration.ofSeconds(10))
-                                                     .counterSlidingWindow(Duration.ofSeconds(60))
-                                                     .build();
+        final CircuitBreaker circuitBreaker =
+                builder.failureRateThreshold(settings.getFailureRateThreshold())
+                       .minimumRequestThreshold(settings.getMinimumRequestThreshold())
+                       .trialRequestIntervalMillis(settings.getTrialRequestIntervalMillis())
+                       .circuitOpenWindowMillis(settings.getCircuitOpenWindowMillis())
+                       .counterSlidingWindowMillis(settings.getCounterSlidingWindowMillis())
+                       .build();
 
         return CircuitBreakerClient.newDecorator(circuitBreaker,
                                                  CircuitBreakerRule.onServerErrorStatus());
     }
 
-    private static Function<? super HttpClient, LoggingClient> newLoggingClientDecorator() {
-        return LoggingClient.builder()
-                            .logger(LoggerFactory.getLogger(ReverseProxyService.class))
-                            .newDecorator();
+    private String generateRequestUri(QueryParams params, String actualUri) {
+        // Every upstream watch asks for bookmarks, which are dropped for the clients that didn't.
+        return generateRequestUri(kubernetesProperties.getApiUriPrefix(), watchBookmarks.upstreamParams(params),
+                                  actualUri);
     }
 
-    private String generateRequestUri(QueryParams params, String actualUri) {
+    private WatchKey newWatchKey(RequestHeaders orgRequestHeaders, QueryParams params, String actualUri) {
+        // Clients which asked for bookmarks and which didn't share the same upstream watch.
+        return WatchKey.of(actualUri, watchBookmarks.upstreamParams(params), orgRequestHeaders.get(ACCEPT, ""));
+    }
+
+    public static String generateRequestUri(String apiUriPrefix, QueryParams params, String actualUri) {
         final String queryString = StreamSupport.stream(params.spliterator(), false)
                                                 .map(entry -> entry.getKey() + '=' + entry.getValue())
                                                 .collect(Collectors.joining("&"));
@@ -294,71 +510,50 @@ public class ReverseProxyService {
             separator = "";
         }
 
-        return generatePrefix(kubernetesProperties.getApiUriPrefix()) +
-               "/api/" + actualUri + separator + queryString;
+        return generatePrefix(apiUriPrefix) + "/api/" + actualUri + separator + queryString;
+    }
+
+    private void recordApiServerStatus(String verb, String resource, HttpStatus status) {
+        meterRegistry.counter("psystrike.apiserver.responses",
+                              "verb", verb, "resource", resource, "status", status.codeAsText())
+                     .increment();
+    }
+
+    // The core resources are a bounded set, unlike the names and the namespaces.
+    @VisibleForTesting
+    static String resourceOf(String actualUri) {
+        final Matcher matcher = RESOURCE_PATTERN.matcher(actualUri);
+        if (matcher.lookingAt() && CORE_RESOURCES.contains(matcher.group(1))) {
+            return matcher.group(1);
+        }
+        return "other";
+    }
+
+    private static HttpResponse newStreamingResponse(ServiceRequestContext ctx, HttpResponse httpResponse,
+                                                     String errorMessage) {
+        httpResponse.whenComplete()
+                    .exceptionally(throwable -> {
+                        log.error(errorMessage, throwable);
+                        return null;
+                    });
+        return new HeaderCopyingHttpResponse(ctx, httpResponse);
     }
 
-    private static void mutateAdditionalResponseHeaders(ServiceRequestContext ctx,
-                                                        ResponseHeaders responseHeaders) {
+    static void mutateAdditionalResponseHeaders(ServiceRequestContext ctx,
+                                                ResponseHeaders responseHeaders) {
         ctx.mutateAdditionalResponseHeaders(
                 entries -> responseHeaders.forEach((BiConsumer<AsciiString, String>) entries::add));
     }
 
     @VisibleForTesting
     String generateRequestHeaderUserAgent() {
-        final String version = appVersionHelper.getVersion().getArtifactVersion();
-        if (!Strings.isNullOrEmpty(version)) {
-            return "psystrike/" + version;
-        } else {
-            return "";
-        }
+        return upstreamHeaderValues.getUserAgent();
     }
 
-    @VisibleForTesting
-    static String generatePrefix(String prefix) {
+    public static String generatePrefix(String prefix) {
         final String s = StringUtils.trimLeadingCharacter(
                 StringUtils.trimTrailingCharacter(prefix, '/'),
                 '/');
         return !s.isEmpty() ? '/' + s : "";
     }
-
-    @VisibleForTesting
-    void setupWebClientsCleanupTimer(Map<String, Pair<WebClient, LocalDateTime>> webClients,
-                                     Clock clock, CleanupTimerProperties cleanupTimerProperties) {
-        final TimerTask webClientsCleanupTask = new TimerTask() {
-            @Override
-            public void run() {
-                final LocalDateTime now = LocalDateTime.now(clock);
-
-                log.debug("before: webClients.size={}", webClients.size());
-
-                webClients.forEach((host, pair) -> {
-                    final LocalDateTime usedAt = pair.getRight();
-                    final long diff = SECONDS.between(usedAt, now);
-                    final long removeThreshold = cleanupTimerProperties.getRemoveThresholdSeconds();
-
-                    log.debug("host={}, usedAt={}, now={} diff={}, removeThreshold={}",
-                              host, usedAt, now, diff, removeThreshold);
-
-                    if (diff > removeThreshold) {
-                        log.debug("remove {} from webClients", host);
-                        webClients.remove(host);
-                    }
-                });
-
-                log.debug("after: webClients.size={}", webClients.size());
-            }
-        };
-
-        final int delay = cleanupTimerProperties.getDelaySeconds() * 1000;
-        final int period = cleanupTimerProperties.getPeriodSeconds() * 1000;
-        webClientsCleanupTimer.scheduleAtFixedRate(webClientsCleanupTask, delay, period);
-    }
-
-    @VisibleForTesting
-    void setupMetrics(MeterRegistry meterRegistry, Map<String, Pair<WebClient, LocalDateTime>> webClients) {
-        Gauge.builder("psystrike.webclients", webClients::size)
-             .description("Number of WebClients")
-             .register(meterRegistry);
-    }
 }
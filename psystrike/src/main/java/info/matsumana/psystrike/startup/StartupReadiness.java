@@ -0,0 +1,137 @@
+package info.matsumana.psystrike.startup;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.linecorp.armeria.client.ClientFactory;
+import com.linecorp.armeria.client.Endpoint;
+import com.linecorp.armeria.client.WebClient;
+import com.linecorp.armeria.common.SessionProtocol;
+import com.linecorp.armeria.server.Server;
+import com.linecorp.armeria.server.ServerPort;
+import com.linecorp.armeria.server.healthcheck.HealthChecker;
+
+import info.matsumana.psystrike.config.StartupProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps the health check unhealthy until every listener has served a request, so that a restarted replica
+ * isn't put behind the Service while its first requests would still pay for the class loading, the TLS
+ * handshake setup and the JIT warmup.
+ *
+ * <p>A rolling deploy drops every watch of the replaced replica, and each of them re-LISTs through the next
+ * ready replica, so a replica which is ready early but slow spreads the load spike on the API servers.
+ */
+@Component
+@Slf4j
+public class StartupReadiness implements HealthChecker {
+
+    private final StartupProperties properties;
+    private volatile boolean ready;
+    private volatile double readySeconds = Double.NaN;
+
+    public StartupReadiness(StartupProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+
+        Gauge.builder("psystrike.startup.ready.seconds", this, readiness -> readiness.readySeconds)
+             .description("Time from the JVM start to the health check turning healthy")
+             .register(meterRegistry);
+    }
+
+    @Override
+    public boolean isHealthy() {
+        return ready;
+    }
+
+    @EventListener
+    public void onApplicationReady(ApplicationReadyEvent event) {
+        final Server server = event.getApplicationContext().getBean(Server.class);
+        final CompletableFuture<Void> warmup =
+                properties.isWarmupEnabled() ? warmUp(server) : CompletableFuture.completedFuture(null);
+        warmup.whenComplete((unused, cause) -> {
+            if (cause != null) {
+                log.warn("Failed to warm up the listeners. Turning healthy anyway.", cause);
+            }
+            markReady();
+            if (properties.isExitAfterWarmup()) {
+                exit(event.getApplicationContext());
+            }
+        });
+    }
+
+    /**
+     * Sends the warmup requests to every listener of the {@link Server} and completes when all of them are
+     * answered, whatever their statuses, or the warmup timeout passes.
+     */
+    CompletableFuture<Void> warmUp(Server server) {
+        // The listeners serve a self-signed certificate unless a real one is configured.
+        final ClientFactory factory = ClientFactory.builder()
+                                                   .tlsNoVerify()
+                                                   .build();
+        final Duration timeout = Duration.ofMillis(properties.getWarmupTimeoutMillis());
+        final List<CompletableFuture<?>> responses = new ArrayList<>();
+        for (ServerPort port : server.activePorts().values()) {
+            for (SessionProtocol protocol : port.protocols()) {
+                if (protocol != SessionProtocol.HTTP && protocol != SessionProtocol.HTTPS) {
+                    continue;
+                }
+                final InetSocketAddress address = port.localAddress();
+                final WebClient client = WebClient.builder(protocol, endpointOf(address))
+                                                  .factory(factory)
+                                                  .responseTimeout(timeout)
+                                                  .build();
+                final List<String> paths = new ArrayList<>();
+                paths.add(properties.getWarmupPath());
+                if (!properties.getWarmupProxiedPath().isEmpty()) {
+                    paths.add(properties.getWarmupProxiedPath()
+                                        .replace("{protocol}", protocol.uriText())
+                                        .replace("{port}", String.valueOf(address.getPort())));
+                }
+                for (String path : paths) {
+                    responses.add(client.get(path)
+                                        .aggregate()
+                                        .thenAccept(res -> log.debug("warmed up {}://{}{}, status={}",
+                                                                     protocol.uriText(), address, path,
+                                                                     res.status())));
+                }
+            }
+        }
+        return CompletableFuture.allOf(responses.toArray(new CompletableFuture<?>[0]))
+                                .orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+                                .whenComplete((unused, cause) -> factory.closeAsync());
+    }
+
+    private static Endpoint endpointOf(InetSocketAddress address) {
+        // A listener bound to the wildcard address is reached through the loopback.
+        if (address.getAddress().isAnyLocalAddress()) {
+            return Endpoint.of("127.0.0.1", address.getPort());
+        }
+        return Endpoint.of(address.getAddress().getHostAddress(), address.getPort());
+    }
+
+    private void markReady() {
+        readySeconds = ManagementFactory.getRuntimeMXBean().getUptime() / 1000.0;
+        ready = true;
+        log.info("psystrike is ready in {} seconds since the JVM started", readySeconds);
+    }
+
+    private static void exit(ConfigurableApplicationContext context) {
+        // Runs on an event loop of the warmup's client, which is shut down by the exit.
+        final Thread thread = new Thread(() -> System.exit(SpringApplication.exit(context)),
+                                         "psystrike-startup-exit");
+        thread.start();
+    }
+}
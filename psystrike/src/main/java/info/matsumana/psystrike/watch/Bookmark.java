@@ -0,0 +1,25 @@
+package info.matsumana.psystrike.watch;
+
+import lombok.Value;
+
+/**
+ * The latest BOOKMARK event of a watch, which proves that the watch had no events between
+ * {@code quietSinceResourceVersion} and {@code resourceVersion}.
+ */
+@Value
+public class Bookmark {
+
+    // The resourceVersion of the last event before the bookmark, or the one the watch was opened from
+    long quietSinceResourceVersion;
+    long resourceVersion;
+    // The raw event including the trailing newline
+    byte[] bytes;
+
+    /**
+     * Returns whether a watch from {@code resourceVersion} can be opened from this bookmark instead
+     * without missing an event.
+     */
+    boolean covers(long resourceVersion) {
+        return quietSinceResourceVersion <= resourceVersion && resourceVersion < this.resourceVersion;
+    }
+}
@@ -0,0 +1,84 @@
+package info.matsumana.psystrike.watch;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpObject;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.HttpStatusClass;
+import com.linecorp.armeria.common.ResponseHeaders;
+
+import io.reactivex.Flowable;
+
+/**
+ * Records the BOOKMARK events of a framed downstream watch to {@link WatchBookmarks}, and drops them unless
+ * the client asked for them. The events must be continuous from the resourceVersion the watch was opened
+ * from, so this is applied after {@link ResumableWatch} and {@link SharedWatch}.
+ *
+ * <p>An error response or a non-JSON response, e.g. protobuf, is relayed as it is.
+ * Not thread-safe; each downstream watch has its own filter.
+ */
+final class BookmarkFilter {
+
+    private final WatchBookmarks watchBookmarks;
+    private final WatchKey key;
+    private final boolean relayBookmarks;
+    @Nullable
+    private final Bookmark initialBookmark;
+    // A watch without a resourceVersion starts with the current objects, which don't tell what was deleted.
+    private final boolean recordBookmarks;
+
+    // The resourceVersion of the last event, or the one the watch was opened from
+    private long quietSinceResourceVersion;
+
+    BookmarkFilter(WatchBookmarks watchBookmarks, WatchKey key, long resourceVersion, boolean relayBookmarks,
+                   @Nullable Bookmark initialBookmark) {
+        this.watchBookmarks = watchBookmarks;
+        this.key = key;
+        quietSinceResourceVersion = resourceVersion;
+        recordBookmarks = resourceVersion > 0;
+        this.relayBookmarks = relayBookmarks;
+        this.initialBookmark = initialBookmark;
+    }
+
+    Flowable<HttpObject> stream(HttpResponse response) {
+        return Flowable.fromPublisher(response)
+                       .concatMapIterable(this::filter);
+    }
+
+    private List<HttpObject> filter(HttpObject obj) {
+        if (obj instanceof ResponseHeaders) {
+            final ResponseHeaders headers = (ResponseHeaders) obj;
+            if (headers.status().codeClass() == HttpStatusClass.INFORMATIONAL) {
+                return List.of(obj);
+            }
+            final boolean passthrough = headers.status() != HttpStatus.OK ||
+                                        !WatchEvents.isJson(headers.contentType());
+            if (!passthrough && initialBookmark != null) {
+                // Tells the client the resourceVersion this watch was opened from.
+                return List.of(headers, HttpData.wrap(initialBookmark.getBytes()));
+            }
+            return List.of(obj);
+        }
+        if (!(obj instanceof WatchEvent)) {
+            return List.of(obj);
+        }
+
+        final WatchEvent event = (WatchEvent) obj;
+        if (event.isBookmark()) {
+            if (recordBookmarks && event.getResourceVersion() > 0) {
+                watchBookmarks.update(key, new Bookmark(quietSinceResourceVersion,
+                                                        event.getResourceVersion(), event.getBytes()));
+            }
+            if (!relayBookmarks) {
+                return List.of();
+            }
+        } else if (event.getResourceVersion() > 0) {
+            quietSinceResourceVersion = event.getResourceVersion();
+        }
+        return List.of(event);
+    }
+}
@@ -0,0 +1,41 @@
+package info.matsumana.psystrike.watch;
+
+import static com.linecorp.armeria.common.HttpHeaderNames.CONTENT_LENGTH;
+
+import com.linecorp.armeria.common.FilteredHttpResponse;
+import com.linecorp.armeria.common.HttpObject;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.ResponseHeaders;
+
+/**
+ * Projects the events of a framed watch response one by one.
+ *
+ * <p>An error response or a non-JSON response, e.g. protobuf, is relayed as it is.
+ */
+final class ProjectingHttpResponse extends FilteredHttpResponse {
+
+    private final WatchEventProjector projector;
+
+    ProjectingHttpResponse(HttpResponse delegate, WatchEventProjector projector) {
+        // Unpooled, because the events are replaced with the projected ones.
+        super(delegate);
+        this.projector = projector;
+    }
+
+    @Override
+    protected HttpObject filter(HttpObject obj) {
+        if (obj instanceof ResponseHeaders) {
+            final ResponseHeaders headers = (ResponseHeaders) obj;
+            final boolean passthrough = headers.status() != HttpStatus.OK ||
+                                        !WatchEvents.isJson(headers.contentType());
+            return passthrough ? headers : headers.toBuilder().removeAndThen(CONTENT_LENGTH).build();
+        }
+        if (!(obj instanceof WatchEvent)) {
+            return obj;
+        }
+
+        final WatchEvent event = (WatchEvent) obj;
+        return event.withBytes(projector.project(event.getBytes()));
+    }
+}
@@ -0,0 +1,168 @@
+package info.matsumana.psystrike.watch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpObject;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.HttpStatusClass;
+import com.linecorp.armeria.common.ResponseHeaders;
+import com.linecorp.armeria.server.ServiceRequestContext;
+
+import info.matsumana.psystrike.watch.WatchResumer.UpstreamFactory;
+import io.reactivex.Flowable;
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A downstream watch which outlives its upstream watches. When an upstream watch fails or ends before the
+ * client's {@code timeoutSeconds}, e.g. on a rolling update of the API servers, an HTTP/2 GOAWAY or an idle
+ * timeout of a load balancer, another upstream watch is opened from the last resourceVersion and its events
+ * are appended to the same downstream response.
+ *
+ * <p>Only complete events are relayed, so that a disconnection in the middle of an event never corrupts
+ * the stream. A 410 Gone on reopening ends the downstream response cleanly with an ERROR event, so that
+ * the client relists as it would without psystrike. A non-JSON watch, e.g. protobuf, is relayed as it is.
+ * The upstream watches must be framed by {@link WatchEvents#frame(HttpResponse)}.
+ * Not thread-safe; the upstream watches are subscribed one after another.
+ */
+@Slf4j
+final class ResumableWatch {
+
+    // The API server has already ended the watch on the client's timeout when less than this remains.
+    private static final long MIN_REMAINING_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final byte[] GONE_STATUS =
+            ("{\"kind\":\"Status\",\"apiVersion\":\"v1\",\"metadata\":{},\"status\":\"Failure\"," +
+             "\"reason\":\"Expired\",\"code\":410}").getBytes(UTF_8);
+
+    private final WatchResumer resumer;
+    private final UpstreamFactory upstreamFactory;
+    private final Scheduler scheduler;
+    private final long deadlineNanos;
+
+    private long resourceVersion;
+    // Reopens since the last event
+    private int attempts;
+    private boolean headersSent;
+    private boolean passthrough;
+    // The API server ends a watch after an ERROR event.
+    private boolean errorEventSent;
+
+    ResumableWatch(WatchResumer resumer, ServiceRequestContext ctx, UpstreamFactory upstreamFactory,
+                   long resourceVersion, int timeoutSeconds) {
+        this.resumer = resumer;
+        this.upstreamFactory = upstreamFactory;
+        // The reopened upstream watches are sent in the context of the downstream request.
+        scheduler = Schedulers.from(ctx.contextAwareEventLoop());
+        deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        this.resourceVersion = resourceVersion;
+    }
+
+    Flowable<HttpObject> stream(HttpResponse upstream) {
+        final Attempt attempt = new Attempt();
+        return Flowable.fromPublisher(upstream)
+                       .concatMapIterable(attempt::filter)
+                       .onErrorResumeNext(cause -> {
+                           attempt.cause = cause;
+                           return Flowable.empty();
+                       })
+                       .concatWith(Flowable.defer(() -> next(attempt)));
+    }
+
+    private Flowable<HttpObject> next(Attempt attempt) {
+        final Throwable cause = attempt.cause;
+        if (passthrough || !headersSent) {
+            return cause != null ? Flowable.error(cause) : Flowable.empty();
+        }
+        if (errorEventSent) {
+            return Flowable.empty();
+        }
+        if (attempt.status == HttpStatus.GONE) {
+            // The resourceVersion has been compacted while reopening.
+            resumer.recordGone();
+            errorEventSent = true;
+            final byte[] status = attempt.body.toByteArray();
+            final byte[] object = status.length > 0 && status[0] == '{' ? status : GONE_STATUS;
+            return Flowable.<HttpObject>just(HttpData.wrap(WatchEvent.error(object).getBytes()));
+        }
+
+        if (deadlineNanos - System.nanoTime() < MIN_REMAINING_NANOS) {
+            return Flowable.empty();
+        }
+        if (resourceVersion <= 0 || attempts >= resumer.maxResumes()) {
+            resumer.recordFailed();
+            log.warn("Can't resume a watch. resourceVersion={}, attempts={}", resourceVersion, attempts, cause);
+            return cause != null ? Flowable.error(cause) : Flowable.empty();
+        }
+
+        attempts++;
+        resumer.recordResumed();
+        log.info("Resuming a watch from resourceVersion={}. status={}, cause={}",
+                 resourceVersion, attempt.status, cause != null ? cause.toString() : null);
+        return Flowable.timer(resumer.backoffMillis(), TimeUnit.MILLISECONDS, scheduler)
+                       .concatMap(unused -> {
+                           final long remainingSeconds =
+                                   TimeUnit.NANOSECONDS.toSeconds(deadlineNanos - System.nanoTime());
+                           return stream(upstreamFactory.open(resourceVersion, Math.max(1, remainingSeconds)));
+                       });
+    }
+
+    /**
+     * The state of one upstream watch.
+     */
+    private final class Attempt {
+
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        @Nullable
+        private HttpStatus status;
+        @Nullable
+        private Throwable cause;
+
+        List<HttpObject> filter(HttpObject obj) {
+            if (obj instanceof ResponseHeaders) {
+                final ResponseHeaders headers = (ResponseHeaders) obj;
+                if (headers.status().codeClass() == HttpStatusClass.INFORMATIONAL) {
+                    return List.of();
+                }
+                status = headers.status();
+                if (headersSent) {
+                    // The downstream response has already started with the headers of the first watch.
+                    return List.of();
+                }
+                headersSent = true;
+                passthrough = status != HttpStatus.OK || !WatchEvents.isJson(headers.contentType());
+                return List.of(headers);
+            }
+            if (passthrough) {
+                return List.of(obj);
+            }
+            if (!(obj instanceof WatchEvent)) {
+                if (status != HttpStatus.OK && obj instanceof HttpData) {
+                    // The Status of a failed reopening, which becomes an ERROR event on 410 Gone
+                    body.writeBytes(((HttpData) obj).array());
+                }
+                // Otherwise, the trailers of each upstream watch or an incomplete event at the end
+                return List.of();
+            }
+
+            final WatchEvent event = (WatchEvent) obj;
+            if (event.getResourceVersion() > 0) {
+                resourceVersion = event.getResourceVersion();
+            }
+            if (event.isError()) {
+                errorEventSent = true;
+            }
+            attempts = 0;
+            return List.of(event);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package info.matsumana.psystrike.watch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import javax.annotation.Nullable;
+
+import com.linecorp.armeria.common.AggregatedHttpResponse;
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpObject;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.HttpStatusClass;
+import com.linecorp.armeria.common.ResponseHeaders;
+
+import io.micrometer.core.instrument.Timer;
+import io.reactivex.Flowable;
+import io.reactivex.disposables.Disposable;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * One framed upstream watch stream whose events are relayed to every attached subscriber.
+ *
+ * <p>The last {@code replayBufferSize} events are kept so that a subscriber whose resourceVersion is
+ * a bit older than the newest event can still attach without opening its own upstream watch.
+ * All state is guarded by {@code this}; upstream events are dispatched while holding the lock so that
+ * attaching (replay + live) never misses or duplicates an event.
+ *
+ * <p>The subscribers get the upstream's status: an error response, e.g. 410 Gone or 429, is relayed to every
+ * subscriber as it is. A failure after the upstream has accepted the watch ends the subscribers' streams
+ * with an ERROR event, since their 200 OK has been sent already.
+ */
+@Slf4j
+class SharedWatch {
+
+    private static final byte[] INTERNAL_ERROR_STATUS =
+            ("{\"kind\":\"Status\",\"apiVersion\":\"v1\",\"metadata\":{},\"status\":\"Failure\"," +
+             "\"message\":\"The shared upstream watch failed.\",\"reason\":\"InternalError\",\"code\":500}")
+                    .getBytes(UTF_8);
+
+    private final WatchKey key;
+    private final int replayBufferSize;
+    private final int maxPendingEvents;
+    private final Consumer<SharedWatch> onClose;
+    private final Runnable onEviction;
+    private final Timer lagTimer;
+
+    private final ArrayDeque<WatchEvent> replayBuffer = new ArrayDeque<>();
+    private final Set<WatchSubscriber> subscribers = new LinkedHashSet<>();
+    // Completed with the upstream's headers once it has accepted the watch, or with its whole response
+    // once it has rejected the watch.
+    private final CompletableFuture<AggregatedHttpResponse> upstreamResult = new CompletableFuture<>();
+
+    // Accessed only by the upstream's subscriber.
+    @Nullable
+    private ResponseHeaders upstreamHeaders;
+    private final ByteArrayOutputStream errorBody = new ByteArrayOutputStream();
+
+    // Every event after this resourceVersion is either in the replay buffer or not received yet.
+    private long floorResourceVersion;
+    private boolean closed;
+    @Nullable
+    private Disposable upstream;
+
+    SharedWatch(WatchKey key, long resourceVersion, int replayBufferSize, int maxPendingEvents,
+                Consumer<SharedWatch> onClose, Runnable onEviction, Timer lagTimer) {
+        this.key = key;
+        floorResourceVersion = resourceVersion;
+        this.replayBufferSize = replayBufferSize;
+        this.maxPendingEvents = maxPendingEvents;
+        this.onClose = onClose;
+        this.onEviction = onEviction;
+        this.lagTimer = lagTimer;
+    }
+
+    WatchKey key() {
+        return key;
+    }
+
+    /**
+     * Returns the future completed once the upstream has answered, with its headers if it has accepted
+     * the watch or with its whole response otherwise.
+     */
+    CompletableFuture<AggregatedHttpResponse> upstreamResult() {
+        return upstreamResult;
+    }
+
+    void start(HttpResponse response) {
+        final Disposable disposable =
+                Flowable.fromPublisher(response)
+                        .concatMapIterable(this::onUpstream)
+                        .subscribe(this::dispatch, this::fail, this::complete);
+        synchronized (this) {
+            if (closed) {
+                disposable.dispose();
+            } else {
+                upstream = disposable;
+            }
+        }
+    }
+
+    /**
+     * Attaches a new subscriber which receives the events after {@code resourceVersion}.
+     *
+     * @return the event stream of the subscriber, or {@code null} if this watch can't serve
+     *         the resourceVersion, e.g. it is older than the replay buffer, it has more events to replay
+     *         than {@code maxPendingEvents}, or this watch has been closed.
+     */
+    @Nullable
+    synchronized Flowable<WatchEvent> attach(long resourceVersion) {
+        if (closed || resourceVersion < floorResourceVersion) {
+            return null;
+        }
+
+        final WatchSubscriber subscriber = new WatchSubscriber(resourceVersion, maxPendingEvents, lagTimer);
+        for (WatchEvent event : replayBuffer) {
+            if (!subscriber.offer(event)) {
+                // Attaching it would make it miss the rest of the replay, so it has to watch on its own.
+                log.debug("Too many events to replay to a new subscriber. key={}, resourceVersion={}",
+                          key, resourceVersion);
+                return null;
+            }
+        }
+        subscribers.add(subscriber);
+
+        return subscriber.events()
+                         .doFinally(() -> detach(subscriber));
+    }
+
+    private List<WatchEvent> onUpstream(HttpObject obj) {
+        if (obj instanceof ResponseHeaders) {
+            final ResponseHeaders headers = (ResponseHeaders) obj;
+            if (headers.status().codeClass() != HttpStatusClass.INFORMATIONAL) {
+                upstreamHeaders = headers;
+                if (headers.status() == HttpStatus.OK) {
+                    upstreamResult.complete(AggregatedHttpResponse.of(headers));
+                }
+            }
+            return List.of();
+        }
+        if (obj instanceof WatchEvent) {
+            return List.of((WatchEvent) obj);
+        }
+        if (obj instanceof HttpData && (upstreamHeaders == null || upstreamHeaders.status() != HttpStatus.OK)) {
+            // The Status of a rejected watch, which mustn't be relayed as if it were events.
+            errorBody.writeBytes(((HttpData) obj).array());
+        }
+        // Otherwise, the trailers or an incomplete event at the end
+        return List.of();
+    }
+
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+    synchronized int numSubscribers() {
+        return subscribers.size();
+    }
+
+    private synchronized void dispatch(WatchEvent event) {
+        if (closed) {
+            return;
+        }
+
+        if (event.getResourceVersion() > 0) {
+            replayBuffer.addLast(event);
+            while (replayBuffer.size() > replayBufferSize) {
+                floorResourceVersion = replayBuffer.removeFirst().getResourceVersion();
+            }
+        }
+
+        final List<WatchSubscriber> slowSubscribers = new ArrayList<>();
+        for (WatchSubscriber subscriber : subscribers) {
+            if (!subscriber.offer(event)) {
+                slowSubscribers.add(subscriber);
+            }
+        }
+        for (WatchSubscriber subscriber : slowSubscribers) {
+            log.warn("Evicting a slow watch subscriber. key={}", key);
+            subscribers.remove(subscriber);
+            subscriber.evict();
+            onEviction.run();
+        }
+        if (!slowSubscribers.isEmpty() && subscribers.isEmpty()) {
+            close();
+        }
+
+        if (event.isError()) {
+            // e.g. 410 Gone. The API server ends the watch after an ERROR event.
+            closeSubscribers(null);
+        }
+    }
+
+    private void fail(Throwable cause) {
+        log.error("Can't proxy a shared watch from a k8s API server. key={}", key, cause);
+        if (upstreamResult.completeExceptionally(cause)) {
+            synchronized (this) {
+                closeSubscribers(cause);
+            }
+        } else {
+            // The subscribers have got 200 OK, so they're told with an ERROR event like the API server does.
+            dispatch(WatchEvent.error(INTERNAL_ERROR_STATUS));
+        }
+    }
+
+    private void complete() {
+        if (upstreamHeaders == null) {
+            upstreamResult.completeExceptionally(
+                    new IllegalStateException("The upstream watch ended without headers. key=" + key));
+        } else if (upstreamHeaders.status() != HttpStatus.OK) {
+            log.debug("A shared watch has been rejected. key={}, status={}", key, upstreamHeaders.status());
+            upstreamResult.complete(AggregatedHttpResponse.of(upstreamHeaders,
+                                                              HttpData.wrap(errorBody.toByteArray())));
+        }
+        synchronized (this) {
+            closeSubscribers(null);
+        }
+    }
+
+    private synchronized void detach(WatchSubscriber subscriber) {
+        if (subscribers.remove(subscriber) && subscribers.isEmpty()) {
+            close();
+        }
+    }
+
+    private void closeSubscribers(@Nullable Throwable cause) {
+        final List<WatchSubscriber> toClose = new ArrayList<>(subscribers);
+        subscribers.clear();
+        close();
+        for (WatchSubscriber subscriber : toClose) {
+            subscriber.close(cause);
+        }
+    }
+
+    private void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        replayBuffer.clear();
+        if (upstream != null) {
+            upstream.dispose();
+        }
+        onClose.accept(this);
+    }
+}
@@ -0,0 +1,13 @@
+package info.matsumana.psystrike.watch;
+
+/**
+ * Raised to a watch subscriber which couldn't keep up with its shared watch.
+ */
+public class SlowWatchSubscriberException extends RuntimeException {
+
+    private static final long serialVersionUID = 5107263870961412342L;
+
+    public SlowWatchSubscriberException(int maxPendingEvents) {
+        super("A watch subscriber fell behind by more than " + maxPendingEvents + " events");
+    }
+}
@@ -0,0 +1,114 @@
+package info.matsumana.psystrike.watch;
+
+import javax.annotation.Nullable;
+
+import org.springframework.stereotype.Component;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.QueryParams;
+
+import info.matsumana.psystrike.config.WatchProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Asks the API server for BOOKMARK events on every watch, and keeps the latest bookmark of each
+ * {@link WatchKey}.
+ *
+ * <p>The resourceVersion of a client on a quiet resource never moves without bookmarks, so it's compacted
+ * away sooner or later and the next watch fails with 410 Gone, which makes the client relist. A watch whose
+ * resourceVersion is covered by the latest bookmark is opened from the bookmark instead, and the bookmark
+ * is sent to the client first if it asked for bookmarks. Bookmarks are relayed only to the clients which
+ * asked for them.
+ */
+@Component
+public class WatchBookmarks {
+
+    private static final String ALLOW_WATCH_BOOKMARKS = "allowWatchBookmarks";
+
+    private final WatchProperties watchProperties;
+    private final Cache<WatchKey, Bookmark> bookmarks;
+    private final Counter openedFromBookmarkCounter;
+
+    public WatchBookmarks(WatchProperties watchProperties, MeterRegistry meterRegistry) {
+        this.watchProperties = watchProperties;
+        bookmarks = CacheBuilder.newBuilder()
+                                .maximumSize(watchProperties.getMaxBookmarks())
+                                .build();
+
+        Gauge.builder("psystrike.watch.bookmarks", bookmarks, Cache::size)
+             .description("Number of watches whose latest bookmark is kept")
+             .register(meterRegistry);
+        // Not all of them would have failed with 410 Gone, since the resourceVersion of the client may
+        // still have been in the API server's watch cache.
+        openedFromBookmarkCounter = Counter.builder("psystrike.watch.opened.from.bookmark")
+                                           .description("Number of watches opened from the latest bookmark " +
+                                                        "instead of the older resourceVersion of the client")
+                                           .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return watchProperties.isBookmarksEnabled();
+    }
+
+    /**
+     * Adds {@code allowWatchBookmarks=true} to the parameters of a watch.
+     */
+    public QueryParams upstreamParams(QueryParams params) {
+        if (!isEnabled() || !Boolean.parseBoolean(params.get("watch", "false")) ||
+            "true".equals(params.get(ALLOW_WATCH_BOOKMARKS))) {
+            return params;
+        }
+        return params.toBuilder()
+                     .set(ALLOW_WATCH_BOOKMARKS, "true")
+                     .build();
+    }
+
+    /**
+     * Returns the latest bookmark of the watch if the watch can be opened from it instead of
+     * {@code resourceVersion}.
+     */
+    @Nullable
+    public Bookmark latest(WatchKey key, long resourceVersion) {
+        if (!isEnabled() || resourceVersion <= 0) {
+            return null;
+        }
+        final Bookmark bookmark = bookmarks.getIfPresent(key);
+        if (bookmark == null || !bookmark.covers(resourceVersion)) {
+            return null;
+        }
+        openedFromBookmarkCounter.increment();
+        return bookmark;
+    }
+
+    /**
+     * Returns the downstream response of a watch framed by {@link WatchEvents#frame(HttpResponse)}, which
+     * records the bookmarks and relays them only if the client asked for them.
+     *
+     * @param requestParams the parameters of the client's request
+     * @param bookmark the bookmark the watch was opened from, which is sent first
+     */
+    public HttpResponse decorate(HttpResponse response, WatchKey key, QueryParams requestParams,
+                                 @Nullable Bookmark bookmark) {
+        if (!isEnabled()) {
+            return response;
+        }
+        final boolean relayBookmarks = Boolean.parseBoolean(requestParams.get(ALLOW_WATCH_BOOKMARKS, "false"));
+        final long resourceVersion = bookmark != null ? bookmark.getResourceVersion()
+                                                      : WatchKey.resourceVersion(requestParams);
+        final BookmarkFilter filter = new BookmarkFilter(this, key, resourceVersion, relayBookmarks,
+                                                         relayBookmarks ? bookmark : null);
+        return HttpResponse.of(filter.stream(response));
+    }
+
+    void update(WatchKey key, Bookmark bookmark) {
+        bookmarks.asMap().merge(key, bookmark, (oldBookmark, newBookmark) -> {
+            return newBookmark.getResourceVersion() > oldBookmark.getResourceVersion() ? newBookmark
+                                                                                       : oldBookmark;
+        });
+    }
+}
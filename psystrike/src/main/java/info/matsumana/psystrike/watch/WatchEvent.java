@@ -0,0 +1,127 @@
+package info.matsumana.psystrike.watch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.annotation.Nullable;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import com.linecorp.armeria.common.HttpObject;
+
+import lombok.Value;
+
+/**
+ * A single newline-delimited event of a k8s watch stream, which is passed between the watch stages
+ * in place of the chunks of a framed response.
+ *
+ * @see WatchEvents
+ */
+@Value
+public class WatchEvent implements HttpObject {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    // The raw bytes including the trailing newline
+    byte[] bytes;
+    @Nullable
+    String type;
+    // 0 if the event doesn't carry a numeric resourceVersion
+    long resourceVersion;
+
+    public boolean isError() {
+        return "ERROR".equals(type);
+    }
+
+    public boolean isBookmark() {
+        return "BOOKMARK".equals(type);
+    }
+
+    @Override
+    public boolean isEndOfStream() {
+        return false;
+    }
+
+    /**
+     * Returns the event with the {@code bytes} instead, e.g. projected ones.
+     */
+    WatchEvent withBytes(byte[] bytes) {
+        return new WatchEvent(bytes, type, resourceVersion);
+    }
+
+    /**
+     * Returns an ERROR event whose object is the {@code status}, e.g. the Status of a failed watch request.
+     */
+    static WatchEvent error(byte[] status) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(status.length + 32);
+        out.writeBytes("{\"type\":\"ERROR\",\"object\":".getBytes(UTF_8));
+        out.writeBytes(status);
+        out.writeBytes("}\n".getBytes(UTF_8));
+        return new WatchEvent(out.toByteArray(), "ERROR", 0);
+    }
+
+    /**
+     * Reads {@code type} and {@code object.metadata.resourceVersion} without binding the whole object.
+     */
+    public static WatchEvent parse(byte[] bytes) {
+        String type = null;
+        long resourceVersion = 0;
+
+        try (JsonParser parser = JSON_FACTORY.createParser(bytes)) {
+            if (parser.nextToken() == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    final String name = parser.getCurrentName();
+                    final JsonToken value = parser.nextToken();
+                    if ("type".equals(name)) {
+                        type = parser.getText();
+                    } else if ("object".equals(name) && value == JsonToken.START_OBJECT) {
+                        resourceVersion = readResourceVersion(parser);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // Relay what we've got. The subscriber is the one that has to understand the event.
+        }
+
+        return new WatchEvent(bytes, type, resourceVersion);
+    }
+
+    private static long readResourceVersion(JsonParser parser) throws IOException {
+        long resourceVersion = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+            if ("metadata".equals(name) && value == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    final String field = parser.getCurrentName();
+                    parser.nextToken();
+                    if ("resourceVersion".equals(field)) {
+                        resourceVersion = parseResourceVersion(parser.getText());
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return resourceVersion;
+    }
+
+    static long parseResourceVersion(@Nullable String resourceVersion) {
+        if (resourceVersion == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(resourceVersion);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
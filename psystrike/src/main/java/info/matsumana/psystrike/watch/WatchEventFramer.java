@@ -0,0 +1,54 @@
+package info.matsumana.psystrike.watch;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.linecorp.armeria.common.HttpData;
+
+/**
+ * Splits the chunks of a k8s watch stream into newline-delimited events.
+ * A chunk may contain several events and an event may span several chunks.
+ * Not thread-safe; each upstream stream has its own framer.
+ */
+public class WatchEventFramer {
+
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+    public List<WatchEvent> feed(HttpData data) {
+        final byte[] array = data.array();
+        final List<WatchEvent> events = new ArrayList<>(1);
+        int start = 0;
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] != '\n') {
+                continue;
+            }
+
+            final byte[] line;
+            if (pending.size() == 0) {
+                line = new byte[i + 1 - start];
+                System.arraycopy(array, start, line, 0, line.length);
+            } else {
+                pending.write(array, start, i + 1 - start);
+                line = pending.toByteArray();
+                pending.reset();
+            }
+            events.add(WatchEvent.parse(line));
+            start = i + 1;
+        }
+
+        if (start < array.length) {
+            pending.write(array, start, array.length - start);
+        }
+        return events;
+    }
+
+    /**
+     * Returns the bytes of an incomplete event which have been fed so far, and forgets them.
+     */
+    public byte[] drain() {
+        final byte[] remaining = pending.toByteArray();
+        pending.reset();
+        return remaining;
+    }
+}
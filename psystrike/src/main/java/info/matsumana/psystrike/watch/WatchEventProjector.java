@@ -0,0 +1,148 @@
+package info.matsumana.psystrike.watch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.base.Splitter;
+
+import com.linecorp.armeria.common.HttpResponse;
+
+import info.matsumana.psystrike.config.ProjectionProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Drops the configured fields from the objects of watch events, e.g. {@code metadata.managedFields},
+ * which Prometheus' Kubernetes SD never looks at but which often make up most of an event.
+ *
+ * <p>An event is re-serialized compactly with the streaming API of Jackson, so that neither an event nor
+ * a response is bound to a tree. An event which can't be parsed is relayed as it is.
+ */
+@Component
+public class WatchEventProjector {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final boolean enabled;
+    private final FieldTree dropFields = new FieldTree();
+    private final Counter bytesInCounter;
+    private final Counter bytesOutCounter;
+
+    public WatchEventProjector(ProjectionProperties projectionProperties, MeterRegistry meterRegistry) {
+        enabled = projectionProperties.isEnabled();
+        for (String path : projectionProperties.getDropFields()) {
+            FieldTree node = dropFields;
+            for (String name : Splitter.on('.').omitEmptyStrings().split(path)) {
+                node = node.children.computeIfAbsent(name, unused -> new FieldTree());
+            }
+            if (node != dropFields) {
+                node.drop = true;
+            }
+        }
+
+        bytesInCounter = Counter.builder("psystrike.projection.bytes")
+                                .tag("direction", "in")
+                                .description("Bytes of watch events before and after dropping fields")
+                                .register(meterRegistry);
+        bytesOutCounter = Counter.builder("psystrike.projection.bytes")
+                                 .tag("direction", "out")
+                                 .description("Bytes of watch events before and after dropping fields")
+                                 .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Wraps a watch response framed by {@link WatchEvents#frame(HttpResponse)} so that the fields are dropped
+     * from its events, or returns it as it is if the projection is disabled.
+     */
+    public HttpResponse decorate(HttpResponse response) {
+        return enabled ? new ProjectingHttpResponse(response, this) : response;
+    }
+
+    /**
+     * Returns the event without the fields, including the trailing newline.
+     */
+    public byte[] project(byte[] event) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(event.length);
+        try (JsonParser parser = JSON_FACTORY.createParser(event);
+             JsonGenerator generator = JSON_FACTORY.createGenerator(out)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return event;
+            }
+            generator.writeStartObject();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.getCurrentName();
+                parser.nextToken();
+                generator.writeFieldName(name);
+                if ("object".equals(name)) {
+                    copy(parser, generator, dropFields);
+                } else {
+                    generator.copyCurrentStructure(parser);
+                }
+            }
+            generator.writeEndObject();
+        } catch (IOException e) {
+            // Relay what we've got. The subscriber is the one that has to understand the event.
+            return event;
+        }
+        out.write('\n');
+
+        bytesInCounter.increment(event.length);
+        bytesOutCounter.increment(out.size());
+        return out.toByteArray();
+    }
+
+    private static void copy(JsonParser parser, JsonGenerator generator, @Nullable FieldTree node)
+            throws IOException {
+        if (node == null || node.children.isEmpty()) {
+            generator.copyCurrentStructure(parser);
+            return;
+        }
+
+        switch (parser.currentToken()) {
+            case START_OBJECT:
+                generator.writeStartObject();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    final String name = parser.getCurrentName();
+                    final FieldTree child = node.children.get(name);
+                    parser.nextToken();
+                    if (child != null && child.drop) {
+                        parser.skipChildren();
+                        continue;
+                    }
+                    generator.writeFieldName(name);
+                    copy(parser, generator, child);
+                }
+                generator.writeEndObject();
+                break;
+            case START_ARRAY:
+                // The paths go through arrays, e.g. `spec.containers.env` for every container.
+                generator.writeStartArray();
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    copy(parser, generator, node);
+                }
+                generator.writeEndArray();
+                break;
+            default:
+                generator.copyCurrentEvent(parser);
+        }
+    }
+
+    private static final class FieldTree {
+        final Map<String, FieldTree> children = new HashMap<>();
+        boolean drop;
+    }
+}
@@ -0,0 +1,82 @@
+package info.matsumana.psystrike.watch;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import com.linecorp.armeria.common.FilteredHttpResponse;
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpObject;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.HttpStatusClass;
+import com.linecorp.armeria.common.MediaType;
+import com.linecorp.armeria.common.ResponseHeaders;
+
+import io.reactivex.Flowable;
+
+/**
+ * Frames and parses the events of a watch response once for all the watch stages, i.e.
+ * {@link WatchEventProjector}, {@link WatchResumer}, {@link WatchBookmarks} and {@link WatchMultiplexer}.
+ *
+ * <p>A framed response carries a {@link WatchEvent} per event instead of the chunks of its body, so it
+ * must be unframed with {@link #unframe(HttpResponse)} before it's sent or aggregated. An error response
+ * or a non-JSON response, e.g. protobuf, is framed as it is.
+ */
+public final class WatchEvents {
+
+    /**
+     * Returns the watch response whose chunks are replaced with the events in them.
+     */
+    public static HttpResponse frame(HttpResponse response) {
+        final Framer framer = new Framer();
+        return HttpResponse.of(Flowable.fromPublisher(response)
+                                       .<HttpObject>concatMapIterable(framer::filter)
+                                       .concatWith(Flowable.defer(framer::drain)));
+    }
+
+    /**
+     * Returns the watch response whose events are replaced with their bytes.
+     */
+    public static HttpResponse unframe(HttpResponse response) {
+        return new FilteredHttpResponse(response) {
+            @Override
+            protected HttpObject filter(HttpObject obj) {
+                return obj instanceof WatchEvent ? HttpData.wrap(((WatchEvent) obj).getBytes()) : obj;
+            }
+        };
+    }
+
+    static boolean isJson(@Nullable MediaType contentType) {
+        return contentType != null && contentType.is(MediaType.ANY_APPLICATION_TYPE) &&
+               contentType.subtype().endsWith("json");
+    }
+
+    private static final class Framer {
+
+        private final WatchEventFramer framer = new WatchEventFramer();
+        private boolean framing;
+
+        List<? extends HttpObject> filter(HttpObject obj) {
+            if (obj instanceof ResponseHeaders) {
+                final ResponseHeaders headers = (ResponseHeaders) obj;
+                if (headers.status().codeClass() != HttpStatusClass.INFORMATIONAL) {
+                    framing = headers.status() == HttpStatus.OK && isJson(headers.contentType());
+                }
+                return List.of(obj);
+            }
+            if (!framing || !(obj instanceof HttpData)) {
+                return List.of(obj);
+            }
+            return framer.feed((HttpData) obj);
+        }
+
+        Flowable<HttpObject> drain() {
+            // The API server ends every event with a newline, so this is just in case.
+            final byte[] remaining = framer.drain();
+            return remaining.length > 0 ? Flowable.just(HttpData.wrap(remaining)) : Flowable.empty();
+        }
+    }
+
+    private WatchEvents() {}
+}
@@ -0,0 +1,50 @@
+package info.matsumana.psystrike.watch;
+
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import com.linecorp.armeria.common.QueryParams;
+
+import lombok.Value;
+
+/**
+ * Identifies watch requests which can be served by the same upstream watch.
+ *
+ * <p>{@code resourceVersion} and the timeouts are not part of the key because every subscriber
+ * has its own. They are handled by {@link SharedWatch} when a subscriber attaches.
+ */
+@Value
+public class WatchKey {
+
+    private static final Set<String> SUBSCRIBER_PARAMS = Set.of("resourceVersion", "timeoutSeconds",
+                                                                "timeout");
+
+    String path;
+    String query;
+    String accept;
+
+    public static WatchKey of(String actualUri, QueryParams params, String accept) {
+        final String query = StreamSupport.stream(params.spliterator(), false)
+                                          .filter(entry -> !SUBSCRIBER_PARAMS.contains(entry.getKey()))
+                                          .map(entry -> entry.getKey() + '=' + entry.getValue())
+                                          .sorted()
+                                          .collect(Collectors.joining("&"));
+        return new WatchKey(actualUri, query, accept);
+    }
+
+    /**
+     * Returns the numeric {@code resourceVersion} of a watch request, or {@code -1} if the request can't
+     * join a shared watch. An empty or {@code "0"} resourceVersion asks the API server to synthesize
+     * the current state, which only the API server itself can do.
+     */
+    public static long resourceVersion(QueryParams params) {
+        final String resourceVersion = params.get("resourceVersion", "");
+        try {
+            final long value = Long.parseLong(resourceVersion);
+            return value > 0 ? value : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package info.matsumana.psystrike.watch;
+
+import static com.linecorp.armeria.common.HttpStatus.OK;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongFunction;
+
+import javax.annotation.Nullable;
+
+import org.springframework.stereotype.Component;
+
+import com.linecorp.armeria.common.HttpObject;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.MediaType;
+import com.linecorp.armeria.common.ResponseHeaders;
+import com.linecorp.armeria.common.ResponseHeadersBuilder;
+import com.linecorp.armeria.server.ServiceRequestContext;
+
+import info.matsumana.psystrike.config.WatchProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.reactivex.Flowable;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Serves identical watch requests from a single upstream watch per {@link WatchKey}.
+ * This makes the number of watches on the k8s API server O(distinct watches) instead of O(subscribers).
+ */
+@Component
+@Slf4j
+public class WatchMultiplexer {
+
+    private static final int TIMEOUT_BUFFER_SECONDS = 3;
+
+    private final Map<WatchKey, SharedWatch> watches = new ConcurrentHashMap<>();
+    private final WatchProperties watchProperties;
+    private final Counter attachCounter;
+    private final Counter evictionCounter;
+    private final Timer lagTimer;
+
+    public WatchMultiplexer(WatchProperties watchProperties, MeterRegistry meterRegistry) {
+        this.watchProperties = watchProperties;
+
+        Gauge.builder("psystrike.watch.shared.upstreams", watches::size)
+             .description("Number of upstream watches shared by subscribers")
+             .register(meterRegistry);
+        Gauge.builder("psystrike.watch.shared.subscribers", this::numSubscribers)
+             .description("Number of subscribers attached to shared watches")
+             .register(meterRegistry);
+        attachCounter = Counter.builder("psystrike.watch.shared.attaches")
+                               .description("Number of subscribers attached to shared watches")
+                               .register(meterRegistry);
+        evictionCounter = Counter.builder("psystrike.watch.shared.evictions")
+                                 .description("Number of slow subscribers evicted from shared watches")
+                                 .register(meterRegistry);
+        lagTimer = Timer.builder("psystrike.watch.event.lag")
+                        .description("Time events of shared watches wait until their subscribers take them")
+                        .publishPercentileHistogram()
+                        .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return watchProperties.isMultiplexEnabled();
+    }
+
+    /**
+     * Attaches the request to the shared watch of the {@code key}, opening the upstream watch with
+     * {@code upstreamFactory} if there's no shared watch which can serve the {@code resourceVersion}.
+     * The upstream watch must be framed by {@link WatchEvents#frame(HttpResponse)}.
+     *
+     * @return the framed downstream response, or {@code null} if the request has to be proxied on its own.
+     */
+    @Nullable
+    public HttpResponse subscribe(ServiceRequestContext ctx, WatchKey key, long resourceVersion,
+                                  int timeoutSeconds, LongFunction<HttpResponse> upstreamFactory) {
+        Flowable<WatchEvent> events = null;
+        SharedWatch watch = null;
+        for (int i = 0; i < 2 && events == null; i++) {
+            final AtomicBoolean created = new AtomicBoolean();
+            watch = watches.computeIfAbsent(key, k -> {
+                created.set(true);
+                return newSharedWatch(k, resourceVersion);
+            });
+            events = watch.attach(resourceVersion);
+            if (created.get()) {
+                watch.start(upstreamFactory.apply(resourceVersion));
+            } else if (events == null) {
+                if (!watch.isClosed()) {
+                    // The subscriber is older than the replay buffer, or too far behind to replay it.
+                    log.debug("Can't attach to the shared watch. key={}, resourceVersion={}",
+                              key, resourceVersion);
+                    return null;
+                }
+                watches.remove(key, watch);
+            }
+        }
+        if (events == null) {
+            return null;
+        }
+
+        attachCounter.increment();
+        ctx.setRequestTimeout(Duration.ofSeconds(timeoutSeconds + TIMEOUT_BUFFER_SECONDS));
+        // Ends the downstream response cleanly on the subscriber's own timeout like the API server does.
+        final Flowable<WatchEvent> dataStream =
+                events.takeUntil(Flowable.timer(timeoutSeconds, TimeUnit.SECONDS));
+
+        // The downstream response starts only once the upstream has answered, so that it gets the same status.
+        return HttpResponse.from(watch.upstreamResult().thenApply(upstream -> {
+            if (upstream.status() != OK) {
+                // e.g. 410 Gone or 429 Too Many Requests, with the Status the API server answered
+                return upstream.toHttpResponse();
+            }
+            final ResponseHeadersBuilder responseHeaders = ResponseHeaders.builder(OK);
+            final MediaType contentType = upstream.contentType();
+            if (contentType != null) {
+                responseHeaders.contentType(contentType);
+            }
+            return HttpResponse.of(Flowable.<HttpObject>concat(Flowable.just(responseHeaders.build()),
+                                                               dataStream));
+        }));
+    }
+
+    private SharedWatch newSharedWatch(WatchKey key, long resourceVersion) {
+        return new SharedWatch(key, resourceVersion,
+                               watchProperties.getReplayBufferSize(),
+                               watchProperties.getMaxPendingEvents(),
+                               watch -> watches.remove(watch.key(), watch),
+                               evictionCounter::increment,
+                               lagTimer);
+    }
+
+    private int numSubscribers() {
+        return watches.values()
+                      .stream()
+                      .mapToInt(SharedWatch::numSubscribers)
+                      .sum();
+    }
+}
@@ -0,0 +1,94 @@
+package info.matsumana.psystrike.watch;
+
+import org.springframework.stereotype.Component;
+
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.server.ServiceRequestContext;
+
+import info.matsumana.psystrike.config.WatchProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Keeps a direct watch open across disconnections of its upstream watch until the client's
+ * {@code timeoutSeconds}, so that a rolling update of the API servers doesn't make Prometheus relist.
+ *
+ * @see ResumableWatch
+ */
+@Component
+public class WatchResumer {
+
+    /**
+     * Opens an upstream watch.
+     */
+    @FunctionalInterface
+    public interface UpstreamFactory {
+        /**
+         * Returns a framed upstream watch from the {@code resourceVersion}, which ends in
+         * {@code timeoutSeconds}.
+         */
+        HttpResponse open(long resourceVersion, long timeoutSeconds);
+    }
+
+    private final WatchProperties watchProperties;
+    private final Counter resumedCounter;
+    private final Counter goneCounter;
+    private final Counter failedCounter;
+
+    public WatchResumer(WatchProperties watchProperties, MeterRegistry meterRegistry) {
+        this.watchProperties = watchProperties;
+
+        resumedCounter = newCounter(meterRegistry, "resumed");
+        goneCounter = newCounter(meterRegistry, "gone");
+        failedCounter = newCounter(meterRegistry, "failed");
+    }
+
+    private static Counter newCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("psystrike.watch.resumptions")
+                      .tag("result", result)
+                      .description("Number of upstream watches reopened, ended with 410 Gone or given up")
+                      .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return watchProperties.isResumeEnabled();
+    }
+
+    /**
+     * Returns the downstream response of a watch, which reopens the upstream watch with {@code upstreamFactory}
+     * when it ends too early. Both the {@code upstream} and the reopened ones must be framed by
+     * {@link WatchEvents#frame(HttpResponse)}.
+     *
+     * @param resourceVersion the resourceVersion of the request as returned by
+     *                        {@link WatchKey#resourceVersion(com.linecorp.armeria.common.QueryParams)}
+     */
+    public HttpResponse decorate(ServiceRequestContext ctx, HttpResponse upstream, long resourceVersion,
+                                 int timeoutSeconds, UpstreamFactory upstreamFactory) {
+        if (!isEnabled()) {
+            return upstream;
+        }
+        final ResumableWatch watch = new ResumableWatch(this, ctx, upstreamFactory, resourceVersion,
+                                                        timeoutSeconds);
+        return HttpResponse.of(watch.stream(upstream));
+    }
+
+    int maxResumes() {
+        return watchProperties.getMaxResumes();
+    }
+
+    long backoffMillis() {
+        return watchProperties.getResumeBackoffMillis();
+    }
+
+    void recordResumed() {
+        resumedCounter.increment();
+    }
+
+    void recordGone() {
+        goneCounter.increment();
+    }
+
+    void recordFailed() {
+        failedCounter.increment();
+    }
+}
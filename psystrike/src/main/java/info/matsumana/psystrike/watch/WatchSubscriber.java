@@ -0,0 +1,81 @@
+package info.matsumana.psystrike.watch;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+import io.micrometer.core.instrument.Timer;
+import io.reactivex.Flowable;
+import io.reactivex.processors.UnicastProcessor;
+
+/**
+ * A downstream subscriber of a {@link SharedWatch}.
+ *
+ * <p>Events are queued per subscriber so that the subscriber is backpressured independently.
+ * Once more than {@code maxPendingEvents} events are waiting to be written, the subscriber is evicted
+ * instead of holding up the shared watch. The time an event waits in the queue is recorded as its lag.
+ */
+class WatchSubscriber {
+
+    private final long resourceVersion;
+    private final int maxPendingEvents;
+    private final Timer lagTimer;
+    private final AtomicInteger pendingEvents = new AtomicInteger();
+    private final UnicastProcessor<PendingEvent> processor = UnicastProcessor.create(16, () -> {}, false);
+
+    WatchSubscriber(long resourceVersion, int maxPendingEvents, Timer lagTimer) {
+        this.resourceVersion = resourceVersion;
+        this.maxPendingEvents = maxPendingEvents;
+        this.lagTimer = lagTimer;
+    }
+
+    Flowable<WatchEvent> events() {
+        return processor.map(event -> {
+            pendingEvents.decrementAndGet();
+            lagTimer.record(System.nanoTime() - event.offeredNanos, TimeUnit.NANOSECONDS);
+            return event.event;
+        });
+    }
+
+    /**
+     * Queues an event.
+     *
+     * @return {@code false} if this subscriber is too slow to receive the event.
+     */
+    boolean offer(WatchEvent event) {
+        if (event.getResourceVersion() > 0 && event.getResourceVersion() <= resourceVersion) {
+            // The subscriber has already seen this event.
+            return true;
+        }
+        if (pendingEvents.incrementAndGet() > maxPendingEvents) {
+            return false;
+        }
+
+        processor.onNext(new PendingEvent(event, System.nanoTime()));
+        return true;
+    }
+
+    void evict() {
+        processor.onError(new SlowWatchSubscriberException(maxPendingEvents));
+    }
+
+    void close(@Nullable Throwable cause) {
+        if (cause == null) {
+            processor.onComplete();
+        } else {
+            processor.onError(cause);
+        }
+    }
+
+    private static final class PendingEvent {
+
+        final WatchEvent event;
+        final long offeredNanos;
+
+        PendingEvent(WatchEvent event, long offeredNanos) {
+            this.event = event;
+            this.offeredNanos = offeredNanos;
+        }
+    }
+}
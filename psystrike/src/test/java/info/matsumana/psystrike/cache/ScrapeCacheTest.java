@@ -0,0 +1,177 @@
+package info.matsumana.psystrike.cache;
+
+import static com.linecorp.armeria.common.HttpHeaderNames.AGE;
+import static com.linecorp.armeria.common.HttpHeaderNames.WARNING;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+
+import com.linecorp.armeria.client.ResponseTimeoutException;
+import com.linecorp.armeria.common.AggregatedHttpResponse;
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpMethod;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpResponseWriter;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.MediaType;
+import com.linecorp.armeria.common.RequestHeaders;
+import com.linecorp.armeria.common.ResponseHeaders;
+import com.linecorp.armeria.common.SessionProtocol;
+
+import info.matsumana.psystrike.client.ClientKey;
+import info.matsumana.psystrike.client.TargetKind;
+import info.matsumana.psystrike.config.ScrapeCacheProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ScrapeCacheTest {
+
+    private static final ClientKey TARGET = ClientKey.of(TargetKind.POD, SessionProtocol.H1C, "10.0.0.1", 9100);
+    private static final RequestHeaders REQUEST_HEADERS = RequestHeaders.of(HttpMethod.GET, "/metrics");
+    private static final String BODY = "up 1\n";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void serveStaleOnFailure() throws Exception {
+        final ScrapeCache cache = newCache(1024);
+        assertThat(scrape(cache, () -> HttpResponse.of(HttpStatus.OK, MediaType.PLAIN_TEXT_UTF_8, BODY))
+                           .contentUtf8()).isEqualTo(BODY);
+        assertThat(meterRegistry.get("psystrike.scrape.cache.bytes").gauge().value())
+                .isEqualTo((double) BODY.length());
+
+        final AggregatedHttpResponse stale =
+                scrape(cache, () -> HttpResponse.ofFailure(ResponseTimeoutException.get()));
+        assertThat(stale.status()).isEqualTo(HttpStatus.OK);
+        assertThat(stale.contentUtf8()).isEqualTo(BODY);
+        assertThat(stale.headers().getLong(AGE)).isNotNull();
+        assertThat(stale.headers().get(WARNING)).startsWith("110");
+
+        // A 5xx is replaced too.
+        assertThat(scrape(cache, () -> HttpResponse.of(HttpStatus.SERVICE_UNAVAILABLE)).contentUtf8())
+                .isEqualTo(BODY);
+        assertThat(count("stale")).isEqualTo(2.0);
+    }
+
+    @Test
+    void serveStaleOnScrapeTimeout() throws Exception {
+        final ScrapeCache cache = newCache(1024);
+        scrape(cache, () -> HttpResponse.of(HttpStatus.OK, MediaType.PLAIN_TEXT_UTF_8, BODY));
+
+        final RequestHeaders requestHeaders =
+                REQUEST_HEADERS.toBuilder()
+                               .set(ScrapeCache.PROMETHEUS_SCRAPE_TIMEOUT, "0.6")
+                               .build();
+        final HttpResponse response = cache.execute(TARGET, requestHeaders, requestHeaders, "pods",
+                                                    HttpResponse::streaming);
+        assertThat(response.aggregate().get(10, TimeUnit.SECONDS).contentUtf8()).isEqualTo(BODY);
+    }
+
+    @Test
+    void waitForSlowResponseWithoutCachedOne() throws Exception {
+        final ScrapeCache cache = newCache(1024);
+        final RequestHeaders requestHeaders =
+                REQUEST_HEADERS.toBuilder()
+                               .set(ScrapeCache.PROMETHEUS_SCRAPE_TIMEOUT, "0.6")
+                               .build();
+        final HttpResponseWriter upstream = HttpResponse.streaming();
+        final HttpResponse response = cache.execute(TARGET, requestHeaders, requestHeaders, "pods",
+                                                    () -> upstream);
+        final CompletableFuture<AggregatedHttpResponse> aggregated = response.aggregate();
+
+        // Longer than the first response timeout of 100 milliseconds
+        Thread.sleep(500);
+        upstream.write(ResponseHeaders.of(HttpStatus.OK));
+        upstream.write(HttpData.ofUtf8(BODY));
+        upstream.close();
+
+        assertThat(aggregated.get(10, TimeUnit.SECONDS).contentUtf8()).isEqualTo(BODY);
+        // Cached for the next slow response
+        assertThat(count("stored")).isOne();
+    }
+
+    @Test
+    void doNotCacheLargeBody() {
+        final ScrapeCache cache = newCache(2);
+        scrape(cache, () -> HttpResponse.of(HttpStatus.OK, MediaType.PLAIN_TEXT_UTF_8, BODY));
+
+        assertThatThrownBy(() -> scrape(cache, () -> HttpResponse.ofFailure(ResponseTimeoutException.get())))
+                .hasCauseInstanceOf(ResponseTimeoutException.class);
+        assertThat(count("stored")).isZero();
+        assertThat(count("miss")).isEqualTo(1.0);
+    }
+
+    @Test
+    void doNotCacheOverInFlightBudget() {
+        final ScrapeCache cache = newCache(1024, 4);
+        scrape(cache, () -> HttpResponse.of(HttpStatus.OK, MediaType.PLAIN_TEXT_UTF_8, BODY));
+
+        assertThat(count("stored")).isZero();
+        assertThat(meterRegistry.get("psystrike.scrape.cache.inflight.bytes").gauge().value()).isZero();
+    }
+
+    @Test
+    void countChunkedBodyWhileCopying() throws Exception {
+        final ScrapeCache cache = newCache(1024);
+        final HttpResponseWriter upstream = HttpResponse.streaming();
+        upstream.write(ResponseHeaders.of(HttpStatus.OK));
+        upstream.write(HttpData.ofUtf8(BODY));
+        final HttpResponse response = cache.execute(TARGET, REQUEST_HEADERS, REQUEST_HEADERS, "pods",
+                                                    () -> upstream);
+        final CompletableFuture<AggregatedHttpResponse> aggregated = response.aggregate();
+
+        for (int i = 0; i < 100 && inFlightBytes() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(inFlightBytes()).isGreaterThanOrEqualTo(BODY.length());
+
+        // Moved to the cached bodies once the response has ended
+        upstream.close();
+        assertThat(aggregated.get(10, TimeUnit.SECONDS).contentUtf8()).isEqualTo(BODY);
+        assertThat(inFlightBytes()).isZero();
+        assertThat(meterRegistry.get("psystrike.scrape.cache.bytes").gauge().value())
+                .isGreaterThanOrEqualTo(BODY.length());
+        assertThat(count("stored")).isOne();
+    }
+
+    private ScrapeCache newCache(int maxEntryBytes) {
+        return newCache(maxEntryBytes, 8 * 1024 * 1024);
+    }
+
+    private ScrapeCache newCache(int maxEntryBytes, long maxInFlightBytes) {
+        final ScrapeCacheProperties properties = new ScrapeCacheProperties();
+        properties.setEnabled(true);
+        properties.setMaxEntryBytes(maxEntryBytes);
+        properties.setMaxInFlightBytes(maxInFlightBytes);
+        return new ScrapeCache(properties, meterRegistry);
+    }
+
+    private double inFlightBytes() {
+        return meterRegistry.get("psystrike.scrape.cache.inflight.bytes").gauge().value();
+    }
+
+    private static AggregatedHttpResponse scrape(ScrapeCache cache, Supplier<HttpResponse> upstream) {
+        try {
+            return cache.execute(TARGET, REQUEST_HEADERS, REQUEST_HEADERS, "pods", upstream)
+                        .aggregate()
+                        .get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private double count(String result) {
+        return meterRegistry.get("psystrike.scrape.cache.requests")
+                            .tag("route", "pods")
+                            .tag("result", result)
+                            .counter()
+                            .count();
+    }
+}
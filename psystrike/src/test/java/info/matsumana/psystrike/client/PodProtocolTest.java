@@ -0,0 +1,29 @@
+package info.matsumana.psystrike.client;
+
+import static info.matsumana.psystrike.client.TargetKind.POD;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import org.junit.jupiter.api.Test;
+
+import com.linecorp.armeria.common.SessionProtocol;
+
+class PodProtocolTest {
+
+    @Test
+    void of() {
+        assertThat(PodProtocol.of("http").sessionProtocol()).isEqualTo(SessionProtocol.H1C);
+        assertThat(PodProtocol.of("h2c").sessionProtocol()).isEqualTo(SessionProtocol.H2C);
+        assertThat(PodProtocol.of("https").sessionProtocol()).isEqualTo(SessionProtocol.HTTPS);
+        assertThat(PodProtocol.of("h2").sessionProtocol()).isEqualTo(SessionProtocol.H2);
+        assertThatThrownBy(() -> PodProtocol.of("h3")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void clientKeyPerProtocol() {
+        assertThat(ClientKey.of(POD, PodProtocol.HTTPS.sessionProtocol(), "10.0.0.1", 8443))
+                .isNotEqualTo(ClientKey.of(POD, PodProtocol.H2.sessionProtocol(), "10.0.0.1", 8443));
+        assertThat(ClientKey.of(POD, PodProtocol.H2C.sessionProtocol(), "10.0.0.1", 8080).uri())
+                .isEqualTo("h2c://10.0.0.1:8080/");
+    }
+}
@@ -0,0 +1,173 @@
+package info.matsumana.psystrike.client;
+
+import static com.linecorp.armeria.common.SessionProtocol.H1C;
+import static com.linecorp.armeria.common.SessionProtocol.H2;
+import static info.matsumana.psystrike.client.TargetKind.API_SERVER;
+import static info.matsumana.psystrike.client.TargetKind.POD;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.linecorp.armeria.client.WebClient;
+
+import info.matsumana.psystrike.config.CleanupTimerProperties;
+import info.matsumana.psystrike.config.WebClientRegistryProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class WebClientRegistryTest {
+
+    private final MutableClock clock = new MutableClock();
+    private final WebClientRegistryProperties properties = new WebClientRegistryProperties();
+    private SimpleMeterRegistry meterRegistry;
+    private WebClientRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        registry = new WebClientRegistry(new CleanupTimerProperties(), properties, meterRegistry, clock);
+    }
+
+    @Test
+    void get() {
+        final WebClient client1 =
+                registry.get(ClientKey.of(API_SERVER, H2, "host1", 8080), key -> WebClient.of(key.uri()));
+        final WebClient client2 =
+                registry.get(ClientKey.of(API_SERVER, H2, "host1", 8080), key -> WebClient.of(key.uri()));
+        // An API server and a pod on the same host and port don't share a client.
+        final WebClient client3 =
+                registry.get(ClientKey.of(POD, H1C, "host1", 8080), key -> WebClient.of(key.uri()));
+
+        assertThat(client2).isSameAs(client1);
+        assertThat(client3).isNotSameAs(client1);
+        assertThat(registry.size()).isEqualTo(2);
+        assertThat(meterRegistry.get("psystrike.webclients").gauge().value()).isEqualTo(2);
+        assertThat(meterRegistry.get("psystrike.webclients.creations").counter().count()).isEqualTo(2);
+        assertThat(meterRegistry.get("psystrike.webclients.lookups").tag("result", "hit").counter().count())
+                .isOne();
+        assertThat(meterRegistry.get("psystrike.webclients.lookups").tag("result", "miss").counter().count())
+                .isEqualTo(2);
+    }
+
+    @Test
+    void podOverH2DoesNotShareApiServerClient() {
+        // /apiservers/host1/6443/metrics and /pods/h2/host1/6443/metrics
+        final WebClient apiServerClient =
+                registry.get(ClientKey.of(API_SERVER, H2, "host1", 6443), key -> WebClient.of(key.uri()));
+        final WebClient podClient =
+                registry.get(ClientKey.of(POD, H2, "host1", 6443), key -> WebClient.of(key.uri()));
+
+        assertThat(podClient).isNotSameAs(apiServerClient);
+        assertThat(registry.size()).isEqualTo(2);
+    }
+
+    @Test
+    void sweep() {
+        final ClientKey key1 = ClientKey.of(POD, H1C, "host1", 8080);
+        final ClientKey key2 = ClientKey.of(POD, H1C, "host2", 8080);
+        final ClientKey key3 = ClientKey.of(POD, H1C, "host3", 8080);
+        registry.get(key3, key -> WebClient.of(key.uri()));
+        clock.advanceSeconds(10);
+        registry.get(key2, key -> WebClient.of(key.uri()));
+        clock.advanceSeconds(10);
+        registry.get(key1, key -> WebClient.of(key.uri()));
+        clock.advanceSeconds(10);
+
+        assertThat(registry.sweep(25_000, Integer.MAX_VALUE)).isTrue();
+        assertThat(registry.size()).isEqualTo(2);
+        assertThat(registry.getIfPresent(key3)).isNull();
+
+        // Using a client keeps it.
+        registry.get(key2, key -> WebClient.of(key.uri()));
+        clock.advanceSeconds(20);
+        assertThat(registry.sweep(25_000, Integer.MAX_VALUE)).isTrue();
+        assertThat(registry.size()).isOne();
+        assertThat(registry.getIfPresent(key2)).isNotNull();
+
+        clock.advanceSeconds(10);
+        assertThat(registry.sweep(25_000, Integer.MAX_VALUE)).isTrue();
+        assertThat(registry.size()).isZero();
+        assertThat(meterRegistry.get("psystrike.webclients.evictions").tag("cause", "idle").counter().count())
+                .isEqualTo(3);
+    }
+
+    @Test
+    void sweepIncrementally() {
+        for (int i = 0; i < 5; i++) {
+            registry.get(ClientKey.of(POD, H1C, "host" + i, 8080), key -> WebClient.of(key.uri()));
+        }
+        clock.advanceSeconds(30);
+
+        assertThat(registry.sweep(25_000, 2)).isFalse();
+        assertThat(registry.size()).isEqualTo(3);
+        assertThat(registry.sweep(25_000, 2)).isFalse();
+        assertThat(registry.size()).isOne();
+        assertThat(registry.sweep(25_000, 2)).isTrue();
+        assertThat(registry.size()).isZero();
+    }
+
+    @Test
+    void evictLeastRecentlyUsed() {
+        properties.setMaxSize(2);
+        final ClientKey key1 = ClientKey.of(POD, H1C, "host1", 8080);
+        final ClientKey key2 = ClientKey.of(POD, H1C, "host2", 8080);
+        final ClientKey key3 = ClientKey.of(POD, H1C, "host3", 8080);
+        registry.get(key1, key -> WebClient.of(key.uri()));
+        clock.advanceSeconds(10);
+        registry.get(key2, key -> WebClient.of(key.uri()));
+        clock.advanceSeconds(10);
+        registry.get(key1, key -> WebClient.of(key.uri()));
+        clock.advanceSeconds(10);
+        registry.get(key3, key -> WebClient.of(key.uri()));
+
+        assertThat(registry.size()).isEqualTo(2);
+        assertThat(registry.getIfPresent(key1)).isNotNull();
+        assertThat(registry.getIfPresent(key2)).isNull();
+        assertThat(registry.getIfPresent(key3)).isNotNull();
+        assertThat(meterRegistry.get("psystrike.webclients.evictions").tag("cause", "size").counter().count())
+                .isOne();
+    }
+
+    @Test
+    void evictOnlyTheExcess() {
+        properties.setMaxSize(100);
+        for (int i = 0; i < 150; i++) {
+            registry.get(ClientKey.of(POD, H1C, "host" + i, 8080), key -> WebClient.of(key.uri()));
+            clock.advanceSeconds(1);
+        }
+
+        assertThat(registry.size()).isEqualTo(100);
+        assertThat(meterRegistry.get("psystrike.webclients.evictions").tag("cause", "size").counter().count())
+                .isEqualTo(50);
+        // The newest clients are never the least recently used of a sample.
+        assertThat(registry.getIfPresent(ClientKey.of(POD, H1C, "host149", 8080))).isNotNull();
+    }
+
+    private static final class MutableClock extends Clock {
+        private volatile Instant now = Instant.parse("2020-01-01T00:00:00Z");
+
+        void advanceSeconds(long seconds) {
+            now = now.plusSeconds(seconds);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
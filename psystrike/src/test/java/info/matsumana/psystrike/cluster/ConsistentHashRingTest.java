@@ -0,0 +1,53 @@
+package info.matsumana.psystrike.cluster;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class ConsistentHashRingTest {
+
+    private static final int KEYS = 10_000;
+
+    @Test
+    void spreadEvenly() {
+        final ConsistentHashRing ring = new ConsistentHashRing(List.of("a:8080", "b:8080", "c:8080"), 128);
+
+        int ownedByA = 0;
+        for (int i = 0; i < KEYS; i++) {
+            if ("a:8080".equals(ring.owner("pods/10.0.0." + i + ":8080"))) {
+                ownedByA++;
+            }
+        }
+        assertThat(ownedByA / (double) KEYS).isCloseTo(1.0 / 3, within(0.1));
+        assertThat(ring.share("a:8080") + ring.share("b:8080") + ring.share("c:8080"))
+                .isCloseTo(1.0, within(1e-9));
+    }
+
+    @Test
+    void moveOnlyTheKeysOfTheJoinedReplica() {
+        final ConsistentHashRing before = new ConsistentHashRing(List.of("a:8080", "b:8080", "c:8080"), 128);
+        final ConsistentHashRing after =
+                new ConsistentHashRing(List.of("a:8080", "b:8080", "c:8080", "d:8080"), 128);
+
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            final String key = "pods/10.0.0." + i + ":8080";
+            final String newOwner = after.owner(key);
+            if (!newOwner.equals(before.owner(key))) {
+                assertThat(newOwner).isEqualTo("d:8080");
+                moved++;
+            }
+        }
+        assertThat(moved / (double) KEYS).isCloseTo(0.25, within(0.1));
+    }
+
+    @Test
+    void empty() {
+        final ConsistentHashRing ring = new ConsistentHashRing(List.of(), 128);
+        assertThat(ring.owner("pods/10.0.0.1:8080")).isNull();
+        assertThat(ring.share("a:8080")).isZero();
+    }
+}
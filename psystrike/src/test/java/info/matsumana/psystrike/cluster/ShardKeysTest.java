@@ -0,0 +1,23 @@
+package info.matsumana.psystrike.cluster;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+class ShardKeysTest {
+
+    @Test
+    void of() {
+        assertThat(ShardKeys.of("/pods/10.0.0.1/8080/metrics", null)).isEqualTo("pods/10.0.0.1:8080");
+        assertThat(ShardKeys.of("/pods/h2c/10.0.0.1/8080/metrics", null)).isEqualTo("pods/10.0.0.1:8080");
+        assertThat(ShardKeys.of("/apiservers/10.0.0.2/6443/metrics", null))
+                .isEqualTo("apiservers/10.0.0.2:6443");
+
+        // Watches multiplexed into one upstream watch have the same key.
+        assertThat(ShardKeys.of("/api/v1/pods", "watch=true&resourceVersion=1&labelSelector=app%3Dfoo"))
+                .isEqualTo(ShardKeys.of("/api/v1/pods", "labelSelector=app%3Dfoo&watch=1&resourceVersion=2"))
+                .isEqualTo("watch/api/v1/pods?app=foo&");
+        assertThat(ShardKeys.of("/api/v1/pods", "resourceVersion=0")).isNull();
+        assertThat(ShardKeys.of("/batch/pods", "node=node1")).isNull();
+    }
+}
@@ -0,0 +1,164 @@
+package info.matsumana.psystrike.cluster;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.linecorp.armeria.client.ClientFactory;
+import com.linecorp.armeria.client.Endpoint;
+import com.linecorp.armeria.client.WebClient;
+import com.linecorp.armeria.common.AggregatedHttpResponse;
+import com.linecorp.armeria.common.HttpMethod;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.MediaType;
+import com.linecorp.armeria.common.RequestHeaders;
+import com.linecorp.armeria.common.SessionProtocol;
+import com.linecorp.armeria.server.HttpService;
+import com.linecorp.armeria.server.Server;
+
+import info.matsumana.psystrike.config.ClusterProperties;
+import info.matsumana.psystrike.config.ClusterProperties.Mode;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ShardRoutingServiceTest {
+
+    private static final HttpService[] routingServices = new HttpService[2];
+
+    private static Server serverA;
+    private static Server serverB;
+
+    private final MeterRegistry meterRegistryA = new SimpleMeterRegistry();
+    private final MeterRegistry meterRegistryB = new SimpleMeterRegistry();
+    private ClusterRouter routerA;
+    private ClusterRouter routerB;
+
+    @BeforeAll
+    static void startReplicas() {
+        serverA = Server.builder()
+                        .http(0)
+                        .requestTimeoutMillis(1000)
+                        .serviceUnder("/", (ctx, req) -> routingServices[0].serve(ctx, req))
+                        .build();
+        // Never times out a request by itself, like a stalled replica
+        serverB = Server.builder()
+                        .http(0)
+                        .requestTimeoutMillis(0)
+                        .serviceUnder("/", (ctx, req) -> routingServices[1].serve(ctx, req))
+                        .build();
+        serverA.start().join();
+        serverB.start().join();
+    }
+
+    @AfterAll
+    static void stopReplicas() {
+        serverA.stop().join();
+        serverB.stop().join();
+    }
+
+    @BeforeEach
+    void setUpRouters() {
+        routerA = newRouter(serverA, meterRegistryA);
+        routerB = newRouter(serverB, meterRegistryB);
+        routingServices[0] = routerA.newDecorator().apply(newReplica("a"));
+        routingServices[1] = routerB.newDecorator().apply(newReplica("b"));
+
+        final List<Endpoint> peers = List.of(Endpoint.parse(routerA.self()), Endpoint.parse(routerB.self()));
+        routerA.setPeers(peers);
+        routerB.setPeers(peers);
+    }
+
+    @Test
+    void forwardToOwner() throws Exception {
+        final String path = pathOwnedBy(routerB.self());
+
+        final AggregatedHttpResponse res = clientOf(serverA).get(path).aggregate().get(10, TimeUnit.SECONDS);
+
+        assertThat(res.status()).isEqualTo(HttpStatus.OK);
+        assertThat(res.contentUtf8()).isEqualTo("b");
+        assertThat(count(meterRegistryA, "forwarded")).isOne();
+        assertThat(count(meterRegistryB, "received")).isOne();
+    }
+
+    @Test
+    void serveForwardedRequestWhateverTheRingSays() throws Exception {
+        final String path = pathOwnedBy(routerB.self());
+        final RequestHeaders headers = RequestHeaders.builder(HttpMethod.GET, path)
+                                                     .set(ClusterRouter.FORWARDED_BY, "127.0.0.1:1")
+                                                     .build();
+
+        final AggregatedHttpResponse res =
+                clientOf(serverA).execute(headers).aggregate().get(10, TimeUnit.SECONDS);
+
+        // Not forwarded again, even though replica b owns it
+        assertThat(res.contentUtf8()).isEqualTo("a");
+        assertThat(count(meterRegistryA, "received")).isOne();
+    }
+
+    @Test
+    void fallBackToLocalWhenOwnerIsUnreachable() throws Exception {
+        // Nothing listens on the port 1
+        final String unreachable = "127.0.0.1:1";
+        routerA.setPeers(List.of(Endpoint.parse(routerA.self()), Endpoint.parse(unreachable)));
+        final String path = pathOwnedBy(unreachable);
+
+        final AggregatedHttpResponse res = clientOf(serverA).get(path).aggregate().get(10, TimeUnit.SECONDS);
+
+        assertThat(res.status()).isEqualTo(HttpStatus.OK);
+        assertThat(res.contentUtf8()).isEqualTo("a");
+        assertThat(count(meterRegistryA, "fallback")).isOne();
+    }
+
+    @Test
+    void timeOutStalledOwner() throws Exception {
+        final String path = pathOwnedBy(routerB.self()).replace("/metrics", "/slow");
+
+        final long startNanos = System.nanoTime();
+        final AggregatedHttpResponse res = clientOf(serverA).get(path).aggregate().get(10, TimeUnit.SECONDS);
+
+        // Replica a's own timeout of 1 second plus the buffer, though replica b never responds
+        assertThat(res.status().isServerError()).isTrue();
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)).isLessThan(5000);
+    }
+
+    private static ClusterRouter newRouter(Server server, MeterRegistry meterRegistry) {
+        final ClusterProperties properties = new ClusterProperties();
+        properties.setMode(Mode.STATIC);
+        properties.setSelfAddress("127.0.0.1:" + server.activeLocalPort(SessionProtocol.HTTP));
+        return new ClusterRouter(properties, ClientFactory.ofDefault(), meterRegistry);
+    }
+
+    private static HttpService newReplica(String name) {
+        return (ctx, req) -> {
+            if (ctx.path().endsWith("/slow")) {
+                // Never responds
+                return HttpResponse.streaming();
+            }
+            return HttpResponse.of(HttpStatus.OK, MediaType.PLAIN_TEXT_UTF_8, name);
+        };
+    }
+
+    private String pathOwnedBy(String replica) {
+        for (int i = 1; ; i++) {
+            final String path = "/pods/10.0.0." + i + "/8080/metrics";
+            if (replica.equals(routerA.owner(ShardKeys.of(path, null)))) {
+                return path;
+            }
+        }
+    }
+
+    private static WebClient clientOf(Server server) {
+        return WebClient.of("http://127.0.0.1:" + server.activeLocalPort(SessionProtocol.HTTP));
+    }
+
+    private static double count(MeterRegistry meterRegistry, String result) {
+        return meterRegistry.counter("psystrike.cluster.requests", "route", "pods", "result", result).count();
+    }
+}
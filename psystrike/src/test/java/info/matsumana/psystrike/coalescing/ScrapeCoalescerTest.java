@@ -0,0 +1,108 @@
+package info.matsumana.psystrike.coalescing;
+
+import static com.linecorp.armeria.common.SessionProtocol.H1C;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.linecorp.armeria.client.WebClient;
+import com.linecorp.armeria.common.HttpMethod;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.MediaType;
+import com.linecorp.armeria.common.RequestHeaders;
+
+import info.matsumana.psystrike.client.ClientKey;
+import info.matsumana.psystrike.client.TargetKind;
+import info.matsumana.psystrike.config.CoalescingProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ScrapeCoalescerTest {
+
+    private static final ClientKey TARGET = ClientKey.of(TargetKind.POD, H1C, "127.0.0.1", 1);
+
+    private final AtomicInteger upstreamRequests = new AtomicInteger();
+    private final CoalescingProperties properties = new CoalescingProperties();
+    private SimpleMeterRegistry meterRegistry;
+    private ScrapeCoalescer coalescer;
+    private WebClient client;
+
+    @BeforeEach
+    void setUp() {
+        properties.setEnabled(true);
+        properties.setReuseWindowMillis(60_000);
+        meterRegistry = new SimpleMeterRegistry();
+        coalescer = new ScrapeCoalescer(properties, meterRegistry);
+        // Responds without connecting to the upstream.
+        client = WebClient.builder(TARGET.uri())
+                          .decorator((delegate, ctx, req) -> {
+                              final int n = upstreamRequests.incrementAndGet();
+                              return HttpResponse.of(HttpStatus.OK, MediaType.PLAIN_TEXT_UTF_8, "foo " + n);
+                          })
+                          .build();
+    }
+
+    @Test
+    void coalesce() {
+        final RequestHeaders headers = RequestHeaders.of(HttpMethod.GET, "/metrics");
+        final String content1 = execute(headers, headers);
+        final String content2 = execute(headers, headers);
+
+        assertThat(content1).isEqualTo("foo 1");
+        assertThat(content2).isEqualTo("foo 1");
+        assertThat(upstreamRequests).hasValue(1);
+        assertThat(count("upstream")).isOne();
+        assertThat(count("coalesced")).isOne();
+    }
+
+    @Test
+    void differentRequests() {
+        execute(RequestHeaders.of(HttpMethod.GET, "/metrics"), RequestHeaders.of(HttpMethod.GET, "/metrics"));
+        execute(RequestHeaders.of(HttpMethod.GET, "/metrics"),
+                RequestHeaders.of(HttpMethod.GET, "/metrics", "authorization", "Bearer foo"));
+        execute(RequestHeaders.of(HttpMethod.GET, "/other"), RequestHeaders.of(HttpMethod.GET, "/other"));
+
+        assertThat(upstreamRequests).hasValue(3);
+        assertThat(count("coalesced")).isZero();
+    }
+
+    @Test
+    void bypass() {
+        final RequestHeaders headers = RequestHeaders.of(HttpMethod.GET, "/metrics");
+        execute(headers, headers);
+        final String content =
+                execute(RequestHeaders.of(HttpMethod.GET, "/metrics", properties.getBypassHeader(), "true"),
+                        headers);
+
+        assertThat(content).isEqualTo("foo 2");
+        assertThat(count("bypassed")).isOne();
+    }
+
+    @Test
+    void disabled() {
+        properties.setEnabled(false);
+        final RequestHeaders headers = RequestHeaders.of(HttpMethod.GET, "/metrics");
+        execute(headers, headers);
+        execute(headers, headers);
+
+        assertThat(upstreamRequests).hasValue(2);
+    }
+
+    private String execute(RequestHeaders orgRequestHeaders, RequestHeaders upstreamRequestHeaders) {
+        return coalescer.execute(client, TARGET, orgRequestHeaders, upstreamRequestHeaders, "pods")
+                        .aggregate()
+                        .join()
+                        .contentUtf8();
+    }
+
+    private double count(String result) {
+        return meterRegistry.get("psystrike.coalescing.requests")
+                            .tag("route", "pods")
+                            .tag("result", result)
+                            .counter()
+                            .count();
+    }
+}
@@ -0,0 +1,148 @@
+package info.matsumana.psystrike.compression;
+
+import static com.linecorp.armeria.common.HttpHeaderNames.ACCEPT_ENCODING;
+import static com.linecorp.armeria.common.HttpHeaderNames.CONTENT_ENCODING;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.Test;
+
+import com.linecorp.armeria.common.AggregatedHttpResponse;
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpMethod;
+import com.linecorp.armeria.common.HttpObject;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.RequestHeaders;
+import com.linecorp.armeria.common.ResponseHeaders;
+
+import info.matsumana.psystrike.config.CompressionProperties;
+import info.matsumana.psystrike.config.CompressionProperties.Mode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.reactivex.Flowable;
+
+public class CompressionHandlerTest {
+
+    private static final String METRICS = "# TYPE foo counter\nfoo{bar=\"baz\"} 1\n".repeat(100);
+
+    @Test
+    void accepts() {
+        assertThat(CompressionHandler.accepts("gzip", "gzip")).isTrue();
+        assertThat(CompressionHandler.accepts("deflate, gzip;q=0.5", "gzip")).isTrue();
+        assertThat(CompressionHandler.accepts("gzip;q=0", "gzip")).isFalse();
+        assertThat(CompressionHandler.accepts("*", "deflate")).isTrue();
+        assertThat(CompressionHandler.accepts("identity", "gzip")).isFalse();
+        assertThat(CompressionHandler.accepts(null, "gzip")).isFalse();
+    }
+
+    @Test
+    void encodeForClient() throws Exception {
+        final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        final CompressionHandler handler = newHandler(meterRegistry);
+        final HttpResponse upstream = response(ResponseHeaders.of(HttpStatus.OK),
+                                               HttpData.ofUtf8(METRICS.substring(0, 100)),
+                                               HttpData.ofUtf8(METRICS.substring(100)));
+
+        final AggregatedHttpResponse response =
+                handler.handle(request("gzip"), upstream, "pods", "pods").aggregate().join();
+
+        assertThat(response.headers().get(CONTENT_ENCODING)).isEqualTo("gzip");
+        assertThat(gunzip(response.content().array())).isEqualTo(METRICS);
+        assertThat(meterRegistry.get("psystrike.proxy.bytes").tag("direction", "received")
+                                .counter().count()).isEqualTo(METRICS.length());
+        assertThat(meterRegistry.get("psystrike.proxy.bytes").tag("direction", "sent")
+                                .counter().count()).isLessThan(METRICS.length());
+    }
+
+    @Test
+    void decodeForClient() throws Exception {
+        final CompressionHandler handler = newHandler(new SimpleMeterRegistry());
+        final byte[] gzipped = gzip(METRICS);
+        final HttpResponse upstream = response(gzipHeaders(),
+                                               HttpData.wrap(gzipped, 0, 10),
+                                               HttpData.wrap(gzipped, 10, gzipped.length - 10));
+
+        final AggregatedHttpResponse response =
+                handler.handle(request("identity"), upstream, "pods", "pods").aggregate().join();
+
+        assertThat(response.headers().contains(CONTENT_ENCODING)).isFalse();
+        assertThat(response.contentUtf8()).isEqualTo(METRICS);
+    }
+
+    @Test
+    void skipEmptyChunks() throws Exception {
+        final CompressionHandler handler = newHandler(new SimpleMeterRegistry());
+        final byte[] gzipped = gzip(METRICS);
+        // The gzip header alone, which isn't decoded into any byte
+        final HttpResponse upstream = response(gzipHeaders(),
+                                               HttpData.wrap(gzipped, 0, 5),
+                                               HttpData.wrap(gzipped, 5, gzipped.length - 5));
+
+        final List<HttpObject> objects =
+                Flowable.fromPublisher(handler.handle(request("identity"), upstream, "pods", "pods"))
+                        .toList()
+                        .blockingGet();
+
+        assertThat(objects).filteredOn(obj -> obj instanceof HttpData)
+                           .isNotEmpty()
+                           .allMatch(obj -> !((HttpData) obj).isEmpty());
+        assertThat(objects.stream()
+                          .filter(obj -> obj instanceof HttpData)
+                          .map(obj -> ((HttpData) obj).toStringUtf8())
+                          .collect(Collectors.joining())).isEqualTo(METRICS);
+    }
+
+    @Test
+    void relayWhatClientAccepts() throws Exception {
+        final CompressionHandler handler = newHandler(new SimpleMeterRegistry());
+        final byte[] gzipped = gzip(METRICS);
+        final HttpResponse upstream = response(gzipHeaders(), HttpData.wrap(gzipped));
+
+        final AggregatedHttpResponse response =
+                handler.handle(request("gzip"), upstream, "pods", "pods").aggregate().join();
+
+        assertThat(response.content().array()).isEqualTo(gzipped);
+    }
+
+    private static CompressionHandler newHandler(SimpleMeterRegistry meterRegistry) {
+        final CompressionProperties properties = new CompressionProperties();
+        properties.setMode(Mode.NEGOTIATE);
+        return new CompressionHandler(properties, meterRegistry);
+    }
+
+    private static RequestHeaders request(String acceptEncoding) {
+        return RequestHeaders.builder(HttpMethod.GET, "/metrics")
+                             .set(ACCEPT_ENCODING, acceptEncoding)
+                             .build();
+    }
+
+    private static ResponseHeaders gzipHeaders() {
+        return ResponseHeaders.builder(HttpStatus.OK)
+                              .set(CONTENT_ENCODING, "gzip")
+                              .build();
+    }
+
+    private static HttpResponse response(HttpObject... objects) {
+        return HttpResponse.of(Flowable.fromArray(objects));
+    }
+
+    private static byte[] gzip(String content) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(content.getBytes());
+        }
+        return out.toByteArray();
+    }
+
+    private static String gunzip(byte[] content) throws Exception {
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(content))) {
+            return new String(gzip.readAllBytes());
+        }
+    }
+}
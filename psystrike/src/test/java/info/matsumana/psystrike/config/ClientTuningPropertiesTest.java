@@ -0,0 +1,49 @@
+package info.matsumana.psystrike.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import javax.validation.Validation;
+import javax.validation.Validator;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ClientTuningPropertiesTest {
+
+    private final Validator validator = Validation.buildDefaultValidatorFactory().getValidator();
+
+    @Test
+    void defaultsAreValid() {
+        assertThat(validator.validate(new ClientTuningProperties())).isEmpty();
+    }
+
+    @Test
+    void rejectInvalidSettings() {
+        final ClientTuningProperties properties = new ClientTuningProperties();
+        properties.getApiServer().setHttp2MaxFrameSize(1024);
+        properties.getPod().getCircuitBreaker().setFailureRateThreshold(1.5);
+
+        assertThat(validator.validate(properties))
+                .extracting(violation -> violation.getPropertyPath().toString())
+                .containsExactlyInAnyOrder("apiServer.http2MaxFrameSize",
+                                           "pod.circuitBreaker.failureRateThreshold");
+    }
+
+    @Test
+    void exportEffectiveSettings() {
+        final ClientTuningProperties properties = new ClientTuningProperties();
+        properties.getPod().setUseHttp1Pipelining(true);
+        final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        new ArmeriaClientConfig().clientTuningMetrics(properties).bindTo(registry);
+
+        assertThat(registry.get("psystrike.client.config")
+                           .tag("profile", "apiserver")
+                           .tag("setting", "scrape_response_timeout_millis")
+                           .gauge().value()).isEqualTo(30_000);
+        assertThat(registry.get("psystrike.client.config")
+                           .tag("profile", "pod")
+                           .tag("setting", "use_http1_pipelining")
+                           .gauge().value()).isOne();
+    }
+}
@@ -0,0 +1,164 @@
+package info.matsumana.psystrike.discovery;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.linecorp.armeria.client.ClientFactory;
+import com.linecorp.armeria.client.Endpoint;
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpResponseWriter;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.HttpHeaderNames;
+import com.linecorp.armeria.common.ResponseHeaders;
+import com.linecorp.armeria.server.Server;
+
+import info.matsumana.psystrike.config.ApiServerDiscoveryProperties;
+import info.matsumana.psystrike.config.ApiServerDiscoveryProperties.Mode;
+import info.matsumana.psystrike.config.KubernetesProperties;
+import info.matsumana.psystrike.helper.AppVersionHelper;
+import info.matsumana.psystrike.helper.UpstreamHeaderValues;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ApiServerBalancerTest {
+
+    private static final Endpoint API_SERVER1 = Endpoint.of("10.0.0.1", 6443);
+    private static final Endpoint API_SERVER2 = Endpoint.of("10.0.0.2", 6443);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    // An API server with anonymous auth disabled
+    private final Server apiServer =
+            Server.builder()
+                  .https(0)
+                  .tlsSelfSigned()
+                  .service("/readyz", (ctx, req) -> {
+                      final String authorization = req.headers().get(HttpHeaderNames.AUTHORIZATION);
+                      return HttpResponse.of("Bearer secret".equals(authorization) ? HttpStatus.OK
+                                                                                   : HttpStatus.UNAUTHORIZED);
+                  })
+                  .build();
+
+    @AfterEach
+    void tearDown() {
+        apiServer.stop().join();
+    }
+
+    @Test
+    void fallbackToServiceVip() {
+        final ApiServerBalancer balancer = newBalancer();
+
+        assertThat(balancer.select()).isEqualTo(Endpoint.of("kubernetes.default.svc.cluster.local", 443));
+    }
+
+    @Test
+    void selectFewestStreams() {
+        final ApiServerBalancer balancer = newBalancer();
+        balancer.setEndpoints(List.of(API_SERVER1, API_SERVER2));
+
+        balancer.track(API_SERVER1, HttpResponse.streaming(), true);
+        balancer.track(API_SERVER1, HttpResponse.streaming(), true);
+        for (int i = 0; i < 2; i++) {
+            assertThat(balancer.select()).isEqualTo(API_SERVER2);
+        }
+
+        balancer.track(API_SERVER2, HttpResponse.streaming(), false);
+        assertThat(balancer.streams(API_SERVER2)).isOne();
+        assertThat(meterRegistry.get("psystrike.apiserver.streams").tag("endpoint", "10.0.0.1:6443")
+                                .gauge().value()).isEqualTo(2.0);
+    }
+
+    @Test
+    void endWatchesOfRemovedEndpoint() {
+        final ApiServerBalancer balancer = newBalancer();
+        balancer.setEndpoints(List.of(API_SERVER1, API_SERVER2));
+
+        final HttpResponseWriter upstream = HttpResponse.streaming();
+        upstream.write(ResponseHeaders.of(HttpStatus.OK));
+        upstream.write(HttpData.ofUtf8("{\"type\":\"ADDED\"}\n"));
+        final HttpResponse watch = balancer.track(API_SERVER1, upstream, true);
+        watch.aggregate();
+
+        balancer.setEndpoints(List.of(API_SERVER2));
+
+        // Ended cleanly, so that the client re-watches from its last resourceVersion.
+        watch.whenComplete().join();
+        upstream.whenComplete().handle((unused, cause) -> null).join();
+        assertThat(upstream.whenComplete()).isCompletedExceptionally();
+        assertThat(meterRegistry.get("psystrike.apiserver.watch.closed").counter().count()).isEqualTo(1.0);
+        assertThat(meterRegistry.find("psystrike.apiserver.streams").tag("endpoint", "10.0.0.1:6443")
+                                .gauge()).isNull();
+        assertThat(balancer.select()).isEqualTo(API_SERVER2);
+    }
+
+    @Test
+    void healthCheckWithBearerToken() throws InterruptedException {
+        final ApiServerBalancer balancer = newHealthCheckedBalancer("secret");
+        try {
+            final Endpoint endpoint = Endpoint.of("127.0.0.1", apiServer.activeLocalPort());
+            for (int i = 0; i < 100 && !balancer.select().equals(endpoint); i++) {
+                Thread.sleep(100);
+            }
+            assertThat(balancer.select()).isEqualTo(endpoint);
+
+            balancer.checkHealthy();
+            assertThat(meterRegistry.get("psystrike.apiserver.all.unhealthy").counter().count()).isZero();
+        } finally {
+            balancer.preDestroy();
+        }
+    }
+
+    @Test
+    void countWhenAllUnhealthy() throws InterruptedException {
+        final ApiServerBalancer balancer = newHealthCheckedBalancer("wrong");
+        try {
+            // Waits for the first probes to fail.
+            Thread.sleep(1000);
+            balancer.checkHealthy();
+            balancer.checkHealthy();
+
+            assertThat(balancer.select()).isEqualTo(Endpoint.of("kubernetes.default.svc.cluster.local", 443));
+            assertThat(meterRegistry.get("psystrike.apiserver.all.unhealthy").counter().count()).isOne();
+        } finally {
+            balancer.preDestroy();
+        }
+    }
+
+    @Test
+    void parseEndpoints() throws IOException {
+        final String json = "{\"kind\":\"Endpoints\",\"subsets\":[{" +
+                            "\"addresses\":[{\"ip\":\"10.0.0.1\"},{\"ip\":\"10.0.0.2\"}]," +
+                            "\"ports\":[{\"name\":\"metrics\",\"port\":9090}," +
+                            "{\"name\":\"https\",\"port\":6443}]}]}";
+
+        assertThat(KubernetesEndpointGroup.parse(json)).containsExactly(API_SERVER1, API_SERVER2);
+        assertThat(KubernetesEndpointGroup.parse("{\"kind\":\"Endpoints\"}")).isEmpty();
+    }
+
+    private ApiServerBalancer newBalancer() {
+        final KubernetesProperties kubernetesProperties = new KubernetesProperties();
+        return new ApiServerBalancer(new ApiServerDiscoveryProperties(), kubernetesProperties,
+                                     new UpstreamHeaderValues(kubernetesProperties, new AppVersionHelper()),
+                                     ClientFactory.ofDefault(), meterRegistry);
+    }
+
+    private ApiServerBalancer newHealthCheckedBalancer(String bearerToken) {
+        apiServer.start().join();
+        final ApiServerDiscoveryProperties properties = new ApiServerDiscoveryProperties();
+        properties.setMode(Mode.STATIC);
+        properties.setStaticEndpoints(List.of("127.0.0.1:" + apiServer.activeLocalPort()));
+        properties.setHealthCheckIntervalSeconds(1);
+        final KubernetesProperties kubernetesProperties = new KubernetesProperties();
+        kubernetesProperties.setBearerToken(bearerToken);
+        final ApiServerBalancer balancer =
+                new ApiServerBalancer(properties, kubernetesProperties,
+                                      new UpstreamHeaderValues(kubernetesProperties, new AppVersionHelper()),
+                                      ClientFactory.insecure(), meterRegistry);
+        balancer.postConstruct();
+        return balancer;
+    }
+}
@@ -0,0 +1,137 @@
+package info.matsumana.psystrike.exposition;
+
+import static com.linecorp.armeria.common.HttpHeaderNames.CONTENT_ENCODING;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpObject;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.ResponseHeaders;
+
+import info.matsumana.psystrike.config.ExpositionFilterProperties;
+import info.matsumana.psystrike.config.ExpositionFilterProperties.Rule;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.reactivex.Flowable;
+
+class ExpositionFilterTest {
+
+    private static final String METRICS =
+            "# HELP etcd_request_duration_seconds Etcd request latency.\n" +
+            "# TYPE etcd_request_duration_seconds histogram\n" +
+            "etcd_request_duration_seconds_bucket{le=\"0.005\"} 1\n" +
+            "etcd_request_duration_seconds_sum 0.1\n" +
+            "etcd_request_duration_seconds_count 1\n" +
+            "# HELP apiserver_request_total Counter of apiserver requests.\n" +
+            "# TYPE apiserver_request_total counter\n" +
+            "apiserver_request_total{code=\"200\",verb=\"GET\"} 10\n" +
+            "apiserver_request_total{code=\"200\",verb=\"WATCH\"} 3\n" +
+            "apiserver_request_total{code=\"500\",verb=\"GET\"} 1";
+
+    private static final String FILTERED =
+            "# HELP apiserver_request_total Counter of apiserver requests.\n" +
+            "# TYPE apiserver_request_total counter\n" +
+            "apiserver_request_total{code=\"200\",verb=\"GET\"} 10\n" +
+            "apiserver_request_total{code=\"500\",verb=\"GET\"} 1";
+
+    @Test
+    void dropFamiliesAndSeries() {
+        final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        final ExpositionFilter filter = newFilter(meterRegistry, 1024);
+
+        // Lines are split across chunks.
+        final HttpResponse upstream = response(ResponseHeaders.of(HttpStatus.OK),
+                                               HttpData.ofUtf8(METRICS.substring(0, 30)),
+                                               HttpData.ofUtf8(METRICS.substring(30, 200)),
+                                               HttpData.ofUtf8(METRICS.substring(200)));
+
+        assertThat(filter.decorate(upstream, "apiservers").aggregate().join().contentUtf8())
+                .isEqualTo(FILTERED);
+        assertThat(meterRegistry.get("psystrike.exposition.filter.dropped.lines")
+                                .counter().count()).isEqualTo(6);
+        assertThat(meterRegistry.get("psystrike.exposition.filter.dropped.bytes")
+                                .counter().count()).isEqualTo(METRICS.length() - FILTERED.length());
+    }
+
+    @Test
+    void relayLongLines() {
+        final ExpositionFilter filter = newFilter(new SimpleMeterRegistry(), 16);
+        final HttpResponse upstream = response(ResponseHeaders.of(HttpStatus.OK),
+                                               HttpData.ofUtf8(METRICS.substring(0, 20)),
+                                               HttpData.ofUtf8(METRICS.substring(20)));
+
+        // The first line is relayed as it is because it's longer than 16 bytes.
+        assertThat(filter.decorate(upstream, "apiservers").aggregate().join().contentUtf8())
+                .isEqualTo("# HELP etcd_request_duration_seconds Etcd request latency.\n" + FILTERED);
+    }
+
+    @Test
+    void relayNonFilterableResponses() {
+        final ExpositionFilter filter = newFilter(new SimpleMeterRegistry(), 1024);
+        final ResponseHeaders gzipHeaders = ResponseHeaders.builder(HttpStatus.OK)
+                                                           .set(CONTENT_ENCODING, "gzip")
+                                                           .build();
+
+        assertThat(filter.decorate(response(gzipHeaders, HttpData.ofUtf8(METRICS)), "apiservers")
+                         .aggregate().join().contentUtf8()).isEqualTo(METRICS);
+        assertThat(filter.decorate(response(ResponseHeaders.of(HttpStatus.OK), HttpData.ofUtf8(METRICS)),
+                                   "pods")
+                         .aggregate().join().contentUtf8()).isEqualTo(METRICS);
+    }
+
+    @Test
+    void skipChunksWhoseLinesAreAllDropped() {
+        final int etcdEnd = METRICS.indexOf("# HELP apiserver_request_total");
+        final HttpResponse upstream = response(ResponseHeaders.of(HttpStatus.OK),
+                                               HttpData.ofUtf8(METRICS.substring(0, etcdEnd)),
+                                               HttpData.ofUtf8(METRICS.substring(etcdEnd)));
+
+        final HttpResponse filtered = newFilter(new SimpleMeterRegistry(), 1024).decorate(upstream,
+                                                                                          "apiservers");
+
+        final List<HttpObject> objects = Flowable.fromPublisher(filtered).toList().blockingGet();
+        // No empty DATA frame for the chunk of the etcd_ family
+        assertThat(objects.get(0)).isInstanceOf(ResponseHeaders.class);
+        assertThat(objects.subList(1, objects.size())).allMatch(obj -> !((HttpData) obj).isEmpty());
+        assertThat(objects.subList(1, objects.size()).stream()
+                          .map(obj -> ((HttpData) obj).toStringUtf8())
+                          .collect(Collectors.joining())).isEqualTo(FILTERED);
+    }
+
+    @Test
+    void seriesSelector() {
+        final SeriesSelector selector = SeriesSelector.parse("foo_bucket{le=~\"0\\\\.0.*\", job!=\"bar\"}");
+        assertThat(selector.matches("foo_bucket", Map.of("le", "0.005"))).isTrue();
+        assertThat(selector.matches("foo_bucket", Map.of("le", "0.1"))).isFalse();
+        assertThat(selector.matches("foo_bucket", Map.of("le", "0.005", "job", "bar"))).isFalse();
+        assertThat(selector.matches("foo_sum", Map.of())).isFalse();
+
+        assertThat(SeriesSelector.parse("{__name__=~\"foo_.*\"}").matches("foo_sum", Map.of())).isTrue();
+        assertThatThrownBy(() -> SeriesSelector.parse("foo{le=0.1}"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(SeriesSelector.parseLabels("{a=\"1\",b=\"x\\\"}\"} 1"))
+                .containsExactlyInAnyOrderEntriesOf(Map.of("a", "1", "b", "x\"}"));
+    }
+
+    private static ExpositionFilter newFilter(SimpleMeterRegistry meterRegistry, int maxLineBytes) {
+        final Rule rule = new Rule();
+        rule.setDeny("etcd_.*");
+        rule.setDenySeries(List.of("apiserver_request_total{verb=\"WATCH\"}"));
+        final ExpositionFilterProperties properties = new ExpositionFilterProperties();
+        properties.setEnabled(true);
+        properties.setRoutes(Map.of("apiservers", rule));
+        properties.setMaxLineBytes(maxLineBytes);
+        return new ExpositionFilter(properties, meterRegistry);
+    }
+
+    private static HttpResponse response(HttpObject... objects) {
+        return HttpResponse.of(Flowable.fromArray(objects));
+    }
+}
@@ -0,0 +1,58 @@
+package info.matsumana.psystrike.helper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import info.matsumana.psystrike.config.KubernetesProperties;
+
+class UpstreamHeaderValuesTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void precomputed() {
+        final KubernetesProperties kubernetesProperties = new KubernetesProperties();
+        kubernetesProperties.setBearerToken("token1");
+        final UpstreamHeaderValues values = new UpstreamHeaderValues(kubernetesProperties,
+                                                                     new AppVersionHelper());
+
+        assertThat(values.getUserAgent()).startsWith("psystrike/");
+        assertThat(values.getAuthorization()).isEqualTo("Bearer token1");
+        assertThat(values.getAuthorization()).isSameAs(values.getAuthorization());
+    }
+
+    @Test
+    void reloadToken() throws IOException {
+        final Path tokenFile = tempDir.resolve("token");
+        Files.writeString(tokenFile, "token1\n");
+        final KubernetesProperties kubernetesProperties = new KubernetesProperties();
+        kubernetesProperties.setBearerToken("token0");
+        kubernetesProperties.setBearerTokenFile(tokenFile.toString());
+        kubernetesProperties.setBearerTokenReloadSeconds(3600);
+        final UpstreamHeaderValues values = new UpstreamHeaderValues(kubernetesProperties,
+                                                                     new AppVersionHelper());
+
+        values.postConstruct();
+        try {
+            assertThat(values.getAuthorization()).isEqualTo("Bearer token1");
+
+            Files.writeString(tokenFile, "token2\n");
+            values.reloadToken(tokenFile);
+            assertThat(values.getAuthorization()).isEqualTo("Bearer token2");
+
+            // Keeps the last token if the file can't be read.
+            Files.delete(tokenFile);
+            values.reloadToken(tokenFile);
+            assertThat(values.getAuthorization()).isEqualTo("Bearer token2");
+        } finally {
+            values.preDestroy();
+        }
+    }
+}
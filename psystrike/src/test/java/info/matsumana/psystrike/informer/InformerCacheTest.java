@@ -0,0 +1,164 @@
+package info.matsumana.psystrike.informer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import com.linecorp.armeria.client.ClientFactory;
+import com.linecorp.armeria.common.AggregatedHttpResponse;
+import com.linecorp.armeria.common.HttpMethod;
+import com.linecorp.armeria.common.HttpRequest;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpResponseWriter;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.MediaType;
+import com.linecorp.armeria.common.QueryParams;
+import com.linecorp.armeria.common.ResponseHeaders;
+import com.linecorp.armeria.common.SessionProtocol;
+import com.linecorp.armeria.server.Server;
+import com.linecorp.armeria.server.ServiceRequestContext;
+
+import info.matsumana.psystrike.config.InformerProperties;
+import info.matsumana.psystrike.config.KubernetesProperties;
+import info.matsumana.psystrike.helper.AppVersionHelper;
+import info.matsumana.psystrike.helper.UpstreamHeaderValues;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class InformerCacheTest {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final String POD_LIST =
+            "{\"kind\":\"PodList\",\"apiVersion\":\"v1\",\"metadata\":{\"resourceVersion\":\"10\"}," +
+            "\"items\":[" +
+            "{\"metadata\":{\"namespace\":\"default\",\"name\":\"foo\",\"resourceVersion\":\"9\"}}," +
+            "{\"metadata\":{\"namespace\":\"kube-system\",\"name\":\"bar\",\"resourceVersion\":\"10\"}}]}";
+
+    private static Server apiServer;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ServiceRequestContext ctx =
+            ServiceRequestContext.of(HttpRequest.of(HttpMethod.GET, "/api/v1/pods"));
+    private InformerCache cache;
+
+    @BeforeAll
+    static void startApiServer() {
+        apiServer = Server.builder()
+                          .https(0)
+                          .tlsSelfSigned()
+                          .service("/api/v1/pods", (ctx, req) -> {
+                              final String query = ctx.query();
+                              if (query != null && query.contains("watch=true")) {
+                                  // A quiet watch, which keeps the LIST's state
+                                  final HttpResponseWriter watch = HttpResponse.streaming();
+                                  watch.write(ResponseHeaders.of(HttpStatus.OK, "content-type",
+                                                                 MediaType.JSON.toString()));
+                                  return watch;
+                              }
+                              return HttpResponse.of(HttpStatus.OK, MediaType.JSON, POD_LIST);
+                          })
+                          .build();
+        apiServer.start().join();
+    }
+
+    @AfterAll
+    static void stopApiServer() {
+        apiServer.stop().join();
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        final InformerProperties informerProperties = new InformerProperties();
+        informerProperties.setEnabled(true);
+        informerProperties.setResources(List.of("pods"));
+        final KubernetesProperties kubernetesProperties = new KubernetesProperties();
+        kubernetesProperties.setApiServer("127.0.0.1");
+        kubernetesProperties.setApiServerPort(apiServer.activeLocalPort(SessionProtocol.HTTPS));
+        kubernetesProperties.setBearerToken("secret");
+        cache = new InformerCache(informerProperties, kubernetesProperties, ClientFactory.insecure(),
+                                  new UpstreamHeaderValues(kubernetesProperties, new AppVersionHelper()),
+                                  meterRegistry);
+        cache.postConstruct();
+
+        for (int i = 0; i < 100 && !isSynced(); i++) {
+            Thread.sleep(100);
+        }
+        assertThat(isSynced()).isTrue();
+    }
+
+    @AfterEach
+    void tearDown() {
+        cache.preDestroy();
+    }
+
+    @Test
+    void serveFromCache() throws Exception {
+        final JsonNode all = list("v1/pods", "");
+        assertThat(all.path("kind").asText()).isEqualTo("PodList");
+        assertThat(all.path("apiVersion").asText()).isEqualTo("v1");
+        // The resourceVersion of the LIST, which the following watch resumes from
+        assertThat(all.path("metadata").path("resourceVersion").asText()).isEqualTo("10");
+        assertThat(all.path("items")).hasSize(2);
+
+        final JsonNode namespaced = list("v1/namespaces/default/pods", "");
+        assertThat(namespaced.path("items")).hasSize(1);
+        assertThat(namespaced.path("items").get(0).path("metadata").path("name").asText()).isEqualTo("foo");
+
+        // The API server doesn't page a LIST with resourceVersion=0.
+        assertThat(list("v1/pods", "limit=500&resourceVersion=0").path("items")).hasSize(2);
+        assertThat(count("hit")).isEqualTo(3.0);
+    }
+
+    @Test
+    void passThroughPagedList() {
+        assertThat(cache.list(ctx, "v1/pods", QueryParams.fromQueryString("limit=500"))).isNull();
+        assertThat(cache.list(ctx, "v1/pods", QueryParams.fromQueryString("limit=500&continue=abc")))
+                .isNull();
+        assertThat(count("miss")).isEqualTo(2.0);
+    }
+
+    @Test
+    void passThroughUncachedResource() {
+        assertThat(cache.list(ctx, "v1/secrets", QueryParams.of())).isNull();
+        assertThat(cache.list(ctx, "v1/pods/foo", QueryParams.of())).isNull();
+    }
+
+    @Test
+    void passThroughNewerResourceVersion() throws Exception {
+        // Not older than the requested resourceVersion
+        assertThat(list("v1/pods", "resourceVersion=10").path("items")).hasSize(2);
+        assertThat(cache.list(ctx, "v1/pods", QueryParams.fromQueryString("resourceVersion=11"))).isNull();
+        assertThat(count("hit")).isOne();
+        assertThat(count("miss")).isOne();
+    }
+
+    private boolean isSynced() {
+        return cache.snapshot("pods", null, LabelSelector.parse(""), FieldSelector.parse("")) != null;
+    }
+
+    private JsonNode list(String actualUri, String query) throws Exception {
+        final HttpResponse response = cache.list(ctx, actualUri, QueryParams.fromQueryString(query));
+        assertThat(response).isNotNull();
+        final AggregatedHttpResponse aggregated = response.aggregate().get(10, TimeUnit.SECONDS);
+        assertThat(aggregated.status()).isEqualTo(HttpStatus.OK);
+        assertThat(aggregated.contentType()).isEqualTo(MediaType.JSON);
+        return OBJECT_MAPPER.readTree(aggregated.contentUtf8());
+    }
+
+    private double count(String result) {
+        return meterRegistry.get("psystrike.informer.requests")
+                            .tag("resource", "pods")
+                            .tag("result", result)
+                            .counter()
+                            .count();
+    }
+}
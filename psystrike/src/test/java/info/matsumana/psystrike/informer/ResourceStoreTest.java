@@ -0,0 +1,85 @@
+package info.matsumana.psystrike.informer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import info.matsumana.psystrike.informer.ResourceStore.Snapshot;
+
+public class ResourceStoreTest {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @Test
+    void labelSelector() {
+        final Map<String, String> labels = Map.of("app", "foo", "env", "prod", "replicas", "3");
+
+        assertThat(LabelSelector.parse("").test(labels)).isTrue();
+        assertThat(LabelSelector.parse("app=foo").test(labels)).isTrue();
+        assertThat(LabelSelector.parse("app==foo,env!=stg").test(labels)).isTrue();
+        assertThat(LabelSelector.parse("app=bar").test(labels)).isFalse();
+        assertThat(LabelSelector.parse("env in (prod, stg),app").test(labels)).isTrue();
+        assertThat(LabelSelector.parse("env notin (prod,stg)").test(labels)).isFalse();
+        assertThat(LabelSelector.parse("tier notin (db)").test(labels)).isTrue();
+        assertThat(LabelSelector.parse("!canary").test(labels)).isTrue();
+        assertThat(LabelSelector.parse("replicas>2,replicas<4").test(labels)).isTrue();
+
+        assertThatThrownBy(() -> LabelSelector.parse("env in (prod"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void fieldSelector() throws Exception {
+        final ObjectNode pod = pod("default", "foo", "1", "node1");
+
+        assertThat(FieldSelector.parse("spec.nodeName=node1").test(pod)).isTrue();
+        assertThat(FieldSelector.parse("spec.nodeName==node1,metadata.name=foo").test(pod)).isTrue();
+        assertThat(FieldSelector.parse("spec.nodeName!=node1").test(pod)).isFalse();
+        // A missing field is an empty string.
+        assertThat(FieldSelector.parse("status.phase=").test(pod)).isTrue();
+    }
+
+    @Test
+    void listAndApplyEvents() throws Exception {
+        final ResourceStore store = new ResourceStore();
+        assertThat(store.list(null, LabelSelector.parse(""), FieldSelector.parse(""))).isNull();
+
+        store.replace("PodList", "10", List.of(pod("default", "foo", "9", "node1"),
+                                               pod("kube-system", "bar", "10", "node2")));
+        store.apply("ADDED", pod("default", "baz", "11", "node2"));
+        store.apply("DELETED", pod("kube-system", "bar", "12", "node2"));
+        store.apply("BOOKMARK", pod("", "", "13", ""));
+
+        final Snapshot all = store.list(null, LabelSelector.parse(""), FieldSelector.parse(""));
+        assertThat(all).isNotNull();
+        assertThat(all.getListKind()).isEqualTo("PodList");
+        assertThat(all.getResourceVersion()).isEqualTo("13");
+        assertThat(all.getItems()).extracting(item -> item.path("metadata").path("name").asText())
+                                  .containsExactlyInAnyOrder("foo", "baz");
+        // Watch events carry kind and apiVersion, but list items don't.
+        assertThat(all.getItems()).allMatch(item -> !item.has("kind"));
+
+        final Snapshot filtered = store.list("default", LabelSelector.parse("app=baz"),
+                                             FieldSelector.parse("spec.nodeName=node2"));
+        assertThat(filtered.getItems()).hasSize(1);
+
+        store.invalidate();
+        assertThat(store.list(null, LabelSelector.parse(""), FieldSelector.parse(""))).isNull();
+    }
+
+    private static ObjectNode pod(String namespace, String name, String resourceVersion, String nodeName)
+            throws Exception {
+        final String json = "{\"kind\":\"Pod\",\"apiVersion\":\"v1\"," +
+                            "\"metadata\":{\"namespace\":\"" + namespace + "\",\"name\":\"" + name + "\"," +
+                            "\"resourceVersion\":\"" + resourceVersion + "\",\"labels\":{\"app\":\"" + name +
+                            "\"}},\"spec\":{\"nodeName\":\"" + nodeName + "\"}}";
+        return (ObjectNode) OBJECT_MAPPER.readTree(json);
+    }
+}
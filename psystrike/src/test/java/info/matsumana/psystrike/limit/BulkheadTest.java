@@ -0,0 +1,66 @@
+package info.matsumana.psystrike.limit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.Test;
+
+class BulkheadTest {
+
+    @Test
+    void queue() {
+        final Bulkhead bulkhead = new Bulkhead(2, 1, false, 1000);
+        final CompletableFuture<Void> permit1 = bulkhead.acquire();
+        final CompletableFuture<Void> permit2 = bulkhead.acquire();
+        final CompletableFuture<Void> permit3 = bulkhead.acquire();
+
+        assertThat(permit1).isCompleted();
+        assertThat(permit2).isCompleted();
+        assertThat(permit3).isNotDone();
+        assertThat(bulkhead.queueSize()).isOne();
+        // The queue is full.
+        assertThat(bulkhead.acquire()).isNull();
+
+        bulkhead.release(0, true);
+        assertThat(permit3).isCompleted();
+        assertThat(bulkhead.inFlight()).isEqualTo(2);
+        assertThat(bulkhead.queueSize()).isZero();
+    }
+
+    @Test
+    void skipGivenUpWaiters() {
+        final Bulkhead bulkhead = new Bulkhead(1, 2, false, 1000);
+        bulkhead.acquire();
+        final CompletableFuture<Void> timedOut = bulkhead.acquire();
+        final CompletableFuture<Void> waiting = bulkhead.acquire();
+        timedOut.completeExceptionally(new TimeoutException());
+
+        bulkhead.release(0, true);
+        assertThat(waiting).isCompleted();
+        assertThat(bulkhead.inFlight()).isOne();
+    }
+
+    @Test
+    void adaptive() {
+        final Bulkhead bulkhead = new Bulkhead(10, 10, true, 1000);
+        final long slow = TimeUnit.SECONDS.toNanos(2);
+        final long fast = TimeUnit.MILLISECONDS.toNanos(10);
+
+        bulkhead.acquire();
+        bulkhead.release(slow, true);
+        assertThat(bulkhead.limit()).isCloseTo(9.0, within(1e-9));
+        bulkhead.acquire();
+        bulkhead.release(fast, false);
+        assertThat(bulkhead.limit()).isCloseTo(8.1, within(1e-9));
+
+        for (int i = 0; i < 100; i++) {
+            bulkhead.acquire();
+            bulkhead.release(fast, true);
+        }
+        assertThat(bulkhead.limit()).isEqualTo(10.0);
+    }
+}
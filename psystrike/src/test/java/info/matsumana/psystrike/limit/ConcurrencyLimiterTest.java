@@ -0,0 +1,141 @@
+package info.matsumana.psystrike.limit;
+
+import static com.linecorp.armeria.common.HttpHeaderNames.RETRY_AFTER;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.Test;
+
+import com.linecorp.armeria.client.ClientRequestContext;
+import com.linecorp.armeria.client.HttpClient;
+import com.linecorp.armeria.common.AggregatedHttpResponse;
+import com.linecorp.armeria.common.HttpMethod;
+import com.linecorp.armeria.common.HttpRequest;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.ResponseHeaders;
+
+import info.matsumana.psystrike.config.ConcurrencyLimitProperties;
+import info.matsumana.psystrike.config.ConcurrencyLimitProperties.Limit;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ConcurrencyLimiterTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AtomicInteger sent = new AtomicInteger();
+    // Never answers, so that a request holds its permits until its log is completed.
+    private final HttpClient upstream = (ctx, req) -> {
+        sent.incrementAndGet();
+        return HttpResponse.streaming();
+    };
+
+    @Test
+    void rejectWhenQueueFull() {
+        final ConcurrencyLimitProperties properties = newProperties(new Limit(1, 0));
+        final HttpClient client = newPodClient(properties);
+
+        client.execute(newContext(), HttpRequest.of(HttpMethod.GET, "/metrics"));
+        final AggregatedHttpResponse rejected =
+                client.execute(newContext(), HttpRequest.of(HttpMethod.GET, "/metrics")).aggregate().join();
+
+        assertThat(sent).hasValue(1);
+        assertThat(rejected.status()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+        assertThat(rejected.headers().getInt(RETRY_AFTER)).isEqualTo(properties.getRetryAfterSeconds());
+        assertThat(rejections("queue_full")).isOne();
+        assertThat(rejections("timeout")).isZero();
+    }
+
+    @Test
+    void rejectWhenQueuedTooLong() {
+        final ConcurrencyLimitProperties properties = newProperties(new Limit(1, 1));
+        properties.setQueueTimeoutMillis(100);
+        final HttpClient client = newPodClient(properties);
+
+        client.execute(newContext(), HttpRequest.of(HttpMethod.GET, "/metrics"));
+        final AggregatedHttpResponse rejected =
+                client.execute(newContext(), HttpRequest.of(HttpMethod.GET, "/metrics")).aggregate().join();
+
+        assertThat(sent).hasValue(1);
+        assertThat(rejected.status()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+        assertThat(rejected.headers().getInt(RETRY_AFTER)).isEqualTo(properties.getRetryAfterSeconds());
+        assertThat(rejections("timeout")).isOne();
+        assertThat(rejections("queue_full")).isZero();
+    }
+
+    @Test
+    void sendQueuedRequestOnRelease() throws Exception {
+        final HttpClient client = newPodClient(newProperties(new Limit(1, 1)));
+
+        final ClientRequestContext first = newContext();
+        client.execute(first, HttpRequest.of(HttpMethod.GET, "/metrics"));
+        client.execute(newContext(), HttpRequest.of(HttpMethod.GET, "/metrics"));
+        assertThat(sent).hasValue(1);
+        assertThat(gauge("psystrike.concurrency.queue.size")).isOne();
+
+        complete(first, HttpStatus.OK);
+        await(() -> sent.get() == 2);
+        assertThat(gauge("psystrike.concurrency.in.flight")).isOne();
+        assertThat(gauge("psystrike.concurrency.queue.size")).isZero();
+    }
+
+    @Test
+    void lowerLimitOnFailure() throws Exception {
+        final ConcurrencyLimitProperties properties = newProperties(new Limit(10, 10));
+        properties.setAdaptive(true);
+        final HttpClient client = newPodClient(properties);
+
+        final ClientRequestContext ctx = newContext();
+        client.execute(ctx, HttpRequest.of(HttpMethod.GET, "/metrics"));
+        complete(ctx, HttpStatus.INTERNAL_SERVER_ERROR);
+
+        await(() -> gauge("psystrike.concurrency.in.flight") == 0);
+        assertThat(gauge("psystrike.concurrency.limit")).isCloseTo(9.0, within(1e-9));
+    }
+
+    private static ConcurrencyLimitProperties newProperties(Limit pods) {
+        final ConcurrencyLimitProperties properties = new ConcurrencyLimitProperties();
+        properties.setEnabled(true);
+        properties.setPods(pods);
+        return properties;
+    }
+
+    private HttpClient newPodClient(ConcurrencyLimitProperties properties) {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(properties, meterRegistry);
+        return limiter.newPodDecorator().apply(upstream);
+    }
+
+    private static ClientRequestContext newContext() {
+        return ClientRequestContext.of(HttpRequest.of(HttpMethod.GET, "/metrics"));
+    }
+
+    private static void complete(ClientRequestContext ctx, HttpStatus status) {
+        ctx.logBuilder().endRequest();
+        ctx.logBuilder().responseHeaders(ResponseHeaders.of(status));
+        ctx.logBuilder().endResponse();
+    }
+
+    private double rejections(String reason) {
+        return meterRegistry.get("psystrike.concurrency.rejections")
+                            .tag("family", "pods")
+                            .tag("reason", reason)
+                            .counter()
+                            .count();
+    }
+
+    private double gauge(String name) {
+        return meterRegistry.get(name)
+                            .tag("family", "pods")
+                            .gauge()
+                            .value();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 500 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(10);
+        }
+        assertThat(condition.getAsBoolean()).isTrue();
+    }
+}
@@ -0,0 +1,60 @@
+package info.matsumana.psystrike.logging;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import com.linecorp.armeria.common.HttpData;
+
+import info.matsumana.psystrike.config.PayloadLoggingProperties;
+import info.matsumana.psystrike.logging.PayloadLogger.Settings;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+class PayloadLoggerTest {
+
+    @Test
+    void truncate() {
+        final String event = "{\"type\":\"ADDED\"}\n";
+        assertThat(PayloadLogger.truncate(HttpData.ofUtf8(event), 8)).isEqualTo("{\"type\":");
+        assertThat(PayloadLogger.truncate(HttpData.ofUtf8(event), 256)).isEqualTo(event);
+
+        final ByteBuf buf = Unpooled.copiedBuffer(event, StandardCharsets.UTF_8);
+        final HttpData pooled = HttpData.wrap(buf);
+        assertThat(PayloadLogger.truncate(pooled, 8)).isEqualTo("{\"type\":");
+        // The buffer isn't consumed.
+        assertThat(pooled.length()).isEqualTo(event.length());
+        buf.release();
+    }
+
+    @Test
+    void truncateAtCharacterBoundary() {
+        // U+00E9 is 2 bytes and U+65E5 is 3 bytes in UTF-8.
+        final String event = "{\"name\":\"\u00e9\u65e5\"}";
+        assertThat(PayloadLogger.truncate(HttpData.ofUtf8(event), 10)).isEqualTo("{\"name\":\"");
+        assertThat(PayloadLogger.truncate(HttpData.ofUtf8(event), 11)).isEqualTo("{\"name\":\"\u00e9");
+        assertThat(PayloadLogger.truncate(HttpData.ofUtf8(event), 13)).isEqualTo("{\"name\":\"\u00e9");
+        assertThat(PayloadLogger.truncate(HttpData.ofUtf8(event), 14)).isEqualTo("{\"name\":\"\u00e9\u65e5");
+
+        final ByteBuf buf = Unpooled.copiedBuffer(event, StandardCharsets.UTF_8);
+        final HttpData pooled = HttpData.wrap(buf);
+        assertThat(PayloadLogger.truncate(pooled, 10)).isEqualTo("{\"name\":\"");
+        buf.release();
+    }
+
+    @Test
+    void settings() {
+        final PayloadLogger payloadLogger = new PayloadLogger(new PayloadLoggingProperties());
+        assertThat(payloadLogger.getSettings()).isEqualTo(new Settings(false, 100, 256));
+
+        payloadLogger.setSettings(new Settings(true, 10, 64));
+        assertThat(payloadLogger.getSettings()).isEqualTo(new Settings(true, 10, 64));
+
+        assertThatThrownBy(() -> payloadLogger.setSettings(new Settings(true, 0, 64)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(payloadLogger.getSettings()).isEqualTo(new Settings(true, 10, 64));
+    }
+}
@@ -0,0 +1,50 @@
+package info.matsumana.psystrike.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpMethod;
+import com.linecorp.armeria.common.HttpRequest;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpResponseWriter;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.ResponseHeaders;
+import com.linecorp.armeria.server.ServiceRequestContext;
+
+import info.matsumana.psystrike.limit.RouteFamily;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ProxyMetricsTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ProxyMetrics proxyMetrics = new ProxyMetrics(meterRegistry);
+
+    @Test
+    void recordWatch() {
+        final ServiceRequestContext ctx =
+                ServiceRequestContext.of(HttpRequest.of(HttpMethod.GET, "/api/v1/pods"));
+        proxyMetrics.record(ctx, RouteFamily.WATCH, "pods");
+        final HttpResponseWriter upstream = HttpResponse.streaming();
+        final HttpResponse response = proxyMetrics.recordWatch(ctx, "pods", "direct", upstream);
+        assertThat(meterRegistry.get("psystrike.watch.streams").gauge().value()).isOne();
+
+        upstream.write(ResponseHeaders.of(HttpStatus.OK));
+        upstream.write(HttpData.ofUtf8("{\"type\":\"ADDED\"}\n{\"type\":"));
+        upstream.write(HttpData.ofUtf8("\"MODIFIED\"}\n"));
+        upstream.close();
+        response.aggregate().join();
+        assertThat(meterRegistry.get("psystrike.watch.events").counter().count()).isEqualTo(2);
+
+        ctx.logBuilder().endRequest();
+        ctx.logBuilder().endResponse();
+        assertThat(meterRegistry.get("psystrike.watch.streams").gauge().value()).isZero();
+        assertThat(meterRegistry.get("psystrike.watch.stream.duration").timer().count()).isOne();
+        assertThat(meterRegistry.get("psystrike.proxy.duration")
+                                .tag("route", "watch")
+                                .tag("target", "pods")
+                                .timer().count()).isOne();
+    }
+}
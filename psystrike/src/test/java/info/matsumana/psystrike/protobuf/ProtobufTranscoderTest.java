@@ -0,0 +1,153 @@
+package info.matsumana.psystrike.protobuf;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Message;
+
+import com.linecorp.armeria.common.AggregatedHttpResponse;
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.MediaType;
+import com.linecorp.armeria.common.ResponseHeaders;
+
+import info.matsumana.psystrike.config.ProtobufProperties;
+import io.kubernetes.client.proto.IntStr.IntOrString;
+import io.kubernetes.client.proto.Meta;
+import io.kubernetes.client.proto.Runtime.RawExtension;
+import io.kubernetes.client.proto.Runtime.TypeMeta;
+import io.kubernetes.client.proto.Runtime.Unknown;
+import io.kubernetes.client.proto.V1;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ProtobufTranscoderTest {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final MediaType PROTOBUF = MediaType.parse("application/vnd.kubernetes.protobuf");
+    private static final MediaType PROTOBUF_WATCH =
+            MediaType.parse("application/vnd.kubernetes.protobuf;stream=watch");
+
+    private static final V1.Pod POD = newPod();
+
+    private static final String POD_JSON =
+            "{\"kind\":\"Pod\",\"apiVersion\":\"v1\"," +
+            "\"metadata\":{\"name\":\"foo\",\"namespace\":\"default\",\"resourceVersion\":\"101\"," +
+            "\"creationTimestamp\":\"2020-09-13T12:26:40Z\",\"labels\":{\"app\":\"foo\"}}," +
+            "\"spec\":{\"containers\":[{\"name\":\"app\"," +
+            "\"ports\":[{\"name\":\"metrics\",\"containerPort\":8080}]," +
+            "\"readinessProbe\":{\"httpGet\":{\"path\":\"/healthz\",\"port\":\"metrics\"}}}]}," +
+            "\"status\":{\"podIP\":\"10.0.0.1\"}}";
+
+    private final ProtobufTranscoder transcoder = newTranscoder();
+
+    @Test
+    void transcodeWatch() throws Exception {
+        final byte[] frame = frame(Meta.WatchEvent.newBuilder()
+                                                  .setType("ADDED")
+                                                  .setObject(RawExtension.newBuilder()
+                                                                         .setRaw(encode("Pod", POD)))
+                                                  .build()
+                                                  .toByteArray());
+        // Two frames split across three chunks
+        final byte[] frames = ByteBuffer.allocate(frame.length * 2).put(frame).put(frame).array();
+        final HttpResponse upstream = HttpResponse.of(
+                ResponseHeaders.of(HttpStatus.OK, "content-type", PROTOBUF_WATCH.toString()),
+                HttpData.wrap(frames, 0, 2),
+                HttpData.wrap(frames, 2, frame.length),
+                HttpData.wrap(frames, frame.length + 2, frame.length - 2));
+
+        final AggregatedHttpResponse res = transcoder.decorate(upstream, true).aggregate().join();
+
+        assertThat(res.contentType()).isEqualTo(MediaType.JSON);
+        final String[] events = res.contentUtf8().split("\n");
+        assertThat(events).hasSize(2);
+        for (String event : events) {
+            assertThat(OBJECT_MAPPER.readTree(event)).isEqualTo(
+                    OBJECT_MAPPER.readTree("{\"type\":\"ADDED\",\"object\":" + POD_JSON + '}'));
+        }
+    }
+
+    @Test
+    void transcodeList() throws Exception {
+        final V1.PodList podList = V1.PodList.newBuilder()
+                                             .setMetadata(Meta.ListMeta.newBuilder().setResourceVersion("102"))
+                                             .addItems(POD)
+                                             .build();
+        final HttpResponse upstream = HttpResponse.of(HttpStatus.OK, PROTOBUF,
+                                                      encode("PodList", podList).toByteArray());
+
+        final AggregatedHttpResponse res = transcoder.decorate(upstream, false).aggregate().join();
+
+        assertThat(res.contentType()).isEqualTo(MediaType.JSON);
+        // The items don't have their own kind and apiVersion.
+        final String itemJson = POD_JSON.replace("\"kind\":\"Pod\",\"apiVersion\":\"v1\",", "");
+        assertThat(OBJECT_MAPPER.readTree(res.contentUtf8())).isEqualTo(OBJECT_MAPPER.readTree(
+                "{\"kind\":\"PodList\",\"apiVersion\":\"v1\",\"metadata\":{\"resourceVersion\":\"102\"}," +
+                "\"items\":[" + itemJson + "]}"));
+    }
+
+    @Test
+    void relayJson() {
+        final String status = "{\"kind\":\"Status\",\"code\":410}";
+        final HttpResponse upstream = HttpResponse.of(HttpStatus.GONE, MediaType.JSON, status);
+
+        final AggregatedHttpResponse res = transcoder.decorate(upstream, true).aggregate().join();
+
+        assertThat(res.status()).isEqualTo(HttpStatus.GONE);
+        assertThat(res.contentUtf8()).isEqualTo(status);
+    }
+
+    private static V1.Pod newPod() {
+        final Meta.ObjectMeta metadata = Meta.ObjectMeta.newBuilder()
+                                                        .setName("foo")
+                                                        .setNamespace("default")
+                                                        .setResourceVersion("101")
+                                                        .setCreationTimestamp(Meta.Time.newBuilder()
+                                                                                       .setSeconds(1600000000))
+                                                        .putLabels("app", "foo")
+                                                        .build();
+        final V1.HTTPGetAction httpGet = V1.HTTPGetAction.newBuilder()
+                                                         .setPath("/healthz")
+                                                         .setPort(IntOrString.newBuilder()
+                                                                             .setType(1)
+                                                                             .setStrVal("metrics"))
+                                                         .build();
+        final V1.Container container = V1.Container.newBuilder()
+                                                   .setName("app")
+                                                   .addPorts(V1.ContainerPort.newBuilder()
+                                                                             .setName("metrics")
+                                                                             .setContainerPort(8080))
+                                                   .setReadinessProbe(V1.Probe.newBuilder().setHandler(
+                                                           V1.Handler.newBuilder().setHttpGet(httpGet)))
+                                                   .build();
+        return V1.Pod.newBuilder()
+                     .setMetadata(metadata)
+                     .setSpec(V1.PodSpec.newBuilder().addContainers(container))
+                     .setStatus(V1.PodStatus.newBuilder().setPodIP("10.0.0.1"))
+                     .build();
+    }
+
+    private static ByteString encode(String kind, Message message) {
+        final Unknown unknown = Unknown.newBuilder()
+                                       .setTypeMeta(TypeMeta.newBuilder().setApiVersion("v1").setKind(kind))
+                                       .setRaw(message.toByteString())
+                                       .build();
+        return ByteString.copyFrom(new byte[] { 0x6b, 0x38, 0x73, 0x00 }).concat(unknown.toByteString());
+    }
+
+    private static byte[] frame(byte[] event) {
+        return ByteBuffer.allocate(4 + event.length).putInt(event.length).put(event).array();
+    }
+
+    private static ProtobufTranscoder newTranscoder() {
+        final ProtobufProperties properties = new ProtobufProperties();
+        properties.setEnabled(true);
+        return new ProtobufTranscoder(properties, new SimpleMeterRegistry());
+    }
+}
@@ -0,0 +1,43 @@
+package info.matsumana.psystrike.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.linecorp.armeria.common.AggregatedHttpResponse;
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpHeaders;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.MediaType;
+import com.linecorp.armeria.common.ResponseHeaders;
+
+class ApiServerHttpResponseTest {
+
+    @Test
+    void relayStatusAndHeaders() {
+        final ResponseHeaders headers = ResponseHeaders.builder(HttpStatus.GONE)
+                                                       .contentType(MediaType.JSON)
+                                                       .add("audit-id", "7e5b2a3c")
+                                                       .add("x-unrelated", "foo")
+                                                       .build();
+        final String status = "{\"kind\":\"Status\",\"code\":410,\"reason\":\"Expired\"}";
+        final HttpResponse upstream = HttpResponse.of(headers, HttpData.ofUtf8(status),
+                                                      HttpHeaders.of("grpc-status", "0"));
+        final List<HttpStatus> statuses = new ArrayList<>();
+
+        final AggregatedHttpResponse res =
+                new ApiServerHttpResponse(upstream, statuses::add).aggregate().join();
+
+        assertThat(res.status()).isEqualTo(HttpStatus.GONE);
+        assertThat(res.contentType()).isEqualTo(MediaType.JSON);
+        assertThat(res.headers().get("audit-id")).isEqualTo("7e5b2a3c");
+        assertThat(res.headers().contains("x-unrelated")).isFalse();
+        assertThat(res.contentUtf8()).isEqualTo(status);
+        assertThat(res.trailers().get("grpc-status")).isEqualTo("0");
+        assertThat(statuses).containsExactly(HttpStatus.GONE);
+    }
+}
@@ -0,0 +1,35 @@
+package info.matsumana.psystrike.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+class BatchExpositionTest {
+
+    @Test
+    void writeRelabeled() {
+        final String body = "# HELP foo Foo.\n" +
+                            "# TYPE foo counter\n" +
+                            "foo{code=\"200\"} 1\r\n" +
+                            "foo{} 2\n" +
+                            "\n" +
+                            "bar 3 1600000000000\n" +
+                            "# EOF\n";
+        final BatchExposition exposition = new BatchExposition("psystrike_target", "10.0.0.1:8080");
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exposition.writeRelabeled(body.getBytes(StandardCharsets.UTF_8), out);
+        exposition.writeTargetSeries(true, 0.5, out);
+
+        assertThat(out.toString(StandardCharsets.UTF_8)).isEqualTo(
+                "# HELP foo Foo.\n" +
+                "# TYPE foo counter\n" +
+                "foo{psystrike_target=\"10.0.0.1:8080\",code=\"200\"} 1\n" +
+                "foo{psystrike_target=\"10.0.0.1:8080\"} 2\n" +
+                "bar{psystrike_target=\"10.0.0.1:8080\"} 3 1600000000000\n" +
+                "psystrike_target_up{psystrike_target=\"10.0.0.1:8080\"} 1\n" +
+                "psystrike_target_scrape_duration_seconds{psystrike_target=\"10.0.0.1:8080\"} 0.5\n");
+    }
+}
@@ -0,0 +1,77 @@
+package info.matsumana.psystrike.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import com.linecorp.armeria.client.WebClient;
+import com.linecorp.armeria.common.AggregatedHttpResponse;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.MediaType;
+import com.linecorp.armeria.common.SessionProtocol;
+import com.linecorp.armeria.server.Server;
+
+@SpringBootTest(properties = {
+        "armeria.ports[0].port=0",
+        "armeria.ports[0].protocol=HTTP",
+        "armeria.ssl.enabled=false",
+        "psystrike-batch-scrape.enabled=true",
+        "psystrike-batch-scrape.target-timeout-millis=1000",
+        "psystrike-batch-scrape.request-timeout-millis=3000",
+})
+class BatchScrapeServiceTest {
+
+    private static Server pods;
+
+    @Autowired
+    Server server;
+
+    @BeforeAll
+    static void startPods() {
+        pods = Server.builder()
+                     .http(0)
+                     .service("/metrics", (ctx, req) -> {
+                         return HttpResponse.of(HttpStatus.OK, MediaType.PLAIN_TEXT_UTF_8, "foo 1\n");
+                     })
+                     .service("/failing", (ctx, req) -> HttpResponse.of(HttpStatus.INTERNAL_SERVER_ERROR))
+                     // Never responds
+                     .service("/slow", (ctx, req) -> HttpResponse.streaming())
+                     .build();
+        pods.start().join();
+    }
+
+    @AfterAll
+    static void stopPods() {
+        pods.stop().join();
+    }
+
+    @Test
+    void reportFailingAndSlowPodsAsDown() throws Exception {
+        final WebClient client =
+                WebClient.of("http://127.0.0.1:" + server.activeLocalPort(SessionProtocol.HTTP));
+        final String target = "127.0.0.1:" + pods.activeLocalPort(SessionProtocol.HTTP);
+
+        final long startNanos = System.nanoTime();
+        final AggregatedHttpResponse res =
+                client.get("/batch/pods?target=" + target + "/metrics&target=" + target + "/failing" +
+                           "&target=" + target + "/slow")
+                      .aggregate()
+                      .get(10, TimeUnit.SECONDS);
+
+        // Ended by the slow pod's own timeout, without failing the batch
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)).isLessThan(3000);
+        assertThat(res.status()).isEqualTo(HttpStatus.OK);
+        final String body = res.contentUtf8();
+        final String up = "psystrike_target_up{psystrike_target=\"" + target + "\"} ";
+        assertThat(body).contains("foo{psystrike_target=\"" + target + "\"} 1\n");
+        assertThat(body.lines().filter((up + '1')::equals).count()).isOne();
+        assertThat(body.lines().filter((up + '0')::equals).count()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,40 @@
+package info.matsumana.psystrike.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import info.matsumana.psystrike.client.PodProtocol;
+
+class BatchTargetTest {
+
+    @Test
+    void parse() {
+        assertThat(BatchTarget.parse("10.0.0.1:8080", PodProtocol.HTTP))
+                .isEqualTo(new BatchTarget(PodProtocol.HTTP, "10.0.0.1", 8080, "metrics"));
+        assertThat(BatchTarget.parse("https/10.0.0.1:8443/foo/metrics", PodProtocol.HTTP))
+                .isEqualTo(new BatchTarget(PodProtocol.HTTPS, "10.0.0.1", 8443, "foo/metrics"));
+        assertThat(BatchTarget.parse("[::1]:8080", PodProtocol.H2C).address()).isEqualTo("[::1]:8080");
+        assertThatThrownBy(() -> BatchTarget.parse("10.0.0.1/metrics", PodProtocol.HTTP))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void ofPod() throws Exception {
+        final ObjectMapper mapper = new ObjectMapper();
+        final String annotations = "{\"prometheus.io/scrape\":\"true\",\"prometheus.io/port\":\"9090\"," +
+                                   "\"prometheus.io/scheme\":\"h2c\",\"prometheus.io/path\":\"/stats\"}";
+        final String pod = "{\"metadata\":{\"annotations\":" + annotations + "}," +
+                           "\"status\":{\"phase\":\"Running\",\"podIP\":\"10.0.0.1\"}}";
+        assertThat(BatchTarget.ofPod(mapper.readTree(pod), PodProtocol.HTTP))
+                .isEqualTo(new BatchTarget(PodProtocol.H2C, "10.0.0.1", 9090, "stats"));
+
+        final String pending = pod.replace("Running", "Pending");
+        assertThat(BatchTarget.ofPod(mapper.readTree(pending), PodProtocol.HTTP)).isNull();
+        final String notScraped = pod.replace("\"true\"", "\"false\"");
+        assertThat(BatchTarget.ofPod(mapper.readTree(notScraped), PodProtocol.HTTP)).isNull();
+    }
+}
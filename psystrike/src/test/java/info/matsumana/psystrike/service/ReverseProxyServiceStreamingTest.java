@@ -0,0 +1,116 @@
+package info.matsumana.psystrike.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import com.linecorp.armeria.client.WebClient;
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpObject;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpResponseWriter;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.MediaType;
+import com.linecorp.armeria.common.ResponseHeaders;
+import com.linecorp.armeria.common.SessionProtocol;
+import com.linecorp.armeria.server.Server;
+
+@SpringBootTest(properties = {
+        "armeria.ports[0].port=0",
+        "armeria.ports[0].protocol=HTTP",
+        "armeria.ssl.enabled=false",
+        "psystrike-streaming.enabled=true",
+})
+class ReverseProxyServiceStreamingTest {
+
+    private static final AtomicReference<HttpResponseWriter> podResponse = new AtomicReference<>();
+    private static Server pod;
+
+    @Autowired
+    Server server;
+
+    @BeforeAll
+    static void startPod() {
+        pod = Server.builder()
+                    .http(0)
+                    .service("/metrics", (ctx, req) -> {
+                        final HttpResponseWriter res = HttpResponse.streaming();
+                        res.write(ResponseHeaders.builder(HttpStatus.OK)
+                                                 .contentType(MediaType.PLAIN_TEXT_UTF_8)
+                                                 .add("x-pod-header", "foo")
+                                                 .build());
+                        podResponse.set(res);
+                        return res;
+                    })
+                    .build();
+        pod.start().join();
+    }
+
+    @AfterAll
+    static void stopPod() {
+        pod.stop().join();
+    }
+
+    @Test
+    void relayPodMetricsWithoutAggregating() {
+        final WebClient client =
+                WebClient.of("http://127.0.0.1:" + server.activeLocalPort(SessionProtocol.HTTP));
+        final HttpResponse res = client.get("/pods/127.0.0.1/" + pod.activeLocalPort(SessionProtocol.HTTP) +
+                                            "/metrics");
+
+        final CompletableFuture<ResponseHeaders> headers = new CompletableFuture<>();
+        final CompletableFuture<String> firstChunk = new CompletableFuture<>();
+        final StringBuilder body = new StringBuilder();
+        final CompletableFuture<String> completed = new CompletableFuture<>();
+        res.subscribe(new Subscriber<HttpObject>() {
+            @Override
+            public void onSubscribe(Subscription s) {
+                s.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(HttpObject obj) {
+                if (obj instanceof ResponseHeaders) {
+                    headers.complete((ResponseHeaders) obj);
+                } else if (obj instanceof HttpData) {
+                    final String chunk = ((HttpData) obj).toStringUtf8();
+                    body.append(chunk);
+                    firstChunk.complete(chunk);
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                completed.completeExceptionally(t);
+            }
+
+            @Override
+            public void onComplete() {
+                completed.complete(body.toString());
+            }
+        });
+
+        // The pod's headers and first chunk arrive while the pod's response is still open.
+        while (podResponse.get() == null) {
+            Thread.onSpinWait();
+        }
+        podResponse.get().write(HttpData.ofUtf8("up 1\n"));
+        assertThat(headers.join().status()).isEqualTo(HttpStatus.OK);
+        assertThat(headers.join().get("x-pod-header")).isEqualTo("foo");
+        assertThat(firstChunk.join()).isEqualTo("up 1\n");
+        assertThat(completed).isNotDone();
+
+        podResponse.get().write(HttpData.ofUtf8("foo 2\n"));
+        podResponse.get().close();
+        assertThat(completed.join()).isEqualTo("up 1\nfoo 2\n");
+    }
+}
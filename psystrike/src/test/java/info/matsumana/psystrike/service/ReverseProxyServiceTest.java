@@ -2,29 +2,13 @@ package info.matsumana.psystrike.service;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
-import java.time.Clock;
-import java.time.LocalDateTime;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-
-import org.apache.commons.lang3.tuple.ImmutablePair;
-import org.apache.commons.lang3.tuple.Pair;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 
-import com.linecorp.armeria.client.WebClient;
-
-import info.matsumana.psystrike.config.CleanupTimerProperties;
-import io.micrometer.core.instrument.Gauge;
-import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
-
 @SpringBootTest
 public class ReverseProxyServiceTest {
 
-    @Autowired
-    Clock clock;
-
     @Autowired
     ReverseProxyService reverseProxyService;
 
@@ -45,47 +29,18 @@ public class ReverseProxyServiceTest {
     }
 
     @Test
-    void generateRequestHeaderUserAgent() {
-        final String userAgent = reverseProxyService.generateRequestHeaderUserAgent();
-        assertThat(userAgent).startsWith("psystrike/");
+    void resourceOf() {
+        assertThat(ReverseProxyService.resourceOf("v1/pods")).isEqualTo("pods");
+        assertThat(ReverseProxyService.resourceOf("v1/namespaces/default/endpoints")).isEqualTo("endpoints");
+        assertThat(ReverseProxyService.resourceOf("v1/namespaces/default/pods/foo")).isEqualTo("pods");
+        assertThat(ReverseProxyService.resourceOf("v1/namespaces")).isEqualTo("namespaces");
+        assertThat(ReverseProxyService.resourceOf("v1/foo")).isEqualTo("other");
+        assertThat(ReverseProxyService.resourceOf("foo")).isEqualTo("other");
     }
 
     @Test
-    void setupWebClientsCleanupTimer() throws InterruptedException {
-        final int SLEEP_BUFFER_MILLIS = 1_000;
-
-        final CleanupTimerProperties cleanupTimerProperties = new CleanupTimerProperties();
-        cleanupTimerProperties.setDelaySeconds(1);
-        cleanupTimerProperties.setPeriodSeconds(10);
-        cleanupTimerProperties.setRemoveThresholdSeconds(30);
-        final LocalDateTime now = LocalDateTime.now(clock);
-        final Map<String, Pair<WebClient, LocalDateTime>> webClients = new ConcurrentHashMap<>();
-        webClients.put("host1:8080", ImmutablePair.of(WebClient.of(), now.minusSeconds(10)));
-        webClients.put("host2:8080", ImmutablePair.of(WebClient.of(), now.minusSeconds(20)));
-        webClients.put("host3:8080", ImmutablePair.of(WebClient.of(), now.minusSeconds(30)));
-
-        reverseProxyService.setupWebClientsCleanupTimer(webClients, clock, cleanupTimerProperties);
-        final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
-        reverseProxyService.setupMetrics(meterRegistry, webClients);
-        final Gauge gauge = meterRegistry.find("psystrike.webclients")
-                                         .gauge();
-        assertThat(gauge).isNotNull();
-        assertThat(webClients.size()).isEqualTo(3);
-        assertThat(gauge.value()).isEqualTo(3);
-
-        Thread.sleep(cleanupTimerProperties.getDelaySeconds() * 1_000 + SLEEP_BUFFER_MILLIS);
-        assertThat(webClients.size()).isEqualTo(2);
-        assertThat(gauge.value()).isEqualTo(2);
-        assertThat(webClients.get("host1:8080")).isNotNull();
-        assertThat(webClients.get("host2:8080")).isNotNull();
-
-        Thread.sleep(cleanupTimerProperties.getPeriodSeconds() * 1_000 + SLEEP_BUFFER_MILLIS);
-        assertThat(webClients.size()).isOne();
-        assertThat(gauge.value()).isOne();
-        assertThat(webClients.get("host1:8080")).isNotNull();
-
-        Thread.sleep(cleanupTimerProperties.getPeriodSeconds() * 1_000 + SLEEP_BUFFER_MILLIS);
-        assertThat(webClients.size()).isZero();
-        assertThat(gauge.value()).isZero();
+    void generateRequestHeaderUserAgent() {
+        final String userAgent = reverseProxyService.generateRequestHeaderUserAgent();
+        assertThat(userAgent).startsWith("psystrike/");
     }
 }
@@ -0,0 +1,69 @@
+package info.matsumana.psystrike.startup;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.SessionProtocol;
+import com.linecorp.armeria.server.Server;
+
+import info.matsumana.psystrike.config.StartupProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class StartupReadinessTest {
+
+    private final AtomicInteger warmupRequests = new AtomicInteger();
+    private final List<String> proxiedPaths = new CopyOnWriteArrayList<>();
+    private final Server server = Server.builder()
+                                        .http(0)
+                                        .https(0)
+                                        .tlsSelfSigned()
+                                        .service("/metrics", (ctx, req) -> {
+                                            warmupRequests.incrementAndGet();
+                                            return HttpResponse.of(HttpStatus.OK);
+                                        })
+                                        .serviceUnder("/pods", (ctx, req) -> {
+                                            proxiedPaths.add(ctx.path());
+                                            return HttpResponse.of(HttpStatus.OK);
+                                        })
+                                        .build();
+
+    @AfterEach
+    void tearDown() {
+        server.stop().join();
+    }
+
+    @Test
+    void warmUpEveryListener() {
+        server.start().join();
+        final StartupReadiness readiness = new StartupReadiness(new StartupProperties(),
+                                                                new SimpleMeterRegistry());
+        assertThat(readiness.isHealthy()).isFalse();
+
+        readiness.warmUp(server).join();
+        // One over HTTP and one over HTTPS
+        assertThat(warmupRequests).hasValue(2);
+    }
+
+    @Test
+    void warmUpProxiedPath() {
+        server.start().join();
+        final StartupProperties properties = new StartupProperties();
+        properties.setWarmupProxiedPath("/pods/{protocol}/127.0.0.1/{port}/metrics");
+        final StartupReadiness readiness = new StartupReadiness(properties, new SimpleMeterRegistry());
+
+        readiness.warmUp(server).join();
+        assertThat(warmupRequests).hasValue(2);
+        // Each listener proxies to itself with its own protocol
+        assertThat(proxiedPaths).containsExactlyInAnyOrder(
+                "/pods/http/127.0.0.1/" + server.activeLocalPort(SessionProtocol.HTTP) + "/metrics",
+                "/pods/https/127.0.0.1/" + server.activeLocalPort(SessionProtocol.HTTPS) + "/metrics");
+    }
+}
@@ -0,0 +1,128 @@
+package info.matsumana.psystrike.watch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpResponseWriter;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.MediaType;
+import com.linecorp.armeria.common.ResponseHeaders;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.reactivex.Flowable;
+import io.reactivex.subscribers.TestSubscriber;
+
+public class SharedWatchTest {
+
+    private static final WatchKey KEY = new WatchKey("v1/pods", "watch=true", "");
+
+    private final Timer lagTimer = new SimpleMeterRegistry().timer("psystrike.watch.event.lag");
+
+    @Test
+    void relayEventsToAllSubscribers() {
+        final AtomicInteger closed = new AtomicInteger();
+        final SharedWatch watch = new SharedWatch(KEY, 100, 16, 16,
+                                                  w -> closed.incrementAndGet(), () -> {}, lagTimer);
+        final HttpResponseWriter upstream = HttpResponse.streaming();
+        upstream.write(ResponseHeaders.of(HttpStatus.OK, "content-type", MediaType.JSON.toString()));
+
+        final TestSubscriber<String> subscriber1 = subscribe(watch.attach(100));
+        watch.start(WatchEvents.frame(upstream));
+        upstream.write(HttpData.ofUtf8(event(101)));
+        // An event may span several chunks.
+        upstream.write(HttpData.ofUtf8(event(102).substring(0, 10)));
+        upstream.write(HttpData.ofUtf8(event(102).substring(10)));
+        subscriber1.awaitCount(2);
+
+        // Joins late, but receives the events after its resourceVersion from the replay buffer.
+        final TestSubscriber<String> subscriber2 = subscribe(watch.attach(101));
+        upstream.write(HttpData.ofUtf8(event(103)));
+        subscriber1.awaitCount(3);
+        subscriber2.awaitCount(2);
+
+        subscriber1.assertValues(event(101), event(102), event(103));
+        subscriber2.assertValues(event(102), event(103));
+        assertThat(watch.numSubscribers()).isEqualTo(2);
+        // Every delivered event records its lag.
+        assertThat(lagTimer.count()).isEqualTo(5);
+
+        // Can't serve a subscriber older than the upstream watch.
+        assertThat(watch.attach(99)).isNull();
+
+        upstream.close();
+        subscriber1.awaitTerminalEvent();
+        subscriber2.awaitTerminalEvent();
+        subscriber1.assertComplete();
+        subscriber2.assertComplete();
+        assertThat(closed).hasValue(1);
+        assertThat(watch.isClosed()).isTrue();
+    }
+
+    @Test
+    void evictSlowSubscriber() {
+        final AtomicInteger evicted = new AtomicInteger();
+        final SharedWatch watch = new SharedWatch(KEY, 100, 16, 2, w -> {}, evicted::incrementAndGet,
+                                                  lagTimer);
+        final HttpResponseWriter upstream = HttpResponse.streaming();
+        upstream.write(ResponseHeaders.of(HttpStatus.OK, "content-type", MediaType.JSON.toString()));
+
+        final TestSubscriber<String> fast = subscribe(watch.attach(100));
+        // Requests nothing, so every event stays pending.
+        final TestSubscriber<String> slow = watch.attach(100)
+                                                 .map(SharedWatchTest::utf8)
+                                                 .test(0);
+        watch.start(WatchEvents.frame(upstream));
+        for (int i = 101; i <= 104; i++) {
+            upstream.write(HttpData.ofUtf8(event(i)));
+        }
+
+        fast.awaitCount(4);
+        slow.awaitTerminalEvent();
+        slow.assertError(SlowWatchSubscriberException.class);
+        assertThat(evicted).hasValue(1);
+        assertThat(watch.numSubscribers()).isOne();
+        upstream.close();
+    }
+
+    @Test
+    void rejectSubscriberWithTooManyEventsToReplay() {
+        final SharedWatch watch = new SharedWatch(KEY, 100, 16, 2, w -> {}, () -> {}, lagTimer);
+        final HttpResponseWriter upstream = HttpResponse.streaming();
+        upstream.write(ResponseHeaders.of(HttpStatus.OK, "content-type", MediaType.JSON.toString()));
+
+        final TestSubscriber<String> first = subscribe(watch.attach(100));
+        watch.start(WatchEvents.frame(upstream));
+        for (int i = 101; i <= 104; i++) {
+            upstream.write(HttpData.ofUtf8(event(i)));
+        }
+        first.awaitCount(4);
+
+        // 3 events to replay are more than maxPendingEvents.
+        assertThat(watch.attach(101)).isNull();
+        // 2 events fit.
+        assertThat(watch.attach(102)).isNotNull();
+        assertThat(watch.numSubscribers()).isEqualTo(2);
+        upstream.close();
+    }
+
+    private static TestSubscriber<String> subscribe(Flowable<WatchEvent> events) {
+        return events.map(SharedWatchTest::utf8)
+                     .test();
+    }
+
+    private static String utf8(WatchEvent event) {
+        return new String(event.getBytes(), StandardCharsets.UTF_8);
+    }
+
+    private static String event(long resourceVersion) {
+        return "{\"type\":\"MODIFIED\",\"object\":{\"kind\":\"Pod\",\"metadata\":{\"name\":\"foo\"," +
+               "\"resourceVersion\":\"" + resourceVersion + "\"}}}\n";
+    }
+}
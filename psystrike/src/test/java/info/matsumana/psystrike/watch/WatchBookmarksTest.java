@@ -0,0 +1,100 @@
+package info.matsumana.psystrike.watch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpResponseWriter;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.MediaType;
+import com.linecorp.armeria.common.QueryParams;
+import com.linecorp.armeria.common.ResponseHeaders;
+
+import info.matsumana.psystrike.config.WatchProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class WatchBookmarksTest {
+
+    private static final WatchKey KEY = new WatchKey("v1/pods", "allowWatchBookmarks=true&watch=true", "");
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void upstreamParams() {
+        final WatchBookmarks bookmarks = newBookmarks();
+
+        assertThat(bookmarks.upstreamParams(QueryParams.of("watch", "true")).get("allowWatchBookmarks"))
+                .isEqualTo("true");
+        assertThat(bookmarks.upstreamParams(QueryParams.of("limit", "500")).contains("allowWatchBookmarks"))
+                .isFalse();
+    }
+
+    @Test
+    void dropBookmarksUnlessAsked() throws Exception {
+        final WatchBookmarks bookmarks = newBookmarks();
+        final HttpResponse response = bookmarks.decorate(
+                watch(event("ADDED", 101), event("BOOKMARK", 150), event("MODIFIED", 160)),
+                KEY, QueryParams.of("watch", "true", "resourceVersion", "100"), null);
+
+        assertThat(WatchEvents.unframe(response).aggregate().get(10, TimeUnit.SECONDS).contentUtf8())
+                .isEqualTo(event("ADDED", 101) + event("MODIFIED", 160));
+
+        // No event between 101 and 150
+        assertThat(bookmarks.latest(KEY, 100)).isNull();
+        assertThat(bookmarks.latest(KEY, 150)).isNull();
+        final Bookmark bookmark = bookmarks.latest(KEY, 120);
+        assertThat(bookmark).isNotNull();
+        assertThat(bookmark.getResourceVersion()).isEqualTo(150);
+        assertThat(meterRegistry.get("psystrike.watch.opened.from.bookmark").counter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void sendOpenedBookmarkFirst() throws Exception {
+        final WatchBookmarks bookmarks = newBookmarks();
+        final Bookmark bookmark = new Bookmark(101, 150, event("BOOKMARK", 150).getBytes());
+        final QueryParams params = QueryParams.of("watch", "true", "resourceVersion", "120",
+                                                  "allowWatchBookmarks", "true");
+        final HttpResponse response = bookmarks.decorate(watch(event("BOOKMARK", 200)), KEY, params, bookmark);
+
+        assertThat(WatchEvents.unframe(response).aggregate().get(10, TimeUnit.SECONDS).contentUtf8())
+                .isEqualTo(event("BOOKMARK", 150) + event("BOOKMARK", 200));
+        assertThat(bookmarks.latest(KEY, 160).getResourceVersion()).isEqualTo(200);
+    }
+
+    @Test
+    void doNotRecordWithoutResourceVersion() throws Exception {
+        final WatchBookmarks bookmarks = newBookmarks();
+        final HttpResponse response = bookmarks.decorate(watch(event("ADDED", 101), event("BOOKMARK", 150)),
+                                                         KEY, QueryParams.of("watch", "true"), null);
+        WatchEvents.unframe(response).aggregate().get(10, TimeUnit.SECONDS);
+
+        assertThat(bookmarks.latest(KEY, 120)).isNull();
+    }
+
+    private WatchBookmarks newBookmarks() {
+        final WatchProperties watchProperties = new WatchProperties();
+        watchProperties.setBookmarksEnabled(true);
+        return new WatchBookmarks(watchProperties, meterRegistry);
+    }
+
+    private static HttpResponse watch(String... events) {
+        final HttpResponseWriter watch = HttpResponse.streaming();
+        watch.write(ResponseHeaders.builder(HttpStatus.OK)
+                                   .contentType(MediaType.JSON)
+                                   .build());
+        for (String event : events) {
+            watch.write(HttpData.ofUtf8(event));
+        }
+        watch.close();
+        return WatchEvents.frame(watch);
+    }
+
+    private static String event(String type, long resourceVersion) {
+        return "{\"type\":\"" + type + "\",\"object\":{\"metadata\":{\"resourceVersion\":\"" +
+               resourceVersion + "\"}}}\n";
+    }
+}
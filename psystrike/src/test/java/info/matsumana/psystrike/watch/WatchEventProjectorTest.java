@@ -0,0 +1,95 @@
+package info.matsumana.psystrike.watch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.linecorp.armeria.common.AggregatedHttpResponse;
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.MediaType;
+import com.linecorp.armeria.common.ResponseHeaders;
+
+import info.matsumana.psystrike.config.ProjectionProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class WatchEventProjectorTest {
+
+    private static final String EVENT =
+            "{\"type\":\"ADDED\",\"object\":{\"kind\":\"Pod\",\"metadata\":{\"name\":\"foo\"," +
+            "\"managedFields\":[{\"manager\":\"kubelet\",\"fieldsV1\":{\"f:status\":{}}}]," +
+            "\"labels\":{\"app\":\"foo\"}},\"spec\":{\"containers\":[" +
+            "{\"name\":\"a\",\"env\":[{\"name\":\"X\",\"value\":\"1\"}]," +
+            "\"ports\":[{\"containerPort\":8080}]}," +
+            "{\"name\":\"b\"}]}}}\n";
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void dropFields() {
+        final WatchEventProjector projector =
+                newProjector(List.of("metadata.managedFields", "spec.containers.env"));
+
+        final String projected = new String(projector.project(EVENT.getBytes(StandardCharsets.UTF_8)),
+                                            StandardCharsets.UTF_8);
+
+        assertThat(projected).isEqualTo(
+                "{\"type\":\"ADDED\",\"object\":{\"kind\":\"Pod\",\"metadata\":{\"name\":\"foo\"," +
+                "\"labels\":{\"app\":\"foo\"}},\"spec\":{\"containers\":[" +
+                "{\"name\":\"a\",\"ports\":[{\"containerPort\":8080}]},{\"name\":\"b\"}]}}}\n");
+        assertThat(meterRegistry.get("psystrike.projection.bytes").tag("direction", "in")
+                                .counter().count()).isEqualTo((double) EVENT.length());
+        assertThat(meterRegistry.get("psystrike.projection.bytes").tag("direction", "out")
+                                .counter().count()).isEqualTo((double) projected.length());
+    }
+
+    @Test
+    void relayMalformedEvent() {
+        final WatchEventProjector projector = newProjector(List.of("metadata.managedFields"));
+        final byte[] malformed = "{\"type\":\"ADDED\",\"object\":{\n".getBytes(StandardCharsets.UTF_8);
+
+        assertThat(projector.project(malformed)).isSameAs(malformed);
+    }
+
+    @Test
+    void projectChunks() {
+        final WatchEventProjector projector = newProjector(List.of("metadata.managedFields"));
+        final String event = "{\"type\":\"ADDED\",\"object\":{\"metadata\":{\"name\":\"foo\"," +
+                             "\"managedFields\":[]}}}\n";
+        final HttpResponse upstream = HttpResponse.of(
+                ResponseHeaders.of(HttpStatus.OK, "content-type", MediaType.JSON.toString()),
+                HttpData.ofUtf8(event + event.substring(0, 10)),
+                HttpData.ofUtf8(event.substring(10)));
+
+        final AggregatedHttpResponse res =
+                WatchEvents.unframe(projector.decorate(WatchEvents.frame(upstream))).aggregate().join();
+
+        final String projected = "{\"type\":\"ADDED\",\"object\":{\"metadata\":{\"name\":\"foo\"}}}\n";
+        assertThat(res.contentUtf8()).isEqualTo(projected + projected);
+    }
+
+    @Test
+    void relayErrorResponse() {
+        final WatchEventProjector projector = newProjector(List.of("metadata.managedFields"));
+        final String status = "{\"kind\":\"Status\",\"code\":410}";
+        final HttpResponse upstream = HttpResponse.of(HttpStatus.GONE, MediaType.JSON, status);
+
+        final AggregatedHttpResponse res =
+                WatchEvents.unframe(projector.decorate(WatchEvents.frame(upstream))).aggregate().join();
+
+        assertThat(res.status()).isEqualTo(HttpStatus.GONE);
+        assertThat(res.contentUtf8()).isEqualTo(status);
+    }
+
+    private WatchEventProjector newProjector(List<String> dropFields) {
+        final ProjectionProperties properties = new ProjectionProperties();
+        properties.setEnabled(true);
+        properties.setDropFields(dropFields);
+        return new WatchEventProjector(properties, meterRegistry);
+    }
+}
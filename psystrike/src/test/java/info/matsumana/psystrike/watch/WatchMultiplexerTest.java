@@ -0,0 +1,77 @@
+package info.matsumana.psystrike.watch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.linecorp.armeria.common.AggregatedHttpResponse;
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpMethod;
+import com.linecorp.armeria.common.HttpRequest;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpResponseWriter;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.MediaType;
+import com.linecorp.armeria.common.ResponseHeaders;
+import com.linecorp.armeria.server.ServiceRequestContext;
+
+import info.matsumana.psystrike.config.WatchProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class WatchMultiplexerTest {
+
+    private static final WatchKey KEY = new WatchKey("v1/pods", "watch=true", "");
+    private static final String GONE_STATUS =
+            "{\"kind\":\"Status\",\"apiVersion\":\"v1\",\"metadata\":{},\"status\":\"Failure\"," +
+            "\"message\":\"too old resource version: 100 (200)\",\"reason\":\"Expired\",\"code\":410}";
+
+    private final ServiceRequestContext ctx =
+            ServiceRequestContext.of(HttpRequest.of(HttpMethod.GET, "/api/v1/pods?watch=true"));
+
+    @Test
+    void relayRejectedWatch() throws Exception {
+        final HttpResponse upstream =
+                HttpResponse.of(HttpStatus.GONE, MediaType.JSON, GONE_STATUS);
+
+        final HttpResponse response =
+                newMultiplexer().subscribe(ctx, KEY, 100, 60, resourceVersion -> WatchEvents.frame(upstream));
+
+        final AggregatedHttpResponse aggregated =
+                WatchEvents.unframe(response).aggregate().get(10, TimeUnit.SECONDS);
+        assertThat(aggregated.status()).isEqualTo(HttpStatus.GONE);
+        assertThat(aggregated.contentType()).isEqualTo(MediaType.JSON);
+        assertThat(aggregated.contentUtf8()).isEqualTo(GONE_STATUS);
+    }
+
+    @Test
+    void endWithErrorEventOnUpstreamFailure() throws Exception {
+        final HttpResponseWriter upstream = HttpResponse.streaming();
+        upstream.write(ResponseHeaders.of(HttpStatus.OK, "content-type", MediaType.JSON.toString()));
+
+        final HttpResponse response =
+                newMultiplexer().subscribe(ctx, KEY, 100, 60, resourceVersion -> WatchEvents.frame(upstream));
+        upstream.write(HttpData.ofUtf8(event(101)));
+        upstream.close(new IllegalStateException("disconnected"));
+
+        // Already told 200 OK, so the subscriber gets an ERROR event and a clean end.
+        final AggregatedHttpResponse aggregated =
+                WatchEvents.unframe(response).aggregate().get(10, TimeUnit.SECONDS);
+        assertThat(aggregated.status()).isEqualTo(HttpStatus.OK);
+        assertThat(aggregated.contentType()).isEqualTo(MediaType.JSON);
+        assertThat(aggregated.contentUtf8()).startsWith(event(101) + "{\"type\":\"ERROR\"")
+                                            .contains("\"code\":500");
+    }
+
+    private static WatchMultiplexer newMultiplexer() {
+        final WatchProperties watchProperties = new WatchProperties();
+        watchProperties.setMultiplexEnabled(true);
+        return new WatchMultiplexer(watchProperties, new SimpleMeterRegistry());
+    }
+
+    private static String event(long resourceVersion) {
+        return "{\"type\":\"MODIFIED\",\"object\":{\"kind\":\"Pod\",\"metadata\":{\"name\":\"foo\"," +
+               "\"resourceVersion\":\"" + resourceVersion + "\"}}}\n";
+    }
+}
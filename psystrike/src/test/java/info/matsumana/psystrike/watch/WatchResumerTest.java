@@ -0,0 +1,145 @@
+package info.matsumana.psystrike.watch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.linecorp.armeria.common.AggregatedHttpResponse;
+import com.linecorp.armeria.common.ClosedSessionException;
+import com.linecorp.armeria.common.HttpData;
+import com.linecorp.armeria.common.HttpMethod;
+import com.linecorp.armeria.common.HttpObject;
+import com.linecorp.armeria.common.HttpRequest;
+import com.linecorp.armeria.common.HttpResponse;
+import com.linecorp.armeria.common.HttpResponseWriter;
+import com.linecorp.armeria.common.HttpStatus;
+import com.linecorp.armeria.common.MediaType;
+import com.linecorp.armeria.common.ResponseHeaders;
+import com.linecorp.armeria.server.ServiceRequestContext;
+
+import info.matsumana.psystrike.config.WatchProperties;
+import info.matsumana.psystrike.watch.WatchResumer.UpstreamFactory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.reactivex.Flowable;
+
+class WatchResumerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ServiceRequestContext ctx =
+            ServiceRequestContext.of(HttpRequest.of(HttpMethod.GET, "/api/v1/pods?watch=true"));
+
+    @Test
+    void resumeFromLastResourceVersion() throws Exception {
+        final List<Long> resourceVersions = new ArrayList<>();
+        // Disconnected in the middle of an event
+        final HttpResponse first =
+                disconnectedWatch(event("ADDED", 101), event("MODIFIED", 102).substring(0, 10));
+
+        final HttpResponse response = resume(first, (resourceVersion, timeout) -> {
+            resourceVersions.add(resourceVersion);
+            final HttpResponseWriter reopened = newWatch();
+            reopened.write(HttpData.ofUtf8(event("MODIFIED", 102)));
+            reopened.write(HttpData.ofUtf8(event("ERROR", 0)));
+            reopened.close();
+            return reopened;
+        });
+
+        final AggregatedHttpResponse aggregated = response.aggregate().get(10, TimeUnit.SECONDS);
+        assertThat(aggregated.status()).isEqualTo(HttpStatus.OK);
+        assertThat(aggregated.contentUtf8()).isEqualTo(event("ADDED", 101) + event("MODIFIED", 102) +
+                                                       event("ERROR", 0));
+        assertThat(resourceVersions).containsExactly(101L);
+        assertThat(count("resumed")).isEqualTo(1.0);
+    }
+
+    @Test
+    void endWithErrorEventOnGone() throws Exception {
+        final HttpResponseWriter first = newWatch();
+        first.write(HttpData.ofUtf8(event("ADDED", 101)));
+        first.close();
+
+        final HttpResponse response =
+                resume(first, (resourceVersion, timeout) -> HttpResponse.of(HttpStatus.GONE));
+
+        final AggregatedHttpResponse aggregated = response.aggregate().get(10, TimeUnit.SECONDS);
+        assertThat(aggregated.status()).isEqualTo(HttpStatus.OK);
+        assertThat(aggregated.contentUtf8()).startsWith(event("ADDED", 101) + "{\"type\":\"ERROR\"")
+                                            .contains("\"code\":410");
+        assertThat(count("gone")).isEqualTo(1.0);
+    }
+
+    @Test
+    void failAfterMaxResumes() {
+        final HttpResponse response = resume(disconnectedWatch(),
+                                             (resourceVersion, timeout) -> disconnectedWatch());
+
+        assertThatThrownBy(() -> response.aggregate().get(10, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class);
+        assertThat(count("resumed")).isEqualTo(2.0);
+        assertThat(count("failed")).isEqualTo(1.0);
+    }
+
+    @Test
+    void relayErrorStatusAsItIs() throws Exception {
+        final HttpResponse response = resume(
+                HttpResponse.of(HttpStatus.GONE), (resourceVersion, timeout) -> {
+                    throw new AssertionError();
+                });
+
+        assertThat(response.aggregate().get(10, TimeUnit.SECONDS).status()).isEqualTo(HttpStatus.GONE);
+    }
+
+    /**
+     * Frames the upstream watches and unframes the downstream response as {@code ReverseProxyService} does.
+     */
+    private HttpResponse resume(HttpResponse first, UpstreamFactory upstreamFactory) {
+        final UpstreamFactory framedFactory =
+                (resourceVersion, timeout) -> WatchEvents.frame(upstreamFactory.open(resourceVersion, timeout));
+        final HttpResponse response = newResumer().decorate(ctx, WatchEvents.frame(first), 100, 60,
+                                                            framedFactory);
+        return WatchEvents.unframe(response);
+    }
+
+    private WatchResumer newResumer() {
+        final WatchProperties watchProperties = new WatchProperties();
+        watchProperties.setResumeEnabled(true);
+        watchProperties.setMaxResumes(2);
+        watchProperties.setResumeBackoffMillis(0);
+        return new WatchResumer(watchProperties, meterRegistry);
+    }
+
+    private double count(String result) {
+        return meterRegistry.get("psystrike.watch.resumptions").tag("result", result).counter().count();
+    }
+
+    private static HttpResponseWriter newWatch() {
+        final HttpResponseWriter watch = HttpResponse.streaming();
+        watch.write(ResponseHeaders.builder(HttpStatus.OK)
+                                   .contentType(MediaType.JSON)
+                                   .build());
+        return watch;
+    }
+
+    private static HttpResponse disconnectedWatch(String... events) {
+        final List<HttpObject> objects = new ArrayList<>();
+        objects.add(ResponseHeaders.builder(HttpStatus.OK)
+                                   .contentType(MediaType.JSON)
+                                   .build());
+        for (String event : events) {
+            objects.add(HttpData.ofUtf8(event));
+        }
+        return HttpResponse.of(Flowable.fromIterable(objects)
+                                       .concatWith(Flowable.error(ClosedSessionException.get())));
+    }
+
+    private static String event(String type, long resourceVersion) {
+        return "{\"type\":\"" + type + "\",\"object\":{\"metadata\":{\"resourceVersion\":\"" +
+               resourceVersion + "\"}}}\n";
+    }
+}